@@ -0,0 +1,158 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+
+/**
+ * Rule set and instances shared by the benchmarks. The instances have numeric
+ * attributes uniformly distributed in [0, 1), and a class which depends on the
+ * first two attributes, with 10% noise. The rules have two random literals,
+ * and statistics gathered on random instances.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+@State(Scope.Benchmark)
+public class BenchmarkState {
+
+    /**
+     * Number of instances generated, the benchmarks cycle through them
+     */
+    static final int NUM_INSTANCES = 1024;
+
+    /**
+     * Number of instances the statistics of every rule are gathered on
+     */
+    private static final int RULE_WEIGHT = 200;
+
+    @Param({"10", "100"})
+    public int numRules;
+
+    @Param({"10", "50"})
+    public int numAttributes;
+
+    @Param({"2", "10"})
+    public int numClasses;
+
+    @Param({"true", "false"})
+    public boolean naiveBayes;
+
+    Vfdr m_vfdr;
+
+    Instances m_header;
+
+    Instance[] m_instances;
+
+    List<VfdrRule> m_ruleSet;
+
+    VfdrRule m_defaultRule;
+
+    CoverageIndex m_coverageIndex;
+
+    CompiledRuleSet m_compiled;
+
+    /**
+     * Statistics of a rule gathered on all the instances
+     */
+    SufficientStats m_stats;
+
+    /**
+     * Observer of the first attribute, gathered on all the instances
+     */
+    GaussianAttributeStats m_gaussianStats;
+
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < numAttributes; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        List<String> classes = new ArrayList<>();
+        for (int c = 0; c < numClasses; c++) {
+            classes.add("c" + c);
+        }
+        attributes.add(new Attribute("class", classes));
+        m_header = new Instances("benchmark", attributes, NUM_INSTANCES);
+        m_header.setClassIndex(numAttributes);
+
+        m_instances = new Instance[NUM_INSTANCES];
+        for (int n = 0; n < NUM_INSTANCES; n++) {
+            double[] values = new double[numAttributes + 1];
+            for (int i = 0; i < numAttributes; i++) {
+                values[i] = random.nextDouble();
+            }
+            int c = Math.min(numClasses - 1, (int) (numClasses * (values[0] + values[1]) / 2));
+            values[numAttributes] = random.nextDouble() < .1 ? random.nextInt(numClasses) : c;
+            m_instances[n] = new DenseInstance(1, values);
+            m_instances[n].setDataset(m_header);
+            m_header.add(m_instances[n]);
+        }
+
+        m_vfdr = new Vfdr();
+        m_vfdr.setPredictionStrategy(naiveBayes ? Vfdr.USE_NB : Vfdr.USE_MAJ_CLASS);
+        m_vfdr.buildClassifier(m_header);
+
+        m_ruleSet = new ArrayList<>();
+        for (int r = 0; r < numRules; r++) {
+            // expanding an empty rule creates a new one, like the default rule
+            VfdrRule rule = new VfdrRule(m_vfdr).applyExpansion(randomAntd(random));
+            rule.applyExpansion(randomAntd(random));
+            for (int n = 0; n < RULE_WEIGHT; n++) {
+                rule.getStats().update(m_instances[random.nextInt(NUM_INSTANCES)]);
+            }
+            m_ruleSet.add(rule);
+        }
+
+        m_defaultRule = new VfdrRule(m_vfdr);
+        m_stats = newStats();
+        m_gaussianStats = new GaussianAttributeStats(0, m_vfdr);
+        for (Instance x : m_instances) {
+            m_defaultRule.getStats().update(x);
+            m_stats.update(x);
+            m_gaussianStats.update(x.value(0), (int) x.classValue(), x.weight());
+        }
+
+        m_coverageIndex = new CoverageIndex(m_ruleSet, m_header);
+        m_compiled = new CompiledRuleSet(m_ruleSet);
+    }
+
+
+    /**
+     * Builds a literal on a random attribute, with a random split point
+     *
+     * @param random The random number generator
+     * @return A new literal
+     */
+    NumericAntd randomAntd(Random random) {
+        NumericAntd antd = m_vfdr.buildNumericAntd(random.nextInt(numAttributes));
+        antd.setConditionHigher(random.nextBoolean());
+        antd.setSplitPoint(random.nextDouble());
+        return antd;
+    }
+
+
+    /**
+     * Builds empty statistics of the type selected by the parameters
+     *
+     * @return New statistics
+     */
+    SufficientStats newStats() {
+        return naiveBayes ? new SufficientStats.NaiveBayes(m_vfdr) : new SufficientStats.MajorityClass(m_vfdr);
+    }
+}
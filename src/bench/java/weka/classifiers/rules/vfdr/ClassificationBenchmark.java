@@ -0,0 +1,87 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instance;
+
+
+/**
+ * Benchmarks of the classification strategies, for ordered (first hit) and
+ * unordered (weighted max) rule sets, finding the covering rules with the
+ * coverage index or with the compiled rule set. The batch benchmarks score all
+ * the instances at once, column-wise, and report the time per instance, so
+ * they compare directly with the other benchmarks.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassificationBenchmark {
+
+    private final ClassificationStrategy m_firstHit = new ClassificationStrategy.FirstHit();
+
+    private final ClassificationStrategy m_weightedMax = new ClassificationStrategy.WeightedMax();
+
+    private int m_next = 0;
+
+
+    private Instance next(BenchmarkState state) {
+        return state.m_instances[m_next++ & (BenchmarkState.NUM_INSTANCES - 1)];
+    }
+
+
+    @Benchmark
+    public double[] firstHitIndex(BenchmarkState state) throws Exception {
+        return m_firstHit.distributionForInstance(state.m_coverageIndex, state.m_defaultRule, next(state));
+    }
+
+
+    @Benchmark
+    public double[] firstHitCompiled(BenchmarkState state) throws Exception {
+        return m_firstHit.distributionForInstance(state.m_compiled, state.m_defaultRule, next(state));
+    }
+
+
+    @Benchmark
+    public double[] weightedMaxIndex(BenchmarkState state) throws Exception {
+        return m_weightedMax.distributionForInstance(state.m_coverageIndex, state.m_defaultRule, next(state));
+    }
+
+
+    @Benchmark
+    public double[] weightedMaxCompiled(BenchmarkState state) throws Exception {
+        return m_weightedMax.distributionForInstance(state.m_compiled, state.m_defaultRule, next(state));
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkState.NUM_INSTANCES)
+    public double[][] firstHitBatch(BenchmarkState state) throws Exception {
+        return m_firstHit.distributionsForInstances(state.m_compiled, state.m_defaultRule, state.m_header, 0,
+            BenchmarkState.NUM_INSTANCES);
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkState.NUM_INSTANCES)
+    public double[][] weightedMaxBatch(BenchmarkState state) throws Exception {
+        return m_weightedMax.distributionsForInstances(state.m_compiled, state.m_defaultRule, state.m_header, 0,
+            BenchmarkState.NUM_INSTANCES);
+    }
+}
@@ -0,0 +1,76 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import weka.core.Instance;
+
+
+/**
+ * Benchmarks of the rules: testing whether every rule of the set covers an
+ * instance, and expanding a rule whose statistics are gathered on all the
+ * instances.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleBenchmark {
+
+    private final ExpansionMetric m_metric = new ExpansionMetric.Entropy();
+
+    private int m_next = 0;
+
+
+    @Benchmark
+    public void covers(BenchmarkState state, Blackhole blackhole) {
+        Instance x = state.m_instances[m_next++ & (BenchmarkState.NUM_INSTANCES - 1)];
+        for (VfdrRule rule : state.m_ruleSet) {
+            blackhole.consume(rule.covers(x));
+        }
+    }
+
+
+    @Benchmark
+    public VfdrRule expand(ExpansionState expansion) {
+        return expansion.m_rule.expand(m_metric);
+    }
+
+
+    /**
+     * Rule to expand, rebuilt before every call since an expansion resets the
+     * statistics of the rule
+     */
+    @State(Scope.Thread)
+    public static class ExpansionState {
+
+        private final Random m_random = new Random(42);
+
+        VfdrRule m_rule;
+
+
+        @Setup(Level.Invocation)
+        public void setup(BenchmarkState state) {
+            m_rule = new VfdrRule(state.m_vfdr).applyExpansion(state.randomAntd(m_random));
+            m_rule.getStats().merge(state.m_stats);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+
+/**
+ * Benchmark of the sufficient statistics on high-dimensional instances with
+ * few non-zero values, like bag-of-words features. The same instances are
+ * used in sparse and in dense form, the sparse updates only visit the
+ * non-zero values.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseStatisticsBenchmark {
+
+    /**
+     * Number of instances generated, the benchmark cycles through them
+     */
+    private static final int NUM_INSTANCES = 1024;
+
+    /**
+     * Number of non-zero values of every instance
+     */
+    private static final int NON_ZEROS = 20;
+
+    @Param({"1000", "10000"})
+    public int numAttributes;
+
+    @Param({"true", "false"})
+    public boolean sparse;
+
+    @Param({"true", "false"})
+    public boolean naiveBayes;
+
+    private Instance[] m_instances;
+
+    private Vfdr m_vfdr;
+
+    private SufficientStats m_stats;
+
+    private int m_next;
+
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < numAttributes; i++) {
+            attributes.add(new Attribute("w" + i));
+        }
+        attributes.add(new Attribute("class", Arrays.asList("ham", "spam")));
+        Instances header = new Instances("benchmark", attributes, 0);
+        header.setClassIndex(numAttributes);
+
+        m_instances = new Instance[NUM_INSTANCES];
+        for (int n = 0; n < NUM_INSTANCES; n++) {
+            double[] values = new double[numAttributes + 1];
+            int c = random.nextInt(2);
+            for (int k = 0; k < NON_ZEROS; k++) {
+                // the first words are more frequent in the second class
+                int word = c == 1 && random.nextBoolean() ? random.nextInt(NON_ZEROS) : random.nextInt(numAttributes);
+                values[word] = 1 + random.nextInt(5);
+            }
+            values[numAttributes] = c;
+            m_instances[n] = sparse ? new SparseInstance(1, values) : new DenseInstance(1, values);
+            m_instances[n].setDataset(header);
+        }
+
+        m_vfdr = new Vfdr();
+        m_vfdr.setPredictionStrategy(naiveBayes ? Vfdr.USE_NB : Vfdr.USE_MAJ_CLASS);
+        m_vfdr.buildClassifier(header);
+    }
+
+
+    /**
+     * Starts every iteration with empty statistics, so that they do not grow
+     * over the whole run
+     */
+    @Setup(Level.Iteration)
+    public void resetStats() {
+        m_stats = naiveBayes ? new SufficientStats.NaiveBayes(m_vfdr) : new SufficientStats.MajorityClass(m_vfdr);
+    }
+
+
+    @Benchmark
+    public SufficientStats update() {
+        m_stats.update(m_instances[m_next++ & (NUM_INSTANCES - 1)]);
+        return m_stats;
+    }
+}
@@ -0,0 +1,96 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.core.Instance;
+
+
+/**
+ * Benchmarks of the sufficient statistics: updating them with an instance,
+ * finding the best split point of a numeric attribute, and evaluating the
+ * class distributions after candidate expansions.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+    private final ExpansionMetric m_metric = new ExpansionMetric.Entropy();
+
+    private SufficientStats m_stats;
+
+    private int m_next = 0;
+
+    /**
+     * Class distribution of all the instances
+     */
+    private double[] m_preDist;
+
+    /**
+     * Class distributions on both sides of a split of the first attribute
+     */
+    private List<double[]> m_postDists;
+
+
+    @Setup
+    public void setup(BenchmarkState state) {
+        m_preDist = state.m_stats.classDistribution();
+        double[] left = new double[state.numClasses];
+        double[] right = new double[state.numClasses];
+        for (Instance x : state.m_instances) {
+            (x.value(0) <= .5 ? left : right)[(int) x.classValue()]++;
+        }
+        m_postDists = new ArrayList<>();
+        m_postDists.add(left);
+        m_postDists.add(right);
+    }
+
+
+    /**
+     * Starts every iteration with empty statistics, so that they do not grow
+     * over the whole run
+     */
+    @Setup(Level.Iteration)
+    public void resetStats(BenchmarkState state) {
+        m_stats = state.newStats();
+    }
+
+
+    @Benchmark
+    public SufficientStats update(BenchmarkState state) {
+        m_stats.update(state.m_instances[m_next++ & (BenchmarkState.NUM_INSTANCES - 1)]);
+        return m_stats;
+    }
+
+
+    @Benchmark
+    public CandidateAntd gaussianBestCandidate(BenchmarkState state) {
+        return state.m_gaussianStats.bestCandidate(m_metric, m_preDist);
+    }
+
+
+    @Benchmark
+    public double[] entropyEvaluateExpansions() {
+        return m_metric.evaluateExpansions(m_preDist, m_postDists);
+    }
+}
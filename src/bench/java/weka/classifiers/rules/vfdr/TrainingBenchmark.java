@@ -0,0 +1,93 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.HyperplaneGenerator;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.classifiers.rules.vfdr.generators.RuleBasedGenerator;
+import weka.classifiers.rules.vfdr.generators.SEAGenerator;
+import weka.classifiers.rules.vfdr.generators.StreamGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+
+
+/**
+ * Benchmark of the training of the classifier on synthetic streams, one
+ * instance at a time. The instances are generated before the measurement, and
+ * the classifier is rebuilt at the start of every iteration.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingBenchmark {
+
+    /**
+     * Number of instances generated, the benchmark cycles through them
+     */
+    private static final int NUM_INSTANCES = 1 << 18;
+
+    @Param({"hyperplane", "rbf", "sea", "rules"})
+    public String stream;
+
+    @Param({"true", "false"})
+    public boolean naiveBayes;
+
+    private Instance[] m_instances;
+
+    private Instances m_header;
+
+    private Vfdr m_vfdr;
+
+    private int m_next;
+
+
+    @Setup
+    public void generate() throws Exception {
+        StreamGenerator generator = stream.equals("hyperplane") ? new HyperplaneGenerator()
+                                    : stream.equals("rbf") ? new RandomRBFGenerator()
+                                    : stream.equals("sea") ? new SEAGenerator() : new RuleBasedGenerator();
+        generator.setNumInstances(NUM_INSTANCES);
+
+        m_header = generator.getStructure();
+        m_instances = new Instance[NUM_INSTANCES];
+        for (int n = 0; n < NUM_INSTANCES; n++) {
+            m_instances[n] = generator.getNextInstance(m_header);
+        }
+    }
+
+
+    @Setup(Level.Iteration)
+    public void buildClassifier() throws Exception {
+        m_vfdr = new Vfdr();
+        m_vfdr.setPredictionStrategy(naiveBayes ? Vfdr.USE_NB : Vfdr.USE_MAJ_CLASS);
+        m_vfdr.buildClassifier(new Instances(m_header, 0));
+        m_next = 0;
+    }
+
+
+    @Benchmark
+    public Vfdr updateClassifier() throws Exception {
+        m_vfdr.updateClassifier(m_instances[m_next++ & (NUM_INSTANCES - 1)]);
+        return m_vfdr;
+    }
+}
@@ -1,22 +1,60 @@
 package weka.classifiers.rules;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import weka.classifiers.RandomizableClassifier;
 import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.rules.vfdr.Antd;
 import weka.classifiers.rules.vfdr.ClassificationStrategy;
+import weka.classifiers.rules.vfdr.CompiledRuleSet;
+import weka.classifiers.rules.vfdr.CoverageIndex;
 import weka.classifiers.rules.vfdr.ExpansionMetric;
+import weka.classifiers.rules.vfdr.MappedInstances;
+import weka.classifiers.rules.vfdr.ModelFormat;
 import weka.classifiers.rules.vfdr.NominalAntd;
 import weka.classifiers.rules.vfdr.NumericAntd;
+import weka.classifiers.rules.vfdr.PageHinkley;
+import weka.classifiers.rules.vfdr.PredictionSnapshot;
 import weka.classifiers.rules.vfdr.SufficientStats;
+import weka.classifiers.rules.vfdr.TrainingListener;
+import weka.classifiers.rules.vfdr.VfdrMetrics;
 import weka.classifiers.rules.vfdr.VfdrRule;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
@@ -31,6 +69,7 @@ import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
+import weka.core.converters.Loader;
 
 
 /**
@@ -50,13 +89,40 @@ import weka.core.Utils;
  * @version VFDR-Base
  */
 public class Vfdr extends RandomizableClassifier
-    implements UpdateableClassifier, Serializable, OptionHandler, RevisionHandler, TechnicalInformationHandler {
+    implements UpdateableClassifier, BatchPredictor, Serializable, OptionHandler, RevisionHandler,
+    TechnicalInformationHandler {
 
     /* These are for option parsing */
     public static final int USE_MAJ_CLASS = 0;
 
     /* PARAMETERS */
     public static final int USE_NB = 1;
+    public static final int GAUSSIAN_OBSERVER = 0;
+    public static final int EBST_OBSERVER = 1;
+    public static final int HISTOGRAM_OBSERVER = 2;
+    /**
+     * Minimal number of instances scored by a single task during batch
+     * prediction
+     */
+    private static final int MIN_BATCH_PARTITION = 256;
+    /**
+     * Number of instances learnt between two checks of the memory budget
+     */
+    private static final int MEMORY_CHECK_PERIOD = 1000;
+    /**
+     * Number of seconds after which an idle worker thread stops
+     */
+    private static final int IDLE_WORKER_SECONDS = 30;
+    /**
+     * Largest total variation distance between the class distributions of a
+     * rule and of a more general rule for the former to be dropped by
+     * compaction
+     */
+    private static final double MAX_DISTRIBUTION_DISTANCE = .1;
+    /**
+     * Position returned for a rule which is no longer in the rule set
+     */
+    private static final int REMOVED_RULE = -2;
     /**
      * For serialisation
      */
@@ -85,12 +151,82 @@ public class Vfdr extends RandomizableClassifier
      * The minimum weight a rule requires to make predictions using NB
      */
     private double m_nbWeightThreshold = 10;
+    /**
+     * Whether predictions are made using a compiled rule set
+     */
+    private boolean m_compiledScoring = false;
+    /**
+     * Number of threads used for batch prediction (0 = number of cores)
+     */
+    private int m_numExecutionSlots = 1;
+    /**
+     * Number of threads evaluating expansions in the background (0 =
+     * expansions are evaluated synchronously)
+     */
+    private int m_numExpansionThreads = 0;
+    /**
+     * Number of split points evaluated on numeric attributes
+     */
+    private int m_numSplitCandidates = 10;
+    /**
+     * Structure used to find split points on numeric attributes
+     */
+    private int m_numericObserver = GAUSSIAN_OBSERVER;
+    /**
+     * Maximum number of nodes or bins of the numeric observers
+     */
+    private int m_maxObserverSize = 256;
+    /**
+     * Number of threads updating the statistics during training
+     */
+    private int m_numTrainingShards = 1;
+    /**
+     * Number of updates between two snapshots used for predictions, or 0 to
+     * make predictions with the live rule set
+     */
+    private int m_snapshotInterval = 0;
+    /**
+     * Size of the buffer used to shuffle the instances of a loader, or 0 to
+     * learn them in the order of the loader
+     */
+    private int m_shuffleBufferSize = 10000;
+    /**
+     * Whether metrics of the training and of the predictions are collected
+     */
+    private boolean m_collectMetrics = false;
+    /**
+     * Memory budget of the statistics of the rules in megabytes, or 0 for no
+     * budget
+     */
+    private double m_memoryBudget = 0;
+    /**
+     * Maximum number of rules, the default rule excepted, or 0 for no limit
+     */
+    private int m_maxRules = 0;
+    /**
+     * Number of instances between two compactions of the rule set, or 0 to
+     * never compact it
+     */
+    private int m_compactionInterval = 0;
+    /**
+     * Threshold of the drift detectors of the rules, or 0 to not detect drift
+     */
+    private double m_driftThreshold = 0;
     
     /* FIELDS */
     /**
      * Set of rules
      */
     private List<VfdrRule> m_ruleSet;
+    /**
+     * Index used to find the rules covering an instance
+     */
+    private CoverageIndex m_coverageIndex;
+    /**
+     * Compiled rule set used for scoring, or null if it must be compiled again.
+     * Not serialised, compiled again when needed.
+     */
+    private transient CompiledRuleSet m_compiledRuleSet;
     /**
      * Default rule
      */
@@ -111,13 +247,83 @@ public class Vfdr extends RandomizableClassifier
      * Has this classifier been initialised?
      */
     private boolean m_initialised = false;
+    /**
+     * Executor evaluating expansions in the background
+     */
+    private transient ExecutorService m_expansionExecutor;
+    /**
+     * Expansions being evaluated in the background, for each rule
+     */
+    private transient Map<VfdrRule, PendingExpansion> m_pendingExpansions;
+    /**
+     * Number of background evaluations which completed and have not been
+     * applied yet
+     */
+    private transient AtomicInteger m_completedExpansions;
+    /**
+     * Executor running the training shards
+     */
+    private transient ExecutorService m_trainingExecutor;
+    /**
+     * Pool scoring the partitions of large batches, created on first use. Its
+     * idle threads stop by themselves.
+     */
+    private transient ForkJoinPool m_scoringPool;
+    /**
+     * Lock on the structure of the rule set. Updates of the statistics hold it
+     * shared, expansions hold it exclusively.
+     */
+    private final ReentrantReadWriteLock m_structureLock = new ReentrantReadWriteLock();
+    /**
+     * Last snapshot of the rule set published for predictions, or null. Not
+     * serialised, published again when needed.
+     */
+    private transient volatile PredictionSnapshot m_snapshot;
+    /**
+     * Number of updates since the last snapshot
+     */
+    private final AtomicInteger m_updatesSinceSnapshot = new AtomicInteger();
+    /**
+     * Number of instances learnt since the classifier was built
+     */
+    private AtomicLong m_instancesLearnt = new AtomicLong();
+    /**
+     * Listeners notified of the training, or null if there are none
+     */
+    private transient volatile TrainingListener[] m_trainingListeners;
+    /**
+     * Encoded copies of the rules of the model being saved by
+     * {@link #saveModel(OutputStream, Runnable)}, indexed on the position of
+     * the rule, the default rule last. A rule is encoded before it is updated
+     * further. Null if no model is being saved.
+     */
+    private transient volatile byte[][] m_savedRules;
+    /**
+     * Metrics of the classifier, or null if they are not collected
+     */
+    private transient volatile VfdrMetrics m_metrics;
 
 
     /**
      * Resets this classifier to default parameters.
      */
     public void reset() {
+        if (m_expansionExecutor != null) {
+            m_expansionExecutor.shutdownNow();
+            m_expansionExecutor = null;
+        }
+        m_pendingExpansions = null;
+        m_completedExpansions = null;
+        if (m_trainingExecutor != null) {
+            m_trainingExecutor.shutdownNow();
+            m_trainingExecutor = null;
+        }
         m_ruleSet = null;
+        m_coverageIndex = null;
+        m_compiledRuleSet = null;
+        m_snapshot = null;
+        m_updatesSinceSnapshot.set(0);
+        m_instancesLearnt.set(0);
         m_defaultRule = null;
         m_classificationStrategy = null;
         m_expMetric = new ExpansionMetric.Entropy();
@@ -136,8 +342,9 @@ public class Vfdr extends RandomizableClassifier
     public String globalInfo() {
         return "VFDR (Very Fast Decision Rules) is an incremental rule-learning "
                + "classifier able to learn on very large datasets, needing only "
-               + "one pass on the input data. It does not, however, support "
-               + "distributions that change over time (concept drift). It is quite "
+               + "one pass on the input data. Optionally, rules whose error rate "
+               + "increases are discarded, so that the rule set follows distributions "
+               + "that change over time (concept drift). It is quite "
                + "similar to VFDT (Hoeffding trees), in that it uses the Hoeffding "
                + "bound to estimate the number of observations needed to "
                + "take a near-optimal decision when expanding a rule. This allows for a"
@@ -197,8 +404,44 @@ public class Vfdr extends RandomizableClassifier
     /* METHODS FOR THE CLASSIFIER */
 
 
+    /**
+     * Returns the class distribution of an instance. If snapshots are enabled,
+     * the instance is scored without locks against the last snapshot
+     * published, so it may be called while the classifier is updated.
+     *
+     * @param inst The instance to classify
+     * @return The class distribution of the instance
+     * @throws Exception Case the instance could not be classified
+     */
     @Override
     public double[] distributionForInstance(Instance inst) throws Exception {
+        VfdrMetrics metrics = m_metrics;
+        if (metrics == null) {
+            return predict(inst);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return predict(inst);
+        } finally {
+            metrics.predicted(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Returns the class distribution of an instance
+     *
+     * @param inst The instance to classify
+     * @return The class distribution of the instance
+     * @throws Exception Case the instance could not be classified
+     */
+    private double[] predict(Instance inst) throws Exception {
+        PredictionSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            return snapshot.distributionForInstance(m_classificationStrategy, inst);
+        }
+
         if (m_initialised) {
             if (m_ruleSet.isEmpty() && m_defaultRule.getStats().totalWeight() < 1) {
                 // All classes have equal probability
@@ -206,8 +449,10 @@ public class Vfdr extends RandomizableClassifier
                 Arrays.fill(res, 1);
                 Utils.normalize(res);
                 return res;
+            } else if (m_compiledScoring) {
+                return m_classificationStrategy.distributionForInstance(compiledRuleSet(), m_defaultRule, inst);
             } else {
-                return m_classificationStrategy.distributionForInstance(m_ruleSet, m_defaultRule, inst);
+                return m_classificationStrategy.distributionForInstance(m_coverageIndex, m_defaultRule, inst);
             }
         } else {
             throw new Exception("You must build this classifier before trying to classify an instance");
@@ -216,222 +461,1770 @@ public class Vfdr extends RandomizableClassifier
 
 
     @Override
-    public void buildClassifier(Instances instances) throws Exception {
-        reset();
-        getCapabilities().testWithFail(instances);
-
-        instances = new Instances(instances); // copy
-        instances.deleteWithMissingClass();
-
-        instances.randomize(new Random(m_Seed)); // examples must be randomized
-
-        setHeader(new Instances(instances, 0));
-        m_ruleSet = new ArrayList<>();
-        m_defaultRule = new VfdrRule(this);
-        m_classificationStrategy = m_orderedSet ? new ClassificationStrategy.FirstHit()
-                                                : new ClassificationStrategy.WeightedMax();
-
-        m_initialised = true;
-
-        for (Instance x : instances) {
-            updateClassifier(x);
-        }
-
+    public boolean implementsMoreEfficientBatchPrediction() {
+        return true;
     }
 
 
+    /**
+     * Returns the class distributions for a batch of instances. The rules
+     * covering the instances are found column-wise, in blocks of rows, with
+     * one bitmap over the block for every distinct literal of the rule set.
+     * Large batches are split into partitions which are scored in parallel,
+     * using the number of execution slots set on this classifier. The
+     * classifier must not be updated during the call, unless snapshots are
+     * enabled.
+     *
+     * @param insts The instances to classify
+     * @return The class distribution of every instance
+     * @throws Exception Case an instance could not be classified
+     */
     @Override
-    public void updateClassifier(Instance x) throws Exception {
-        if (x.classIsMissing()) {
-            return;
+    public double[][] distributionsForInstances(Instances insts) throws Exception {
+        double[][] dists = new double[insts.numInstances()][];
+
+        CompiledRuleSet compiled = null;
+        VfdrRule defaultRule = m_defaultRule;
+        PredictionSnapshot snapshot = snapshot();
+        if (snapshot != null) {
+            compiled = snapshot.compiled();
+            defaultRule = snapshot.defaultRule();
+            if (compiled.numRules() == 0 && defaultRule.getStats().totalWeight() < 1) {
+                compiled = null;
+            }
+        } else if (m_initialised && !(m_ruleSet.isEmpty() && m_defaultRule.getStats().totalWeight() < 1)) {
+            compiled = compiledRuleSet(); // compiled before sharing it between threads
         }
 
-        int trigerred = 0;
-
-        for (VfdrRule r : m_ruleSet) {
-            if (r.covers(x)) {
-                trigerred++;
-                SufficientStats lr = r.getStats();
-                lr.update(x);
-
-                if (lr.totalWeight() > m_gracePeriod) {
-                    r = r.expand(m_expMetric);
-                }
+        int numThreads = m_numExecutionSlots > 0 ? m_numExecutionSlots : Runtime.getRuntime().availableProcessors();
 
-                if (m_orderedSet) {
-                    break;
-                }
-            }
+        if (numThreads == 1 || insts.numInstances() < 2 * MIN_BATCH_PARTITION) {
+            scoreRange(compiled, defaultRule, insts, dists, 0, dists.length);
+            return dists;
         }
 
-        if (trigerred == 0) {
-            m_defaultRule.getStats().update(x);
-            if (m_defaultRule.getStats().totalWeight() > m_gracePeriod) {
-                m_ruleSet.add(m_defaultRule.expand(m_expMetric));
-                m_ruleSet.remove(m_defaultRule);
+        int partitionSize = Math.max(MIN_BATCH_PARTITION, dists.length / (4 * numThreads));
+        try {
+            scoringPool(numThreads).invoke(new BatchScoringTask(compiled, defaultRule, insts, dists, 0, dists.length,
+                partitionSize));
+        } catch (BatchScoringException e) {
+            Throwable cause = e;
+            while (cause instanceof BatchScoringException) {
+                cause = cause.getCause();
             }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof Exception ? (Exception) cause : e;
         }
+
+        return dists;
     }
 
 
     /**
-     * Builds a new numeric antecedent from the name of its attribute
+     * Gets the pool scoring large batches, creating it if the number of
+     * threads has changed. A replaced pool is not shut down, as it may still
+     * be used by a concurrent call, but its threads stop once idle.
      *
-     * @param attName The name of the attribute
-     *
-     * @return A new numeric antecedent
+     * @param numThreads The number of threads
+     * @return The pool
      */
-    public NumericAntd buildNumericAntd(String attName) {
-        return new NumericAntd(m_header.attribute(attName));
+    private synchronized ForkJoinPool scoringPool(int numThreads) {
+        if (m_scoringPool == null || m_scoringPool.getParallelism() != numThreads) {
+            m_scoringPool = new ForkJoinPool(numThreads);
+        }
+        return m_scoringPool;
     }
 
 
     /**
-     * Builds a new nominal antecedent from the name of its attribute
-     *
-     * @param attName The name of the attribute
+     * Scores a range of a batch of instances
      *
-     * @return A new nominal antecedent
+     * @param compiled    The compiled rule set, or null to score the instances
+     *                    one by one
+     * @param defaultRule The default rule of the compiled rule set
+     * @param batch       The batch of instances
+     * @param dists       Receives the class distribution of every instance
+     * @param from        The position of the first instance of the range
+     * @param to          The position after the last instance of the range
+     * @throws Exception Case an instance could not be classified
      */
-    public NominalAntd buildNominalAntd(String attName) {
-        return new NominalAntd(m_header.attribute(attName));
+    private void scoreRange(CompiledRuleSet compiled, VfdrRule defaultRule, Instances batch, double[][] dists,
+                            int from, int to) throws Exception {
+
+        if (compiled == null) {
+            for (int i = from; i < to; i++) {
+                dists[i] = distributionForInstance(batch.instance(i));
+            }
+        } else {
+            double[][] range = m_classificationStrategy.distributionsForInstances(compiled, defaultRule, batch,
+                from, to);
+            System.arraycopy(range, 0, dists, from, range.length);
+        }
     }
 
 
     /**
-     * Returns a string describing the rule set
+     * Gets the compiled rule set, compiling it if the rule set has changed
+     * since the last compilation.
      *
-     * @return A string describing the rule set
+     * @return The compiled rule set
      */
-    public String ruleSetToString() {
-        String s = "[\n";
-        for (VfdrRule r : m_ruleSet) {
-            s += "\t" + r + "\n";
+    private CompiledRuleSet compiledRuleSet() {
+        CompiledRuleSet compiled = m_compiledRuleSet;
+        if (compiled == null) {
+            compiled = new CompiledRuleSet(m_ruleSet);
+            m_compiledRuleSet = compiled;
         }
-        s += "\t" + m_defaultRule + "\n]";
-
-        return s;
+        return compiled;
     }
 
 
     @Override
-    public String toString() {
-        return m_initialised ? ruleSetToString() : "You must build this classifier first";
+    public void buildClassifier(Instances instances) throws Exception {
+        reset();
+        getCapabilities().testWithFail(instances);
+
+        instances = new Instances(instances); // copy
+        instances.deleteWithMissingClass();
+
+        instances.randomize(new Random(m_Seed)); // examples must be randomized
+
+        initialise(new Instances(instances, 0));
+
+        updateClassifier(instances);
+
+        finishBuild();
     }
-    
-    /* GETTERS AND SETTERS */
 
 
     /**
-     * Sets the threshold below which an expansion will be forced in order to
-     * break ties. Default is 0.05.
+     * Builds the classifier from the instances of an incremental loader,
+     * without keeping them all in memory. Instead of being randomized, the
+     * instances go through a shuffle buffer of bounded size: once it is full,
+     * every new instance replaces a random instance of the buffer, which is
+     * learnt.
      *
-     * @param t New tie threshold
+     * @param loader     The loader, which must support incremental loading
+     * @param classIndex The index of the class attribute, or -1 to use the
+     *                   last attribute
+     * @throws Exception If the instances could not be read, or the classifier
+     *                   could not be built
+     * @see #setShuffleBufferSize(int)
      */
-    @OptionMetadata(displayName = "hoeffdingTieThreshold", commandLineParamName = "T",
-                    description = "Threshold below which a rule expansion will be forced in order to break ties.",
-                    commandLineParamSynopsis = "-T <threshold value>", displayOrder = 5)
-    public void setHoeffdingTieThreshold(double t) {
-        m_hoeffdingTieThreshold = t;
-    }
+    public void buildClassifier(Loader loader, int classIndex) throws Exception {
+        reset();
 
+        Instances structure = loader.getStructure();
+        structure.setClassIndex(classIndex < 0 ? structure.numAttributes() - 1 : classIndex);
+        getCapabilities().testWithFail(structure);
 
-    public double getHoeffdingConfidence() {
-        return m_hoeffdingConfidence;
+        initialise(new Instances(structure, 0));
+
+        Random random = new Random(m_Seed);
+        Instance[] buffer = new Instance[Math.max(0, m_shuffleBufferSize)];
+        int size = 0;
+
+        Instance x;
+        while ((x = loader.getNextInstance(structure)) != null) {
+            if (x.classIsMissing()) {
+                continue;
+            }
+            if (size < buffer.length) {
+                buffer[size++] = x;
+                continue;
+            }
+            if (buffer.length > 0) {
+                int i = random.nextInt(buffer.length);
+                Instance next = buffer[i];
+                buffer[i] = x;
+                x = next;
+            }
+            updateClassifier(x);
+        }
+
+        // the instances left in the buffer are learnt in random order
+        while (size > 0) {
+            int i = random.nextInt(size);
+            updateClassifier(buffer[i]);
+            buffer[i] = buffer[--size];
+            buffer[size] = null;
+        }
+
+        finishBuild();
     }
 
 
     /**
-     * Sets the allowable error in an expansion decision. Its value is one minus
-     * the desired probability of choosing the correct attribute. Used in the
-     * computation of the Hoeffding bound. Default is 1E-7.
+     * Builds the classifier from a memory-mapped binary file. The rows are
+     * read into a single reusable instance, in the order given by a shuffle
+     * buffer of row positions, which behaves as the one used with loaders.
      *
-     * @param c New confidence value
+     * @param data The binary instances
+     * @throws Exception If the classifier could not be built
+     * @see #setShuffleBufferSize(int)
      */
-    @OptionMetadata(displayName = "hoeffdingConfidence", commandLineParamName = "C",
-                    description = "The allowable error in the decision to expand a rule. Values closer to zero will take longer to decide.",
-                    commandLineParamSynopsis = "-C <confidence value>", displayOrder = 6)
-    public void setHoeffdingConfidence(double c) {
-        m_hoeffdingConfidence = c;
-    }
+    public void buildClassifier(MappedInstances data) throws Exception {
+        reset();
+        getCapabilities().testWithFail(data.header());
 
+        initialise(new Instances(data.header(), 0));
 
-    public double getTieThreshold() {
-        return m_hoeffdingTieThreshold;
-    }
+        Instance view = data.newView(m_header);
+        int classIndex = m_header.classIndex();
+        Random random = new Random(m_Seed);
+        long[] buffer = new long[(int) Math.min(Math.max(0, m_shuffleBufferSize), data.numRows())];
+        int size = 0;
 
+        for (long row = 0; row < data.numRows(); row++) {
+            if (Utils.isMissingValue(data.value(row, classIndex))) {
+                continue;
+            }
+            long next = row;
+            if (size < buffer.length) {
+                buffer[size++] = row;
+                continue;
+            }
+            if (buffer.length > 0) {
+                int i = random.nextInt(buffer.length);
+                next = buffer[i];
+                buffer[i] = row;
+            }
+            learnRow(data, next, view);
+        }
 
-    public int getGracePeriod() {
-        return m_gracePeriod;
+        while (size > 0) {
+            int i = random.nextInt(size);
+            learnRow(data, buffer[i], view);
+            buffer[i] = buffer[--size];
+        }
+
+        finishBuild();
     }
 
 
     /**
-     * Sets the number of instances a rule should observe between expansion
-     * attempts.
+     * Learns a row of a binary file, whose class is not missing
      *
-     * @param n The new grace period
+     * @param data The binary instances
+     * @param row  The position of the row
+     * @param view The instance the row is read into
+     * @throws Exception If the update fails
      */
-    @OptionMetadata(displayName = "gracePeriod", commandLineParamName = "G",
-                    description = "Number of instances a rule should observe between expansion attempts. "
-                                  + "You should adapt this to the size of your training set",
-                    commandLineParamSynopsis = "-G <period value>", displayOrder = 1)
-    public void setGracePeriod(int n) {
-        m_gracePeriod = n;
+    private void learnRow(MappedInstances data, long row, Instance view) throws Exception {
+        data.read(row, view);
+        updateClassifier(view);
     }
 
 
-    public int getPredictionStrategy() {
-        return m_useNaiveBayes ? USE_NB : USE_MAJ_CLASS;
+    /**
+     * Initialises an empty rule set
+     *
+     * @param header The structure of the instances to learn from
+     */
+    private void initialise(Instances header) {
+        setHeader(header);
+        m_ruleSet = new ArrayList<>();
+        m_coverageIndex = new CoverageIndex(m_ruleSet, m_header);
+        m_defaultRule = new VfdrRule(this);
+        m_classificationStrategy = m_orderedSet ? new ClassificationStrategy.FirstHit()
+                                                : new ClassificationStrategy.WeightedMax();
+
+        m_initialised = true;
     }
 
 
     /**
-     * Sets whether subsequently created instances will use naive bayes or not
-     * to make predictions. A parameter of 0 will set the strategy to majority
-     * class.
+     * Applies the expansions still being evaluated at the end of a build, and
+     * publishes the snapshot used for predictions if needed
      *
-     * @param n The code of the strategy (0 = majority class, 1 = naive Bayes)
+     * @throws Exception If an evaluation failed
      */
-    @OptionMetadata(displayName = "predictionStrategy", commandLineParamName = "R",
-                    description = "The prediction strategy to use (0 = majority class, 1 = naive Bayes)",
-                    commandLineParamSynopsis = "-R <strategy code>", displayOrder = 4)
-    public void setPredictionStrategy(int n) {
-        m_useNaiveBayes = n == USE_NB;
+    private void finishBuild() throws Exception {
+        applyPendingExpansions(true);
+
+        if (m_snapshotInterval > 0) {
+            publishSnapshot();
+        }
     }
 
 
-    public boolean getUseNaiveBayes() {
-        return m_useNaiveBayes;
-    }
+    /**
+     * Updates the classifier with an instance. This method may be called
+     * concurrently by several threads. The statistics of a rule are updated
+     * under the lock of the rule, so threads only contend when they update the
+     * same rules. The rule set is only read while updating statistics, and is
+     * modified by expansions under the exclusive structural lock.
+     *
+     * @param x The instance to learn from
+     * @throws Exception If the update fails
+     */
+    @Override
+    public void updateClassifier(Instance x) throws Exception {
+        if (x.classIsMissing()) {
+            return;
+        }
 
+        // also when the expansion threads have been removed since the evaluations
+        if (m_completedExpansions != null && m_completedExpansions.get() > 0) {
+            applyPendingExpansions(false);
+        }
 
-    public double getNBWeightThreshold() {
-        return m_nbWeightThreshold;
+        VfdrRule[] eligible = updateStatistics(x, m_trainingListeners);
+        // counted before the expansions, in the order in which a log is replayed
+        long learnt = countUpdates(1);
+
+        // the rules are only expanded once the structural lock is released
+        for (VfdrRule rule : eligible) {
+            expandRule(rule);
+        }
+
+        compactIfDue(learnt, 1);
     }
 
 
     /**
-     * Sets the minimal weight a rule requires to make predictions using naive
-     * Bayes.
+     * Updates the statistics of the rules covering an instance, without
+     * expanding them. This is used to replay a log of the training of a
+     * classifier, in which expansions are recorded separately (see
+     * {@link TrainingListener}).
      *
-     * @param n The minimal weight
+     * @param x The instance to learn from
+     * @throws Exception If the update fails
      */
-    @OptionMetadata(displayName = "nbWeightThreshold", commandLineParamName = "N",
-                    description = "The minimum weight a rule requires to make predictions using naive Bayes",
-                    commandLineParamSynopsis = "-N <threshold value>", displayOrder = 4)
-    public void setNBWeightThreshold(double n) {
-        m_nbWeightThreshold = n;
+    public void replayInstance(Instance x) throws Exception {
+        if (!x.classIsMissing()) {
+            updateStatistics(x, null);
+            // the memory checks are recorded separately
+            countUpdates(1, false);
+        }
     }
 
 
     /**
-     * Gets the structure of the instances this classifier can handle
+     * Expands a rule with a literal. This is used to replay a log of the
+     * training of a classifier (see {@link TrainingListener}).
      *
-     * @return The structure
+     * @param ruleIndex The position of the rule in the rule set, or -1 for the
+     *                  default rule
+     * @param antd      The literal to add
      */
-    public Instances getHeader() {
-        return m_header;
+    public void replayExpansion(int ruleIndex, Antd antd) {
+        m_structureLock.writeLock().lock();
+        try {
+            applyExpansion(ruleIndex, ruleIndex < 0 ? m_defaultRule : m_ruleSet.get(ruleIndex), antd);
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes rules from the rule set. This is used to replay a log of the
+     * training of a classifier (see {@link TrainingListener}).
+     *
+     * @param ruleIndices The positions of the rules to remove, in increasing
+     *                    order
+     */
+    public void replayRemoval(int[] ruleIndices) {
+        m_structureLock.writeLock().lock();
+        try {
+            removeRules(ruleIndices);
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Checks the memory budget as it was checked during training: the promise
+     * of every rule is updated, and the statistics of the given rules are
+     * deactivated or reactivated. This is used to replay a log of the
+     * training of a classifier (see {@link TrainingListener}).
+     *
+     * @param deactivated The positions of the rules whose statistics were
+     *                    deactivated
+     * @param reactivated The positions of the rules whose statistics were
+     *                    reactivated
+     */
+    public void replayMemoryCheck(int[] deactivated, int[] reactivated) {
+        m_structureLock.writeLock().lock();
+        try {
+            for (VfdrRule rule : m_ruleSet) {
+                rule.updatePromise();
+            }
+            // expansions evaluate the stats under the lock of their rule only
+            for (int i : deactivated) {
+                VfdrRule rule = m_ruleSet.get(i);
+                synchronized (rule) {
+                    rule.deactivateStats();
+                }
+            }
+            for (int i : reactivated) {
+                VfdrRule rule = m_ruleSet.get(i);
+                synchronized (rule) {
+                    rule.reactivateStats();
+                }
+            }
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Updates the statistics of the rules covering an instance, under the
+     * shared structural lock
+     *
+     * @param x         The instance
+     * @param listeners The listeners to notify, or null
+     * @return The updated rules which are eligible to an expansion
+     */
+    private VfdrRule[] updateStatistics(Instance x, TrainingListener[] listeners) {
+        VfdrMetrics metrics = m_metrics;
+        long start = 0;
+        long covered = 0;
+        int[] triggered;
+        int numEligible = 0;
+        VfdrRule[] eligible;
+
+        m_structureLock.readLock().lock();
+        try {
+            if (listeners != null) {
+                for (TrainingListener listener : listeners) {
+                    listener.instanceLearnt(x);
+                }
+            }
+
+            if (metrics != null) {
+                start = System.nanoTime();
+            }
+
+            triggered = m_coverageIndex.coveringRules(x);
+
+            if (metrics != null) {
+                covered = System.nanoTime();
+            }
+
+            for (int i = 0; i < triggered.length; i++) {
+                if (updateRule(triggered[i], m_ruleSet.get(triggered[i]), x)) {
+                    triggered[numEligible++] = triggered[i];
+                }
+
+                if (m_orderedSet) {
+                    break;
+                }
+            }
+
+            boolean defaultRule = triggered.length == 0;
+            if (defaultRule && updateRule(m_ruleSet.size(), m_defaultRule, x)) {
+                triggered = new int[] {-1};
+                numEligible = 1;
+            }
+
+            if (metrics != null) {
+                metrics.instanceLearnt(covered - start, System.nanoTime() - covered, defaultRule);
+            }
+
+            eligible = new VfdrRule[numEligible];
+            for (int i = 0; i < numEligible; i++) {
+                eligible[i] = triggered[i] < 0 ? m_defaultRule : m_ruleSet.get(triggered[i]);
+            }
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+
+        return eligible;
+    }
+
+
+    /**
+     * Runs an action while the classifier is neither updated nor expanded,
+     * e.g. to collect what training listeners have buffered. Training threads
+     * wait until the action completes, predictions do not.
+     *
+     * @param action The action
+     * @param <T>    The type of the result of the action
+     * @return The result of the action
+     * @throws Exception If the action fails
+     */
+    public <T> T callExclusively(Callable<T> action) throws Exception {
+        m_structureLock.writeLock().lock();
+        try {
+            return action.call();
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds a listener notified of the instances learnt and of the expansions.
+     * Listeners are not serialised.
+     *
+     * @param listener The listener
+     */
+    public synchronized void addTrainingListener(TrainingListener listener) {
+        TrainingListener[] listeners = m_trainingListeners == null ? new TrainingListener[0] : m_trainingListeners;
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        m_trainingListeners = listeners;
+    }
+
+
+    /**
+     * Removes a listener added with {@link #addTrainingListener(TrainingListener)}
+     *
+     * @param listener The listener
+     */
+    public synchronized void removeTrainingListener(TrainingListener listener) {
+        if (m_trainingListeners != null) {
+            List<TrainingListener> listeners = new ArrayList<>(Arrays.asList(m_trainingListeners));
+            listeners.remove(listener);
+            m_trainingListeners = listeners.isEmpty() ? null : listeners.toArray(new TrainingListener[0]);
+        }
+    }
+
+
+    /**
+     * Counts updates, checks the memory budget every
+     * {@value #MEMORY_CHECK_PERIOD} instances learnt, and publishes a new
+     * snapshot when there has been more than the snapshot interval since the
+     * last one
+     *
+     * @param n The number of instances learnt
+     * @return The number of instances learnt since the classifier was built
+     */
+    private long countUpdates(int n) {
+        return countUpdates(n, true);
+    }
+
+
+    /**
+     * Counts instances learnt, like {@link #countUpdates(int)}
+     *
+     * @param n           The number of instances learnt
+     * @param checkMemory Whether to check the memory budget when it is due
+     * @return The number of instances learnt since the classifier was built
+     */
+    private long countUpdates(int n, boolean checkMemory) {
+        long learnt = m_instancesLearnt.addAndGet(n);
+        // the checks depend on the instances learnt only, so they happen at the
+        // same points when a saved or recovered classifier is trained further
+        if (checkMemory && m_memoryBudget > 0
+            && learnt / MEMORY_CHECK_PERIOD != (learnt - n) / MEMORY_CHECK_PERIOD) {
+            manageMemory();
+        }
+        if (m_snapshotInterval > 0) {
+            int count = m_updatesSinceSnapshot.addAndGet(n);
+            if (count >= m_snapshotInterval && m_updatesSinceSnapshot.compareAndSet(count, 0)) {
+                publishSnapshot();
+            }
+        }
+        return learnt;
+    }
+
+
+    /**
+     * Keeps the statistics of the rules within the memory budget, like VFDT
+     * does with its leaves. Rules are ranked by promise (see
+     * {@link VfdrRule#updatePromise()}), and the most promising ones keep
+     * their statistics active as long as they fit in the budget. The others
+     * are deactivated: they keep making predictions, but are not expanded.
+     * Deactivated rules which fit again, e.g. because they cover recent
+     * instances, are reactivated with empty statistics. The default rule is
+     * never deactivated.
+     */
+    private void manageMemory() {
+        m_structureLock.writeLock().lock();
+        try {
+            long budget = (long) (m_memoryBudget * 1024 * 1024);
+            int numRules = m_ruleSet.size();
+            final double[] promise = new double[numRules];
+            Integer[] order = new Integer[numRules];
+
+            // deactivated stats stay, so they are accounted for first
+            long used = m_defaultRule.memoryFootprint();
+            long activeSize = 0;
+            int numActive = 0;
+            for (int i = 0; i < numRules; i++) {
+                VfdrRule rule = m_ruleSet.get(i);
+                promise[i] = rule.updatePromise();
+                order[i] = i;
+                if (rule.getStats().isActive()) {
+                    activeSize += rule.memoryFootprint();
+                    numActive++;
+                } else {
+                    used += rule.memoryFootprint();
+                }
+            }
+            // reactivated stats are expected to grow as large as the others
+            long expectedSize = numActive > 0 ? activeSize / numActive : m_defaultRule.memoryFootprint();
+
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(promise[o2], promise[o1]);
+                }
+            });
+
+            BitSet deactivated = new BitSet();
+            BitSet reactivated = new BitSet();
+            for (int i : order) {
+                VfdrRule rule = m_ruleSet.get(i);
+                long size = rule.memoryFootprint();
+                if (rule.getStats().isActive()) {
+                    if (used + size <= budget) {
+                        used += size;
+                    } else {
+                        // expansions evaluate the stats under the lock of their rule only
+                        synchronized (rule) {
+                            rule.deactivateStats();
+                            used += rule.memoryFootprint();
+                        }
+                        deactivated.set(i);
+                    }
+                } else if (promise[i] > 0 && used - size + expectedSize <= budget) {
+                    synchronized (rule) {
+                        rule.reactivateStats();
+                    }
+                    used += expectedSize - size;
+                    reactivated.set(i);
+                }
+            }
+
+            TrainingListener[] listeners = m_trainingListeners;
+            if (listeners != null) {
+                int[] deactivatedIndices = indices(deactivated);
+                int[] reactivatedIndices = indices(reactivated);
+                for (TrainingListener listener : listeners) {
+                    listener.memoryChecked(deactivatedIndices, reactivatedIndices);
+                }
+            }
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Lists the positions set in a bit set
+     *
+     * @param set The bit set
+     * @return The positions, in increasing order
+     */
+    private static int[] indices(BitSet set) {
+        int[] indices = new int[set.cardinality()];
+        int n = 0;
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            indices[n++] = i;
+        }
+        return indices;
+    }
+
+
+    /**
+     * Returns an estimation of the memory used by the rules, including the
+     * default rule, in bytes
+     *
+     * @return The estimated size of the rules and of their statistics
+     */
+    public long memoryFootprint() {
+        m_structureLock.readLock().lock();
+        try {
+            if (!m_initialised) {
+                return 0;
+            }
+            long size = m_defaultRule.memoryFootprint();
+            for (VfdrRule rule : m_ruleSet) {
+                synchronized (rule) {
+                    size += rule.memoryFootprint();
+                }
+            }
+            return size;
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Returns the number of rules whose statistics have been deactivated to
+     * fit in the memory budget
+     *
+     * @return The number of deactivated rules
+     */
+    public int numDeactivatedRules() {
+        m_structureLock.readLock().lock();
+        try {
+            int count = 0;
+            if (m_initialised) {
+                for (VfdrRule rule : m_ruleSet) {
+                    if (!rule.getStats().isActive()) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the last snapshot published for predictions. If snapshots are
+     * enabled but none has been published since this classifier was
+     * deserialised, one is published first.
+     *
+     * @return The snapshot, or null if snapshots are disabled
+     */
+    private PredictionSnapshot snapshot() {
+        PredictionSnapshot snapshot = m_snapshot;
+        if (snapshot == null && m_snapshotInterval > 0 && m_initialised) {
+            publishSnapshot();
+            snapshot = m_snapshot;
+        }
+        return snapshot;
+    }
+
+
+    /**
+     * Takes a snapshot of the whole rule set and publishes it for predictions.
+     * The rule set is not expanded meanwhile.
+     */
+    private void publishSnapshot() {
+        m_structureLock.readLock().lock();
+        try {
+            m_snapshot = PredictionSnapshot.of(m_ruleSet, m_defaultRule, m_header, m_compiledScoring);
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Updates the statistics of a rule with an instance, under the lock of the
+     * rule
+     *
+     * @param id   The position of the rule, or the size of the rule set for
+     *             the default rule
+     * @param rule The rule covering the instance
+     * @param x    The instance
+     * @return Whether the rule has been updated since its last expansion for
+     *     longer than the grace period, or has drifted
+     */
+    private boolean updateRule(int id, VfdrRule rule, Instance x) {
+        synchronized (rule) {
+            saveBeforeUpdate(id, rule);
+            boolean drifted = m_driftThreshold > 0 && rule.getStats().totalWeight() > 0
+                              && detectDrift(rule, rule.misclassifies(x) ? 1 : 0, x.weight());
+            SufficientStats lr = rule.getStats();
+            lr.update(x);
+            rule.covered(x.weight(), m_instancesLearnt.get());
+            return drifted || lr.totalWeight() > m_gracePeriod && lr.isActive();
+        }
+    }
+
+
+    /**
+     * Feeds the prequential error rate of a rule to its drift detector, if
+     * drift detection is enabled. When the default rule drifts, its statistics are
+     * reset right away. Other rules are removed later, under the exclusive
+     * structural lock. Must be called under the lock of the rule.
+     *
+     * @param rule      The rule
+     * @param errorRate The fraction of the weight of the instances
+     *                  misclassified by the rule
+     * @param weight    The weight of the instances
+     * @return Whether the rule has drifted and must be removed
+     */
+    private boolean detectDrift(VfdrRule rule, double errorRate, double weight) {
+        if (m_driftThreshold <= 0 || !(weight > 0) || rule.hasDrifted()
+            || !rule.detectDrift(errorRate, weight, m_driftThreshold)) {
+            return false;
+        }
+
+        VfdrMetrics metrics = m_metrics;
+        if (metrics != null) {
+            metrics.driftDetected();
+        }
+
+        if (rule.hasAntds()) {
+            return true;
+        }
+        rule.resetStats();
+        return false;
+    }
+
+
+    /**
+     * Updates the classifier with a batch of instances, in order. With several
+     * training shards, the batch is processed in rounds of one grace period
+     * per shard: the instances of a round are split between the shards, which update private copies of the
+     * statistics of the rules in parallel. The copies are then merged into the
+     * rule set, and the rules which have been updated are considered for
+     * expansion. The rule set does not change during a round, so expansions
+     * are decided later than when instances are processed one by one.
+     *
+     * @param batch The instances to learn from
+     * @throws Exception If the update fails
+     */
+    public void updateClassifier(Instances batch) throws Exception {
+        if (m_numTrainingShards <= 1) {
+            for (Instance x : batch) {
+                updateClassifier(x);
+            }
+            return;
+        }
+
+        ExecutorService executor;
+        synchronized (this) {
+            if (m_trainingExecutor == null) {
+                m_trainingExecutor = newWorkerPool(m_numTrainingShards, "vfdr-training");
+            }
+            executor = m_trainingExecutor;
+        }
+
+        // a rule is not expanded more than once per grace period anyway
+        int roundSize = m_numTrainingShards * Math.max(m_gracePeriod, 1);
+        for (int from = 0; from < batch.numInstances(); from += roundSize) {
+            trainRound(executor, batch, from, Math.min(batch.numInstances(), from + roundSize));
+        }
+    }
+
+
+    /**
+     * Processes a round of sharded training
+     *
+     * @param executor The executor running the shards
+     * @param batch    The batch of instances
+     * @param from     The position of the first instance of the round
+     * @param to       The position after the last instance of the round
+     * @throws Exception If the update fails
+     */
+    private void trainRound(ExecutorService executor, Instances batch, int from, int to) throws Exception {
+        if (m_completedExpansions != null && m_completedExpansions.get() > 0) {
+            applyPendingExpansions(false);
+        }
+
+        List<VfdrRule> updatedRules = new ArrayList<>();
+
+        m_structureLock.readLock().lock();
+        try {
+            TrainingListener[] listeners = m_trainingListeners;
+            if (listeners != null) {
+                for (int i = from; i < to; i++) {
+                    if (!batch.instance(i).classIsMissing()) {
+                        for (TrainingListener listener : listeners) {
+                            listener.instanceLearnt(batch.instance(i));
+                        }
+                    }
+                }
+            }
+
+            List<TrainingShard> shards = new ArrayList<>();
+            for (int s = 0; s < m_numTrainingShards; s++) {
+                int shardFrom = from + (int) ((long) (to - from) * s / m_numTrainingShards);
+                int shardTo = from + (int) ((long) (to - from) * (s + 1) / m_numTrainingShards);
+                if (shardTo > shardFrom) {
+                    shards.add(new TrainingShard(batch, shardFrom, shardTo));
+                }
+            }
+
+            for (Future<SufficientStats[]> f : executor.invokeAll(shards)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+
+            // merge in shard order, so that training is reproducible
+            int numRules = m_ruleSet.size();
+            boolean[] updated = new boolean[numRules + 1];
+            long now = m_instancesLearnt.get();
+            for (TrainingShard shard : shards) {
+                for (int id = 0; id <= numRules; id++) {
+                    SufficientStats delta = shard.m_deltas[id];
+                    if (delta != null) {
+                        VfdrRule rule = id < numRules ? m_ruleSet.get(id) : m_defaultRule;
+                        synchronized (rule) {
+                            saveBeforeUpdate(id, rule);
+                            double predicted = shard.m_predicted[id];
+                            if (predicted > 0) {
+                                detectDrift(rule, shard.m_errors[id] / predicted, predicted);
+                            }
+                            rule.getStats().merge(delta);
+                            rule.covered(delta.totalWeight(), now);
+                        }
+                        updated[id] = true;
+                    }
+                }
+            }
+
+            for (int id = 0; id <= numRules; id++) {
+                if (updated[id]) {
+                    updatedRules.add(id < numRules ? m_ruleSet.get(id) : m_defaultRule);
+                }
+            }
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+
+        long learnt = countUpdates(to - from);
+        for (VfdrRule rule : updatedRules) {
+            expandRule(rule);
+        }
+
+        compactIfDue(learnt, to - from);
+    }
+
+
+    /**
+     * Tries to expand a rule, if it has been updated for longer than the grace
+     * period. The expansion is evaluated right away under the lock of the
+     * rule, then applied under the structural lock unless another thread
+     * expanded the rule in the meantime. If expansions are asynchronous, it is
+     * submitted to the background executor instead. A rule on which drift has
+     * been detected is removed rather than expanded.
+     *
+     * @param rule The rule to expand
+     * @throws Exception If a background evaluation failed
+     */
+    private void expandRule(final VfdrRule rule) throws Exception {
+        if (rule.hasDrifted()) {
+            discardRule(rule);
+            return;
+        }
+
+        if (m_numExpansionThreads > 0) {
+            submitExpansion(rule);
+            return;
+        }
+
+        VfdrMetrics metrics = m_metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        SufficientStats stats;
+        Antd best;
+        synchronized (rule) {
+            stats = rule.getStats();
+            if (stats.totalWeight() <= m_gracePeriod || !stats.isActive()) {
+                return; // expanded by another thread in the meantime, or deactivated
+            }
+            best = rule.findExpansion(stats, m_expMetric);
+        }
+
+        if (best != null) {
+            m_structureLock.writeLock().lock();
+            try {
+                int id = positionOf(rule);
+                // the stats may have been deactivated by a memory check in the meantime
+                if (rule.getStats() == stats && stats.isActive() && id != REMOVED_RULE) {
+                    applyExpansion(id, rule, best);
+                    if (id < 0) {
+                        evictRules();
+                    }
+                }
+            } finally {
+                m_structureLock.writeLock().unlock();
+            }
+        }
+
+        if (metrics != null) {
+            metrics.expansionAttempted(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Submits the evaluation of the expansion of a rule to the background
+     * executor, unless one is already running for that rule. The rule keeps
+     * learning meanwhile, and what it learns is lost once the expansion is
+     * applied, so a rule which has been updated for one more grace period
+     * waits for its evaluation instead.
+     *
+     * @param rule The rule to expand
+     * @throws Exception If the evaluation failed
+     */
+    private void submitExpansion(final VfdrRule rule) throws Exception {
+        PendingExpansion pending;
+        synchronized (this) {
+            pending = m_pendingExpansions == null ? null : m_pendingExpansions.get(rule);
+        }
+        if (pending != null) {
+            double weight;
+            synchronized (rule) {
+                weight = rule.getStats().totalWeight();
+            }
+            if (weight > pending.m_weight + m_gracePeriod) {
+                awaitExpansion(rule);
+            }
+            return; // one evaluation at a time per rule
+        }
+
+        final SufficientStats snapshot;
+        synchronized (rule) {
+            if (rule.getStats().totalWeight() <= m_gracePeriod || !rule.getStats().isActive()) {
+                return;
+            }
+            snapshot = rule.getStats().expansionSnapshot();
+        }
+
+        synchronized (this) {
+            if (m_pendingExpansions == null) {
+                m_pendingExpansions = new IdentityHashMap<>();
+                m_completedExpansions = new AtomicInteger();
+            }
+            if (m_pendingExpansions.containsKey(rule)) {
+                return; // submitted by another thread in the meantime
+            }
+
+            if (m_expansionExecutor == null) {
+                m_expansionExecutor = newWorkerPool(m_numExpansionThreads, "vfdr-expansion");
+            }
+
+            final ExpansionMetric expMetric = m_expMetric;
+            final AtomicInteger completed = m_completedExpansions;
+            final VfdrMetrics metrics = m_metrics;
+            Future<Antd> result = m_expansionExecutor.submit(new Callable<Antd>() {
+                @Override
+                public Antd call() {
+                    long start = metrics == null ? 0 : System.nanoTime();
+                    try {
+                        return rule.findExpansion(snapshot, expMetric);
+                    } finally {
+                        if (metrics != null) {
+                            metrics.expansionAttempted(System.nanoTime() - start);
+                        }
+                        completed.incrementAndGet();
+                    }
+                }
+            });
+            m_pendingExpansions.put(rule, new PendingExpansion(result, snapshot.totalWeight()));
+        }
+    }
+
+
+    /**
+     * Builds a pool of daemon threads which stop once idle for
+     * {@value #IDLE_WORKER_SECONDS} seconds, so that a classifier which is no
+     * longer used does not keep its threads
+     *
+     * @param numThreads The maximum number of threads
+     * @param name       The name of the threads
+     * @return The pool
+     */
+    private static ExecutorService newWorkerPool(int numThreads, String name) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, IDLE_WORKER_SECONDS,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), daemonThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+
+    /**
+     * Builds a factory of daemon threads, which do not prevent the JVM from
+     * exiting
+     *
+     * @param name The name of the threads
+     * @return The thread factory
+     */
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+
+    /**
+     * Applies the expansions evaluated in the background.
+     *
+     * @param wait Whether to wait for the evaluations still running, or to
+     *             leave them for later
+     * @throws Exception If an evaluation failed
+     */
+    private void applyPendingExpansions(boolean wait) throws Exception {
+        Map<VfdrRule, PendingExpansion> done = new IdentityHashMap<>();
+
+        synchronized (this) {
+            if (m_pendingExpansions == null) {
+                return;
+            }
+            Iterator<Map.Entry<VfdrRule, PendingExpansion>> it = m_pendingExpansions.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<VfdrRule, PendingExpansion> pending = it.next();
+                if (wait || pending.getValue().m_result.isDone()) {
+                    done.put(pending.getKey(), pending.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        applyExpansions(done);
+    }
+
+
+    /**
+     * Waits for the evaluation of the expansion of a rule in the background,
+     * and applies it
+     *
+     * @param rule The rule being expanded
+     * @throws Exception If the evaluation failed
+     */
+    private void awaitExpansion(VfdrRule rule) throws Exception {
+        PendingExpansion pending;
+        synchronized (this) {
+            pending = m_pendingExpansions.remove(rule);
+        }
+        if (pending != null) { // otherwise applied by another thread
+            applyExpansions(Collections.singletonMap(rule, pending));
+        }
+    }
+
+
+    /**
+     * Applies expansions evaluated in the background, waiting for those still
+     * running. This is the only point where they modify the rule set.
+     *
+     * @param done The evaluations, removed from the pending ones
+     * @throws Exception If an evaluation failed
+     */
+    private void applyExpansions(Map<VfdrRule, PendingExpansion> done) throws Exception {
+        m_structureLock.writeLock().lock();
+        try {
+            for (Map.Entry<VfdrRule, PendingExpansion> pending : done.entrySet()) {
+                VfdrRule rule = pending.getKey();
+
+                Antd best;
+                try {
+                    best = pending.getValue().m_result.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                } finally {
+                    m_completedExpansions.decrementAndGet();
+                }
+
+                if (best != null && rule.getStats().isActive()) {
+                    int id = positionOf(rule);
+                    if (id != REMOVED_RULE) {
+                        applyExpansion(id, rule, best);
+                        if (id < 0) {
+                            evictRules();
+                        }
+                    }
+                }
+            }
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds an antecedent to a rule and updates the index of the rule set. If
+     * the rule is the default rule, the new rule is added to the set. The
+     * snapshot used for predictions, if any, is then replaced so that it
+     * includes the new literal. Must be called under the exclusive structural
+     * lock.
+     *
+     * @param id   The position of the rule in the rule set, or -1 for the
+     *             default rule
+     * @param rule The rule to expand
+     * @param antd The antecedent to add
+     */
+    private void applyExpansion(int id, VfdrRule rule, Antd antd) {
+        // the stats of the rule are read under its lock by the expansions
+        synchronized (rule) {
+            if (rule == m_defaultRule) {
+                m_coverageIndex.addRule(m_defaultRule.applyExpansion(antd));
+            } else {
+                rule.applyExpansion(antd);
+                m_coverageIndex.literalAdded(id);
+            }
+        }
+        m_compiledRuleSet = null;
+
+        VfdrMetrics metrics = m_metrics;
+        if (metrics != null) {
+            metrics.ruleExpanded();
+        }
+
+        TrainingListener[] listeners = m_trainingListeners;
+        if (listeners != null) {
+            for (TrainingListener listener : listeners) {
+                listener.ruleExpanded(id, antd);
+            }
+        }
+
+        PredictionSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            m_snapshot = snapshot.afterExpansions(m_ruleSet, m_defaultRule, id < 0 ? new int[0] : new int[] {id},
+                m_header, m_compiledScoring);
+        }
+    }
+
+
+    /**
+     * Finds the position of a rule in the rule set, which changes when rules
+     * are removed. Must be called under the structural lock.
+     *
+     * @param rule The rule
+     * @return The position of the rule, -1 for the default rule, or
+     *     {@link #REMOVED_RULE} if the rule has been removed
+     */
+    private int positionOf(VfdrRule rule) {
+        if (rule == m_defaultRule) {
+            return -1;
+        }
+        for (int i = 0; i < m_ruleSet.size(); i++) {
+            if (m_ruleSet.get(i) == rule) {
+                return i;
+            }
+        }
+        return REMOVED_RULE;
+    }
+
+
+    /**
+     * Removes a rule on which drift has been detected, unless it has already
+     * been removed
+     *
+     * @param rule The rule
+     */
+    private void discardRule(VfdrRule rule) {
+        m_structureLock.writeLock().lock();
+        try {
+            int id = positionOf(rule);
+            if (id >= 0) {
+                removeRules(new int[] {id});
+            }
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Evicts the rules of least value (see {@link VfdrRule#value(long, double)})
+     * until the rule set fits the maximum number of rules. Must be called
+     * under the exclusive structural lock.
+     */
+    private void evictRules() {
+        int excess = m_ruleSet.size() - m_maxRules;
+        if (m_maxRules <= 0 || excess <= 0) {
+            return;
+        }
+
+        long now = m_instancesLearnt.get();
+        final double[] values = new double[m_ruleSet.size()];
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = m_ruleSet.get(i).value(now, 1. / m_maxRules);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(values[o1], values[o2]);
+            }
+        });
+
+        int[] evicted = new int[excess];
+        for (int i = 0; i < excess; i++) {
+            evicted[i] = order[i];
+        }
+        Arrays.sort(evicted);
+        removeRules(evicted);
+    }
+
+
+    /**
+     * Removes rules from the rule set, and rebuilds the structures indexing
+     * it. Must be called under the exclusive structural lock.
+     *
+     * @param ruleIndices The positions of the rules to remove, in increasing
+     *                    order
+     */
+    private void removeRules(int[] ruleIndices) {
+        if (ruleIndices.length == 0) {
+            return;
+        }
+        for (int i = ruleIndices.length - 1; i >= 0; i--) {
+            m_ruleSet.remove(ruleIndices[i]);
+        }
+        m_coverageIndex.rebuild();
+        m_compiledRuleSet = null;
+
+        VfdrMetrics metrics = m_metrics;
+        if (metrics != null) {
+            metrics.rulesRemoved(ruleIndices.length);
+        }
+
+        TrainingListener[] listeners = m_trainingListeners;
+        if (listeners != null) {
+            for (TrainingListener listener : listeners) {
+                listener.rulesRemoved(ruleIndices);
+            }
+        }
+
+        PredictionSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            m_snapshot = snapshot.afterRemovals(m_ruleSet, ruleIndices, m_header, m_compiledScoring);
+        }
+    }
+
+
+    /**
+     * Compacts the rule set if the compaction interval has been crossed by
+     * the last instances learnt
+     *
+     * @param learnt The number of instances learnt, including the last ones
+     * @param n      The number of instances learnt last
+     */
+    private void compactIfDue(long learnt, int n) {
+        if (m_compactionInterval > 0 && learnt / m_compactionInterval != (learnt - n) / m_compactionInterval) {
+            compactRules();
+        }
+    }
+
+
+    /**
+     * Compacts the rule set. Of the rules with the same literals, the one
+     * with the most weight is kept, or the first one if the set is ordered.
+     * Rules which are subsumed by a more general rule are dropped if they
+     * predict about the same class distribution. In an ordered set, a rule
+     * following a more general rule is never used, so it is always dropped.
+     *
+     * @return The number of rules removed
+     */
+    public int compactRules() {
+        m_structureLock.writeLock().lock();
+        try {
+            if (!m_initialised) {
+                return 0;
+            }
+
+            int numRules = m_ruleSet.size();
+            boolean[] removed = new boolean[numRules];
+
+            Map<VfdrRule, Integer> distinct = new HashMap<>();
+            for (int i = 0; i < numRules; i++) {
+                VfdrRule rule = m_ruleSet.get(i);
+                Integer j = distinct.get(rule);
+                if (j == null) {
+                    distinct.put(rule, i);
+                    continue;
+                }
+                VfdrRule kept = m_ruleSet.get(j);
+                if (!m_orderedSet && rule.getStats().totalWeight() > kept.getStats().totalWeight()) {
+                    rule.absorbCoverage(kept);
+                    removed[j] = true;
+                    distinct.put(rule, i);
+                } else {
+                    kept.absorbCoverage(rule);
+                    removed[i] = true;
+                }
+            }
+
+            for (int s = 0; s < numRules; s++) {
+                VfdrRule specific = m_ruleSet.get(s);
+                for (int g = 0; g < numRules && !removed[s]; g++) {
+                    VfdrRule general = m_ruleSet.get(g);
+                    if (g == s || removed[g] || general.literals().size() > specific.literals().size()
+                        || !general.generalises(specific)) {
+                        continue;
+                    }
+                    if (m_orderedSet ? g < s : equivalentDistributions(general.getStats(), specific.getStats())) {
+                        removed[s] = true;
+                    }
+                }
+            }
+
+            int[] ruleIndices = new int[numRules];
+            int numRemoved = 0;
+            for (int i = 0; i < numRules; i++) {
+                if (removed[i]) {
+                    ruleIndices[numRemoved++] = i;
+                }
+            }
+            removeRules(Arrays.copyOf(ruleIndices, numRemoved));
+            return numRemoved;
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Whether two rules predict about the same class distribution: they have
+     * the same majority class, and the total variation distance between their
+     * distributions is small. Rules which have not learnt for a grace period
+     * since their last expansion are not compared.
+     *
+     * @param a The stats of a rule
+     * @param b The stats of another rule
+     * @return True if the distributions are equivalent
+     */
+    private boolean equivalentDistributions(SufficientStats a, SufficientStats b) {
+        double[] distA = a.classDistribution();
+        double[] distB = b.classDistribution();
+        double weightA = Utils.sum(distA);
+        double weightB = Utils.sum(distB);
+        if (weightA < Math.max(m_gracePeriod, 1) || weightB < Math.max(m_gracePeriod, 1)
+            || Utils.maxIndex(distA) != Utils.maxIndex(distB)) {
+            return false;
+        }
+
+        double distance = 0;
+        for (int c = 0; c < distA.length; c++) {
+            distance += Math.abs(distA[c] / weightA - distB[c] / weightB);
+        }
+        return distance / 2 <= MAX_DISTRIBUTION_DISTANCE;
+    }
+
+
+    /**
+     * Builds a new numeric antecedent from the index of its attribute
+     *
+     * @param attIndex The index of the attribute
+     *
+     * @return A new numeric antecedent
+     */
+    public NumericAntd buildNumericAntd(int attIndex) {
+        return new NumericAntd(m_header.attribute(attIndex));
+    }
+
+
+    /**
+     * Builds a new nominal antecedent from the index of its attribute
+     *
+     * @param attIndex The index of the attribute
+     *
+     * @return A new nominal antecedent
+     */
+    public NominalAntd buildNominalAntd(int attIndex) {
+        return new NominalAntd(m_header.attribute(attIndex));
+    }
+
+
+    /**
+     * Returns a string describing the rule set
+     *
+     * @return A string describing the rule set
+     */
+    public String ruleSetToString() {
+        String s = "[\n";
+        for (VfdrRule r : m_ruleSet) {
+            s += "\t" + r + "\n";
+        }
+        s += "\t" + m_defaultRule + "\n]";
+
+        return s;
+    }
+
+
+    @Override
+    public String toString() {
+        return m_initialised ? ruleSetToString() : "You must build this classifier first";
+    }
+
+
+    /**
+     * Saves this classifier in the compact binary format described in
+     * {@link ModelFormat}. It is much smaller and faster to load than with
+     * Java serialization. The stream is not closed.
+     *
+     * @param out The stream to write to
+     * @throws IOException If the model could not be written
+     */
+    public void saveModel(OutputStream out) throws IOException {
+        if (!m_initialised) {
+            throw new IOException("You must build this classifier before saving it");
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        writeModelHeader(data, m_instancesLearnt.get());
+
+        m_structureLock.readLock().lock();
+        try {
+            ModelFormat.writeVarInt(data, m_ruleSet.size());
+            for (VfdrRule rule : m_ruleSet) {
+                synchronized (rule) {
+                    rule.write(data);
+                }
+            }
+            synchronized (m_defaultRule) {
+                m_defaultRule.write(data);
+            }
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+        data.flush();
+    }
+
+
+    /**
+     * Saves this classifier as it is at one point of training, in the format
+     * of {@link #saveModel(OutputStream)}, without pausing training while it
+     * is encoded. The point is marked under the exclusive structural lock,
+     * where the given action is run. The rules are then encoded one at a time
+     * under their own lock, and a rule about to be updated before it has been
+     * encoded is encoded first by the training thread. The rule set is not
+     * expanded until every rule has been encoded. The stream is not closed.
+     *
+     * @param out   The stream to write to
+     * @param atCut The action run at the point of training saved, e.g. to
+     *              switch a training log to a new segment
+     * @throws IOException If the model could not be written
+     */
+    public void saveModel(OutputStream out, Runnable atCut) throws IOException {
+        if (!m_initialised) {
+            throw new IOException("You must build this classifier before saving it");
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        VfdrRule[] rules;
+        byte[][] saved;
+
+        m_structureLock.writeLock().lock();
+        try {
+            atCut.run();
+            writeModelHeader(new DataOutputStream(header), m_instancesLearnt.get());
+            rules = m_ruleSet.toArray(new VfdrRule[m_ruleSet.size() + 1]);
+            rules[rules.length - 1] = m_defaultRule;
+            saved = new byte[rules.length][];
+            m_savedRules = saved;
+            // downgraded, so that training goes on but the positions do not change
+            m_structureLock.readLock().lock();
+        } finally {
+            m_structureLock.writeLock().unlock();
+        }
+
+        try {
+            for (int id = 0; id < rules.length; id++) {
+                synchronized (rules[id]) {
+                    saveBeforeUpdate(id, rules[id]);
+                }
+            }
+        } finally {
+            m_savedRules = null;
+            m_structureLock.readLock().unlock();
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        header.writeTo(data);
+        ModelFormat.writeVarInt(data, rules.length - 1);
+        for (byte[] rule : saved) {
+            data.write(rule);
+        }
+        data.flush();
+    }
+
+
+    /**
+     * Encodes a rule for the model being saved, if any, unless it has already
+     * been encoded. Must be called under the lock of the rule, before it is
+     * updated.
+     *
+     * @param id   The position of the rule, or the size of the rule set for
+     *             the default rule
+     * @param rule The rule
+     */
+    private void saveBeforeUpdate(int id, VfdrRule rule) {
+        byte[][] saved = m_savedRules;
+        if (saved != null && saved[id] == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                rule.write(new DataOutputStream(bytes));
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // not thrown in memory
+            }
+            saved[id] = bytes.toByteArray();
+        }
+    }
+
+
+    /**
+     * Writes what precedes the rules in the compact model format
+     *
+     * @param data            The output
+     * @param instancesLearnt The number of instances learnt
+     * @throws IOException If the header could not be written
+     */
+    private void writeModelHeader(DataOutputStream data, long instancesLearnt) throws IOException {
+        data.writeInt(ModelFormat.MAGIC);
+        data.writeInt(ModelFormat.VERSION);
+        data.writeUTF(Utils.joinOptions(getOptions()));
+
+        byte[] header = m_header.toString().getBytes("UTF-8");
+        ModelFormat.writeVarInt(data, header.length);
+        data.write(header);
+        ModelFormat.writeVarInt(data, m_header.classIndex());
+        ModelFormat.writeVarLong(data, instancesLearnt);
+    }
+
+
+    /**
+     * Loads a classifier saved with {@link #saveModel(OutputStream)}. The
+     * stream is not closed.
+     *
+     * @param in The stream to read from
+     * @return The classifier, which can be updated further
+     * @throws Exception If the model could not be read
+     */
+    public static Vfdr loadModel(InputStream in) throws Exception {
+        DataInputStream data = new DataInputStream(in instanceof BufferedInputStream ? in
+                                                                                     : new BufferedInputStream(in));
+        if (data.readInt() != ModelFormat.MAGIC) {
+            throw new IOException("Not a compact VFDR model");
+        }
+        int version = data.readInt();
+        if (version != ModelFormat.VERSION) {
+            throw new IOException("Unsupported model version: " + version);
+        }
+
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(data.readUTF()));
+
+        byte[] headerBytes = new byte[ModelFormat.readVarInt(data)];
+        data.readFully(headerBytes);
+        Instances header = new Instances(new StringReader(new String(headerBytes, "UTF-8")));
+        header.setClassIndex(ModelFormat.readVarInt(data));
+
+        vfdr.initialise(header);
+        vfdr.m_instancesLearnt.set(ModelFormat.readVarLong(data));
+        for (int n = ModelFormat.readVarInt(data); n > 0; n--) {
+            vfdr.m_coverageIndex.addRule(VfdrRule.read(data, vfdr));
+        }
+        vfdr.m_defaultRule = VfdrRule.read(data, vfdr);
+
+        if (vfdr.m_snapshotInterval > 0) {
+            vfdr.publishSnapshot();
+        }
+        return vfdr;
+    }
+    
+    /* GETTERS AND SETTERS */
+
+
+    /**
+     * Sets the threshold below which an expansion will be forced in order to
+     * break ties. Default is 0.05.
+     *
+     * @param t New tie threshold
+     */
+    @OptionMetadata(displayName = "hoeffdingTieThreshold", commandLineParamName = "T",
+                    description = "Threshold below which a rule expansion will be forced in order to break ties.",
+                    commandLineParamSynopsis = "-T <threshold value>", displayOrder = 5)
+    public void setHoeffdingTieThreshold(double t) {
+        m_hoeffdingTieThreshold = t;
+    }
+
+
+    public double getHoeffdingConfidence() {
+        return m_hoeffdingConfidence;
+    }
+
+
+    /**
+     * Sets the allowable error in an expansion decision. Its value is one minus
+     * the desired probability of choosing the correct attribute. Used in the
+     * computation of the Hoeffding bound. Default is 1E-7.
+     *
+     * @param c New confidence value
+     */
+    @OptionMetadata(displayName = "hoeffdingConfidence", commandLineParamName = "C",
+                    description = "The allowable error in the decision to expand a rule. Values closer to zero will take longer to decide.",
+                    commandLineParamSynopsis = "-C <confidence value>", displayOrder = 6)
+    public void setHoeffdingConfidence(double c) {
+        m_hoeffdingConfidence = c;
+    }
+
+
+    public double getTieThreshold() {
+        return m_hoeffdingTieThreshold;
+    }
+
+
+    public int getGracePeriod() {
+        return m_gracePeriod;
+    }
+
+
+    /**
+     * Sets the number of instances a rule should observe between expansion
+     * attempts. Instances are counted by their weight.
+     *
+     * @param n The new grace period
+     */
+    @OptionMetadata(displayName = "gracePeriod", commandLineParamName = "G",
+                    description = "Number of instances a rule should observe between expansion attempts. "
+                                  + "You should adapt this to the size of your training set",
+                    commandLineParamSynopsis = "-G <period value>", displayOrder = 1)
+    public void setGracePeriod(int n) {
+        m_gracePeriod = n;
+    }
+
+
+    public int getPredictionStrategy() {
+        return m_useNaiveBayes ? USE_NB : USE_MAJ_CLASS;
+    }
+
+
+    /**
+     * Sets whether subsequently created instances will use naive bayes or not
+     * to make predictions. A parameter of 0 will set the strategy to majority
+     * class.
+     *
+     * @param n The code of the strategy (0 = majority class, 1 = naive Bayes)
+     */
+    @OptionMetadata(displayName = "predictionStrategy", commandLineParamName = "R",
+                    description = "The prediction strategy to use (0 = majority class, 1 = naive Bayes)",
+                    commandLineParamSynopsis = "-R <strategy code>", displayOrder = 4)
+    public void setPredictionStrategy(int n) {
+        m_useNaiveBayes = n == USE_NB;
+    }
+
+
+    public boolean getUseNaiveBayes() {
+        return m_useNaiveBayes;
+    }
+
+
+    public double getNBWeightThreshold() {
+        return m_nbWeightThreshold;
+    }
+
+
+    /**
+     * Sets the minimal weight a rule requires to make predictions using naive
+     * Bayes.
+     *
+     * @param n The minimal weight
+     */
+    @OptionMetadata(displayName = "nbWeightThreshold", commandLineParamName = "N",
+                    description = "The minimum weight a rule requires to make predictions using naive Bayes",
+                    commandLineParamSynopsis = "-N <threshold value>", displayOrder = 4)
+    public void setNBWeightThreshold(double n) {
+        m_nbWeightThreshold = n;
+    }
+
+
+    /**
+     * Gets the structure of the instances this classifier can handle
+     *
+     * @return The structure
+     */
+    public Instances getHeader() {
+        return m_header;
     }
 
 
@@ -446,12 +2239,58 @@ public class Vfdr extends RandomizableClassifier
 
 
     /**
-     * Returns the rule set induced by training
+     * Returns the rule set induced by training
+     *
+     * @return the rule set
+     */
+    public List<VfdrRule> ruleSet() {
+        return m_ruleSet;
+    }
+
+
+    /**
+     * Returns the default rule, which covers every instance and is kept
+     * separately from the rule set
+     *
+     * @return the default rule
+     */
+    public VfdrRule defaultRule() {
+        return m_defaultRule;
+    }
+
+
+    /**
+     * Gets the number of literals of every rule, the default rule excepted.
+     * This may be called while the classifier is trained.
+     *
+     * @return The number of literals of every rule, in the order of the rule
+     *     set
+     */
+    public int[] ruleLengths() {
+        m_structureLock.readLock().lock();
+        try {
+            if (!m_initialised) {
+                return new int[0];
+            }
+            int[] lengths = new int[m_ruleSet.size()];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = m_ruleSet.get(i).literals().size();
+            }
+            return lengths;
+        } finally {
+            m_structureLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the metrics of the classifier
      *
-     * @return the rule set
+     * @return The metrics, or null if they are not collected
+     * @see #setCollectMetrics(boolean)
      */
-    public List<VfdrRule> ruleSet() {
-        return m_ruleSet;
+    public VfdrMetrics getMetrics() {
+        return m_metrics;
     }
 
 
@@ -479,6 +2318,364 @@ public class Vfdr extends RandomizableClassifier
     }
 
 
+    /**
+     * Returns whether predictions are made using a compiled rule set
+     *
+     * @return Whether predictions are made using a compiled rule set
+     */
+    public boolean getCompiledScoring() {
+        return m_compiledScoring;
+    }
+
+
+    /**
+     * Sets whether predictions are made using a compiled rule set. The rule set
+     * is compiled into flat arrays on the first prediction following a change
+     * of its structure, which makes scoring faster when predictions are much
+     * more frequent than expansions. Predictions are the same in both modes.
+     *
+     * @param b true to use compiled scoring
+     */
+    @OptionMetadata(displayName = "compiledScoring", commandLineParamName = "K",
+                    description = "Compile the rule set to make predictions faster.",
+                    commandLineParamSynopsis = "-K", commandLineParamIsFlag = true, displayOrder = 7)
+    public void setCompiledScoring(boolean b) {
+        m_compiledScoring = b;
+    }
+
+
+    public int getNumExecutionSlots() {
+        return m_numExecutionSlots;
+    }
+
+
+    /**
+     * Sets the number of threads used to score large batches of instances.
+     * A value of 0 uses as many threads as there are available cores.
+     *
+     * @param n The number of execution slots
+     */
+    @OptionMetadata(displayName = "numExecutionSlots", commandLineParamName = "P",
+                    description = "Number of threads used for batch prediction (0 = number of cores).",
+                    commandLineParamSynopsis = "-P <num threads>", displayOrder = 8)
+    public void setNumExecutionSlots(int n) {
+        m_numExecutionSlots = n;
+    }
+
+
+    public int getNumExpansionThreads() {
+        return m_numExpansionThreads;
+    }
+
+
+    /**
+     * Sets the number of threads evaluating rule expansions in the background.
+     * With a positive value, the statistics of a rule eligible for expansion
+     * are copied and evaluated by a worker thread, and the chosen antecedent is
+     * added on the next update. The rule keeps learning meanwhile, for at most
+     * one more grace period, and what it learns is dropped by the expansion:
+     * rules are expanded less often, so the rule set is usually smaller and
+     * can be less accurate than with synchronous expansions. With 0 (the
+     * default), expansions are evaluated synchronously, which makes training
+     * reproducible.
+     *
+     * @param n The number of expansion threads
+     */
+    @OptionMetadata(displayName = "numExpansionThreads", commandLineParamName = "E",
+                    description = "Number of threads evaluating expansions in the background (0 = synchronous). " +
+                                  "Rules are then expanded less often, which can cost accuracy.",
+                    commandLineParamSynopsis = "-E <num threads>", displayOrder = 9)
+    public void setNumExpansionThreads(int n) {
+        if (n != m_numExpansionThreads && m_expansionExecutor != null) {
+            m_expansionExecutor.shutdown(); // submitted evaluations still complete
+            m_expansionExecutor = null;
+        }
+        m_numExpansionThreads = n;
+    }
+
+
+    public int getNumSplitCandidates() {
+        return m_numSplitCandidates;
+    }
+
+
+    /**
+     * Sets the number of split points evaluated when looking for the best
+     * antecedent on a numeric attribute. They are placed on the quantiles of
+     * the distribution observed by the rule. Only affects subsequently created
+     * statistics.
+     *
+     * @param n The number of split points
+     */
+    @OptionMetadata(displayName = "numSplitCandidates", commandLineParamName = "B",
+                    description = "Number of split points evaluated on numeric attributes.",
+                    commandLineParamSynopsis = "-B <num split points>", displayOrder = 10)
+    public void setNumSplitCandidates(int n) {
+        m_numSplitCandidates = n;
+    }
+
+
+    public int getNumericObserver() {
+        return m_numericObserver;
+    }
+
+
+    /**
+     * Sets the structure used to find split points on numeric attributes: a
+     * Gaussian per class (constant memory), an exact binary search tree
+     * (E-BST) or a streaming histogram. Only affects subsequently created
+     * statistics.
+     *
+     * @param n The code of the observer (0 = Gaussian, 1 = E-BST, 2 =
+     *          histogram)
+     */
+    @OptionMetadata(displayName = "numericObserver", commandLineParamName = "A",
+                    description = "The observer used on numeric attributes (0 = Gaussian, 1 = E-BST, 2 = histogram).",
+                    commandLineParamSynopsis = "-A <observer code>", displayOrder = 11)
+    public void setNumericObserver(int n) {
+        m_numericObserver = n;
+    }
+
+
+    public int getMaxObserverSize() {
+        return m_maxObserverSize;
+    }
+
+
+    /**
+     * Sets the maximum number of nodes of the E-BST observer, or the number of
+     * bins of the histogram observer. Bounds the memory used per attribute.
+     *
+     * @param n The maximum size of the numeric observers
+     */
+    @OptionMetadata(displayName = "maxObserverSize", commandLineParamName = "M",
+                    description = "Maximum number of nodes (E-BST) or bins (histogram) of the numeric observers.",
+                    commandLineParamSynopsis = "-M <max size>", displayOrder = 12)
+    public void setMaxObserverSize(int n) {
+        m_maxObserverSize = n;
+    }
+
+
+    public int getNumTrainingShards() {
+        return m_numTrainingShards;
+    }
+
+
+    /**
+     * Sets the number of threads updating the statistics of the rules when
+     * learning from a batch of instances. With more than one shard, the
+     * statistics are merged and the rules expanded periodically, which
+     * changes the rule set learnt.
+     *
+     * @param n The number of training shards
+     */
+    @OptionMetadata(displayName = "numTrainingShards", commandLineParamName = "W",
+                    description = "Number of threads updating the statistics during batch training.",
+                    commandLineParamSynopsis = "-W <num shards>", displayOrder = 13)
+    public void setNumTrainingShards(int n) {
+        if (n != m_numTrainingShards && m_trainingExecutor != null) {
+            m_trainingExecutor.shutdown();
+            m_trainingExecutor = null;
+        }
+        m_numTrainingShards = n;
+    }
+
+
+    public int getSnapshotInterval() {
+        return m_snapshotInterval;
+    }
+
+
+    /**
+     * Sets the number of updates between two snapshots of the rule set used
+     * for predictions. With a positive value, predictions are made without
+     * locks against the last snapshot, which is also replaced after every
+     * expansion, so the classifier can be used while it is updated by other
+     * threads. The statistics used for predictions may then lag behind by up
+     * to that number of updates. With 0 (the default), predictions use the
+     * live rule set.
+     *
+     * @param n The number of updates between two snapshots
+     */
+    @OptionMetadata(displayName = "snapshotInterval", commandLineParamName = "I",
+                    description = "Number of updates between two snapshots used for predictions (0 = no snapshots).",
+                    commandLineParamSynopsis = "-I <num updates>", displayOrder = 14)
+    public void setSnapshotInterval(int n) {
+        m_snapshotInterval = n;
+        if (n <= 0) {
+            m_snapshot = null;
+        } else if (m_initialised && m_snapshot == null) {
+            publishSnapshot();
+        }
+    }
+
+
+    public int getShuffleBufferSize() {
+        return m_shuffleBufferSize;
+    }
+
+
+    /**
+     * Sets the size of the buffer used to shuffle the instances when the
+     * classifier is built from a loader. Memory use is bounded by the size of
+     * the buffer instead of the size of the data. With 0, the instances are
+     * learnt in the order of the loader.
+     *
+     * @param n The number of instances of the shuffle buffer
+     * @see #buildClassifier(Loader, int)
+     */
+    @OptionMetadata(displayName = "shuffleBufferSize", commandLineParamName = "Z",
+                    description = "Size of the buffer shuffling the instances read from a loader (0 = no shuffling).",
+                    commandLineParamSynopsis = "-Z <num instances>", displayOrder = 15)
+    public void setShuffleBufferSize(int n) {
+        m_shuffleBufferSize = n;
+    }
+
+
+    public double getMemoryBudget() {
+        return m_memoryBudget;
+    }
+
+
+    /**
+     * Sets the memory budget of the rules, in megabytes. When their estimated
+     * size exceeds the budget, the least promising rules drop the statistics
+     * used to expand them, and keep making predictions. They are reactivated
+     * if they become promising again and fit in the budget. The budget is
+     * checked every {@value #MEMORY_CHECK_PERIOD} instances. Default is 0, for
+     * no budget.
+     *
+     * @param megabytes The memory budget, or 0 for no budget
+     * @see #memoryFootprint()
+     */
+    @OptionMetadata(displayName = "memoryBudget", commandLineParamName = "L",
+                    description = "Memory budget of the rules in megabytes (0 = no budget).",
+                    commandLineParamSynopsis = "-L <megabytes>", displayOrder = 17)
+    public void setMemoryBudget(double megabytes) {
+        m_memoryBudget = megabytes;
+    }
+
+
+    public int getMaxRules() {
+        return m_maxRules;
+    }
+
+
+    /**
+     * Sets the maximum number of rules, the default rule excepted. When an
+     * expansion of the default rule exceeds it, the rules of least value are
+     * evicted: those which cover the least weight, and have not covered
+     * instances recently. Default is 0, for no limit.
+     *
+     * @param n The maximum number of rules, or 0 for no limit
+     */
+    @OptionMetadata(displayName = "maxRules", commandLineParamName = "U",
+                    description = "Maximum number of rules (0 = no limit).",
+                    commandLineParamSynopsis = "-U <max rules>", displayOrder = 18)
+    public void setMaxRules(int n) {
+        m_maxRules = n;
+    }
+
+
+    public int getCompactionInterval() {
+        return m_compactionInterval;
+    }
+
+
+    /**
+     * Sets the number of instances between two compactions of the rule set,
+     * which remove duplicate rules and rules subsumed by more general ones.
+     * Default is 0, to never compact the rule set.
+     *
+     * @param n The number of instances between compactions, or 0
+     * @see #compactRules()
+     */
+    @OptionMetadata(displayName = "compactionInterval", commandLineParamName = "Y",
+                    description = "Number of instances between two compactions of the rule set (0 = never).",
+                    commandLineParamSynopsis = "-Y <num instances>", displayOrder = 19)
+    public void setCompactionInterval(int n) {
+        m_compactionInterval = n;
+    }
+
+
+    public double getDriftThreshold() {
+        return m_driftThreshold;
+    }
+
+
+    /**
+     * Sets the threshold of the drift detectors of the rules. Each rule feeds
+     * the error rate of its majority class on the instances it covers to a
+     * Page-Hinkley test. A rule whose error rate increases significantly is
+     * removed, and the statistics of the default rule are reset instead, so
+     * that the rule set follows the current concept. Lower values detect drift
+     * earlier, at the risk of false alarms. Default is 0, to not detect drift.
+     *
+     * @param t The threshold of the Page-Hinkley test, or 0
+     * @see PageHinkley
+     */
+    @OptionMetadata(displayName = "driftThreshold", commandLineParamName = "H",
+                    description = "Threshold of the drift detection of the rules (0 = no detection).",
+                    commandLineParamSynopsis = "-H <threshold>", displayOrder = 20)
+    public void setDriftThreshold(double t) {
+        m_driftThreshold = t;
+    }
+
+
+    public boolean getCollectMetrics() {
+        return m_collectMetrics;
+    }
+
+
+    /**
+     * Sets whether metrics are collected: counts of the instances learnt and
+     * of the expansions, and latencies of training and prediction. Metrics are
+     * kept when the classifier is rebuilt, and are lost when they are
+     * disabled. When disabled, the cost is a test at each measurement point.
+     *
+     * @param b true to collect metrics
+     * @see #getMetrics()
+     * @see VfdrMetrics#register(String)
+     */
+    @OptionMetadata(displayName = "collectMetrics", commandLineParamName = "X",
+                    description = "Collect metrics of the training and of the predictions.",
+                    commandLineParamSynopsis = "-X", commandLineParamIsFlag = true, displayOrder = 16)
+    public void setCollectMetrics(boolean b) {
+        m_collectMetrics = b;
+        if (!b) {
+            m_metrics = null;
+        } else if (m_metrics == null) {
+            m_metrics = new VfdrMetrics(this);
+        }
+    }
+
+
+    /**
+     * Restores a serialised classifier, with empty metrics if they are
+     * collected
+     *
+     * @param in The stream to read from
+     * @throws IOException            If reading fails
+     * @throws ClassNotFoundException If a class of the classifier is missing
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (m_collectMetrics) {
+            m_metrics = new VfdrMetrics(this);
+        }
+    }
+
+
+    /**
+     * Returns the number of instances learnt since the classifier was built
+     *
+     * @return The number of instances learnt
+     */
+    public long numInstancesLearnt() {
+        return m_instancesLearnt.get();
+    }
+
+
     /**
      * Returns true if the classifier is ready to accept new training instances
      *
@@ -520,6 +2717,46 @@ public class Vfdr extends RandomizableClassifier
         newVector.add(new Option("The allowable error in the decision to expand a rule. Values closer to zero will take longer to decide.",
             "C", 1, "-C <confidence value>"));
 
+        newVector.add(new Option("Compile the rule set to make predictions faster.", "K", 0, "-K"));
+
+        newVector.add(new Option("Number of threads used for batch prediction (0 = number of cores).",
+            "P", 1, "-P <num threads>"));
+
+        newVector.add(new Option("Number of threads evaluating expansions in the background (0 = synchronous). " +
+                                 "Rules are then expanded less often, which can cost accuracy.",
+            "E", 1, "-E <num threads>"));
+
+        newVector.add(new Option("Number of split points evaluated on numeric attributes.",
+            "B", 1, "-B <num split points>"));
+
+        newVector.add(new Option("The observer used on numeric attributes (0 = Gaussian, 1 = E-BST, 2 = histogram).",
+            "A", 1, "-A <observer code>"));
+
+        newVector.add(new Option("Maximum number of nodes (E-BST) or bins (histogram) of the numeric observers.",
+            "M", 1, "-M <max size>"));
+
+        newVector.add(new Option("Number of threads updating the statistics during batch training.",
+            "W", 1, "-W <num shards>"));
+
+        newVector.add(new Option("Number of updates between two snapshots used for predictions (0 = no snapshots).",
+            "I", 1, "-I <num updates>"));
+
+        newVector.add(new Option("Size of the buffer shuffling the instances read from a loader (0 = no shuffling).",
+            "Z", 1, "-Z <num instances>"));
+
+        newVector.add(new Option("Collect metrics of the training and of the predictions.", "X", 0, "-X"));
+
+        newVector.add(new Option("Memory budget of the rules in megabytes (0 = no budget).",
+            "L", 1, "-L <megabytes>"));
+
+        newVector.add(new Option("Maximum number of rules (0 = no limit).", "U", 1, "-U <max rules>"));
+
+        newVector.add(new Option("Number of instances between two compactions of the rule set (0 = never).",
+            "Y", 1, "-Y <num instances>"));
+
+        newVector.add(new Option("Threshold of the drift detection of the rules (0 = no detection).",
+            "H", 1, "-H <threshold>"));
+
         newVector.addAll(Collections.list(super.listOptions()));
 
         return newVector.elements();
@@ -546,10 +2783,40 @@ public class Vfdr extends RandomizableClassifier
         options.add("" + m_hoeffdingConfidence);
         options.add("-R");
         options.add("" + (m_useNaiveBayes ? USE_NB : USE_MAJ_CLASS));
+        options.add("-P");
+        options.add("" + m_numExecutionSlots);
+        options.add("-E");
+        options.add("" + m_numExpansionThreads);
+        options.add("-B");
+        options.add("" + m_numSplitCandidates);
+        options.add("-A");
+        options.add("" + m_numericObserver);
+        options.add("-M");
+        options.add("" + m_maxObserverSize);
+        options.add("-W");
+        options.add("" + m_numTrainingShards);
+        options.add("-I");
+        options.add("" + m_snapshotInterval);
+        options.add("-Z");
+        options.add("" + m_shuffleBufferSize);
+        options.add("-L");
+        options.add("" + m_memoryBudget);
+        options.add("-U");
+        options.add("" + m_maxRules);
+        options.add("-Y");
+        options.add("" + m_compactionInterval);
+        options.add("-H");
+        options.add("" + m_driftThreshold);
 
         if (m_orderedSet) {
             options.add("-O");
         }
+        if (m_compiledScoring) {
+            options.add("-K");
+        }
+        if (m_collectMetrics) {
+            options.add("-X");
+        }
         Collections.addAll(options, super.getOptions());
 
         return options.toArray(new String[0]);
@@ -575,15 +2842,272 @@ public class Vfdr extends RandomizableClassifier
 
         String hoeffdingThreshold = Utils.getOption('T', options);
         if (hoeffdingThreshold.length() != 0) {
-            setHoeffdingConfidence(Double.parseDouble(hoeffdingThreshold));
+            setHoeffdingTieThreshold(Double.parseDouble(hoeffdingThreshold));
+        }
+
+        String hoeffdingConfidence = Utils.getOption('C', options);
+        if (hoeffdingConfidence.length() != 0) {
+            setHoeffdingConfidence(Double.parseDouble(hoeffdingConfidence));
+        }
+
+        String numSlots = Utils.getOption('P', options);
+        if (numSlots.length() != 0) {
+            setNumExecutionSlots(Integer.parseInt(numSlots));
+        }
+
+        String numExpansionThreads = Utils.getOption('E', options);
+        if (numExpansionThreads.length() != 0) {
+            setNumExpansionThreads(Integer.parseInt(numExpansionThreads));
+        }
+
+        String numSplitCandidates = Utils.getOption('B', options);
+        if (numSplitCandidates.length() != 0) {
+            setNumSplitCandidates(Integer.parseInt(numSplitCandidates));
+        }
+
+        String numericObserver = Utils.getOption('A', options);
+        if (numericObserver.length() != 0) {
+            setNumericObserver(Integer.parseInt(numericObserver));
+        }
+
+        String maxObserverSize = Utils.getOption('M', options);
+        if (maxObserverSize.length() != 0) {
+            setMaxObserverSize(Integer.parseInt(maxObserverSize));
+        }
+
+        String numTrainingShards = Utils.getOption('W', options);
+        if (numTrainingShards.length() != 0) {
+            setNumTrainingShards(Integer.parseInt(numTrainingShards));
+        }
+
+        String snapshotInterval = Utils.getOption('I', options);
+        if (snapshotInterval.length() != 0) {
+            setSnapshotInterval(Integer.parseInt(snapshotInterval));
+        }
+
+        String shuffleBufferSize = Utils.getOption('Z', options);
+        if (shuffleBufferSize.length() != 0) {
+            setShuffleBufferSize(Integer.parseInt(shuffleBufferSize));
+        }
+
+        String memoryBudget = Utils.getOption('L', options);
+        if (memoryBudget.length() != 0) {
+            setMemoryBudget(Double.parseDouble(memoryBudget));
+        }
+
+        String maxRules = Utils.getOption('U', options);
+        if (maxRules.length() != 0) {
+            setMaxRules(Integer.parseInt(maxRules));
+        }
+
+        String compactionInterval = Utils.getOption('Y', options);
+        if (compactionInterval.length() != 0) {
+            setCompactionInterval(Integer.parseInt(compactionInterval));
+        }
+
+        String driftThreshold = Utils.getOption('H', options);
+        if (driftThreshold.length() != 0) {
+            setDriftThreshold(Double.parseDouble(driftThreshold));
         }
 
-        setOrderedSet(Utils.getFlag('O', options));
+        // the superclass resets the annotated flags missing from the options
+        boolean orderedSet = Utils.getFlag('O', options);
+        boolean compiledScoring = Utils.getFlag('K', options);
+        boolean collectMetrics = Utils.getFlag('X', options);
 
         super.setOptions(options);
 
+        setOrderedSet(orderedSet);
+        setCompiledScoring(compiledScoring);
+        setCollectMetrics(collectMetrics);
+
         Utils.checkForRemainingOptions(options);
     }
 
 
+    /**
+     * An evaluation running in the background, with the weight of the
+     * statistics it was started from
+     */
+    private static class PendingExpansion {
+
+        private final Future<Antd> m_result;
+        private final double m_weight;
+
+
+        PendingExpansion(Future<Antd> result, double weight) {
+            m_result = result;
+            m_weight = weight;
+        }
+    }
+
+
+    /**
+     * Updates private copies of the statistics of the rules with a range of a
+     * batch of instances, during a round of sharded training. The rule set is
+     * only read.
+     */
+    private class TrainingShard implements Callable<SufficientStats[]> {
+
+        private final Instances m_batch;
+        private final int m_from;
+        private final int m_to;
+
+        /**
+         * Updates of the stats of each rule, indexed on the position of the
+         * rule. The last one is for the default rule. Null if the rule has not
+         * been updated.
+         */
+        private final SufficientStats[] m_deltas;
+
+        /**
+         * Weight of the instances misclassified by each rule, and weight of
+         * the instances it has classified, to detect drift. The statistics of
+         * the rules do not change during a round.
+         */
+        private final double[] m_errors;
+        private final double[] m_predicted;
+
+
+        TrainingShard(Instances batch, int from, int to) {
+            m_batch = batch;
+            m_from = from;
+            m_to = to;
+            m_deltas = new SufficientStats[m_ruleSet.size() + 1];
+            m_errors = new double[m_deltas.length];
+            m_predicted = new double[m_deltas.length];
+        }
+
+
+        @Override
+        public SufficientStats[] call() {
+            int defaultId = m_deltas.length - 1;
+            VfdrMetrics metrics = m_metrics;
+            long start = 0;
+            long covered = 0;
+
+            for (int i = m_from; i < m_to; i++) {
+                Instance x = m_batch.instance(i);
+                if (x.classIsMissing()) {
+                    continue;
+                }
+
+                if (metrics != null) {
+                    start = System.nanoTime();
+                }
+
+                int[] triggered = m_coverageIndex.coveringRules(x);
+
+                if (metrics != null) {
+                    covered = System.nanoTime();
+                }
+
+                for (int id : triggered) {
+                    learn(id, x);
+                    if (m_orderedSet) {
+                        break;
+                    }
+                }
+
+                if (triggered.length == 0) {
+                    learn(defaultId, x);
+                }
+
+                if (metrics != null) {
+                    metrics.instanceLearnt(covered - start, System.nanoTime() - covered, triggered.length == 0);
+                }
+            }
+            return m_deltas;
+        }
+
+
+        private void learn(int id, Instance x) {
+            if (m_driftThreshold > 0) {
+                VfdrRule rule = id < m_deltas.length - 1 ? m_ruleSet.get(id) : m_defaultRule;
+                if (rule.getStats().totalWeight() > 0) {
+                    m_predicted[id] += x.weight();
+                    if (rule.misclassifies(x)) {
+                        m_errors[id] += x.weight();
+                    }
+                }
+            }
+            delta(id).update(x);
+        }
+
+
+        private SufficientStats delta(int id) {
+            if (m_deltas[id] == null) {
+                VfdrRule rule = id < m_deltas.length - 1 ? m_ruleSet.get(id) : m_defaultRule;
+                m_deltas[id] = rule.getStats().emptyCopy();
+            }
+            return m_deltas[id];
+        }
+    }
+
+
+    /**
+     * Scores a range of a batch of instances, splitting it in two until it is
+     * small enough.
+     */
+    private class BatchScoringTask extends RecursiveAction {
+
+        /**
+         * For serialisation
+         */
+        private static final long serialVersionUID = 2206541532829342075L;
+
+        private final CompiledRuleSet m_compiled;
+        private final VfdrRule m_defaultRule;
+        private final Instances m_batch;
+        private final double[][] m_dists;
+        private final int m_from;
+        private final int m_to;
+        private final int m_partitionSize;
+
+
+        BatchScoringTask(CompiledRuleSet compiled, VfdrRule defaultRule, Instances batch, double[][] dists,
+                         int from, int to, int partitionSize) {
+            m_compiled = compiled;
+            m_defaultRule = defaultRule;
+            m_batch = batch;
+            m_dists = dists;
+            m_from = from;
+            m_to = to;
+            m_partitionSize = partitionSize;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (m_to - m_from <= m_partitionSize) {
+                try {
+                    scoreRange(m_compiled, m_defaultRule, m_batch, m_dists, m_from, m_to);
+                } catch (Exception e) {
+                    throw new BatchScoringException(e);
+                }
+            } else {
+                int mid = (m_from + m_to) >>> 1;
+                invokeAll(new BatchScoringTask(m_compiled, m_defaultRule, m_batch, m_dists, m_from, mid,
+                        m_partitionSize),
+                    new BatchScoringTask(m_compiled, m_defaultRule, m_batch, m_dists, mid, m_to, m_partitionSize));
+            }
+        }
+    }
+
+
+    /**
+     * Carries an exception thrown while scoring a partition of a batch.
+     */
+    private static class BatchScoringException extends RuntimeException {
+
+        /**
+         * For serialisation
+         */
+        private static final long serialVersionUID = -6914640036385311178L;
+
+
+        BatchScoringException(Throwable cause) {
+            super(cause);
+        }
+    }
 }
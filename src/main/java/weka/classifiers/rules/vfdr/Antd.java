@@ -29,6 +29,16 @@ public abstract class Antd implements Serializable {
 
     public abstract boolean covers(Instance inst);
 
+
+    /**
+     * Whether every instance covered by another antecedent is covered by this
+     * one, e.g. {@code x > 1} is implied by {@code x > 2}
+     *
+     * @param other The other antecedent
+     * @return True if the other antecedent implies this one
+     */
+    public abstract boolean isImpliedBy(Antd other);
+
     @Override
     public abstract String toString();
 
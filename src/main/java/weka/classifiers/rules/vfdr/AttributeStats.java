@@ -1,8 +1,9 @@
 package weka.classifiers.rules.vfdr;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 
 import weka.classifiers.rules.Vfdr;
 
@@ -23,34 +24,72 @@ public abstract class AttributeStats implements Serializable {
      */
     private static final long serialVersionUID = -5701874161750880562L;
 
+    /* Sizes used to estimate the memory footprint, in bytes */
+    protected static final int OBJECT_SIZE = 16;
+    protected static final int REFERENCE_SIZE = 8;
+
     /**
-     * The name of the attribute
+     * The index of the attribute
      */
-    protected String m_attributeName;
+    protected int m_attributeIndex;
 
     /**
      * A callback to the classifier
      */
     protected Vfdr m_classifierCallback;
     /**
-     * Maps every class to a distribution estimator. The estimator is here of
-     * type Object, but will be specialised later depending on whether the
-     * attribute is nominal or not. The two types of estimators are defined
-     * inside the children classes of this one.
+     * Number of values of the class attribute. The distribution estimators
+     * held by the children classes are stored in arrays indexed on the class
+     * index.
      */
-    protected Map<String, Object> m_classLookup = new HashMap<>();
+    protected int m_numClasses;
 
 
     /**
-     * Builds a new attribute stats using the name of the attribute and a
+     * Builds a new attribute stats using the index of the attribute and a
      * callback to the classifier
      *
-     * @param attName The name of the attribute
-     * @param vfdr    The classifier which owns this object
+     * @param attIndex The index of the attribute
+     * @param vfdr     The classifier which owns this object
      */
-    public AttributeStats(String attName, Vfdr vfdr) {
-        m_attributeName = attName;
+    public AttributeStats(int attIndex, Vfdr vfdr) {
+        m_attributeIndex = attIndex;
         m_classifierCallback = vfdr;
+        m_numClasses = vfdr.getHeader().numClasses();
+    }
+
+
+    /**
+     * Builds a copy of other attribute stats. Children classes copy their
+     * estimators.
+     *
+     * @param toCopy The attribute stats to copy
+     */
+    protected AttributeStats(AttributeStats toCopy) {
+        m_attributeIndex = toCopy.m_attributeIndex;
+        m_classifierCallback = toCopy.m_classifierCallback;
+        m_numClasses = toCopy.m_numClasses;
+    }
+
+
+    /**
+     * Returns a deep copy of these stats, which is not affected by later
+     * updates.
+     *
+     * @return A copy of these stats
+     */
+    public abstract AttributeStats copy();
+
+
+    /**
+     * Returns a copy of the state of these stats needed to compute
+     * {@link #logConditionalProbability(double, int)}, which is not affected
+     * by later updates. By default, it is a full copy.
+     *
+     * @return A copy of these stats usable for predictions
+     */
+    public AttributeStats predictionCopy() {
+        return copy();
     }
 
 
@@ -58,10 +97,11 @@ public abstract class AttributeStats implements Serializable {
      * Updates the statistics held by this object based on the attribute values
      * and the class of the instance which was used.
      *
-     * @param attVal   The value of the attribute in the instance acknowledged
-     * @param classVal The class of the instance acknowledged
+     * @param attVal     The value of the attribute in the instance acknowledged
+     * @param classIndex The index of the class of the instance acknowledged
+     * @param weight     The weight of the instance acknowledged
      */
-    public abstract void update(double attVal, String classVal);
+    public abstract void update(double attVal, int classIndex, double weight);
 
     /**
      * Returns the best antecedent that could be found for this attribute, as a
@@ -72,6 +112,87 @@ public abstract class AttributeStats implements Serializable {
      * @param preSplitDist The class distribution of the rule before expansion
      * @return The best antecedent, as a antecedent candidate for rule expansion
      */
-    public abstract CandidateAntd bestCandidate(ExpansionMetric splitMetric, Map<String, Integer> preSplitDist);
+    public abstract CandidateAntd bestCandidate(ExpansionMetric splitMetric, double[] preSplitDist);
+
+
+    /**
+     * Returns the logarithm of the estimated probability (or density) of a
+     * value of the attribute given a class. Used to make naive Bayes
+     * predictions.
+     *
+     * @param attVal     The value of the attribute
+     * @param classIndex The index of the class
+     * @return log P(attr = value | class), or 0 if the value is missing
+     */
+    public double logConditionalProbability(double attVal, int classIndex) {
+        return logConditionalProbability(attVal, classIndex, 0);
+    }
+
+
+    /**
+     * Returns the logarithm of the estimated probability (or density) of a
+     * value of the attribute given a class, as if zeros of some weight had
+     * also been observed with the class. Used to make predictions with the
+     * implicit zeros of sparse instances, without updating these stats.
+     *
+     * @param attVal     The value of the attribute
+     * @param classIndex The index of the class
+     * @param zeroWeight The weight of the zeros not yet observed
+     * @return log P(attr = value | class), or 0 if the value is missing
+     */
+    public abstract double logConditionalProbability(double attVal, int classIndex, double zeroWeight);
+
+
+    /**
+     * Adds the observations of other stats to these stats. Used to merge
+     * stats updated separately.
+     *
+     * @param other Stats of the same type, for the same attribute
+     */
+    public abstract void merge(AttributeStats other);
+
+
+    /**
+     * Returns an estimation of the memory used by these stats, in bytes.
+     * Shared objects, like the classifier, are not accounted for.
+     *
+     * @return The estimated size of these stats
+     */
+    public abstract long memoryFootprint();
+
+
+    /**
+     * Writes the state of these stats in the compact model format. The index
+     * of the attribute and the number of classes are known when reading, so
+     * they are not written.
+     *
+     * @param out The output
+     * @throws IOException If the stats could not be written
+     * @see ModelFormat
+     */
+    public abstract void write(DataOutput out) throws IOException;
+
+
+    /**
+     * Reads the state written by {@link #write(DataOutput)} into these stats,
+     * which must be empty
+     *
+     * @param in The input
+     * @throws IOException If the stats could not be read
+     */
+    public abstract void read(DataInput in) throws IOException;
+
+
+    /**
+     * Estimates the size of an array, in bytes
+     *
+     * @param length      The length of the array
+     * @param elementSize The size of one element
+     * @return The estimated size of the array
+     */
+    protected static long arraySize(int length, int elementSize) {
+        long size = OBJECT_SIZE + (long) length * elementSize;
+        return (size + 7) & ~7L;
+    }
 
 }
@@ -0,0 +1,882 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+
+/**
+ * Makes the training of a {@link Vfdr} classifier durable. The classifier is
+ * checkpointed periodically in the compact format of {@link ModelFormat}, and
+ * the changes made between two checkpoints are appended to a write-ahead log:
+ * the expansions and removals of rules, the checks of the memory budget, and
+ * optionally the instances learnt.
+ * After a crash, {@link #recover(File)} loads the last checkpoint and replays
+ * the log.
+ * <p>
+ * A checkpoint is taken by a background thread, without pausing training: the
+ * point of training it saves is marked, and the log is switched to a new
+ * segment at the same point, then the rules are copied one at a time (see
+ * {@link Vfdr#saveModel(OutputStream, Runnable)}). The checkpoint is then
+ * written to disk and synced, and the files it supersedes are deleted.
+ * The directory holds files {@code checkpoint-<n>.vfdm} and {@code wal-<n>.log},
+ * where segment {@code n} of the log holds the changes made after checkpoint
+ * {@code n}.
+ * <p>
+ * The records of the instances are buffered by each training thread, and
+ * written to the log by a background thread, so that training threads do not
+ * wait for each other. Sparse instances are logged with their non-zero values
+ * only. When the instances are logged, the recovered classifier is the one
+ * that was trained, up to the last record flushed to the log; replaying the
+ * records is deterministic when the classifier is trained by a single thread.
+ * Otherwise the recovered classifier has the rules of the trained one, but the
+ * statistics gathered since the last checkpoint are lost. The log is flushed
+ * to the operating system every {@link #setFlushInterval(int)} records, and
+ * synced with {@link #sync()} and at every checkpoint.
+ * <p>
+ * A failure to write the log does not interrupt training: the following
+ * records are dropped until the next checkpoint, and the failure is reported
+ * by {@link #sync()} and {@link #close()}.
+ * <p>
+ * Recovery can also be run from the command line, to save the recovered model:
+ * <pre>
+ * java weka.classifiers.rules.vfdr.Checkpointer -r &lt;directory&gt; -d &lt;output model file&gt;
+ * </pre>
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class Checkpointer implements TrainingListener, Closeable {
+
+    /**
+     * Magic number at the start of the log segments ("VFDL")
+     */
+    private static final int LOG_MAGIC = 0x5646444C;
+
+    /**
+     * Type of the records of an instance learnt
+     */
+    private static final int INSTANCE_RECORD = 1;
+
+    /**
+     * Type of the records of a rule expansion
+     */
+    private static final int EXPANSION_RECORD = 2;
+
+    /**
+     * Type of the records of a removal of rules
+     */
+    private static final int REMOVAL_RECORD = 3;
+
+    /**
+     * Type of the records of a check of the memory budget
+     */
+    private static final int MEMORY_CHECK_RECORD = 4;
+
+    /**
+     * Type of the records of a sparse instance learnt
+     */
+    private static final int SPARSE_INSTANCE_RECORD = 5;
+
+    /**
+     * Number of chunks of records waiting to be written, beyond which training
+     * waits for the log
+     */
+    private static final int MAX_PENDING_CHUNKS = 64;
+
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".vfdm";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Vfdr m_vfdr;
+
+    private final File m_directory;
+
+    /**
+     * Whether the instances learnt are logged
+     */
+    private final boolean m_logInstances;
+
+    /**
+     * Number of instances learnt between two checkpoints, 0 to only take them
+     * on demand
+     */
+    private volatile long m_checkpointInterval = 0;
+
+    /**
+     * Number of records written between two flushes of the log
+     */
+    private volatile int m_flushInterval = 1000;
+
+    /**
+     * Takes the checkpoints
+     */
+    private final ExecutorService m_executor;
+
+    /**
+     * Writes the chunks of records to the log, in the order in which they are
+     * submitted
+     */
+    private final ThreadPoolExecutor m_logWriter;
+
+    /**
+     * Records of each training thread not handed to the log writer yet
+     */
+    private final ThreadLocal<RecordBuffer> m_buffers;
+
+    /**
+     * Buffers of all the training threads
+     */
+    private final List<RecordBuffer> m_allBuffers = new ArrayList<>();
+
+    /**
+     * Number of the last checkpoint, changed by the thread taking the
+     * checkpoints only
+     */
+    private long m_sequence;
+
+    /**
+     * Current segment of the log, or null if it could not be created. Used by
+     * the log writer only.
+     */
+    private DataOutputStream m_log;
+
+    /**
+     * File of the current segment, used to sync it
+     */
+    private FileOutputStream m_logFile;
+
+    /**
+     * Number of records written since the last flush
+     */
+    private int m_unflushed = 0;
+
+    /**
+     * Number of instances learnt since the last checkpoint
+     */
+    private final AtomicLong m_sinceCheckpoint = new AtomicLong();
+
+    /**
+     * Whether a checkpoint has been requested and not completed yet
+     */
+    private final AtomicBoolean m_checkpointPending = new AtomicBoolean();
+
+    /**
+     * Failure of the last periodic checkpoint, or null
+     */
+    private volatile Exception m_failure;
+
+    /**
+     * Last failure to write the log, or null
+     */
+    private volatile IOException m_logFailure;
+
+
+    /**
+     * Starts checkpointing a classifier, which must have been built. A first
+     * checkpoint is written before returning, files left in the directory by a
+     * previous run are deleted once it is written.
+     *
+     * @param vfdr         The classifier
+     * @param directory    The directory of the checkpoints and of the log,
+     *                     created if needed
+     * @param logInstances Whether to log the instances learnt, so that the
+     *                     statistics of the rules can be recovered
+     * @throws Exception If the first checkpoint could not be written
+     */
+    public Checkpointer(Vfdr vfdr, File directory, boolean logInstances) throws Exception {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        m_vfdr = vfdr;
+        m_directory = directory;
+        m_logInstances = logInstances;
+
+        List<Long> sequences = sequences(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        sequences.addAll(sequences(directory, LOG_PREFIX, LOG_SUFFIX));
+        m_sequence = sequences.isEmpty() ? -1 : Collections.max(sequences);
+
+        m_executor = Executors.newSingleThreadExecutor(daemonThreadFactory("vfdr-checkpoint"));
+        m_logWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING_CHUNKS), daemonThreadFactory("vfdr-log"),
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("The checkpointer is closed");
+                    }
+                    // training waits for the log rather than buffering without bound
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        m_logFailure = new InterruptedIOException("Interrupted while waiting for the log");
+                        if (r instanceof Future) {
+                            ((Future<?>) r).cancel(false);
+                        }
+                    }
+                }
+            });
+        m_buffers = new ThreadLocal<RecordBuffer>() {
+            @Override
+            protected RecordBuffer initialValue() {
+                RecordBuffer buffer = new RecordBuffer();
+                synchronized (m_allBuffers) {
+                    m_allBuffers.add(buffer);
+                }
+                return buffer;
+            }
+        };
+
+        try {
+            writeCheckpoint(true);
+        } catch (Exception e) {
+            m_executor.shutdown();
+            m_logWriter.shutdown();
+            throw e;
+        }
+    }
+
+
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+
+    /**
+     * Sets the number of instances learnt between two checkpoints. Default is
+     * 0, i.e. checkpoints are only taken with {@link #checkpoint()}.
+     *
+     * @param n The number of instances
+     */
+    public void setCheckpointInterval(long n) {
+        m_checkpointInterval = n;
+    }
+
+
+    public long getCheckpointInterval() {
+        return m_checkpointInterval;
+    }
+
+
+    /**
+     * Sets the number of records a training thread buffers before handing
+     * them to the log writer, which flushes the log to the operating system
+     * every as many records. Default is 1000.
+     *
+     * @param n The number of records
+     */
+    public void setFlushInterval(int n) {
+        m_flushInterval = Math.max(1, n);
+    }
+
+
+    public int getFlushInterval() {
+        return m_flushInterval;
+    }
+
+
+    @Override
+    public void instanceLearnt(Instance x) {
+        if (m_logInstances) {
+            RecordBuffer buffer = m_buffers.get();
+            try {
+                writeInstance(buffer.m_out, x);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // not thrown in memory
+            }
+            if (++buffer.m_numRecords >= m_flushInterval) {
+                submitRecords(buffer);
+            }
+        }
+
+        if (m_checkpointInterval > 0 && m_sinceCheckpoint.incrementAndGet() >= m_checkpointInterval
+            && m_checkpointPending.compareAndSet(false, true)) {
+            submitCheckpoint();
+        }
+    }
+
+
+    /**
+     * Writes the record of an instance learnt
+     *
+     * @param out The output
+     * @param x   The instance
+     * @throws IOException If the record could not be written
+     */
+    private static void writeInstance(DataOutputStream out, Instance x) throws IOException {
+        if (x instanceof SparseInstance) {
+            out.writeByte(SPARSE_INSTANCE_RECORD);
+            out.writeDouble(x.weight());
+            ModelFormat.writeVarInt(out, x.numValues());
+            for (int i = 0; i < x.numValues(); i++) {
+                ModelFormat.writeVarInt(out, x.index(i));
+                out.writeDouble(x.valueSparse(i));
+            }
+        } else {
+            out.writeByte(INSTANCE_RECORD);
+            out.writeDouble(x.weight());
+            for (int i = 0; i < x.numAttributes(); i++) {
+                out.writeDouble(x.value(i));
+            }
+        }
+    }
+
+
+    @Override
+    public void ruleExpanded(int ruleIndex, Antd antd) {
+        RecordBuffer record = new RecordBuffer();
+        try {
+            record.m_out.writeByte(EXPANSION_RECORD);
+            ModelFormat.writeVarInt(record.m_out, ruleIndex + 1);
+            ModelFormat.writeAntd(record.m_out, antd);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown in memory
+        }
+        submitChange(record);
+    }
+
+
+    @Override
+    public void rulesRemoved(int[] ruleIndices) {
+        RecordBuffer record = new RecordBuffer();
+        try {
+            record.m_out.writeByte(REMOVAL_RECORD);
+            writeIndices(record.m_out, ruleIndices);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown in memory
+        }
+        submitChange(record);
+    }
+
+
+    @Override
+    public void memoryChecked(int[] deactivated, int[] reactivated) {
+        RecordBuffer record = new RecordBuffer();
+        try {
+            record.m_out.writeByte(MEMORY_CHECK_RECORD);
+            writeIndices(record.m_out, deactivated);
+            writeIndices(record.m_out, reactivated);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown in memory
+        }
+        submitChange(record);
+    }
+
+
+    private static void writeIndices(DataOutputStream out, int[] indices) throws IOException {
+        ModelFormat.writeVarInt(out, indices.length);
+        for (int index : indices) {
+            ModelFormat.writeVarInt(out, index);
+        }
+    }
+
+
+    private static int[] readIndices(DataInputStream in) throws IOException {
+        int[] indices = new int[ModelFormat.readVarInt(in)];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = ModelFormat.readVarInt(in);
+        }
+        return indices;
+    }
+
+
+    /**
+     * Submits the record of a change of the rule set, after the records of the
+     * instances learnt before it. Changes are notified while no instance is
+     * learnt.
+     *
+     * @param record The record
+     */
+    private void submitChange(RecordBuffer record) {
+        record.m_numRecords = 1;
+        drainBuffers();
+        submitRecords(record);
+    }
+
+
+    /**
+     * Submits the records buffered by every training thread to the log
+     * writer. Must be called while no instance is learnt.
+     */
+    private void drainBuffers() {
+        synchronized (m_allBuffers) {
+            for (RecordBuffer buffer : m_allBuffers) {
+                submitRecords(buffer);
+            }
+        }
+    }
+
+
+    /**
+     * Submits the records of a buffer to the log writer, and empties the
+     * buffer
+     *
+     * @param buffer The buffer
+     */
+    private void submitRecords(RecordBuffer buffer) {
+        if (buffer.m_numRecords == 0) {
+            return;
+        }
+        final byte[] records = Arrays.copyOf(buffer.m_bytes, buffer.m_size);
+        final int numRecords = buffer.m_numRecords;
+        buffer.m_size = 0;
+        buffer.m_numRecords = 0;
+
+        m_logWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (m_log == null) {
+                    return; // dropped until the next segment
+                }
+                try {
+                    m_log.write(records);
+                    m_unflushed += numRecords;
+                    if (m_unflushed >= m_flushInterval) {
+                        m_log.flush();
+                        m_unflushed = 0;
+                    }
+                } catch (IOException e) {
+                    m_logFailure = e;
+                    m_log = null;
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Closes the current segment of the log, and starts a new one. Run by the
+     * log writer.
+     *
+     * @param sequence The number of the new segment
+     */
+    private void switchSegment(long sequence) {
+        try {
+            if (m_log != null) {
+                m_log.flush();
+                m_logFile.getFD().sync();
+            }
+        } catch (IOException e) {
+            m_logFailure = e;
+        }
+        try {
+            if (m_logFile != null) {
+                m_logFile.close();
+            }
+            m_logFile = new FileOutputStream(file(m_directory, LOG_PREFIX, sequence, LOG_SUFFIX));
+            m_log = new DataOutputStream(new BufferedOutputStream(m_logFile, 1 << 16));
+            m_log.writeInt(LOG_MAGIC);
+            m_unflushed = 0;
+        } catch (IOException e) {
+            m_logFailure = e;
+            m_log = null;
+        }
+    }
+
+
+    /**
+     * Flushes the log and syncs it to the disk
+     *
+     * @throws IOException If the log could not be synced, or could not be
+     *                     written since the checkpointer was created
+     */
+    public void sync() throws IOException {
+        try {
+            m_vfdr.callExclusively(new Callable<Future<?>>() {
+                @Override
+                public Future<?> call() {
+                    drainBuffers();
+                    return m_logWriter.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (m_log != null) {
+                                    m_log.flush();
+                                    m_unflushed = 0;
+                                    m_logFile.getFD().sync();
+                                }
+                            } catch (IOException e) {
+                                m_logFailure = e;
+                                m_log = null;
+                            }
+                        }
+                    });
+                }
+            }).get();
+        } catch (Exception e) {
+            throw new IOException("Could not sync the training log", e);
+        }
+
+        IOException failure = m_logFailure;
+        if (failure != null) {
+            throw new IOException("Could not write to the training log", failure);
+        }
+    }
+
+
+    /**
+     * Takes a checkpoint in the background
+     *
+     * @return The checkpoint file, once written
+     */
+    public Future<File> checkpoint() {
+        m_checkpointPending.set(true);
+        return submitCheckpoint();
+    }
+
+
+    private Future<File> submitCheckpoint() {
+        return m_executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                try {
+                    return writeCheckpoint(false);
+                } catch (Exception e) {
+                    m_failure = e;
+                    throw e;
+                } finally {
+                    m_checkpointPending.set(false);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Saves the classifier and switches the log to a new segment at the same
+     * point of training, then writes the checkpoint and deletes the files it
+     * supersedes.
+     *
+     * @param first Whether this is the first checkpoint, which starts
+     *              listening to the classifier
+     * @return The checkpoint file
+     * @throws Exception If the checkpoint could not be written
+     */
+    private File writeCheckpoint(final boolean first) throws Exception {
+        final long sequence = m_sequence + 1;
+        final Future<?>[] switched = new Future<?>[1];
+
+        ByteArrayOutputStream model = new ByteArrayOutputStream();
+        m_vfdr.saveModel(model, new Runnable() {
+            @Override
+            public void run() {
+                // the instances learnt so far are logged in the previous segment
+                drainBuffers();
+                switched[0] = m_logWriter.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        switchSegment(sequence);
+                    }
+                });
+                m_sinceCheckpoint.set(0);
+                if (first) {
+                    m_vfdr.addTrainingListener(Checkpointer.this);
+                }
+            }
+        });
+        m_sequence = sequence;
+
+        // the previous segment is still needed until the checkpoint is written
+        switched[0].get();
+
+        File checkpoint = file(m_directory, CHECKPOINT_PREFIX, sequence, CHECKPOINT_SUFFIX);
+        File tmp = new File(m_directory, checkpoint.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            model.writeTo(out);
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        for (long s : sequences(m_directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+            if (s < sequence) {
+                Files.deleteIfExists(file(m_directory, CHECKPOINT_PREFIX, s, CHECKPOINT_SUFFIX).toPath());
+            }
+        }
+        for (long s : sequences(m_directory, LOG_PREFIX, LOG_SUFFIX)) {
+            if (s < sequence) {
+                Files.deleteIfExists(file(m_directory, LOG_PREFIX, s, LOG_SUFFIX).toPath());
+            }
+        }
+        return checkpoint;
+    }
+
+
+    /**
+     * Stops listening to the classifier, waits for the checkpoint being taken
+     * if any, and syncs and closes the log. No checkpoint is taken.
+     *
+     * @throws IOException If the log could not be written, or if the last
+     *                     periodic checkpoint failed
+     */
+    @Override
+    public void close() throws IOException {
+        m_vfdr.removeTrainingListener(this);
+        m_executor.shutdown();
+        try {
+            m_executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            sync();
+        } finally {
+            m_logWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (m_logFile != null) {
+                            m_logFile.close();
+                        }
+                    } catch (IOException e) {
+                        m_logFailure = e;
+                    }
+                }
+            });
+            m_logWriter.shutdown();
+            try {
+                m_logWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (m_failure != null) {
+            throw new IOException("Checkpoint failed", m_failure);
+        }
+    }
+
+
+    /**
+     * Recovers a classifier from the last checkpoint of a directory, replaying
+     * the log written since. A record truncated by a crash ends the replay.
+     * The directory may still be written by a checkpointer: if a checkpoint
+     * supersedes the files being read, recovery starts over from it. If the
+     * log of the last checkpoint has been lost, the checkpoint alone is
+     * recovered.
+     *
+     * @param directory The directory of the checkpoints
+     * @return The recovered classifier
+     * @throws Exception If there is no checkpoint, or it could not be read
+     */
+    public static Vfdr recover(File directory) throws Exception {
+        while (true) {
+            List<Long> checkpoints = sequences(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+            if (checkpoints.isEmpty()) {
+                throw new IOException("No checkpoint in " + directory);
+            }
+            long sequence = Collections.max(checkpoints);
+
+            try {
+                Vfdr vfdr = ModelFormat.read(file(directory, CHECKPOINT_PREFIX, sequence, CHECKPOINT_SUFFIX));
+
+                // segments are numbered consecutively from the checkpoint, a
+                // missing one has been deleted by a newer checkpoint
+                List<Long> segments = sequences(directory, LOG_PREFIX, LOG_SUFFIX);
+                long expected = sequence;
+                for (long s = sequence; segments.contains(s); s++) {
+                    replay(vfdr, file(directory, LOG_PREFIX, s, LOG_SUFFIX));
+                    expected++;
+                }
+                if (expected > sequence) {
+                    return vfdr;
+                }
+                List<Long> newer = sequences(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+                if (newer.isEmpty() || Collections.max(newer) <= sequence) {
+                    return vfdr; // the log is missing, not superseded
+                }
+            } catch (FileNotFoundException e) {
+                // superseded meanwhile
+            }
+        }
+    }
+
+
+    /**
+     * Replays a segment of the log
+     *
+     * @param vfdr The classifier
+     * @param file The segment
+     * @throws Exception If the segment could not be read
+     */
+    private static void replay(Vfdr vfdr, File file) throws Exception {
+        Instances header = vfdr.getHeader();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (file.length() < 4) {
+                return; // crashed as it was created
+            }
+            if (in.readInt() != LOG_MAGIC) {
+                throw new IOException(file + " is not a training log");
+            }
+
+            int type;
+            while ((type = in.read()) >= 0) {
+                try {
+                    if (type == INSTANCE_RECORD) {
+                        double weight = in.readDouble();
+                        double[] values = new double[header.numAttributes()];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = in.readDouble();
+                        }
+                        Instance x = new DenseInstance(weight, values);
+                        x.setDataset(header);
+                        vfdr.replayInstance(x);
+                    } else if (type == SPARSE_INSTANCE_RECORD) {
+                        double weight = in.readDouble();
+                        int[] indices = new int[ModelFormat.readVarInt(in)];
+                        double[] values = new double[indices.length];
+                        for (int i = 0; i < indices.length; i++) {
+                            indices[i] = ModelFormat.readVarInt(in);
+                            values[i] = in.readDouble();
+                        }
+                        Instance x = new SparseInstance(weight, values, indices, header.numAttributes());
+                        x.setDataset(header);
+                        vfdr.replayInstance(x);
+                    } else if (type == EXPANSION_RECORD) {
+                        int ruleIndex = ModelFormat.readVarInt(in) - 1;
+                        vfdr.replayExpansion(ruleIndex, ModelFormat.readAntd(in, vfdr));
+                    } else if (type == REMOVAL_RECORD) {
+                        vfdr.replayRemoval(readIndices(in));
+                    } else if (type == MEMORY_CHECK_RECORD) {
+                        int[] deactivated = readIndices(in);
+                        vfdr.replayMemoryCheck(deactivated, readIndices(in));
+                    } else {
+                        throw new IOException("Corrupted training log " + file);
+                    }
+                } catch (EOFException e) {
+                    return; // the last record was truncated
+                }
+            }
+        }
+    }
+
+
+    private static File file(File directory, String prefix, long sequence, String suffix) {
+        return new File(directory, prefix + sequence + suffix);
+    }
+
+
+    /**
+     * Lists the numbers of the files of a kind in a directory
+     *
+     * @param directory The directory
+     * @param prefix    The prefix of the files
+     * @param suffix    The suffix of the files
+     * @return The numbers of the files, in no particular order
+     */
+    private static List<Long> sequences(File directory, String prefix, String suffix) {
+        List<Long> sequences = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        sequences.add(Long.parseLong(name.substring(prefix.length(),
+                            name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // not one of our files
+                    }
+                }
+            }
+        }
+        return sequences;
+    }
+
+
+    public static void main(String[] args) {
+        try {
+            String directory = Utils.getOption('r', args);
+            String output = Utils.getOption('d', args);
+            if (directory.length() == 0 || output.length() == 0) {
+                System.out.println("Usage: java " + Checkpointer.class.getName()
+                                   + " -r <directory> -d <output model file>");
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            Vfdr vfdr = recover(new File(directory));
+            System.out.println("Model recovered in " + (System.currentTimeMillis() - start) + " ms");
+            ModelFormat.write(vfdr, new File(output));
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Records not handed to the log writer yet. A buffer is written by a
+     * single thread at a time, so it is not synchronized.
+     */
+    private static class RecordBuffer extends OutputStream {
+
+        private final DataOutputStream m_out = new DataOutputStream(this);
+        private byte[] m_bytes = new byte[1 << 12];
+        private int m_size = 0;
+        private int m_numRecords = 0;
+
+
+        @Override
+        public void write(int b) {
+            if (m_size == m_bytes.length) {
+                m_bytes = Arrays.copyOf(m_bytes, 2 * m_bytes.length);
+            }
+            m_bytes[m_size++] = (byte) b;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (m_size + len > m_bytes.length) {
+                m_bytes = Arrays.copyOf(m_bytes, Math.max(2 * m_bytes.length, m_size + len));
+            }
+            System.arraycopy(b, off, m_bytes, m_size, len);
+            m_size += len;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import weka.core.Instance;
+import weka.core.Instances;
 
 
 /**
@@ -24,16 +25,74 @@ public abstract class ClassificationStrategy implements Serializable {
     /**
      * Classifies the given instance
      *
-     * @param ruleSet     The rule set to use
+     * @param ruleIndex   The coverage index of the rule set to use
      * @param defaultRule The default rule of the set (kept separately)
      * @param inst        The instance to classify
      * @return An array of probabilities
      * @throws Exception Case the instance could not be classified
      */
-    public abstract double[] distributionForInstance(List<VfdrRule> ruleSet, VfdrRule defaultRule, Instance inst)
+    public abstract double[] distributionForInstance(CoverageIndex ruleIndex, VfdrRule defaultRule, Instance inst)
             throws Exception;
 
 
+    /**
+     * Classifies the given instance using a compiled rule set. The result is
+     * the same as with the rule set it was compiled from.
+     *
+     * @param compiled    The compiled rule set to use
+     * @param defaultRule The default rule of the set (kept separately)
+     * @param inst        The instance to classify
+     * @return An array of probabilities
+     * @throws Exception Case the instance could not be classified
+     */
+    public abstract double[] distributionForInstance(CompiledRuleSet compiled, VfdrRule defaultRule, Instance inst)
+            throws Exception;
+
+
+    /**
+     * Returns the winning rule of every instance of a range of a batch. The
+     * rules covering the instances are found with column-wise bitmaps.
+     *
+     * @param compiled      The compiled rule set to use
+     * @param defaultWeight The total weight of the default rule
+     * @param batch         The batch of instances
+     * @param from          The position of the first instance of the range
+     * @param to            The position after the last instance of the range
+     * @return The position of the winning rule of every instance, or -1 if the
+     *     default rule wins
+     */
+    protected abstract int[] winningRules(CompiledRuleSet compiled, double defaultWeight, Instances batch, int from,
+                                          int to);
+
+
+    /**
+     * Classifies a range of a batch of instances using a compiled rule set.
+     * The result is the same as when classifying every instance separately.
+     *
+     * @param compiled    The compiled rule set to use
+     * @param defaultRule The default rule of the set (kept separately)
+     * @param batch       The batch of instances
+     * @param from        The position of the first instance of the range
+     * @param to          The position after the last instance of the range
+     * @return An array of probabilities for every instance of the range
+     * @throws Exception Case an instance could not be classified
+     */
+    public double[][] distributionsForInstances(CompiledRuleSet compiled, VfdrRule defaultRule, Instances batch,
+                                                int from, int to) throws Exception {
+
+        int[] winners = winningRules(compiled, defaultRule.getStats().totalWeight(), batch, from, to);
+
+        double[][] dists = new double[to - from][];
+        for (int i = 0; i < dists.length; i++) {
+            Instance inst = batch.instance(from + i);
+            VfdrRule r = winners[i] >= 0 ? compiled.rule(winners[i]) : defaultRule;
+            dists[i] = r.getStats().makePrediction(inst, inst.classAttribute());
+        }
+
+        return dists;
+    }
+
+
     /**
      * Classification strategy for ordered sets.
      *
@@ -48,20 +107,36 @@ public abstract class ClassificationStrategy implements Serializable {
 
 
         @Override
-        public double[] distributionForInstance(List<VfdrRule> ruleSet, VfdrRule defaultRule, Instance inst)
+        public double[] distributionForInstance(CoverageIndex ruleIndex, VfdrRule defaultRule, Instance inst)
                 throws Exception {
 
-            List<VfdrRule> fullRuleSet = new ArrayList<>(ruleSet);
-            fullRuleSet.add(defaultRule);
+            int first = ruleIndex.firstCoveringRule(inst);
+            VfdrRule r = first >= 0 ? ruleIndex.ruleSet().get(first) : defaultRule;
 
-            for (VfdrRule r : fullRuleSet) {
-                if (r.covers(inst)) {
-                    return r.getStats().makePrediction(inst, inst.classAttribute());
-                }
+            if (r.covers(inst)) {
+                return r.getStats().makePrediction(inst, inst.classAttribute());
             }
 
             throw new Exception("@FirstHitStrategy: None of the rules matched (not even default)");
         }
+
+
+        @Override
+        public double[] distributionForInstance(CompiledRuleSet compiled, VfdrRule defaultRule, Instance inst)
+                throws Exception {
+
+            int first = compiled.firstCoveringRule(inst);
+            VfdrRule r = first >= 0 ? compiled.rule(first) : defaultRule;
+
+            return r.getStats().makePrediction(inst, inst.classAttribute());
+        }
+
+
+        @Override
+        protected int[] winningRules(CompiledRuleSet compiled, double defaultWeight, Instances batch, int from,
+                                     int to) {
+            return compiled.firstCoveringRules(batch, from, to);
+        }
     }
 
 
@@ -80,21 +155,20 @@ public abstract class ClassificationStrategy implements Serializable {
 
 
         @Override
-        public double[] distributionForInstance(List<VfdrRule> ruleSet, VfdrRule defaultRule, Instance inst)
+        public double[] distributionForInstance(CoverageIndex ruleIndex, VfdrRule defaultRule, Instance inst)
                 throws Exception {
 
-            List<VfdrRule> fullRuleSet = new ArrayList<>(ruleSet);
-            fullRuleSet.add(defaultRule);
-
+            List<VfdrRule> ruleSet = ruleIndex.ruleSet();
             List<VfdrRule> triggered = new ArrayList<>();
 
-            for (VfdrRule r : fullRuleSet) {
-                if (r.covers(inst)) {
-                    triggered.add(r);
-                }
+            for (int id : ruleIndex.coveringRules(inst)) {
+                triggered.add(ruleSet.get(id));
+            }
+            if (defaultRule.covers(inst)) {
+                triggered.add(defaultRule);
             }
 
-            int maxWeight = Integer.MIN_VALUE;
+            double maxWeight = Double.NEGATIVE_INFINITY;
             VfdrRule winningRule = null;
             for (VfdrRule r : triggered) {
                 if (r.getStats().totalWeight() > maxWeight) {
@@ -111,6 +185,24 @@ public abstract class ClassificationStrategy implements Serializable {
 
         }
 
+
+        @Override
+        public double[] distributionForInstance(CompiledRuleSet compiled, VfdrRule defaultRule, Instance inst)
+                throws Exception {
+
+            int winner = compiled.heaviestCoveringRule(inst, defaultRule.getStats().totalWeight());
+            VfdrRule r = winner >= 0 ? compiled.rule(winner) : defaultRule;
+
+            return r.getStats().makePrediction(inst, inst.classAttribute());
+        }
+
+
+        @Override
+        protected int[] winningRules(CompiledRuleSet compiled, double defaultWeight, Instances batch, int from,
+                                     int to) {
+            return compiled.heaviestCoveringRules(batch, from, to, defaultWeight);
+        }
+
     }
 
 }
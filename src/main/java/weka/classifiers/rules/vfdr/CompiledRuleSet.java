@@ -0,0 +1,560 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Flat, read-only representation of a rule set, used to score instances
+ * quickly. The literals of all the rules are stored in primitive arrays (index
+ * of the attribute, type of test, threshold or target value), so scoring an
+ * instance is a tight loop over those arrays that reads attribute values by
+ * index, instead of a walk over the rule and antecedent objects.
+ * <p>
+ * Batches of instances can be scored column by column, in blocks of rows. The
+ * distinct split points of each numeric attribute are sorted when compiling,
+ * and the rank of the value of every row among them is found by binary
+ * search. The bitmap over the rows of the block of every distinct literal is
+ * then derived from the ranks, with a few word operations per literal. The
+ * coverage of a rule is the conjunction of the bitmaps of its literals, and
+ * the winning rule of every row is resolved with bitmap operations.
+ * <p>
+ * A compiled rule set is a snapshot of the structure of the rule set: it must
+ * be compiled again after the rule set has been expanded. The weights of the
+ * rules are still read from their sufficient statistics.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class CompiledRuleSet implements Serializable {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = -3019578104829365473L;
+
+    /**
+     * Number of rows of the blocks in which batches are scored
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    /* Types of literal */
+    private static final byte LOWER_OR_EQUAL = 0;
+    private static final byte HIGHER = 1;
+    private static final byte EQUAL = 2;
+
+    /**
+     * The compiled rules, in rule set order
+     */
+    private final VfdrRule[] m_rules;
+
+    /**
+     * Position of the first literal of each rule in the literal arrays. Has one
+     * more element than there are rules.
+     */
+    private final int[] m_ruleStart;
+
+    /**
+     * Index of the attribute tested by each literal
+     */
+    private final int[] m_attIndex;
+
+    /**
+     * Type of test of each literal
+     */
+    private final byte[] m_test;
+
+    /**
+     * Split point or target value index of each literal
+     */
+    private final double[] m_value;
+
+    /**
+     * Attributes tested by the literals, each once
+     */
+    private final int[] m_columns;
+
+    /**
+     * Sorted distinct split points or target values of the literals on each
+     * column
+     */
+    private final double[][] m_columnValues;
+
+    /**
+     * Whether each column is tested for equality, i.e. is nominal
+     */
+    private final boolean[] m_nominalColumn;
+
+    /**
+     * Position of the bitmap of the first distinct literal of each column. A
+     * numeric column has two bitmaps per split point, for the rows lower or
+     * equal and for the rows higher. A nominal column has one bitmap per
+     * target value.
+     */
+    private final int[] m_columnBitmaps;
+
+    /**
+     * Position of the bitmap of each literal
+     */
+    private final int[] m_bitmap;
+
+    /**
+     * Number of bitmaps of the distinct literals
+     */
+    private final int m_numBitmaps;
+
+
+    /**
+     * Compiles a rule set
+     *
+     * @param ruleSet The rule set to compile
+     */
+    public CompiledRuleSet(List<VfdrRule> ruleSet) {
+        m_rules = ruleSet.toArray(new VfdrRule[0]);
+        m_ruleStart = new int[m_rules.length + 1];
+
+        int numLiterals = 0;
+        for (VfdrRule r : m_rules) {
+            numLiterals += r.literals().size();
+        }
+
+        m_attIndex = new int[numLiterals];
+        m_test = new byte[numLiterals];
+        m_value = new double[numLiterals];
+
+        int l = 0;
+        for (int r = 0; r < m_rules.length; r++) {
+            m_ruleStart[r] = l;
+            for (Antd antd : m_rules[r].literals()) {
+                m_attIndex[l] = antd.getAttr().index();
+                if (antd.isNumeric()) {
+                    NumericAntd numAntd = (NumericAntd) antd;
+                    m_test[l] = numAntd.isConditionHigher() ? HIGHER : LOWER_OR_EQUAL;
+                    m_value[l] = numAntd.getSplitPoint();
+                } else {
+                    m_test[l] = EQUAL;
+                    m_value[l] = ((NominalAntd) antd).getTargetValue();
+                }
+                l++;
+            }
+        }
+        m_ruleStart[m_rules.length] = l;
+
+        // group the values of the literals by attribute
+        int numAttributes = 0;
+        for (int att : m_attIndex) {
+            numAttributes = Math.max(numAttributes, att + 1);
+        }
+        int[] numValues = new int[numAttributes];
+        for (int att : m_attIndex) {
+            numValues[att]++;
+        }
+        double[][] values = new double[numAttributes][];
+        int numColumns = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            if (numValues[att] > 0) {
+                values[att] = new double[numValues[att]];
+                numValues[att] = 0;
+                numColumns++;
+            }
+        }
+        for (l = 0; l < numLiterals; l++) {
+            values[m_attIndex[l]][numValues[m_attIndex[l]]++] = normalise(m_value[l]);
+        }
+
+        m_columns = new int[numColumns];
+        m_columnValues = new double[numColumns][];
+        m_nominalColumn = new boolean[numColumns];
+        m_columnBitmaps = new int[numColumns];
+        int[] column = new int[numAttributes];
+        int numBitmaps = 0;
+        int c = 0;
+        for (int att = 0; att < numAttributes; att++) {
+            if (values[att] == null) {
+                continue;
+            }
+            double[] sorted = values[att];
+            Arrays.sort(sorted);
+            int numDistinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[numDistinct - 1]) {
+                    sorted[numDistinct++] = sorted[i];
+                }
+            }
+
+            column[att] = c;
+            m_columns[c] = att;
+            m_columnValues[c] = Arrays.copyOf(sorted, numDistinct);
+            m_columnBitmaps[c] = numBitmaps;
+            c++;
+            numBitmaps += numDistinct * 2; // at most two tests per value
+        }
+
+        m_bitmap = new int[numLiterals];
+        for (l = 0; l < numLiterals; l++) {
+            c = column[m_attIndex[l]];
+            int pos = Arrays.binarySearch(m_columnValues[c], normalise(m_value[l]));
+            switch (m_test[l]) {
+            case LOWER_OR_EQUAL:
+                m_bitmap[l] = m_columnBitmaps[c] + 2 * pos;
+                break;
+            case HIGHER:
+                m_bitmap[l] = m_columnBitmaps[c] + 2 * pos + 1;
+                break;
+            default:
+                m_nominalColumn[c] = true;
+                m_bitmap[l] = m_columnBitmaps[c] + pos;
+                break;
+            }
+        }
+        m_numBitmaps = numBitmaps;
+    }
+
+
+    /**
+     * Normalises a value so that it can be looked up among sorted values with
+     * a binary search, which tells -0.0 from 0.0.
+     */
+    private static double normalise(double value) {
+        return value + 0.0; // -0.0 + 0.0 is 0.0
+    }
+
+
+    /**
+     * Whether a compiled rule covers an instance. Missing values are not
+     * covered by any literal.
+     *
+     * @param rule The position of the rule
+     * @param inst The instance to test
+     * @return Whether the rule covers the instance
+     */
+    public boolean covers(int rule, Instance inst) {
+        for (int l = m_ruleStart[rule], end = m_ruleStart[rule + 1]; l < end; l++) {
+            double v = inst.value(m_attIndex[l]);
+            boolean satisfied;
+            switch (m_test[l]) {
+            case LOWER_OR_EQUAL:
+                satisfied = v <= m_value[l];
+                break;
+            case HIGHER:
+                satisfied = v > m_value[l];
+                break;
+            default:
+                satisfied = v == m_value[l];
+                break;
+            }
+            if (!satisfied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the position of the first rule covering an instance.
+     *
+     * @param inst The instance
+     * @return The position of the first covering rule, or -1 if no rule covers
+     *     the instance
+     */
+    public int firstCoveringRule(Instance inst) {
+        for (int r = 0; r < m_rules.length; r++) {
+            if (covers(r, inst)) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the position of the covering rule with the highest total weight.
+     * Ties are won by the first rule.
+     *
+     * @param inst          The instance
+     * @param defaultWeight The total weight of the default rule, which covers
+     *                      every instance and is considered last
+     * @return The position of the winning rule, or -1 if the default rule wins
+     */
+    public int heaviestCoveringRule(Instance inst, double defaultWeight) {
+        double maxWeight = Double.NEGATIVE_INFINITY;
+        int winner = -1;
+        for (int r = 0; r < m_rules.length; r++) {
+            double weight = m_rules[r].getStats().totalWeight();
+            if (weight > maxWeight && covers(r, inst)) {
+                maxWeight = weight;
+                winner = r;
+            }
+        }
+        return defaultWeight > maxWeight ? -1 : winner;
+    }
+
+
+    /**
+     * Returns the position of the first rule covering each instance of a
+     * range of a batch, using bitmaps.
+     *
+     * @param batch The batch of instances
+     * @param from  The position of the first instance of the range
+     * @param to    The position after the last instance of the range
+     * @return The position of the first covering rule of every instance of
+     *     the range, or -1 if no rule covers it
+     */
+    public int[] firstCoveringRules(Instances batch, int from, int to) {
+        int[] winners = new int[to - from];
+        Arrays.fill(winners, -1);
+
+        int blockWords = (Math.min(BLOCK_SIZE, to - from) + 63) >>> 6;
+        long[][] bitmaps = new long[m_numBitmaps][blockWords];
+        long[] present = new long[blockWords];
+        long[] remaining = new long[blockWords];
+        long[] covered = new long[blockWords];
+
+        for (int block = from; block < to; block += BLOCK_SIZE) {
+            int numRows = Math.min(BLOCK_SIZE, to - block);
+            int numWords = (numRows + 63) >>> 6;
+            literalBitmaps(batch, block, numRows, bitmaps, present);
+
+            allRows(remaining, numRows);
+            int numRemaining = numRows;
+            for (int r = 0; r < m_rules.length && numRemaining > 0; r++) {
+                if (!ruleCoverage(r, bitmaps, remaining, covered, numWords)) {
+                    continue;
+                }
+                for (int w = 0; w < numWords; w++) {
+                    long hits = covered[w];
+                    if (hits != 0) {
+                        remaining[w] &= ~hits;
+                        numRemaining -= Long.bitCount(hits);
+                        while (hits != 0) {
+                            winners[block - from + (w << 6) + Long.numberOfTrailingZeros(hits)] = r;
+                            hits &= hits - 1;
+                        }
+                    }
+                }
+            }
+        }
+
+        return winners;
+    }
+
+
+    /**
+     * Returns the position of the covering rule with the highest total weight
+     * for each instance of a range of a batch, using bitmaps. Ties are won by
+     * the first rule.
+     *
+     * @param batch         The batch of instances
+     * @param from          The position of the first instance of the range
+     * @param to            The position after the last instance of the range
+     * @param defaultWeight The total weight of the default rule, which covers
+     *                      every instance and is considered last
+     * @return The position of the winning rule of every instance of the range,
+     *     or -1 if the default rule wins
+     */
+    public int[] heaviestCoveringRules(Instances batch, int from, int to, double defaultWeight) {
+        int[] winners = new int[to - from];
+        Arrays.fill(winners, -1);
+
+        double[] weights = new double[m_rules.length];
+        for (int r = 0; r < m_rules.length; r++) {
+            weights[r] = m_rules[r].getStats().totalWeight();
+        }
+
+        int blockWords = (Math.min(BLOCK_SIZE, to - from) + 63) >>> 6;
+        double[] maxWeights = new double[blockWords << 6];
+        long[][] bitmaps = new long[m_numBitmaps][blockWords];
+        long[] present = new long[blockWords];
+        long[] all = new long[blockWords];
+        long[] covered = new long[blockWords];
+
+        for (int block = from; block < to; block += BLOCK_SIZE) {
+            int numRows = Math.min(BLOCK_SIZE, to - block);
+            int numWords = (numRows + 63) >>> 6;
+            literalBitmaps(batch, block, numRows, bitmaps, present);
+
+            allRows(all, numRows);
+            Arrays.fill(maxWeights, Double.NEGATIVE_INFINITY);
+            for (int r = 0; r < m_rules.length; r++) {
+                // lighter rules always lose against the default rule, which loses ties
+                if (weights[r] < defaultWeight || !ruleCoverage(r, bitmaps, all, covered, numWords)) {
+                    continue;
+                }
+                for (int w = 0; w < numWords; w++) {
+                    long hits = covered[w];
+                    while (hits != 0) {
+                        int row = (w << 6) + Long.numberOfTrailingZeros(hits);
+                        if (weights[r] > maxWeights[row]) {
+                            maxWeights[row] = weights[r];
+                            winners[block - from + row] = r;
+                        }
+                        hits &= hits - 1;
+                    }
+                }
+            }
+        }
+
+        return winners;
+    }
+
+
+    /**
+     * Computes the rows of a block covered by a rule, among some rows.
+     *
+     * @param rule     The position of the rule
+     * @param bitmaps  The bitmap of every distinct literal over the block
+     * @param among    The rows to consider
+     * @param covered  Receives the rows covered by the rule
+     * @param numWords The number of words of the bitmaps of the block
+     * @return Whether the rule covers some rows
+     */
+    private boolean ruleCoverage(int rule, long[][] bitmaps, long[] among, long[] covered, int numWords) {
+        System.arraycopy(among, 0, covered, 0, numWords);
+        for (int l = m_ruleStart[rule], end = m_ruleStart[rule + 1]; l < end; l++) {
+            long[] bitmap = bitmaps[m_bitmap[l]];
+            long any = 0;
+            for (int w = 0; w < numWords; w++) {
+                covered[w] &= bitmap[w];
+                any |= covered[w];
+            }
+            if (any == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Computes the bitmap of every distinct literal over a block of rows. The
+     * values of each column are looked up once among the sorted values of
+     * the literals on the column. The rows lower or equal to the split point
+     * of rank {@code j} are those whose value has a rank up to {@code j}, so
+     * the bitmaps of a numeric column are cumulated over the ranks. Missing
+     * values are not covered by any literal.
+     *
+     * @param batch   The batch of instances
+     * @param first   The position of the first instance of the block
+     * @param numRows The number of rows of the block
+     * @param bitmaps Receives the bitmap of every distinct literal
+     * @param present Receives the rows of a column whose value is not missing
+     */
+    private void literalBitmaps(Instances batch, int first, int numRows, long[][] bitmaps, long[] present) {
+        int numWords = (numRows + 63) >>> 6;
+
+        for (int c = 0; c < m_columns.length; c++) {
+            int att = m_columns[c];
+            double[] values = m_columnValues[c];
+            int offset = m_columnBitmaps[c];
+            boolean nominal = m_nominalColumn[c];
+
+            // the bitmap of the rows lower or equal to a split point first
+            // receives the rows of that rank only
+            int step = nominal ? 1 : 2;
+            for (int i = 0; i < values.length; i++) {
+                Arrays.fill(bitmaps[offset + step * i], 0, numWords, 0);
+            }
+            Arrays.fill(present, 0, numWords, 0);
+
+            for (int row = 0; row < numRows; row++) {
+                double v = batch.instance(first + row).value(att);
+                if (Utils.isMissingValue(v)) {
+                    continue;
+                }
+                int rank = rank(values, v);
+                if (nominal && (rank == values.length || values[rank] != v)) {
+                    continue;
+                }
+                long bit = 1L << row;
+                present[row >>> 6] |= bit;
+                if (rank < values.length) {
+                    bitmaps[offset + step * rank][row >>> 6] |= bit;
+                }
+            }
+
+            if (nominal) {
+                continue;
+            }
+
+            for (int i = 0; i < values.length; i++) {
+                long[] lowerOrEqual = bitmaps[offset + 2 * i];
+                long[] higher = bitmaps[offset + 2 * i + 1];
+                long[] previous = i > 0 ? bitmaps[offset + 2 * i - 2] : null;
+                for (int w = 0; w < numWords; w++) {
+                    if (previous != null) {
+                        lowerOrEqual[w] |= previous[w];
+                    }
+                    higher[w] = present[w] & ~lowerOrEqual[w];
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Finds the number of sorted values lower than a value, with a binary
+     * search whose number of steps only depends on the number of values, so
+     * that its branches are predictable.
+     *
+     * @param values The sorted values
+     * @param v      The value, not missing
+     * @return The position of the first value greater or equal to the value,
+     *     or the number of values if there is none
+     */
+    private static int rank(double[] values, double v) {
+        if (values.length == 0) {
+            return 0;
+        }
+        int base = 0;
+        int n = values.length;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = values[base + half] < v ? base + half : base;
+            n -= half;
+        }
+        return values[base] < v ? base + 1 : base;
+    }
+
+
+    /**
+     * Sets the bits of the rows of a block, and clears the others
+     *
+     * @param bitmap  The bitmap
+     * @param numRows The number of rows of the block
+     */
+    private static void allRows(long[] bitmap, int numRows) {
+        int numWords = (numRows + 63) >>> 6;
+        Arrays.fill(bitmap, 0, numWords, -1L);
+        Arrays.fill(bitmap, numWords, bitmap.length, 0);
+        if ((numRows & 63) != 0) {
+            bitmap[numWords - 1] = (1L << numRows) - 1;
+        }
+    }
+
+
+    /**
+     * Gets a compiled rule
+     *
+     * @param rule The position of the rule
+     * @return The rule
+     */
+    public VfdrRule rule(int rule) {
+        return m_rules[rule];
+    }
+
+
+    /**
+     * Returns the number of compiled rules
+     *
+     * @return The number of compiled rules
+     */
+    public int numRules() {
+        return m_rules.length;
+    }
+}
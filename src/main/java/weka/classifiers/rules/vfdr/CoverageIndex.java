@@ -0,0 +1,422 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Index over the literals of a rule set, used to find the rules covering an
+ * instance without testing every rule. Rules are identified by their position
+ * in the rule set.
+ * <p>
+ * Numeric antecedents are stored in per-attribute lists sorted on their split
+ * point, so the antecedents satisfied by a value are a prefix (for {@literal >})
+ * or a suffix (for {@literal <=}) of those lists. Nominal antecedents are
+ * stored in posting lists indexed on their target value. A rule covers an
+ * instance when all its literals are satisfied. Only the attributes tested by
+ * a literal are visited, so finding the rules covering an instance with many
+ * attributes, e.g. a sparse one, does not depend on its number of attributes.
+ * <p>
+ * The index must be kept in sync with the rule set: rules are added with
+ * {@link #addRule(VfdrRule)}, literals added to an indexed rule are
+ * acknowledged with {@link #literalAdded(int)}, and any other modification of
+ * the rule set requires a call to {@link #rebuild()}.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class CoverageIndex implements Serializable {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 3402183396153484129L;
+
+    /**
+     * The indexed rule set
+     */
+    private List<VfdrRule> m_ruleSet;
+
+    /**
+     * Postings of the numeric antecedents, indexed on the attribute index. Null
+     * for nominal attributes.
+     */
+    private NumericPostings[] m_numericPostings;
+
+    /**
+     * Postings of the nominal antecedents, indexed on the attribute index. Null
+     * for numeric attributes.
+     */
+    private NominalPostings[] m_nominalPostings;
+
+    /**
+     * Number of literals of each indexed rule
+     */
+    private int[] m_numLiterals = new int[16];
+
+    /**
+     * Rules without literals, which cover every instance
+     */
+    private BitSet m_emptyRules = new BitSet();
+
+    /**
+     * Attributes tested by at least one indexed literal
+     */
+    private BitSet m_indexedAttributes = new BitSet();
+
+
+    /**
+     * Builds an index over a rule set. The rules already in the set are
+     * indexed.
+     *
+     * @param ruleSet The rule set, which is modified through this index
+     * @param header  The structure of the instances to index
+     */
+    public CoverageIndex(List<VfdrRule> ruleSet, Instances header) {
+        m_ruleSet = ruleSet;
+        m_numericPostings = new NumericPostings[header.numAttributes()];
+        m_nominalPostings = new NominalPostings[header.numAttributes()];
+
+        for (int i = 0; i < header.numAttributes(); i++) {
+            if (i == header.classIndex()) {
+                continue;
+            }
+            if (header.attribute(i).isNumeric()) {
+                m_numericPostings[i] = new NumericPostings();
+            } else {
+                m_nominalPostings[i] = new NominalPostings(header.attribute(i).numValues());
+            }
+        }
+
+        rebuild();
+    }
+
+
+    /**
+     * Appends a rule to the rule set and indexes it.
+     *
+     * @param rule The rule to add
+     */
+    public void addRule(VfdrRule rule) {
+        m_ruleSet.add(rule);
+        indexRule(m_ruleSet.size() - 1);
+    }
+
+
+    /**
+     * Indexes the last literal of a rule. Must be called after a rule of the
+     * set has been expanded.
+     *
+     * @param ruleId The position of the rule in the rule set
+     */
+    public void literalAdded(int ruleId) {
+        List<Antd> literals = m_ruleSet.get(ruleId).literals();
+        indexLiteral(ruleId, literals.get(literals.size() - 1));
+        m_numLiterals[ruleId]++;
+        m_emptyRules.clear(ruleId);
+    }
+
+
+    /**
+     * Clears the index and indexes all the rules of the set again. Must be
+     * called after rules have been removed or reordered.
+     */
+    public void rebuild() {
+        for (NumericPostings p : m_numericPostings) {
+            if (p != null) {
+                p.clear();
+            }
+        }
+        for (NominalPostings p : m_nominalPostings) {
+            if (p != null) {
+                p.clear();
+            }
+        }
+        m_emptyRules.clear();
+        m_indexedAttributes.clear();
+        m_numLiterals = new int[Math.max(16, m_ruleSet.size())];
+
+        for (int i = 0; i < m_ruleSet.size(); i++) {
+            indexRule(i);
+        }
+    }
+
+
+    /**
+     * Returns the positions of the rules covering an instance, in increasing
+     * order.
+     *
+     * @param inst The instance
+     * @return The positions of the rules covering the instance
+     */
+    public int[] coveringRules(Instance inst) {
+        int numRules = m_ruleSet.size();
+        int[] satisfied = new int[numRules];
+        int[] covering = new int[numRules];
+        int numCovering = 0;
+
+        for (int id = m_emptyRules.nextSetBit(0); id >= 0; id = m_emptyRules.nextSetBit(id + 1)) {
+            covering[numCovering++] = id;
+        }
+
+        for (int a = m_indexedAttributes.nextSetBit(0); a >= 0; a = m_indexedAttributes.nextSetBit(a + 1)) {
+            NumericPostings numeric = m_numericPostings[a];
+            NominalPostings nominal = m_nominalPostings[a];
+
+            if (numeric != null && !numeric.isEmpty()) {
+                double value = inst.value(a);
+                if (Utils.isMissingValue(value)) {
+                    continue;
+                }
+
+                // value <= split point
+                SortedPostings lower = numeric.m_lowerOrEqual;
+                for (int i = lower.firstNotBelow(value); i < lower.m_size; i++) {
+                    int id = lower.m_rules[i];
+                    if (++satisfied[id] == m_numLiterals[id]) {
+                        covering[numCovering++] = id;
+                    }
+                }
+
+                // value > split point
+                SortedPostings higher = numeric.m_higher;
+                for (int i = 0, end = higher.firstNotBelow(value); i < end; i++) {
+                    int id = higher.m_rules[i];
+                    if (++satisfied[id] == m_numLiterals[id]) {
+                        covering[numCovering++] = id;
+                    }
+                }
+            } else if (nominal != null && nominal.m_numPostings > 0) {
+                double value = inst.value(a);
+                if (Utils.isMissingValue(value)) {
+                    continue;
+                }
+
+                int v = (int) value;
+                int[] rules = nominal.m_rules[v];
+                for (int i = 0; i < nominal.m_sizes[v]; i++) {
+                    int id = rules[i];
+                    if (++satisfied[id] == m_numLiterals[id]) {
+                        covering[numCovering++] = id;
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(covering, 0, numCovering);
+        return Arrays.copyOf(covering, numCovering);
+    }
+
+
+    /**
+     * Returns the position of the first rule of the set covering an instance.
+     *
+     * @param inst The instance
+     * @return The position of the first covering rule, or -1 if none covers
+     *     the instance
+     */
+    public int firstCoveringRule(Instance inst) {
+        int[] covering = coveringRules(inst);
+        return covering.length > 0 ? covering[0] : -1;
+    }
+
+
+    /**
+     * Gets the indexed rule set
+     *
+     * @return The rule set
+     */
+    public List<VfdrRule> ruleSet() {
+        return m_ruleSet;
+    }
+
+
+    /**
+     * Indexes all the literals of a rule
+     *
+     * @param ruleId The position of the rule in the rule set
+     */
+    private void indexRule(int ruleId) {
+        if (ruleId >= m_numLiterals.length) {
+            m_numLiterals = Arrays.copyOf(m_numLiterals, Math.max(ruleId + 1, 2 * m_numLiterals.length));
+        }
+
+        List<Antd> literals = m_ruleSet.get(ruleId).literals();
+        m_numLiterals[ruleId] = literals.size();
+        if (literals.isEmpty()) {
+            m_emptyRules.set(ruleId);
+        }
+
+        for (Antd antd : literals) {
+            indexLiteral(ruleId, antd);
+        }
+    }
+
+
+    private void indexLiteral(int ruleId, Antd antd) {
+        int att = antd.getAttr().index();
+        if (antd.isNumeric()) {
+            NumericAntd numAntd = (NumericAntd) antd;
+            if (Double.isNaN(numAntd.getSplitPoint())) {
+                return; // covers nothing, so the rule is never complete
+            }
+            SortedPostings postings = numAntd.isConditionHigher() ? m_numericPostings[att].m_higher
+                                                                 : m_numericPostings[att].m_lowerOrEqual;
+            postings.insert(numAntd.getSplitPoint(), ruleId);
+        } else {
+            m_nominalPostings[att].add(((NominalAntd) antd).getTargetValue(), ruleId);
+        }
+        m_indexedAttributes.set(att);
+    }
+
+
+    /**
+     * Postings of the numeric antecedents of one attribute.
+     */
+    private static class NumericPostings implements Serializable {
+
+        /**
+         * For serialisation
+         */
+        private static final long serialVersionUID = -2317496004618346562L;
+
+        /**
+         * Antecedents of the form {attribute &lt;= split point}
+         */
+        final SortedPostings m_lowerOrEqual = new SortedPostings();
+
+        /**
+         * Antecedents of the form {attribute &gt; split point}
+         */
+        final SortedPostings m_higher = new SortedPostings();
+
+
+        boolean isEmpty() {
+            return m_lowerOrEqual.m_size == 0 && m_higher.m_size == 0;
+        }
+
+
+        void clear() {
+            m_lowerOrEqual.m_size = 0;
+            m_higher.m_size = 0;
+        }
+    }
+
+
+    /**
+     * Rule positions sorted on the split point of one of their antecedents.
+     */
+    private static class SortedPostings implements Serializable {
+
+        /**
+         * For serialisation
+         */
+        private static final long serialVersionUID = 5116378563270987313L;
+
+        double[] m_splitPoints = new double[4];
+        int[] m_rules = new int[4];
+        int m_size = 0;
+
+
+        void insert(double splitPoint, int ruleId) {
+            if (m_size == m_splitPoints.length) {
+                m_splitPoints = Arrays.copyOf(m_splitPoints, 2 * m_size);
+                m_rules = Arrays.copyOf(m_rules, 2 * m_size);
+            }
+
+            // insert after the equal split points to keep the insertion stable
+            int pos = firstAbove(splitPoint);
+            System.arraycopy(m_splitPoints, pos, m_splitPoints, pos + 1, m_size - pos);
+            System.arraycopy(m_rules, pos, m_rules, pos + 1, m_size - pos);
+            m_splitPoints[pos] = splitPoint;
+            m_rules[pos] = ruleId;
+            m_size++;
+        }
+
+
+        /**
+         * Position of the first split point greater than or equal to the
+         * value
+         */
+        int firstNotBelow(double value) {
+            int lo = 0;
+            int hi = m_size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (m_splitPoints[mid] < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+
+        /**
+         * Position of the first split point strictly greater than the value
+         */
+        int firstAbove(double value) {
+            int lo = 0;
+            int hi = m_size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (m_splitPoints[mid] <= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+
+    /**
+     * Postings of the nominal antecedents of one attribute, indexed on their
+     * target value.
+     */
+    private static class NominalPostings implements Serializable {
+
+        /**
+         * For serialisation
+         */
+        private static final long serialVersionUID = -6090147839146315484L;
+
+        final int[][] m_rules;
+        final int[] m_sizes;
+        int m_numPostings = 0;
+
+
+        NominalPostings(int numValues) {
+            m_rules = new int[numValues][];
+            m_sizes = new int[numValues];
+        }
+
+
+        void add(int value, int ruleId) {
+            if (value < 0 || value >= m_rules.length) {
+                return; // covers nothing, so the rule is never complete
+            }
+            if (m_rules[value] == null) {
+                m_rules[value] = new int[4];
+            } else if (m_sizes[value] == m_rules[value].length) {
+                m_rules[value] = Arrays.copyOf(m_rules[value], 2 * m_sizes[value]);
+            }
+            m_rules[value][m_sizes[value]++] = ruleId;
+            m_numPostings++;
+        }
+
+
+        void clear() {
+            Arrays.fill(m_sizes, 0);
+            m_numPostings = 0;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.Utils;
+
+
+/**
+ * Attribute stats for numeric attributes which evaluate the exact class
+ * distributions on each side of the observed values, using an extended binary
+ * search tree (E-BST). Every node holds a value and the class distribution of
+ * the values lower or equal to it which went through the node, so the
+ * distribution on the left of any node can be accumulated along its path.
+ * <p>
+ * The number of nodes is capped. Once the cap is reached, new values are still
+ * counted along their path, so the distributions of the existing split points
+ * stay exact, but they do not become split points themselves.
+ * <p>
+ * The tree is stored in flat arrays, nodes being numbered in order of
+ * creation, so that the parent of a node always comes before it.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class EbstAttributeStats extends NumericAttributeStats {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = -6213096410745032839L;
+
+    /**
+     * Maximum number of nodes of the tree
+     */
+    private int m_maxNodes;
+
+    /**
+     * Number of nodes of the tree
+     */
+    private int m_numNodes = 0;
+
+    /**
+     * Value of each node
+     */
+    private double[] m_keys = new double[0];
+
+    /**
+     * Left child, right child and parent of each node, or -1
+     */
+    private int[] m_left = new int[0];
+    private int[] m_right = new int[0];
+    private int[] m_parent = new int[0];
+
+    /**
+     * Class distribution of the values lower or equal to the value of each
+     * node that went through it. Node {@code n} and class {@code c} are at
+     * {@code n * m_numClasses + c}.
+     */
+    private double[] m_lowerOrEqual = new double[0];
+
+
+    EbstAttributeStats(int attIndex, Vfdr vfdr) {
+        super(attIndex, vfdr);
+        m_maxNodes = vfdr.getMaxObserverSize();
+    }
+
+
+    private EbstAttributeStats(EbstAttributeStats toCopy) {
+        super(toCopy);
+        m_maxNodes = toCopy.m_maxNodes;
+        m_numNodes = toCopy.m_numNodes;
+        m_keys = toCopy.m_keys.clone();
+        m_left = toCopy.m_left.clone();
+        m_right = toCopy.m_right.clone();
+        m_parent = toCopy.m_parent.clone();
+        m_lowerOrEqual = toCopy.m_lowerOrEqual.clone();
+    }
+
+
+    @Override
+    public AttributeStats copy() {
+        return new EbstAttributeStats(this);
+    }
+
+
+    @Override
+    public void update(double attVal, int classIndex, double weight) {
+        super.update(attVal, classIndex, weight);
+
+        if (!Utils.isMissingValue(attVal)) {
+            insert(attVal, classIndex, weight);
+        }
+    }
+
+
+    /**
+     * Inserts a value in the tree, creating a node for it if it is not full
+     *
+     * @param attVal     The value
+     * @param classIndex The class of the value
+     * @param weight     The weight of the value
+     */
+    private void insert(double attVal, int classIndex, double weight) {
+        if (m_numNodes == 0) {
+            newNode(attVal, -1, classIndex, weight);
+            return;
+        }
+
+        int node = 0;
+        while (true) {
+            int child;
+            if (attVal <= m_keys[node]) {
+                m_lowerOrEqual[node * m_numClasses + classIndex] += weight;
+                if (attVal == m_keys[node]) {
+                    return;
+                }
+                child = m_left[node];
+                if (child < 0) {
+                    // the arrays may be reallocated by newNode
+                    child = newNode(attVal, node, classIndex, weight);
+                    m_left[node] = child;
+                    return;
+                }
+            } else {
+                child = m_right[node];
+                if (child < 0) {
+                    // the arrays may be reallocated by newNode
+                    child = newNode(attVal, node, classIndex, weight);
+                    m_right[node] = child;
+                    return;
+                }
+            }
+            node = child;
+        }
+    }
+
+
+    /**
+     * Creates a node for a value, if the tree is not full
+     *
+     * @param key        The value of the node
+     * @param parent     The parent of the node, or -1 for the root
+     * @param classIndex The class of the value
+     * @param weight     The weight of the value
+     * @return The new node, or -1 if the tree is full
+     */
+    private int newNode(double key, int parent, int classIndex, double weight) {
+        if (m_numNodes >= m_maxNodes) {
+            return -1;
+        }
+
+        if (m_numNodes == m_keys.length) {
+            int capacity = Math.min(m_maxNodes, Math.max(8, 2 * m_numNodes));
+            m_keys = Arrays.copyOf(m_keys, capacity);
+            m_left = Arrays.copyOf(m_left, capacity);
+            m_right = Arrays.copyOf(m_right, capacity);
+            m_parent = Arrays.copyOf(m_parent, capacity);
+            m_lowerOrEqual = Arrays.copyOf(m_lowerOrEqual, capacity * m_numClasses);
+        }
+
+        int node = m_numNodes++;
+        m_keys[node] = key;
+        m_left[node] = -1;
+        m_right[node] = -1;
+        m_parent[node] = parent;
+        m_lowerOrEqual[node * m_numClasses + classIndex] += weight;
+        return node;
+    }
+
+
+    /**
+     * Evaluates every value of the tree as a split point, except the maximum
+     * value, which has nothing on its right.
+     */
+    @Override
+    public CandidateAntd bestCandidate(ExpansionMetric expMetric, double[] preSplitDist) {
+
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < m_numClasses; c++) {
+            max = Math.max(max, m_maxValObservedPerClass[c]);
+        }
+
+        double[] cumulative = cumulativeDistributions();
+        double[] totals = classWeights();
+
+        double[] splitPoints = new double[m_numNodes];
+        double[][] leftDists = new double[m_numNodes][];
+        double[][] rightDists = new double[m_numNodes][];
+        int numSplits = 0;
+
+        for (int node = 0; node < m_numNodes; node++) {
+            if (m_keys[node] < max) {
+                int offset = node * m_numClasses;
+                double[] left = new double[m_numClasses];
+                double[] right = new double[m_numClasses];
+                for (int c = 0; c < m_numClasses; c++) {
+                    left[c] = cumulative[offset + c];
+                    right[c] = totals[c] - left[c];
+                }
+                splitPoints[numSplits] = m_keys[node];
+                leftDists[numSplits] = left;
+                rightDists[numSplits] = right;
+                numSplits++;
+            }
+        }
+
+        return bestSplit(expMetric, preSplitDist, Arrays.copyOf(splitPoints, numSplits),
+            leftDists, rightDists);
+    }
+
+
+    /**
+     * Computes the class distribution of all the values lower or equal to the
+     * value of each node. It is the distribution of the node plus those of
+     * the ancestors of which it is in the right subtree.
+     *
+     * @return The distributions, node {@code n} and class {@code c} being at
+     *     {@code n * m_numClasses + c}
+     */
+    private double[] cumulativeDistributions() {
+        // distribution on the left of the path of each node
+        double[] accumulated = new double[m_numNodes * m_numClasses];
+        double[] cumulative = new double[m_numNodes * m_numClasses];
+
+        for (int node = 0; node < m_numNodes; node++) {
+            int parent = m_parent[node];
+            int offset = node * m_numClasses;
+
+            if (parent >= 0) {
+                System.arraycopy(accumulated, parent * m_numClasses, accumulated, offset, m_numClasses);
+                if (m_right[parent] == node) {
+                    for (int c = 0; c < m_numClasses; c++) {
+                        accumulated[offset + c] += m_lowerOrEqual[parent * m_numClasses + c];
+                    }
+                }
+            }
+
+            for (int c = 0; c < m_numClasses; c++) {
+                cumulative[offset + c] = accumulated[offset + c] + m_lowerOrEqual[offset + c];
+            }
+        }
+
+        return cumulative;
+    }
+
+
+    /**
+     * Inserts the values of the other tree in this one. The weight of the
+     * values between two consecutive values of the other tree is inserted at
+     * the greater one, which is exact unless the other tree was full.
+     */
+    @Override
+    public void merge(AttributeStats other) {
+        super.merge(other);
+
+        final EbstAttributeStats stats = (EbstAttributeStats) other;
+        double[] cumulative = stats.cumulativeDistributions();
+
+        Integer[] inOrder = new Integer[stats.m_numNodes];
+        for (int node = 0; node < inOrder.length; node++) {
+            inOrder[node] = node;
+        }
+        Arrays.sort(inOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(stats.m_keys[o1], stats.m_keys[o2]);
+            }
+        });
+
+        // weight of each class between consecutive values
+        double[] weights = new double[inOrder.length * m_numClasses];
+        int previous = -1;
+        for (int i = 0; i < inOrder.length; i++) {
+            int node = inOrder[i];
+            for (int c = 0; c < m_numClasses; c++) {
+                weights[i * m_numClasses + c] = cumulative[node * m_numClasses + c]
+                                                - (previous < 0 ? 0 : cumulative[previous * m_numClasses + c]);
+            }
+            previous = node;
+        }
+
+        insertBalanced(stats, inOrder, weights, 0, inOrder.length);
+    }
+
+
+    /**
+     * Inserts sorted values of another tree median first, so that the nodes
+     * created for them form a balanced subtree rather than a list
+     *
+     * @param stats   The other tree
+     * @param inOrder The nodes of the other tree, sorted by value
+     * @param weights The weight of each class to insert at each sorted node
+     * @param from    The first sorted position to insert
+     * @param to      The position after the last one to insert
+     */
+    private void insertBalanced(EbstAttributeStats stats, Integer[] inOrder, double[] weights, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        for (int c = 0; c < m_numClasses; c++) {
+            if (weights[mid * m_numClasses + c] > 0) {
+                insert(stats.m_keys[inOrder[mid]], c, weights[mid * m_numClasses + c]);
+            }
+        }
+        insertBalanced(stats, inOrder, weights, from, mid);
+        insertBalanced(stats, inOrder, weights, mid + 1, to);
+    }
+
+
+    @Override
+    public long memoryFootprint() {
+        return super.memoryFootprint() + arraySize(m_keys.length, 8) + 3 * arraySize(m_left.length, 4)
+               + arraySize(m_lowerOrEqual.length, 8);
+    }
+
+
+    /**
+     * Writes the nodes in order of creation. The parents are not written,
+     * they are deduced from the children.
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        ModelFormat.writeVarInt(out, m_numNodes);
+        for (int node = 0; node < m_numNodes; node++) {
+            out.writeDouble(m_keys[node]);
+            ModelFormat.writeVarInt(out, m_left[node] + 1);
+            ModelFormat.writeVarInt(out, m_right[node] + 1);
+        }
+        ModelFormat.writeCounts(out, m_lowerOrEqual, m_numNodes * m_numClasses);
+    }
+
+
+    @Override
+    public void read(DataInput in) throws IOException {
+        super.read(in);
+        m_numNodes = ModelFormat.readVarInt(in);
+        m_keys = new double[m_numNodes];
+        m_left = new int[m_numNodes];
+        m_right = new int[m_numNodes];
+        m_parent = new int[m_numNodes];
+        m_lowerOrEqual = new double[m_numNodes * m_numClasses];
+
+        Arrays.fill(m_parent, -1);
+        for (int node = 0; node < m_numNodes; node++) {
+            m_keys[node] = in.readDouble();
+            m_left[node] = ModelFormat.readVarInt(in) - 1;
+            m_right[node] = ModelFormat.readVarInt(in) - 1;
+            if (m_left[node] >= 0) {
+                m_parent[m_left[node]] = node;
+            }
+            if (m_right[node] >= 0) {
+                m_parent[m_right[node]] = node;
+            }
+        }
+        ModelFormat.readCounts(in, m_lowerOrEqual, m_lowerOrEqual.length);
+    }
+
+
+    /**
+     * Gets the number of nodes of the tree
+     *
+     * @return The number of nodes
+     */
+    public int numNodes() {
+        return m_numNodes;
+    }
+}
@@ -2,7 +2,6 @@ package weka.classifiers.rules.vfdr;
 
 import java.io.Serializable;
 import java.util.List;
-import java.util.Map;
 
 import weka.core.ContingencyTables;
 import weka.core.Utils;
@@ -32,12 +31,14 @@ public abstract class ExpansionMetric implements Serializable {
      * When evaluating an expansion on a numeric attribute, once the splitpoint
      * is chosen, the antecedent could take either a {@literal <=} or {@literal >} condition.
      * Both distributions are evaluated so as to chose the best condition.
+     * <p>
+     * Distributions are dense arrays indexed on the class index.
      *
      * @param preDist   Previous distribution
      * @param postDists Post-expansion distributions
      * @return An array of one score for each post-expansion distribution
      */
-    public abstract double[] evaluateExpansions(Map<String, Integer> preDist, List<Map<String, Integer>> postDists);
+    public abstract double[] evaluateExpansions(double[] preDist, List<double[]> postDists);
 
     /**
      * Gets the range of the metric. Used to compute Hoeffding's bound.
@@ -45,7 +46,7 @@ public abstract class ExpansionMetric implements Serializable {
      * @param preDist Previous distribution
      * @return The range of the metric
      */
-    public abstract double getMetricRange(Map<String, Integer> preDist);
+    public abstract double getMetricRange(double[] preDist);
 
 
     /**
@@ -63,28 +64,16 @@ public abstract class ExpansionMetric implements Serializable {
 
 
         @Override
-        public double[] evaluateExpansions(Map<String, Integer> preDist, List<Map<String, Integer>> postDists) {
-
-            double[] pre = new double[preDist.size()];
-            int count = 0;
-            for (Map.Entry<String, Integer> e : preDist.entrySet()) {
-                pre[count++] = e.getValue();
-            }
+        public double[] evaluateExpansions(double[] preDist, List<double[]> postDists) {
 
-            double preEntropy = ContingencyTables.entropy(pre);
+            // empty classes do not contribute to the entropy
+            double preEntropy = ContingencyTables.entropy(preDist);
 
             double[] entropies = new double[postDists.size()];
             double[] scores = new double[postDists.size()];
-            count = 0;
-            for (Map<String, Integer> dist : postDists) {
-
-                double[] post = new double[dist.size()];
-                int i = 0;
-                for (Map.Entry<String, Integer> e : dist.entrySet()) {
-                    post[i++] = e.getValue();
-                }
-
-                entropies[count++] = ContingencyTables.entropy(post);
+            int count = 0;
+            for (double[] dist : postDists) {
+                entropies[count++] = ContingencyTables.entropy(dist);
             }
 
             for (int i = 0; i < scores.length; i++) {
@@ -118,8 +107,9 @@ public abstract class ExpansionMetric implements Serializable {
 
 
         @Override
-        public double getMetricRange(Map<String, Integer> preDist) {
-            return Utils.log2(preDist.size() < 2 ? 2 : preDist.size());
+        public double getMetricRange(double[] preDist) {
+            int numClasses = SufficientStats.numObservedClasses(preDist);
+            return Utils.log2(numClasses < 2 ? 2 : numClasses);
         }
 
 
@@ -1,92 +1,85 @@
 package weka.classifiers.rules.vfdr;
 
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Arrays;
 
 import weka.classifiers.rules.Vfdr;
-import weka.core.Utils;
-import weka.estimators.UnivariateNormalEstimator;
 
 
 /**
  * Attribute stats for numeric attributes. It fits a Gaussian distribution to
- * the observed distribution of values.
+ * the observed distribution of values, and evaluates split points placed on
+ * the quantiles of that distribution. Uses constant memory.
  *
  * @author Clément Fournier (clement.fournier@insa-rennes.fr)
  * @version VFDR-Base
  */
-public class GaussianAttributeStats extends AttributeStats implements Serializable {
+public class GaussianAttributeStats extends NumericAttributeStats {
 
     /**
      * For serialisation
      */
     private static final long serialVersionUID = -3563592381482652966L;
 
-    private Map<String, Double> m_minValObservedPerClass = new HashMap<>();
-    private Map<String, Double> m_maxValObservedPerClass = new HashMap<>();
+    /**
+     * Number of grid points per quantile used to place the split points
+     */
+    private static final int GRID_RESOLUTION = 4;
+
+    /**
+     * Number of split points evaluated when looking for the best antecedent
+     */
+    private int m_numBins;
+
 
-    private int m_numBins = 10;
+    GaussianAttributeStats(int attIndex, Vfdr vfdr) {
+        super(attIndex, vfdr);
+        m_numBins = vfdr.getNumSplitCandidates();
+    }
 
 
-    GaussianAttributeStats(String attName, Vfdr vfdr) {
-        super(attName, vfdr);
+    private GaussianAttributeStats(GaussianAttributeStats toCopy) {
+        super(toCopy);
+        m_numBins = toCopy.m_numBins;
     }
 
 
     /**
-     * Gets the number of bins performed when testing for good split points in
-     * the interval covered by the distribution
+     * Builds Gaussian stats from the estimators and ranges of other numeric
+     * stats
      *
-     * @return The number of bins performed
+     * @param toCopy The stats to copy
      */
-    public int getNumBins() {
-        return m_numBins;
+    GaussianAttributeStats(NumericAttributeStats toCopy) {
+        super(toCopy);
+        m_numBins = m_classifierCallback.getNumSplitCandidates();
+    }
+
+
+    @Override
+    public AttributeStats copy() {
+        return new GaussianAttributeStats(this);
     }
 
 
     /**
-     * Sets the number of bins
+     * Gets the number of split points evaluated when looking for the best
+     * antecedent. They are placed on the quantiles of the fitted distribution.
      *
-     * @param numBins The new number of bins
-     * @see #getNumBins()
+     * @return The number of split points
      */
-    public void setNumBins(int numBins) {
-        m_numBins = numBins;
+    public int getNumBins() {
+        return m_numBins;
     }
 
 
     /**
-     * Updates the statistics held by this object based on the attribute values
-     * and the class of the instance which was used.
+     * Sets the number of bins
      *
-     * @param attVal   The value of the attribute in the instance acknowledged
-     * @param classVal The class of the instance acknowledged
+     * @param numBins The new number of split points
+     * @see #getNumBins()
      */
-    @Override
-    public void update(double attVal, String classVal) {
-        if (!Utils.isMissingValue(attVal)) {
-            GaussianEstimator norm = (GaussianEstimator) m_classLookup.get(classVal);
-            if (norm == null) {
-                norm = new GaussianEstimator();
-                m_classLookup.put(classVal, norm);
-                m_minValObservedPerClass.put(classVal, attVal);
-                m_maxValObservedPerClass.put(classVal, attVal);
-            } else {
-                if (attVal < m_minValObservedPerClass.get(classVal)) {
-                    m_minValObservedPerClass.put(classVal, attVal);
-                }
-                if (attVal > m_maxValObservedPerClass.get(classVal)) {
-                    m_maxValObservedPerClass.put(classVal, attVal);
-                }
-            }
-            // That's in weka.estimators.UnivariateNormalEstimator
-            norm.addValue(attVal, 1);
-        }
+    public void setNumBins(int numBins) {
+        m_numBins = numBins;
     }
 
 
@@ -100,166 +93,128 @@ public class GaussianAttributeStats extends AttributeStats implements Serializab
      * @return The best antecedent, as a antecedent candidate for rule expansion
      */
     @Override
-    public CandidateAntd bestCandidate(ExpansionMetric expMetric, Map<String, Integer> preSplitDist) {
+    public CandidateAntd bestCandidate(ExpansionMetric expMetric, double[] preSplitDist) {
 
-        Set<Double> splitPoints = getSplitPointCandidates();
+        double[] splitPoints = getSplitPointCandidates();
+        if (splitPoints.length == 0) {
+            return null;
+        }
 
-        double bestScoreYet = Double.POSITIVE_INFINITY;
-        double bestSplitPoint = Double.NaN;
-        boolean isConditionHigher = false;
+        // weight lower or equal to each split point, for each class
+        double[][] lowerOrEqual = new double[m_numClasses][];
+        for (int classIndex = 0; classIndex < m_numClasses; classIndex++) {
+            lowerOrEqual[classIndex] = cumulativeWeights(classIndex, splitPoints);
+        }
 
-        for (Double s : splitPoints) {
-            if (s != null) {
-                List<Map<String, Integer>> postSplitDists = postExpansionDistributions(s);
-                double[] expMerits = expMetric.evaluateExpansions(preSplitDist, postSplitDists);
+        double[][] leftDists = new double[splitPoints.length][m_numClasses];
+        double[][] rightDists = new double[splitPoints.length][m_numClasses];
 
-                for (int i = 0; i < 2; i++) {
-                    if (expMerits[i] < bestScoreYet) {
-                        bestScoreYet = expMerits[i];
-                        bestSplitPoint = s;
-                        isConditionHigher = i == 1;
-                    }
+        for (int s = 0; s < splitPoints.length; s++) {
+            for (int classIndex = 0; classIndex < m_numClasses; classIndex++) {
+                GaussianEstimator norm = m_classLookup[classIndex];
+                if (norm != null) {
+                    leftDists[s][classIndex] = lowerOrEqual[classIndex][s];
+                    rightDists[s][classIndex] = norm.getSumOfWeights() - lowerOrEqual[classIndex][s];
                 }
             }
         }
 
-        NumericAntd bestAntd = m_classifierCallback.buildNumericAntd(m_attributeName);
-        bestAntd.setConditionHigher(isConditionHigher);
-        bestAntd.setSplitPoint(bestSplitPoint);
-
-        return Double.isNaN(bestSplitPoint) ? null : new CandidateAntd(bestAntd, bestScoreYet);
+        return bestSplit(expMetric, preSplitDist, splitPoints, leftDists, rightDists);
     }
 
 
     /**
-     * Returns a list with the class distributions for a given selected split
+     * Returns the weight of the values observed with a class which are lower
+     * than or equal to each point, in one pass over the points.
      *
-     * @param selectedSplit The split point
-     * @return A list with the class distribution for lower or equal
+     * @param classIndex The index of the class
+     * @param points     The points, in increasing order
+     * @return The weight lower or equal to each point (all zeros if the class
+     *     has not been observed)
      */
-    private List<Map<String, Integer>> postExpansionDistributions(double selectedSplit) {
-
-        Map<String, Integer> leftDist = new HashMap<>();
-        Map<String, Integer> rightDist = new HashMap<>();
-
-        // Iterate over classes
-        for (Map.Entry<String, Object> e : m_classLookup.entrySet()) {
-            String classVal = e.getKey();
-            GaussianEstimator norm = (GaussianEstimator) e.getValue();
-
-            if (norm != null) {
-                if (selectedSplit < m_minValObservedPerClass.get(classVal)) {
-                    rightDist.put(classVal, (rightDist.containsKey(classVal) ? rightDist.get(classVal) : 0)
-                                            + (int) norm.getSumOfWeights());
-                } else if (selectedSplit > m_maxValObservedPerClass.get(classVal)) {
-                    leftDist.put(classVal, (leftDist.containsKey(classVal) ? leftDist.get(classVal) : 0)
-                                           + (int) norm.getSumOfWeights());
-                } else {
-                    double[] weights = norm.weightLessThanEqualAndGreaterThan(selectedSplit);
-
-                    leftDist.put(classVal,
-                            (int) ((leftDist.containsKey(classVal) ? leftDist.get(classVal) : 0)
-                                   + weights[0] + weights[1]));
-                    rightDist.put(classVal, (rightDist.containsKey(classVal) ? rightDist.get(classVal) : 0) + (int) weights[2]);
-
-                }
-            }
+    private double[] cumulativeWeights(int classIndex, double[] points) {
+        double[] weights = new double[points.length];
+        GaussianEstimator norm = m_classLookup[classIndex];
+        if (norm != null) {
+            norm.cumulativeWeights(points, m_minValObservedPerClass[classIndex],
+                m_maxValObservedPerClass[classIndex], weights);
         }
-
-        List<Map<String, Integer>> list = new ArrayList<>();
-        list.add(leftDist);
-        list.add(rightDist);
-
-        return list;
+        return weights;
     }
 
 
     /**
-     * Returns the set of all breakpoints between bins, which serve as candidate
-     * splitpoints for the antecedent being worked out. The interval binned is
-     * selected so that all values observed for now could fit in.
+     * Returns the candidate split points, in increasing order. They are
+     * placed on the quantiles of the mixture of the Gaussians fitted for each
+     * class, restricted to the range of the values observed so far, so that
+     * dense regions get more candidates than sparse ones. The quantiles are
+     * interpolated from the distribution function evaluated on a grid.
      *
-     * @return The set of all breakpoints between bins
+     * @return The candidate split points, without duplicates
      */
-    private Set<Double> getSplitPointCandidates() {
-        Set<Double> splitPoints = new TreeSet<>();
+    private double[] getSplitPointCandidates() {
         double min = Double.POSITIVE_INFINITY;
         double max = Double.NEGATIVE_INFINITY;
 
-        for (String classVal : m_classLookup.keySet()) {
-            if (m_maxValObservedPerClass.containsKey(classVal)) {
-                if (m_maxValObservedPerClass.get(classVal) > max) {
-                    max = m_maxValObservedPerClass.get(classVal);
+        for (int classIndex = 0; classIndex < m_numClasses; classIndex++) {
+            if (m_classLookup[classIndex] != null) {
+                if (m_maxValObservedPerClass[classIndex] > max) {
+                    max = m_maxValObservedPerClass[classIndex];
                 }
-            }
 
-            if (m_minValObservedPerClass.containsKey(classVal)) {
-                if (m_minValObservedPerClass.get(classVal) < min) {
-                    min = m_minValObservedPerClass.get(classVal);
+                if (m_minValObservedPerClass[classIndex] < min) {
+                    min = m_minValObservedPerClass[classIndex];
                 }
             }
         }
 
-        double binWidth = (max - min) / (m_numBins + 1);
-        for (int i = 1; i <= m_numBins; i++) {
-            double split = min + i * binWidth;
-
-            if (split < max && split > min) {
-                splitPoints.add(split);
-            }
+        if (!(max > min) || m_numBins < 1) {
+            return new double[0];
         }
 
-        return splitPoints;
-    }
-
-
-    /**
-     * Inner class that implements a Gaussian estimator --- taken from the
-     * implementation of the VFDT
-     *
-     * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
-     */
-    protected class GaussianEstimator extends UnivariateNormalEstimator implements Serializable {
-
-        /**
-         * For serialization
-         */
-        private static final long serialVersionUID = 4756032800685001315L;
-
-
-        public double getSumOfWeights() {
-            return m_SumOfWeights;
+        // distribution function of the mixture on an equal-width grid
+        int gridSize = GRID_RESOLUTION * (m_numBins + 1) + 1;
+        double[] grid = new double[gridSize];
+        double gridStep = (max - min) / (gridSize - 1);
+        for (int i = 0; i < gridSize; i++) {
+            grid[i] = min + i * gridStep;
         }
+        grid[gridSize - 1] = max;
 
-
-        public double probabilityDensity(double value) {
-            updateMeanAndVariance();
-
-            if (m_SumOfWeights > 0) {
-                double stdDev = Math.sqrt(m_Variance);
-                if (stdDev > 0) {
-                    double diff = value - m_Mean;
-                    return (1.0 / (CONST * stdDev)) * Math.exp(-(diff * diff / (2.0 * m_Variance)));
-                }
-                return value == m_Mean ? 1.0 : 0.0;
+        double[] cdf = new double[gridSize];
+        for (int classIndex = 0; classIndex < m_numClasses; classIndex++) {
+            double[] weights = cumulativeWeights(classIndex, grid);
+            for (int i = 0; i < gridSize; i++) {
+                cdf[i] += weights[i];
             }
-
-            return 0.0;
         }
 
+        double low = cdf[0];
+        double range = cdf[gridSize - 1] - low;
 
-        public double[] weightLessThanEqualAndGreaterThan(double value) {
-            double stdDev = Math.sqrt(m_Variance);
-
-            double equalW = probabilityDensity(value) * m_SumOfWeights;
-
-            double lessW = (stdDev > 0)
-                           ? weka.core.Statistics.normalProbability((value - m_Mean) / stdDev) * m_SumOfWeights - equalW
-                           : (value < m_Mean) ? m_SumOfWeights - equalW : 0.0;
+        double[] splitPoints = new double[m_numBins];
+        int numSplits = 0;
+        int g = 1;
+        for (int q = 1; q <= m_numBins; q++) {
+            double target = low + range * q / (m_numBins + 1);
+            while (g < gridSize - 1 && cdf[g] < target) {
+                g++;
+            }
 
-            double greaterW = m_SumOfWeights - equalW - lessW;
+            double split;
+            double slope = cdf[g] - cdf[g - 1];
+            if (range > 0 && slope > 0) {
+                split = grid[g - 1] + gridStep * (target - cdf[g - 1]) / slope;
+            } else {
+                // flat distribution function, fall back on equal width
+                split = min + q * (max - min) / (m_numBins + 1);
+            }
 
-            return new double[]{lessW, equalW, greaterW};
+            if (split > min && split < max && (numSplits == 0 || split > splitPoints[numSplits - 1])) {
+                splitPoints[numSplits++] = split;
+            }
         }
+
+        return Arrays.copyOf(splitPoints, numSplits);
     }
 }
@@ -0,0 +1,242 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.Utils;
+
+
+/**
+ * Attribute stats for numeric attributes which summarise the observed values
+ * with a streaming histogram of fixed size. Every bin has a centroid and the
+ * class distribution of the values merged into it. When a new value makes the
+ * histogram exceed its number of bins, the two closest bins are merged.
+ * <p>
+ * The split points evaluated are the midpoints between consecutive centroids.
+ * The class distribution on the left of a split point is the sum of the
+ * distributions of the bins before it.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class HistogramAttributeStats extends NumericAttributeStats {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 7935409917235893210L;
+
+    /**
+     * Maximum number of bins
+     */
+    private int m_maxBins;
+
+    /**
+     * Number of bins
+     */
+    private int m_numBins = 0;
+
+    /**
+     * Centroid of each bin, in increasing order
+     */
+    private double[] m_centroids = new double[0];
+
+    /**
+     * Class distribution of each bin. Bin {@code b} and class {@code c} are at
+     * {@code b * m_numClasses + c}.
+     */
+    private double[] m_counts = new double[0];
+
+
+    HistogramAttributeStats(int attIndex, Vfdr vfdr) {
+        super(attIndex, vfdr);
+        m_maxBins = Math.max(1, vfdr.getMaxObserverSize());
+    }
+
+
+    private HistogramAttributeStats(HistogramAttributeStats toCopy) {
+        super(toCopy);
+        m_maxBins = toCopy.m_maxBins;
+        m_numBins = toCopy.m_numBins;
+        m_centroids = toCopy.m_centroids.clone();
+        m_counts = toCopy.m_counts.clone();
+    }
+
+
+    @Override
+    public AttributeStats copy() {
+        return new HistogramAttributeStats(this);
+    }
+
+
+    @Override
+    public void update(double attVal, int classIndex, double weight) {
+        super.update(attVal, classIndex, weight);
+
+        if (!Utils.isMissingValue(attVal)) {
+            int pos = bin(attVal); // may reallocate the arrays
+            m_counts[pos * m_numClasses + classIndex] += weight;
+            if (m_numBins > m_maxBins) {
+                mergeClosestBins();
+            }
+        }
+    }
+
+
+    /**
+     * Finds the bin with a given centroid, inserting an empty one if there is
+     * none. The histogram may then have one bin too many.
+     *
+     * @param centroid The centroid
+     * @return The position of the bin
+     */
+    private int bin(double centroid) {
+        int pos = Arrays.binarySearch(m_centroids, 0, m_numBins, centroid);
+        if (pos >= 0) {
+            return pos;
+        }
+
+        // one more bin than the maximum is needed before merging
+        if (m_numBins == m_centroids.length) {
+            int capacity = Math.min(m_maxBins + 1, Math.max(8, 2 * m_numBins));
+            m_centroids = Arrays.copyOf(m_centroids, capacity);
+            m_counts = Arrays.copyOf(m_counts, capacity * m_numClasses);
+        }
+
+        pos = -pos - 1;
+        System.arraycopy(m_centroids, pos, m_centroids, pos + 1, m_numBins - pos);
+        System.arraycopy(m_counts, pos * m_numClasses, m_counts, (pos + 1) * m_numClasses,
+            (m_numBins - pos) * m_numClasses);
+        m_centroids[pos] = centroid;
+        Arrays.fill(m_counts, pos * m_numClasses, (pos + 1) * m_numClasses, 0);
+        m_numBins++;
+        return pos;
+    }
+
+
+    /**
+     * Inserts the bins of the other histogram in this one, merging the
+     * closest bins as long as there are too many.
+     */
+    @Override
+    public void merge(AttributeStats other) {
+        super.merge(other);
+
+        HistogramAttributeStats stats = (HistogramAttributeStats) other;
+        for (int b = 0; b < stats.m_numBins; b++) {
+            int offset = bin(stats.m_centroids[b]) * m_numClasses;
+            for (int c = 0; c < m_numClasses; c++) {
+                m_counts[offset + c] += stats.m_counts[b * m_numClasses + c];
+            }
+            if (m_numBins > m_maxBins) {
+                mergeClosestBins();
+            }
+        }
+    }
+
+
+    /**
+     * Merges the two consecutive bins whose centroids are the closest. The
+     * centroid of the merged bin is the weighted mean of their centroids.
+     */
+    private void mergeClosestBins() {
+        int closest = 0;
+        for (int b = 1; b < m_numBins - 1; b++) {
+            if (m_centroids[b + 1] - m_centroids[b] < m_centroids[closest + 1] - m_centroids[closest]) {
+                closest = b;
+            }
+        }
+
+        int offset = closest * m_numClasses;
+        int nextOffset = offset + m_numClasses;
+        double weight = 0;
+        double nextWeight = 0;
+        for (int c = 0; c < m_numClasses; c++) {
+            weight += m_counts[offset + c];
+            nextWeight += m_counts[nextOffset + c];
+            m_counts[offset + c] += m_counts[nextOffset + c];
+        }
+
+        m_centroids[closest] = (m_centroids[closest] * weight + m_centroids[closest + 1] * nextWeight)
+                               / (weight + nextWeight);
+
+        System.arraycopy(m_centroids, closest + 2, m_centroids, closest + 1, m_numBins - closest - 2);
+        System.arraycopy(m_counts, nextOffset + m_numClasses, m_counts, nextOffset,
+            (m_numBins - closest - 2) * m_numClasses);
+        m_numBins--;
+    }
+
+
+    @Override
+    public CandidateAntd bestCandidate(ExpansionMetric expMetric, double[] preSplitDist) {
+
+        if (m_numBins < 2) {
+            return null;
+        }
+
+        double[] totals = classWeights();
+        double[] splitPoints = new double[m_numBins - 1];
+        double[][] leftDists = new double[m_numBins - 1][];
+        double[][] rightDists = new double[m_numBins - 1][];
+
+        double[] left = new double[m_numClasses];
+        for (int b = 0; b < m_numBins - 1; b++) {
+            left = left.clone();
+            double[] right = new double[m_numClasses];
+            for (int c = 0; c < m_numClasses; c++) {
+                left[c] += m_counts[b * m_numClasses + c];
+                right[c] = totals[c] - left[c];
+            }
+            splitPoints[b] = (m_centroids[b] + m_centroids[b + 1]) / 2;
+            leftDists[b] = left;
+            rightDists[b] = right;
+        }
+
+        return bestSplit(expMetric, preSplitDist, splitPoints, leftDists, rightDists);
+    }
+
+
+    @Override
+    public long memoryFootprint() {
+        return super.memoryFootprint() + arraySize(m_centroids.length, 8) + arraySize(m_counts.length, 8);
+    }
+
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        ModelFormat.writeVarInt(out, m_numBins);
+        for (int b = 0; b < m_numBins; b++) {
+            out.writeDouble(m_centroids[b]);
+        }
+        ModelFormat.writeCounts(out, m_counts, m_numBins * m_numClasses);
+    }
+
+
+    @Override
+    public void read(DataInput in) throws IOException {
+        super.read(in);
+        m_numBins = ModelFormat.readVarInt(in);
+        // one more bin than the maximum is needed before merging
+        int capacity = Math.min(m_maxBins + 1, Math.max(8, m_numBins));
+        m_centroids = new double[Math.max(capacity, m_numBins)];
+        m_counts = new double[m_centroids.length * m_numClasses];
+        for (int b = 0; b < m_numBins; b++) {
+            m_centroids[b] = in.readDouble();
+        }
+        ModelFormat.readCounts(in, m_counts, m_numBins * m_numClasses);
+    }
+
+
+    /**
+     * Gets the number of bins of the histogram
+     *
+     * @return The number of bins
+     */
+    public int numBins() {
+        return m_numBins;
+    }
+}
@@ -0,0 +1,181 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.Loader;
+
+
+/**
+ * Collapses identical instances into a single instance, whose weight is the
+ * sum of their weights. Instances are identical when all their values, the
+ * class included, are equal, missing values being equal to each other. The
+ * statistics of the rules only depend on the weight of every distinct
+ * instance, so training on the aggregated instances gives the same statistics
+ * as training on the original ones, with fewer updates. The order of the
+ * instances is lost, so the expansions may happen at different times.
+ * <p>
+ * The aggregated instances are kept in memory, one per distinct instance.
+ * This class can also be run from the command line:
+ * <pre>
+ * java weka.classifiers.rules.vfdr.InstanceAggregator -i &lt;ARFF file&gt; [-o &lt;ARFF file&gt;]
+ * </pre>
+ * The aggregated instances are written to the output file, or to the standard
+ * output, with their weights.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public final class InstanceAggregator {
+
+    private InstanceAggregator() {
+
+    }
+
+
+    /**
+     * Aggregates a batch of instances
+     *
+     * @param data The instances
+     * @return One instance per distinct instance of the batch, in the order of
+     *     their first occurrence, with the same header
+     */
+    public static Instances aggregate(Instances data) {
+        Instances aggregated = new Instances(data, 0);
+        Map<Row, Instance> rows = new HashMap<>();
+        for (Instance x : data) {
+            add(aggregated, rows, x);
+        }
+        aggregated.compactify();
+        return aggregated;
+    }
+
+
+    /**
+     * Aggregates the instances read from a loader
+     *
+     * @param loader     The loader, read incrementally
+     * @param classIndex The index of the class attribute, or -1 for the last
+     *                   attribute
+     * @return One instance per distinct instance read, in the order of their
+     *     first occurrence
+     * @throws IOException If the instances could not be read
+     */
+    public static Instances aggregate(Loader loader, int classIndex) throws IOException {
+        Instances structure = loader.getStructure();
+        structure.setClassIndex(classIndex < 0 ? structure.numAttributes() - 1 : classIndex);
+
+        Instances aggregated = new Instances(structure, 0);
+        Map<Row, Instance> rows = new HashMap<>();
+        Instance x;
+        while ((x = loader.getNextInstance(structure)) != null) {
+            add(aggregated, rows, x);
+        }
+        aggregated.compactify();
+        return aggregated;
+    }
+
+
+    /**
+     * Adds the weight of an instance to the identical instance already
+     * aggregated, or appends a copy of it
+     *
+     * @param aggregated The instances aggregated so far
+     * @param rows       The aggregated instances, indexed on their values
+     * @param x          The instance to add
+     */
+    private static void add(Instances aggregated, Map<Row, Instance> rows, Instance x) {
+        Row row = new Row(x.toDoubleArray());
+        Instance same = rows.get(row);
+        if (same != null) {
+            same.setWeight(same.weight() + x.weight());
+        } else {
+            aggregated.add(x);
+            // add copies the instance
+            rows.put(row, aggregated.lastInstance());
+        }
+    }
+
+
+    public static void main(String[] args) {
+        try {
+            String input = Utils.getOption('i', args);
+            if (input.length() == 0) {
+                System.out.println("Usage: java " + InstanceAggregator.class.getName()
+                                   + " -i <ARFF file> [-o <ARFF file>]");
+                return;
+            }
+            String output = Utils.getOption('o', args);
+
+            File file = new File(input);
+            if (!file.isFile()) {
+                throw new FileNotFoundException(input);
+            }
+            ArffLoader loader = new ArffLoader();
+            loader.setFile(file);
+            Instances aggregated = aggregate(loader, -1);
+
+            Writer writer = new BufferedWriter(output.length() == 0 ? new OutputStreamWriter(System.out, "UTF-8")
+                                                                    : new OutputStreamWriter(
+                                                                        new FileOutputStream(output), "UTF-8"),
+                1 << 16);
+            try {
+                writer.write(new Instances(aggregated, 0).toString());
+                writer.write('\n');
+                for (Instance x : aggregated) {
+                    writer.write(x.toString());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.flush();
+                if (output.length() != 0) {
+                    writer.close();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Values of an instance, compared bit by bit
+     */
+    private static final class Row {
+
+        private final double[] m_values;
+
+        private final int m_hash;
+
+
+        Row(double[] values) {
+            m_values = values;
+            m_hash = Arrays.hashCode(values);
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Row && Arrays.equals(m_values, ((Row) o).m_values);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return m_hash;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package weka.classifiers.rules.vfdr;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of latencies in nanoseconds, which can be recorded concurrently
+ * without locks. Latencies are counted in log-linear buckets: every power of
+ * two is split into {@value #SUB_BUCKETS} buckets of equal width, so
+ * percentiles are estimated within 12.5%.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets per power of two
+     */
+    private static final int SUB_BUCKETS = 8;
+
+    /**
+     * Log2 of the number of buckets per power of two
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * Number of samples of every bucket
+     */
+    private final AtomicLongArray m_buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+    /**
+     * Number of samples
+     */
+    private final AtomicLong m_count = new AtomicLong();
+
+    /**
+     * Sum of the samples
+     */
+    private final AtomicLong m_sum = new AtomicLong();
+
+    /**
+     * Largest sample
+     */
+    private final AtomicLong m_max = new AtomicLong();
+
+
+    /**
+     * Records a latency
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // nanoTime is not always monotonic across cores
+        }
+        m_buckets.incrementAndGet(bucket(nanos));
+        m_count.incrementAndGet();
+        m_sum.addAndGet(nanos);
+
+        long max = m_max.get();
+        while (nanos > max && !m_max.compareAndSet(max, nanos)) {
+            max = m_max.get();
+        }
+    }
+
+
+    /**
+     * Clears the histogram. Samples recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < m_buckets.length(); i++) {
+            m_buckets.set(i, 0);
+        }
+        m_count.set(0);
+        m_sum.set(0);
+        m_max.set(0);
+    }
+
+
+    /**
+     * Takes a snapshot of the histogram. Samples recorded concurrently may be
+     * partially accounted for.
+     *
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[m_buckets.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = m_buckets.get(i);
+            count += counts[i];
+        }
+        long sum = m_sum.get();
+
+        return new Snapshot(count, count == 0 ? 0 : (double) sum / count, percentile(counts, count, .5),
+            percentile(counts, count, .9), percentile(counts, count, .99), m_max.get());
+    }
+
+
+    /**
+     * Estimates a percentile from the counts of the buckets, as the middle of
+     * the bucket containing it
+     *
+     * @param counts The counts of the buckets
+     * @param count  The total count
+     * @param p      The percentile, between 0 and 1
+     * @return The estimated percentile, in nanoseconds
+     */
+    private static long percentile(long[] counts, long count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (lowerBound(i) + lowerBound(i + 1) - 1) / 2;
+            }
+        }
+        return lowerBound(counts.length - 1);
+    }
+
+
+    /**
+     * Gets the bucket of a latency
+     *
+     * @param nanos The latency, positive
+     * @return The index of the bucket
+     */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+
+    /**
+     * Gets the smallest latency of a bucket
+     *
+     * @param bucket The index of the bucket
+     * @return The smallest latency counted in the bucket
+     */
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+    }
+
+
+    /**
+     * Summary of a histogram at some point in time. Latencies are in
+     * nanoseconds.
+     */
+    public static class Snapshot {
+
+        private final long m_count;
+
+        private final double m_mean;
+
+        private final long m_median;
+
+        private final long m_p90;
+
+        private final long m_p99;
+
+        private final long m_max;
+
+
+        @ConstructorProperties({"count", "mean", "median", "p90", "p99", "max"})
+        public Snapshot(long count, double mean, long median, long p90, long p99, long max) {
+            m_count = count;
+            m_mean = mean;
+            m_median = median;
+            m_p90 = p90;
+            m_p99 = p99;
+            m_max = max;
+        }
+
+
+        public long getCount() {
+            return m_count;
+        }
+
+
+        public double getMean() {
+            return m_mean;
+        }
+
+
+        public long getMedian() {
+            return m_median;
+        }
+
+
+        public long getP90() {
+            return m_p90;
+        }
+
+
+        public long getP99() {
+            return m_p99;
+        }
+
+
+        public long getMax() {
+            return m_max;
+        }
+
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0fns median=%dns p90=%dns p99=%dns max=%dns", m_count, m_mean,
+                m_median, m_p90, m_p99, m_max);
+        }
+    }
+}
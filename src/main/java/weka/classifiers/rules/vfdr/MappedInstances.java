@@ -0,0 +1,319 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.Loader;
+
+
+/**
+ * Instances stored in a compact binary file, which is memory-mapped to be
+ * replayed quickly. The file holds the header of the instances once, as ARFF
+ * text, followed by rows of fixed width: one double or float per attribute,
+ * missing values being NaN, then the weight of the instance. Nominal values
+ * are stored as their index.
+ * <p>
+ * Rows are read into a reusable instance view, so replaying the file does not
+ * allocate anything per row. Files are written from an incremental loader with
+ * {@link #write(Loader, int, File, boolean)}, or from the command line:
+ * <pre>
+ * java weka.classifiers.rules.vfdr.MappedInstances -i &lt;ARFF file&gt; -o &lt;binary file&gt;
+ *     [-c &lt;class index&gt;] [-F]
+ * </pre>
+ * where {@code -F} stores the values as floats.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class MappedInstances implements Closeable {
+
+    /**
+     * Magic number at the start of the files ("VFDI")
+     */
+    private static final int MAGIC = 0x56464449;
+
+    /**
+     * Version of the format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Header of the instances, with the class index set
+     */
+    private final Instances m_header;
+
+    /**
+     * Size of a value, 4 (float) or 8 (double) bytes
+     */
+    private final int m_valueSize;
+
+    /**
+     * Size of a row, in bytes
+     */
+    private final int m_rowSize;
+
+    /**
+     * Number of rows of the file
+     */
+    private final long m_numRows;
+
+    /**
+     * Number of rows mapped by each buffer
+     */
+    private final long m_rowsPerBuffer;
+
+    /**
+     * Mapped regions of the file, a file larger than 2GB needing several
+     */
+    private final MappedByteBuffer[] m_buffers;
+
+    private final RandomAccessFile m_file;
+
+
+    /**
+     * Opens a binary file and maps its rows
+     *
+     * @param file The file
+     * @throws IOException If the file could not be read, or is not in the
+     *                     expected format
+     */
+    public MappedInstances(File file) throws IOException {
+        long dataStart;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a binary instances file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary instances version: " + version);
+            }
+            byte[] header = new byte[in.readInt()];
+            in.readFully(header);
+            m_header = new Instances(new StringReader(new String(header, "UTF-8")));
+            m_header.setClassIndex(in.readInt());
+            m_valueSize = in.readInt();
+            dataStart = 5 * 4 + header.length;
+        }
+
+        m_rowSize = (m_header.numAttributes() + 1) * m_valueSize;
+        m_file = new RandomAccessFile(file, "r");
+        m_numRows = (m_file.length() - dataStart) / m_rowSize;
+        m_rowsPerBuffer = Math.max(1, Integer.MAX_VALUE / m_rowSize);
+
+        FileChannel channel = m_file.getChannel();
+        m_buffers = new MappedByteBuffer[(int) ((m_numRows + m_rowsPerBuffer - 1) / m_rowsPerBuffer)];
+        for (int b = 0; b < m_buffers.length; b++) {
+            long firstRow = b * m_rowsPerBuffer;
+            long numRows = Math.min(m_rowsPerBuffer, m_numRows - firstRow);
+            m_buffers[b] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + firstRow * m_rowSize,
+                numRows * m_rowSize);
+        }
+    }
+
+
+    /**
+     * Whether a file is a binary instances file
+     *
+     * @param file The file
+     * @return Whether the file starts with the magic number of the format
+     * @throws IOException If the file could not be read
+     */
+    public static boolean isBinaryFile(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        }
+    }
+
+
+    /**
+     * Writes the instances of an incremental loader to a binary file
+     *
+     * @param loader          The loader, which must support incremental
+     *                        loading
+     * @param classIndex      The index of the class attribute, or -1 to use
+     *                        the last attribute
+     * @param file            The file to write
+     * @param singlePrecision Whether to store the values as floats rather than
+     *                        doubles
+     * @return The number of rows written
+     * @throws IOException If the instances could not be read or written
+     */
+    public static long write(Loader loader, int classIndex, File file, boolean singlePrecision) throws IOException {
+        Instances structure = loader.getStructure();
+        structure.setClassIndex(classIndex < 0 ? structure.numAttributes() - 1 : classIndex);
+
+        long numRows = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+            1 << 16))) {
+            byte[] header = new Instances(structure, 0).toString().getBytes("UTF-8");
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(header.length);
+            out.write(header);
+            out.writeInt(structure.classIndex());
+            out.writeInt(singlePrecision ? 4 : 8);
+
+            Instance x;
+            while ((x = loader.getNextInstance(structure)) != null) {
+                for (int i = 0; i <= structure.numAttributes(); i++) {
+                    double value = i < structure.numAttributes() ? x.value(i) : x.weight();
+                    if (singlePrecision) {
+                        out.writeFloat((float) value);
+                    } else {
+                        out.writeDouble(value);
+                    }
+                }
+                numRows++;
+            }
+        }
+        return numRows;
+    }
+
+
+    /**
+     * Gets the header of the instances, with the class index set
+     *
+     * @return The header of the instances
+     */
+    public Instances header() {
+        return m_header;
+    }
+
+
+    /**
+     * Returns the number of rows of the file
+     *
+     * @return The number of rows
+     */
+    public long numRows() {
+        return m_numRows;
+    }
+
+
+    /**
+     * Builds an instance view, to be filled with {@link #read(long, Instance)}
+     *
+     * @param dataset The header the view refers to
+     * @return A new instance view
+     */
+    public Instance newView(Instances dataset) {
+        Instance view = new View(m_header.numAttributes());
+        view.setDataset(dataset);
+        return view;
+    }
+
+
+    /**
+     * Reads a single value of a row
+     *
+     * @param row      The position of the row
+     * @param attIndex The index of the attribute
+     * @return The value, NaN if it is missing
+     */
+    public double value(long row, int attIndex) {
+        MappedByteBuffer buffer = m_buffers[(int) (row / m_rowsPerBuffer)];
+        int offset = (int) (row % m_rowsPerBuffer) * m_rowSize + attIndex * m_valueSize;
+        return m_valueSize == 4 ? buffer.getFloat(offset) : buffer.getDouble(offset);
+    }
+
+
+    /**
+     * Reads a row and its weight into an instance view, without allocating
+     * anything
+     *
+     * @param row  The position of the row
+     * @param view A view built by {@link #newView(Instances)}
+     */
+    public void read(long row, Instance view) {
+        MappedByteBuffer buffer = m_buffers[(int) (row / m_rowsPerBuffer)];
+        int offset = (int) (row % m_rowsPerBuffer) * m_rowSize;
+        double[] values = ((View) view).values();
+
+        if (m_valueSize == 4) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getFloat(offset + 4 * i);
+            }
+            view.setWeight(buffer.getFloat(offset + 4 * values.length));
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getDouble(offset + 8 * i);
+            }
+            view.setWeight(buffer.getDouble(offset + 8 * values.length));
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        m_file.close();
+    }
+
+
+    public static void main(String[] args) {
+        try {
+            String input = Utils.getOption('i', args);
+            String output = Utils.getOption('o', args);
+            if (input.length() == 0 || output.length() == 0) {
+                System.out.println("Usage: java " + MappedInstances.class.getName()
+                                   + " -i <ARFF file> -o <binary file> [-c <class index>] [-F]");
+                return;
+            }
+
+            String classIndex = Utils.getOption('c', args);
+            int index = -1;
+            if (classIndex.equals("first")) {
+                index = 0;
+            } else if (classIndex.length() != 0 && !classIndex.equals("last")) {
+                index = Integer.parseInt(classIndex) - 1;
+            }
+
+            ArffLoader loader = new ArffLoader();
+            loader.setFile(new File(input));
+            long numRows = write(loader, index, new File(output), Utils.getFlag('F', args));
+            System.out.println(numRows + " instances written to " + output);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Instance whose values are overwritten by every row read
+     */
+    private static class View extends DenseInstance {
+
+        /**
+         * For serialisation
+         */
+        private static final long serialVersionUID = -2735203941537066911L;
+
+
+        View(int numAttributes) {
+            super(numAttributes);
+        }
+
+
+        double[] values() {
+            return m_AttValues;
+        }
+    }
+}
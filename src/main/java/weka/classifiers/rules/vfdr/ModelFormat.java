@@ -0,0 +1,281 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+
+/**
+ * Compact binary format of {@link Vfdr} models, written with
+ * {@link Vfdr#saveModel(OutputStream)} and read with
+ * {@link Vfdr#loadModel(InputStream)}. The file starts with a magic number and
+ * a version, then holds the options of the classifier and the header of the
+ * instances once. Rules follow, their literals referring to attributes by
+ * index, and their statistics being written as primitive values. Sizes and
+ * counts are written as variable-length integers.
+ * <p>
+ * This class holds the encoding helpers. Its main method converts models
+ * saved with Java serialization, and prints models:
+ * <pre>
+ * java weka.classifiers.rules.vfdr.ModelFormat -i &lt;model file&gt; [-o &lt;compact model file&gt;] [-p]
+ * </pre>
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public final class ModelFormat {
+
+    /**
+     * Magic number at the start of the files ("VFDM")
+     */
+    public static final int MAGIC = 0x5646444D;
+
+    /**
+     * Version of the format
+     */
+    public static final int VERSION = 1;
+
+
+    private ModelFormat() {
+
+    }
+
+
+    /**
+     * Writes a non-negative integer on 1 to 5 bytes, 7 bits at a time
+     *
+     * @param out   The output
+     * @param value The value
+     * @throws IOException If the value could not be written
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+
+    /**
+     * Reads an integer written by {@link #writeVarInt(DataOutput, int)}
+     *
+     * @param in The input
+     * @return The value
+     * @throws IOException If the value could not be read
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+
+    /**
+     * Writes a non-negative long on 1 to 10 bytes, 7 bits at a time
+     *
+     * @param out   The output
+     * @param value The value
+     * @throws IOException If the value could not be written
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+
+    /**
+     * Reads a long written by {@link #writeVarLong(DataOutput, long)}
+     *
+     * @param in The input
+     * @return The value
+     * @throws IOException If the value could not be read
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+
+    /**
+     * Writes a weight. Whole weights, which are the most frequent, are
+     * written as variable-length integers, other ones as doubles.
+     *
+     * @param out    The output
+     * @param weight The weight
+     * @throws IOException If the weight could not be written
+     */
+    public static void writeCount(DataOutput out, double weight) throws IOException {
+        if (weight >= 0 && weight < (1L << 52) && weight == Math.rint(weight)) {
+            writeVarLong(out, (long) weight << 1);
+        } else {
+            writeVarLong(out, 1);
+            out.writeDouble(weight);
+        }
+    }
+
+
+    /**
+     * Reads a weight written by {@link #writeCount(DataOutput, double)}
+     *
+     * @param in The input
+     * @return The weight
+     * @throws IOException If the weight could not be read
+     */
+    public static double readCount(DataInput in) throws IOException {
+        long tag = readVarLong(in);
+        return (tag & 1) == 0 ? tag >>> 1 : in.readDouble();
+    }
+
+
+    /**
+     * Writes the first values of an array of weights
+     *
+     * @param out    The output
+     * @param counts The weights
+     * @param length The number of weights to write
+     * @throws IOException If the weights could not be written
+     */
+    public static void writeCounts(DataOutput out, double[] counts, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            writeCount(out, counts[i]);
+        }
+    }
+
+
+    /**
+     * Reads weights written by {@link #writeCounts(DataOutput, double[], int)}
+     *
+     * @param in     The input
+     * @param counts Receives the weights
+     * @param length The number of weights to read
+     * @throws IOException If the weights could not be read
+     */
+    public static void readCounts(DataInput in, double[] counts, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            counts[i] = readCount(in);
+        }
+    }
+
+
+    /**
+     * Writes a literal: the index of its attribute, then its condition and
+     * split point if it is numeric, or its target value if it is nominal
+     *
+     * @param out  The output
+     * @param antd The literal
+     * @throws IOException If the literal could not be written
+     */
+    public static void writeAntd(DataOutput out, Antd antd) throws IOException {
+        writeVarInt(out, antd.getAttr().index());
+        if (antd.isNumeric()) {
+            NumericAntd numAntd = (NumericAntd) antd;
+            out.writeBoolean(numAntd.isConditionHigher());
+            out.writeDouble(numAntd.getSplitPoint());
+        } else {
+            writeVarInt(out, ((NominalAntd) antd).getTargetValue());
+        }
+    }
+
+
+    /**
+     * Reads a literal written by {@link #writeAntd(DataOutput, Antd)}
+     *
+     * @param in   The input
+     * @param vfdr The classifier the literal is read for, whose header must be
+     *             the one of the classifier it was written from
+     * @return The literal
+     * @throws IOException If the literal could not be read
+     */
+    public static Antd readAntd(DataInput in, Vfdr vfdr) throws IOException {
+        int attIndex = readVarInt(in);
+        if (vfdr.getHeader().attribute(attIndex).isNumeric()) {
+            NumericAntd antd = vfdr.buildNumericAntd(attIndex);
+            antd.setConditionHigher(in.readBoolean());
+            antd.setSplitPoint(in.readDouble());
+            return antd;
+        } else {
+            NominalAntd antd = vfdr.buildNominalAntd(attIndex);
+            antd.setTargetValue(readVarInt(in));
+            return antd;
+        }
+    }
+
+
+    /**
+     * Reads a model, in the compact format or saved with Java serialization
+     *
+     * @param file The model file
+     * @return The model
+     * @throws Exception If the model could not be read
+     */
+    public static Vfdr read(File file) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            in.mark(4);
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                magic = magic << 8 | (in.read() & 0xFF);
+            }
+            in.reset();
+            return magic == MAGIC ? Vfdr.loadModel(in) : (Vfdr) SerializationHelper.read(in);
+        }
+    }
+
+
+    /**
+     * Writes a model in the compact format
+     *
+     * @param vfdr The model
+     * @param file The file to write
+     * @throws IOException If the model could not be written
+     */
+    public static void write(Vfdr vfdr, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            vfdr.saveModel(out);
+        }
+    }
+
+
+    public static void main(String[] args) {
+        try {
+            String input = Utils.getOption('i', args);
+            if (input.length() == 0) {
+                System.out.println("Usage: java " + ModelFormat.class.getName()
+                                   + " -i <model file> [-o <compact model file>] [-p]");
+                return;
+            }
+            String output = Utils.getOption('o', args);
+            boolean print = Utils.getFlag('p', args);
+
+            long start = System.currentTimeMillis();
+            Vfdr vfdr = read(new File(input));
+            System.out.println("Model loaded in " + (System.currentTimeMillis() - start) + " ms");
+
+            if (output.length() != 0) {
+                write(vfdr, new File(output));
+                System.out.println("Model written to " + output + " (" + new File(output).length() + " bytes)");
+            }
+            if (print) {
+                System.out.println(vfdr);
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -30,6 +30,12 @@ public class NominalAntd extends Antd {
     }
 
 
+    @Override
+    public boolean isImpliedBy(Antd other) {
+        return equals(other);
+    }
+
+
     @Override
     public boolean covers(Instance inst) {
         return (inst.value(m_attribute) == m_targetAttributeValue);
@@ -63,12 +69,13 @@ public class NominalAntd extends Antd {
 
         NominalAntd that = (NominalAntd) o;
 
-        return m_targetAttributeValue == that.m_targetAttributeValue;
+        return m_attribute.index() == that.m_attribute.index()
+               && m_targetAttributeValue == that.m_targetAttributeValue;
     }
 
 
     @Override
     public int hashCode() {
-        return m_targetAttributeValue;
+        return 31 * m_attribute.index() + m_targetAttributeValue;
     }
 }
@@ -1,12 +1,11 @@
 package weka.classifiers.rules.vfdr;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import weka.classifiers.rules.Vfdr;
 import weka.core.Utils;
@@ -29,34 +28,139 @@ public class NominalAttributeStats extends AttributeStats {
     /**
      * Cumulated weight of all distributions (that is, for all classes)
      */
-    protected int m_totalWeight = 0;
+    protected double m_totalWeight = 0;
+
+    /**
+     * Number of values of the attribute
+     */
+    protected int m_numValues;
+
+    /**
+     * Discrete distributions, indexed on the class index. Null if the class has
+     * not been observed yet.
+     */
+    protected DiscreteDistribution[] m_classLookup;
+
+
+    public NominalAttributeStats(int attIndex, Vfdr vfdr) {
+        super(attIndex, vfdr);
+        m_numValues = vfdr.getHeader().attribute(attIndex).numValues();
+        m_classLookup = new DiscreteDistribution[m_numClasses];
+    }
+
+
+    private NominalAttributeStats(NominalAttributeStats toCopy) {
+        super(toCopy);
+        m_totalWeight = toCopy.m_totalWeight;
+        m_numValues = toCopy.m_numValues;
+        m_classLookup = new DiscreteDistribution[m_numClasses];
+        for (int i = 0; i < m_numClasses; i++) {
+            if (toCopy.m_classLookup[i] != null) {
+                m_classLookup[i] = new DiscreteDistribution(toCopy.m_classLookup[i]);
+            }
+        }
+    }
 
 
-    public NominalAttributeStats(String attName, Vfdr vfdr) {
-        super(attName, vfdr);
+    @Override
+    public AttributeStats copy() {
+        return new NominalAttributeStats(this);
     }
 
 
     @Override
-    public void update(double attVal, String classVal) {
+    public void update(double attVal, int classIndex, double weight) {
         if (!Utils.isMissingValue(attVal)) {
-            DiscreteDistribution dist = (DiscreteDistribution) m_classLookup.get(classVal);
+            DiscreteDistribution dist = m_classLookup[classIndex];
             if (dist == null) {
-                dist = new DiscreteDistribution();
-                dist.add((int) attVal);
-                m_classLookup.put(classVal, dist);
-            } else {
-                dist.add((int) attVal);
+                dist = new DiscreteDistribution(m_numValues);
+                m_classLookup[classIndex] = dist;
+            }
+            dist.add((int) attVal, weight);
+            m_totalWeight += weight;
+        }
+    }
+
+
+    /**
+     * Estimates P(attr = value | class) with a Laplace correction, so values
+     * which have not been observed with the class keep a non-zero probability.
+     */
+    @Override
+    public double logConditionalProbability(double attVal, int classIndex, double zeroWeight) {
+        if (Utils.isMissingValue(attVal)) {
+            return 0;
+        }
+        DiscreteDistribution dist = m_classLookup[classIndex];
+        double weight = (dist == null ? 0 : dist.getWeight((int) attVal)) + (attVal == 0 ? zeroWeight : 0);
+        double sum = (dist == null ? 0 : dist.sum()) + zeroWeight;
+        return Math.log((weight + 1) / (sum + m_numValues));
+    }
+
+
+    @Override
+    public void merge(AttributeStats other) {
+        NominalAttributeStats stats = (NominalAttributeStats) other;
+        for (int i = 0; i < m_numClasses; i++) {
+            if (stats.m_classLookup[i] != null) {
+                if (m_classLookup[i] == null) {
+                    m_classLookup[i] = new DiscreteDistribution(m_numValues);
+                }
+                m_classLookup[i].merge(stats.m_classLookup[i]);
+            }
+        }
+        m_totalWeight += stats.m_totalWeight;
+    }
+
+
+    @Override
+    public long memoryFootprint() {
+        long size = OBJECT_SIZE + arraySize(m_numClasses, REFERENCE_SIZE);
+        for (DiscreteDistribution dist : m_classLookup) {
+            if (dist != null) {
+                size += OBJECT_SIZE + arraySize(m_numValues, 8);
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Writes the distribution of the values for each class observed
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        ModelFormat.writeCount(out, m_totalWeight);
+        for (DiscreteDistribution dist : m_classLookup) {
+            out.writeBoolean(dist != null);
+            if (dist != null) {
+                ModelFormat.writeCounts(out, dist.m_dist, m_numValues);
+            }
+        }
+    }
+
+
+    @Override
+    public void read(DataInput in) throws IOException {
+        m_totalWeight = ModelFormat.readCount(in);
+        for (int c = 0; c < m_numClasses; c++) {
+            if (in.readBoolean()) {
+                DiscreteDistribution dist = new DiscreteDistribution(m_numValues);
+                ModelFormat.readCounts(in, dist.m_dist, m_numValues);
+                for (double w : dist.m_dist) {
+                    dist.m_sum += w;
+                }
+                m_classLookup[c] = dist;
             }
-            m_totalWeight++;
         }
     }
 
 
     @Override
-    public CandidateAntd bestCandidate(ExpansionMetric expMetric, Map<String, Integer> preSplitDist) {
+    public CandidateAntd bestCandidate(ExpansionMetric expMetric, double[] preSplitDist) {
 
-        List<Map<String, Integer>> postExpansionDists = postExpansionDistributions();
+        int[] observedValues = new int[m_numValues];
+        List<double[]> postExpansionDists = postExpansionDistributions(observedValues);
         double[] expMerits = expMetric.evaluateExpansions(preSplitDist, postExpansionDists);
 
         double bestMerit = Double.POSITIVE_INFINITY;
@@ -64,59 +168,58 @@ public class NominalAttributeStats extends AttributeStats {
         for (int i = 0; i < expMerits.length; i++) {
             if (expMerits[i] < bestMerit) {
                 bestMerit = expMerits[i];
-                bestValueIndex = i;
+                bestValueIndex = observedValues[i];
             }
         }
 
-        NominalAntd bestAntd = m_classifierCallback.buildNominalAntd(m_attributeName);
+        if (bestValueIndex < 0) {
+            return null;
+        }
+
+        NominalAntd bestAntd = m_classifierCallback.buildNominalAntd(m_attributeIndex);
         bestAntd.setTargetValue(bestValueIndex);
 
         return new CandidateAntd(bestAntd, bestMerit);
     }
 
 
-    private List<Map<String, Integer>> postExpansionDistributions() {
-
-        // att value index keys to class distribution
-        Map<Integer, Map<String, Integer>> splitDists = new TreeMap<>();
-
-        for (Map.Entry<String, Object> classEntry : m_classLookup.entrySet()) {
-            String classVal = classEntry.getKey();
-            DiscreteDistribution attDist = (DiscreteDistribution) classEntry.getValue();
-
-            for (Map.Entry<Integer, Integer> valueEntry : attDist.m_dist.entrySet()) {
-                Integer attVal = valueEntry.getKey();
-                Integer attCount = valueEntry.getValue();
-
-                Map<String, Integer> clsDist = splitDists.get(attVal);
-                if (clsDist == null) {
-                    clsDist = new HashMap<>();
-                    splitDists.put(attVal, clsDist);
-                }
-
-                Integer clsCount = clsDist.get(classVal);
-
-                if (clsCount == null) {
-                    clsCount = 0;
+    /**
+     * Returns the class distributions for every value of the attribute which
+     * has been observed, in the order of the value indices.
+     *
+     * @param observedValues Filled with the value index of each distribution
+     *                       returned
+     * @return The class distributions for each observed value
+     */
+    private List<double[]> postExpansionDistributions(int[] observedValues) {
+
+        List<double[]> result = new ArrayList<>();
+
+        for (int attVal = 0; attVal < m_numValues; attVal++) {
+            double[] clsDist = null;
+            for (int classIndex = 0; classIndex < m_numClasses; classIndex++) {
+                DiscreteDistribution attDist = m_classLookup[classIndex];
+                if (attDist != null && attDist.getWeight(attVal) > 0) {
+                    if (clsDist == null) {
+                        clsDist = new double[m_numClasses];
+                    }
+                    clsDist[classIndex] = attDist.getWeight(attVal);
                 }
-
-                clsDist.put(classVal, clsCount + attCount);
             }
-        }
 
-        List<Map<String, Integer>> result = new LinkedList<>();
-        for (Map.Entry<Integer, Map<String, Integer>> v : splitDists.entrySet()) {
-            result.add(v.getValue());
+            if (clsDist != null) {
+                observedValues[result.size()] = attVal;
+                result.add(clsDist);
+            }
         }
 
-
         return result;
     }
 
 
     /**
      * Inner class that implements a discrete distribution. Adapted from Mark
-     * Hall's VFDT implementation to consider unweighted instances.
+     * Hall's VFDT implementation.
      *
      * @author Clément Fournier (clement.fournier@insa-rennes.fr)
      */
@@ -128,25 +231,60 @@ public class NominalAttributeStats extends AttributeStats {
         private static final long serialVersionUID = 6297725680862964833L;
 
         /**
-         * Maps the values of the attributes (as their indices) to the number of
-         * occurences observed
+         * Weight of the occurrences observed, indexed on the values of the
+         * attribute
          */
-        protected final Map<Integer, Integer> m_dist = new LinkedHashMap<>();
+        protected final double[] m_dist;
 
         /**
-         * Total number of instances observed
+         * Total weight of the instances observed
          */
         private double m_sum = 0;
 
 
         /**
-         * Adds one instance of the parameter from the distribution
+         * Builds an empty distribution
          *
-         * @param val The attribute value to add
+         * @param numValues The number of values of the attribute
          */
-        public void add(int val) {
-            m_dist.put(val, (m_dist.containsKey(val) ? m_dist.get(val) : 0) + 1);
-            m_sum++;
+        public DiscreteDistribution(int numValues) {
+            m_dist = new double[numValues];
+        }
+
+
+        /**
+         * Builds a copy of another distribution
+         *
+         * @param toCopy The distribution to copy
+         */
+        public DiscreteDistribution(DiscreteDistribution toCopy) {
+            m_dist = toCopy.m_dist.clone();
+            m_sum = toCopy.m_sum;
+        }
+
+
+        /**
+         * Adds the occurrences of another distribution to this one
+         *
+         * @param other The distribution to merge, of the same attribute
+         */
+        public void merge(DiscreteDistribution other) {
+            for (int i = 0; i < m_dist.length; i++) {
+                m_dist[i] += other.m_dist[i];
+            }
+            m_sum += other.m_sum;
+        }
+
+
+        /**
+         * Adds an occurrence of a value to the distribution
+         *
+         * @param val    The attribute value to add
+         * @param weight The weight of the occurrence
+         */
+        public void add(int val, double weight) {
+            m_dist[val] += weight;
+            m_sum += weight;
         }
 
 
@@ -156,8 +294,10 @@ public class NominalAttributeStats extends AttributeStats {
          * @param val The attribute value to delete
          */
         public void delete(int val) {
-            m_dist.put(val, (m_dist.containsKey(val) ? m_dist.get(val) - 1 : 0));
-            m_sum--; // FIXME incorrect but as it is not called, bellek
+            if (m_dist[val] > 0) {
+                m_dist[val]--;
+                m_sum--;
+            }
         }
 
 
@@ -168,12 +308,7 @@ public class NominalAttributeStats extends AttributeStats {
          * @return The total number of occurrences of the parameter
          */
         public double getWeight(int val) {
-            Integer count = m_dist.get(val);
-            if (count != null) {
-                return count;
-            }
-
-            return 0.0;
+            return m_dist[val];
         }
 
 
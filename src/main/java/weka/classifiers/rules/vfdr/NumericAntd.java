@@ -53,7 +53,8 @@ public class NumericAntd extends Antd {
 
         NumericAntd that = (NumericAntd) o;
 
-        if (Double.compare(that.m_splitPoint, m_splitPoint) != 0) {
+        if (m_attribute.index() != that.m_attribute.index()
+            || Double.compare(that.m_splitPoint, m_splitPoint) != 0) {
             return false;
         }
         return m_conditionHigher == that.m_conditionHigher;
@@ -67,10 +68,22 @@ public class NumericAntd extends Antd {
         temp = Double.doubleToLongBits(m_splitPoint);
         result = (int) (temp ^ (temp >>> 32));
         result = 31 * result + (m_conditionHigher ? 1 : 0);
+        result = 31 * result + m_attribute.index();
         return result;
     }
 
 
+    @Override
+    public boolean isImpliedBy(Antd other) {
+        if (!(other instanceof NumericAntd) || other.m_attribute.index() != m_attribute.index()) {
+            return false;
+        }
+        NumericAntd that = (NumericAntd) other;
+        return m_conditionHigher == that.m_conditionHigher
+               && (m_conditionHigher ? m_splitPoint <= that.m_splitPoint : m_splitPoint >= that.m_splitPoint);
+    }
+
+
     @Override
     public boolean covers(Instance inst) {
         return m_conditionHigher ? inst.value(m_attribute) > m_splitPoint : inst.value(m_attribute) <= m_splitPoint;
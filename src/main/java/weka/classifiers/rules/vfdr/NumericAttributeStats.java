@@ -0,0 +1,439 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.Statistics;
+import weka.core.Utils;
+import weka.estimators.UnivariateNormalEstimator;
+
+
+/**
+ * Base class of the attribute stats for numeric attributes. Whatever the
+ * structure used to search for split points, it fits a Gaussian distribution
+ * per class, which is used to make naive Bayes predictions, and keeps the range
+ * of the values observed per class.
+ * <p>
+ * Children classes implement the split point search. The observer used for
+ * numeric attributes is chosen with {@link Vfdr#setNumericObserver(int)}.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public abstract class NumericAttributeStats extends AttributeStats {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 2409728846137095128L;
+
+    /**
+     * Gaussian estimators, indexed on the class index. Null if the class has
+     * not been observed yet.
+     */
+    protected GaussianEstimator[] m_classLookup;
+
+    protected double[] m_minValObservedPerClass;
+    protected double[] m_maxValObservedPerClass;
+
+
+    public NumericAttributeStats(int attIndex, Vfdr vfdr) {
+        super(attIndex, vfdr);
+        m_classLookup = new GaussianEstimator[m_numClasses];
+        m_minValObservedPerClass = new double[m_numClasses];
+        m_maxValObservedPerClass = new double[m_numClasses];
+        Arrays.fill(m_minValObservedPerClass, Double.POSITIVE_INFINITY);
+        Arrays.fill(m_maxValObservedPerClass, Double.NEGATIVE_INFINITY);
+    }
+
+
+    /**
+     * Builds a copy of other numeric stats
+     *
+     * @param toCopy The stats to copy
+     */
+    protected NumericAttributeStats(NumericAttributeStats toCopy) {
+        super(toCopy);
+        m_minValObservedPerClass = toCopy.m_minValObservedPerClass.clone();
+        m_maxValObservedPerClass = toCopy.m_maxValObservedPerClass.clone();
+        m_classLookup = new GaussianEstimator[m_numClasses];
+        for (int i = 0; i < m_numClasses; i++) {
+            if (toCopy.m_classLookup[i] != null) {
+                m_classLookup[i] = new GaussianEstimator();
+                m_classLookup[i].copyFrom(toCopy.m_classLookup[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Only the Gaussian estimators are used to make predictions, so the copy
+     * does not include the structure used to search for split points.
+     */
+    @Override
+    public AttributeStats predictionCopy() {
+        return new GaussianAttributeStats(this);
+    }
+
+
+    /**
+     * Updates the Gaussian estimator and the range of the class. Children
+     * classes update their own structure after calling this method.
+     *
+     * @param attVal     The value of the attribute in the instance acknowledged
+     * @param classIndex The index of the class of the instance acknowledged
+     * @param weight     The weight of the instance acknowledged
+     */
+    @Override
+    public void update(double attVal, int classIndex, double weight) {
+        if (!Utils.isMissingValue(attVal)) {
+            GaussianEstimator norm = m_classLookup[classIndex];
+            if (norm == null) {
+                norm = new GaussianEstimator();
+                m_classLookup[classIndex] = norm;
+            }
+            if (attVal < m_minValObservedPerClass[classIndex]) {
+                m_minValObservedPerClass[classIndex] = attVal;
+            }
+            if (attVal > m_maxValObservedPerClass[classIndex]) {
+                m_maxValObservedPerClass[classIndex] = attVal;
+            }
+            // That's in weka.estimators.UnivariateNormalEstimator
+            norm.addValue(attVal, weight);
+        }
+    }
+
+
+    /**
+     * Merges the Gaussian estimators and the ranges. Children classes merge
+     * their own structure after calling this method.
+     */
+    @Override
+    public void merge(AttributeStats other) {
+        NumericAttributeStats stats = (NumericAttributeStats) other;
+        for (int i = 0; i < m_numClasses; i++) {
+            if (stats.m_classLookup[i] != null) {
+                if (m_classLookup[i] == null) {
+                    m_classLookup[i] = new GaussianEstimator();
+                }
+                m_classLookup[i].merge(stats.m_classLookup[i]);
+                m_minValObservedPerClass[i] = Math.min(m_minValObservedPerClass[i], stats.m_minValObservedPerClass[i]);
+                m_maxValObservedPerClass[i] = Math.max(m_maxValObservedPerClass[i], stats.m_maxValObservedPerClass[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Uses the density of the Gaussian fitted for the class, with a lower bound
+     * on its standard deviation so that constant values do not dominate the
+     * prediction. As in Weka's naive Bayes, classes for which no value has
+     * been observed use a Gaussian of mean 0 with the minimum standard
+     * deviation.
+     */
+    @Override
+    public double logConditionalProbability(double attVal, int classIndex, double zeroWeight) {
+        if (Utils.isMissingValue(attVal)) {
+            return 0;
+        }
+        GaussianEstimator norm = m_classLookup[classIndex];
+        return (norm == null ? GaussianEstimator.EMPTY : norm).boundedLogDensity(attVal, zeroWeight);
+    }
+
+
+    /**
+     * Accounts for the Gaussian estimators and the ranges. Children classes
+     * add the size of their own structure.
+     */
+    @Override
+    public long memoryFootprint() {
+        long size = OBJECT_SIZE + 3 * arraySize(m_numClasses, REFERENCE_SIZE);
+        for (GaussianEstimator norm : m_classLookup) {
+            if (norm != null) {
+                size += OBJECT_SIZE + 6 * 8;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Writes the Gaussian estimators and the ranges. Children classes write
+     * their own structure after calling this method.
+     */
+    @Override
+    public void write(DataOutput out) throws IOException {
+        for (int c = 0; c < m_numClasses; c++) {
+            GaussianEstimator norm = m_classLookup[c];
+            out.writeBoolean(norm != null);
+            if (norm != null) {
+                norm.write(out);
+                out.writeDouble(m_minValObservedPerClass[c]);
+                out.writeDouble(m_maxValObservedPerClass[c]);
+            }
+        }
+    }
+
+
+    @Override
+    public void read(DataInput in) throws IOException {
+        for (int c = 0; c < m_numClasses; c++) {
+            if (in.readBoolean()) {
+                m_classLookup[c] = new GaussianEstimator();
+                m_classLookup[c].read(in);
+                m_minValObservedPerClass[c] = in.readDouble();
+                m_maxValObservedPerClass[c] = in.readDouble();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the weight of the values observed with each class
+     *
+     * @return The weight of each class, indexed on the class index
+     */
+    protected double[] classWeights() {
+        double[] weights = new double[m_numClasses];
+        for (int c = 0; c < m_numClasses; c++) {
+            if (m_classLookup[c] != null) {
+                weights[c] = m_classLookup[c].getSumOfWeights();
+            }
+        }
+        return weights;
+    }
+
+
+    /**
+     * Evaluates the antecedents {@literal <=} and {@literal >} of every split
+     * point, and returns the best one.
+     *
+     * @param expMetric    The metric with which to estimate the value of an antecedent
+     * @param preSplitDist The class distribution of the rule before expansion
+     * @param splitPoints  The split points
+     * @param leftDists    The class distribution of the values lower or equal
+     *                     to each split point
+     * @param rightDists   The class distribution of the values greater than
+     *                     each split point
+     * @return The best antecedent, or null if no split point could be
+     *     evaluated
+     */
+    protected CandidateAntd bestSplit(ExpansionMetric expMetric, double[] preSplitDist, double[] splitPoints,
+                                      double[][] leftDists, double[][] rightDists) {
+
+        double bestScoreYet = Double.POSITIVE_INFINITY;
+        double bestSplitPoint = Double.NaN;
+        boolean isConditionHigher = false;
+
+        for (int s = 0; s < splitPoints.length; s++) {
+            List<double[]> postSplitDists = Arrays.asList(leftDists[s], rightDists[s]);
+            double[] expMerits = expMetric.evaluateExpansions(preSplitDist, postSplitDists);
+
+            for (int i = 0; i < 2; i++) {
+                if (expMerits[i] < bestScoreYet) {
+                    bestScoreYet = expMerits[i];
+                    bestSplitPoint = splitPoints[s];
+                    isConditionHigher = i == 1;
+                }
+            }
+        }
+
+        if (Double.isNaN(bestSplitPoint)) {
+            return null;
+        }
+
+        NumericAntd bestAntd = m_classifierCallback.buildNumericAntd(m_attributeIndex);
+        bestAntd.setConditionHigher(isConditionHigher);
+        bestAntd.setSplitPoint(bestSplitPoint);
+
+        return new CandidateAntd(bestAntd, bestScoreYet);
+    }
+
+
+    /**
+     * Inner class that implements a Gaussian estimator --- taken from the
+     * implementation of the VFDT
+     *
+     * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
+     */
+    protected static class GaussianEstimator extends UnivariateNormalEstimator implements Serializable {
+
+        /**
+         * For serialization
+         */
+        private static final long serialVersionUID = 4756032800685001315L;
+
+        /**
+         * Lower bound of the standard deviation used for naive Bayes
+         */
+        private static final double MIN_STD_DEV = 0.01 / (2 * 3);
+
+        /**
+         * Estimator which has observed no value, shared by the classes which
+         * have none. It must not be updated.
+         */
+        static final GaussianEstimator EMPTY = new GaussianEstimator();
+
+
+        public double getSumOfWeights() {
+            return m_SumOfWeights;
+        }
+
+
+        /**
+         * Sets the state of this estimator to that of another one
+         *
+         * @param other The estimator to copy
+         */
+        public void copyFrom(GaussianEstimator other) {
+            m_WeightedSum = other.m_WeightedSum;
+            m_WeightedSumSquared = other.m_WeightedSumSquared;
+            m_SumOfWeights = other.m_SumOfWeights;
+            m_Mean = other.m_Mean;
+            m_Variance = other.m_Variance;
+            m_MinVar = other.m_MinVar;
+        }
+
+
+        /**
+         * Adds the values observed by another estimator to this one
+         *
+         * @param other The estimator to merge
+         */
+        public void merge(GaussianEstimator other) {
+            m_WeightedSum += other.m_WeightedSum;
+            m_WeightedSumSquared += other.m_WeightedSumSquared;
+            m_SumOfWeights += other.m_SumOfWeights;
+        }
+
+
+        /**
+         * Writes the sums from which the mean and variance are computed
+         *
+         * @param out The output
+         * @throws IOException If the estimator could not be written
+         */
+        public void write(DataOutput out) throws IOException {
+            ModelFormat.writeCount(out, m_SumOfWeights);
+            out.writeDouble(m_WeightedSum);
+            out.writeDouble(m_WeightedSumSquared);
+        }
+
+
+        /**
+         * Reads the sums written by {@link #write(DataOutput)}
+         *
+         * @param in The input
+         * @throws IOException If the estimator could not be read
+         */
+        public void read(DataInput in) throws IOException {
+            m_SumOfWeights = ModelFormat.readCount(in);
+            m_WeightedSum = in.readDouble();
+            m_WeightedSumSquared = in.readDouble();
+        }
+
+
+        /**
+         * Computes the mean of the values without writing any field, unlike
+         * {@link #updateMeanAndVariance()}, so that estimators shared by
+         * concurrent predictions are only read
+         *
+         * @param sumOfWeights The weight of the values
+         * @return The mean, or 0 if no value was observed
+         */
+        private double mean(double sumOfWeights) {
+            return sumOfWeights > 0 ? m_WeightedSum / sumOfWeights : 0;
+        }
+
+
+        /**
+         * Computes the variance of the values as {@link #updateMeanAndVariance()}
+         * does, without writing any field
+         *
+         * @param sumOfWeights The weight of the values
+         * @param mean         The mean of the values
+         * @return The variance, at least the minimum variance
+         */
+        private double variance(double sumOfWeights, double mean) {
+            double variance = Double.MAX_VALUE;
+            if (sumOfWeights > 0) {
+                variance = m_WeightedSumSquared / sumOfWeights - mean * mean;
+            }
+            return variance <= m_MinVar ? m_MinVar : variance;
+        }
+
+
+        public double probabilityDensity(double value) {
+            if (m_SumOfWeights > 0) {
+                double mean = mean(m_SumOfWeights);
+                double variance = variance(m_SumOfWeights, mean);
+                double stdDev = Math.sqrt(variance);
+                if (stdDev > 0) {
+                    double diff = value - mean;
+                    return (1.0 / (CONST * stdDev)) * Math.exp(-(diff * diff / (2.0 * variance)));
+                }
+                return value == mean ? 1.0 : 0.0;
+            }
+
+            return 0.0;
+        }
+
+
+        /**
+         * Log of the density, computed with a standard deviation of at least
+         * {@link #MIN_STD_DEV}. Naive Bayes in Weka bounds it the same way,
+         * with the default precision of its normal estimator.
+         *
+         * @param value      The value
+         * @param zeroWeight The weight of zeros to count in addition to the
+         *                   values observed
+         * @return The log density of the value
+         */
+        public double boundedLogDensity(double value, double zeroWeight) {
+            // zeros add nothing to the weighted sums
+            double sumOfWeights = m_SumOfWeights + zeroWeight;
+            double mean = mean(sumOfWeights);
+            double variance = MIN_STD_DEV * MIN_STD_DEV;
+            if (sumOfWeights > 0) {
+                variance = Math.max(variance(sumOfWeights, mean), variance);
+            }
+
+            double diff = value - mean;
+            return -Math.log(CONST) - 0.5 * Math.log(variance) - diff * diff / (2.0 * variance);
+        }
+
+
+        /**
+         * Computes the weight of the values lower than or equal to each point.
+         * Points outside of the range of observed values get all or none of
+         * the weight.
+         *
+         * @param points  The points, in increasing order
+         * @param min     The minimum value observed
+         * @param max     The maximum value observed
+         * @param weights Filled with the weight lower or equal to each point
+         */
+        public void cumulativeWeights(double[] points, double min, double max, double[] weights) {
+            double mean = mean(m_SumOfWeights);
+            double stdDev = Math.sqrt(variance(m_SumOfWeights, mean));
+
+            for (int i = 0; i < points.length; i++) {
+                double p = points[i];
+                if (p < min) {
+                    weights[i] = 0;
+                } else if (p > max) {
+                    weights[i] = m_SumOfWeights;
+                } else if (stdDev > 0) {
+                    weights[i] = Statistics.normalProbability((p - mean) / stdDev) * m_SumOfWeights;
+                } else {
+                    weights[i] = p >= mean ? m_SumOfWeights : 0;
+                }
+            }
+        }
+    }
+}
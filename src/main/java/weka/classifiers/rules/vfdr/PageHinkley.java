@@ -0,0 +1,123 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+
+/**
+ * Page-Hinkley test, which detects an increase of the mean of a sequence of
+ * values, e.g. of the error rate of a rule. The test accumulates the
+ * deviations of the values from their running mean, minus a tolerated
+ * magnitude of change, and signals a change when the accumulated deviation
+ * exceeds its minimum by more than a threshold. It runs in constant time and
+ * memory per value.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class PageHinkley implements Serializable {
+
+    /**
+     * Magnitude of the changes which are tolerated
+     */
+    public static final double DELTA = .005;
+
+    /**
+     * Weight of the values observed before a change can be signalled
+     */
+    public static final double MIN_WEIGHT = 30;
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = -2046839125381964373L;
+
+    /**
+     * Weight of the values observed
+     */
+    private double m_weight;
+
+    /**
+     * Mean of the values observed
+     */
+    private double m_mean;
+
+    /**
+     * Accumulated deviation of the values from their mean
+     */
+    private double m_cumulative;
+
+    /**
+     * Minimum of the accumulated deviation
+     */
+    private double m_minimum;
+
+
+    /**
+     * Observes a value
+     *
+     * @param value  The value
+     * @param weight The weight of the value, e.g. the number of times it is
+     *               observed
+     */
+    public void update(double value, double weight) {
+        m_weight += weight;
+        m_mean += weight * (value - m_mean) / m_weight;
+        m_cumulative += weight * (value - m_mean - DELTA);
+        m_minimum = Math.min(m_minimum, m_cumulative);
+    }
+
+
+    /**
+     * Whether the mean of the values has increased
+     *
+     * @param threshold The threshold of the test
+     * @return Whether the accumulated deviation exceeds its minimum by more
+     *     than the threshold
+     */
+    public boolean changeDetected(double threshold) {
+        return m_weight >= MIN_WEIGHT && m_cumulative - m_minimum > threshold;
+    }
+
+
+    /**
+     * Forgets the values observed
+     */
+    public void reset() {
+        m_weight = 0;
+        m_mean = 0;
+        m_cumulative = 0;
+        m_minimum = 0;
+    }
+
+
+    /**
+     * Writes the state of the test in the compact model format
+     *
+     * @param out The output
+     * @throws IOException If the state could not be written
+     * @see ModelFormat
+     */
+    public void write(DataOutput out) throws IOException {
+        ModelFormat.writeCount(out, m_weight);
+        out.writeDouble(m_mean);
+        out.writeDouble(m_cumulative);
+        out.writeDouble(m_minimum);
+    }
+
+
+    /**
+     * Reads the state of the test written by {@link #write(DataOutput)}
+     *
+     * @param in The input
+     * @throws IOException If the state could not be read
+     */
+    public void read(DataInput in) throws IOException {
+        m_weight = ModelFormat.readCount(in);
+        m_mean = in.readDouble();
+        m_cumulative = in.readDouble();
+        m_minimum = in.readDouble();
+    }
+}
@@ -0,0 +1,205 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Immutable state of a rule set, used to make predictions without blocking on
+ * training nor being affected by it. It holds frozen copies of the rules
+ * (literals and prediction statistics) and of the default rule, and the
+ * structures used to find the rules covering an instance.
+ * <p>
+ * A snapshot is built from scratch, or derived from a previous one after some
+ * rules have been expanded or removed: the frozen copies of the other rules
+ * are then shared with the previous snapshot.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class PredictionSnapshot implements Serializable {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 4219803372180154497L;
+
+    /**
+     * Frozen copies of the rules, in rule set order
+     */
+    private final VfdrRule[] m_rules;
+
+    /**
+     * Frozen copy of the default rule
+     */
+    private final VfdrRule m_defaultRule;
+
+    /**
+     * Compiled form of the frozen rules
+     */
+    private final CompiledRuleSet m_compiled;
+
+    /**
+     * Index over the frozen rules, or null if scoring uses the compiled form
+     */
+    private final CoverageIndex m_coverageIndex;
+
+
+    /**
+     * Builds a snapshot
+     *
+     * @param rules           Frozen copies of the rules
+     * @param defaultRule     Frozen copy of the default rule
+     * @param header          The structure of the instances to classify
+     * @param compiledScoring Whether instances are scored with the compiled
+     *                        form of the rule set, or with a coverage index
+     */
+    private PredictionSnapshot(VfdrRule[] rules, VfdrRule defaultRule, Instances header, boolean compiledScoring) {
+        m_rules = rules;
+        m_defaultRule = defaultRule;
+        List<VfdrRule> ruleSet = Collections.unmodifiableList(Arrays.asList(rules));
+        m_compiled = new CompiledRuleSet(ruleSet);
+        m_coverageIndex = compiledScoring ? null : new CoverageIndex(ruleSet, header);
+    }
+
+
+    /**
+     * Takes a snapshot of a rule set. The caller must make sure that the rule
+     * set is not expanded meanwhile, and that the statistics of a rule are not
+     * updated while they are copied.
+     *
+     * @param ruleSet         The rule set
+     * @param defaultRule     The default rule of the set
+     * @param header          The structure of the instances to classify
+     * @param compiledScoring Whether instances are scored with the compiled
+     *                        form of the rule set
+     * @return A snapshot of the rule set
+     */
+    public static PredictionSnapshot of(List<VfdrRule> ruleSet, VfdrRule defaultRule, Instances header,
+                                        boolean compiledScoring) {
+        VfdrRule[] rules = new VfdrRule[ruleSet.size()];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = freeze(ruleSet.get(i));
+        }
+        return new PredictionSnapshot(rules, freeze(defaultRule), header, compiledScoring);
+    }
+
+
+    /**
+     * Derives a snapshot from this one after some rules of the set have been
+     * expanded. The expanded rules, the default rule and the rules added since
+     * this snapshot are copied again, the other ones are shared.
+     *
+     * @param ruleSet         The rule set
+     * @param defaultRule     The default rule of the set
+     * @param expanded        The positions of the rules expanded since this
+     *                        snapshot
+     * @param header          The structure of the instances to classify
+     * @param compiledScoring Whether instances are scored with the compiled
+     *                        form of the rule set
+     * @return A snapshot of the rule set
+     */
+    public PredictionSnapshot afterExpansions(List<VfdrRule> ruleSet, VfdrRule defaultRule, int[] expanded,
+                                              Instances header, boolean compiledScoring) {
+        VfdrRule[] rules = Arrays.copyOf(m_rules, ruleSet.size());
+        for (int id : expanded) {
+            rules[id] = freeze(ruleSet.get(id));
+        }
+        for (int id = m_rules.length; id < rules.length; id++) {
+            rules[id] = freeze(ruleSet.get(id));
+        }
+        return new PredictionSnapshot(rules, freeze(defaultRule), header, compiledScoring);
+    }
+
+
+    /**
+     * Derives a snapshot from this one after some rules of the set have been
+     * removed. The frozen copies of the remaining rules and of the default
+     * rule are shared, only the rules added since this snapshot are copied.
+     *
+     * @param ruleSet         The rule set, after the removals
+     * @param removed         The positions of the rules removed, in this
+     *                        snapshot and in increasing order
+     * @param header          The structure of the instances to classify
+     * @param compiledScoring Whether instances are scored with the compiled
+     *                        form of the rule set
+     * @return A snapshot of the rule set
+     */
+    public PredictionSnapshot afterRemovals(List<VfdrRule> ruleSet, int[] removed, Instances header,
+                                            boolean compiledScoring) {
+        VfdrRule[] rules = new VfdrRule[ruleSet.size()];
+        int id = 0;
+        int next = 0;
+        for (int old = 0; old < m_rules.length && id < rules.length; old++) {
+            if (next < removed.length && removed[next] == old) {
+                next++;
+            } else {
+                rules[id++] = m_rules[old];
+            }
+        }
+        for (; id < rules.length; id++) {
+            rules[id] = freeze(ruleSet.get(id));
+        }
+        return new PredictionSnapshot(rules, m_defaultRule, header, compiledScoring);
+    }
+
+
+    /**
+     * Copies a rule under its lock, which protects its statistics
+     *
+     * @param rule The rule
+     * @return The frozen copy
+     */
+    private static VfdrRule freeze(VfdrRule rule) {
+        synchronized (rule) {
+            return rule.predictionSnapshot();
+        }
+    }
+
+
+    /**
+     * Classifies an instance with the frozen rule set
+     *
+     * @param strategy The classification strategy
+     * @param inst     The instance to classify
+     * @return An array of probabilities
+     * @throws Exception Case the instance could not be classified
+     */
+    public double[] distributionForInstance(ClassificationStrategy strategy, Instance inst) throws Exception {
+        if (m_rules.length == 0 && m_defaultRule.getStats().totalWeight() < 1) {
+            // All classes have equal probability
+            double[] res = new double[inst.numClasses()];
+            Arrays.fill(res, 1);
+            Utils.normalize(res);
+            return res;
+        }
+        return m_coverageIndex == null ? strategy.distributionForInstance(m_compiled, m_defaultRule, inst)
+                                       : strategy.distributionForInstance(m_coverageIndex, m_defaultRule, inst);
+    }
+
+
+    /**
+     * Gets the compiled form of the frozen rule set, used for batch scoring
+     *
+     * @return The compiled rule set
+     */
+    public CompiledRuleSet compiled() {
+        return m_compiled;
+    }
+
+
+    /**
+     * Gets the frozen copy of the default rule
+     *
+     * @return The default rule
+     */
+    public VfdrRule defaultRule() {
+        return m_defaultRule;
+    }
+}
@@ -0,0 +1,125 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.StreamGenerator;
+import weka.core.Option;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+
+/**
+ * Command line tool which trains a {@link Vfdr} classifier on an ARFF file
+ * read incrementally, so that the file does not need to fit in memory. The
+ * instances are shuffled with a buffer of bounded size (option {@code -Z} of
+ * the classifier). The training file may also be a binary file written by
+ * {@link MappedInstances}, in which case the class index is the one stored in
+ * the file. Instead of a file, the instances may come from a stream generator
+ * (option {@code -g}, e.g. {@code -g "weka.classifiers.rules.vfdr.generators.HyperplaneGenerator -N 100000000"}).
+ * <p>
+ * Usage:
+ * <pre>
+ * java weka.classifiers.rules.vfdr.StreamingTrainer (-t &lt;training file&gt; | -g &lt;generator&gt;)
+ *     [-c &lt;class index&gt;] [-d &lt;output model file&gt;] [classifier options]
+ * </pre>
+ * The class index starts at 1, and may be {@code first} or {@code last} (the
+ * default). Compressed ARFF files ({@code .arff.gz}) are supported. The model
+ * is saved in the compact format of {@link ModelFormat}.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class StreamingTrainer {
+
+    private StreamingTrainer() {
+
+    }
+
+
+    /**
+     * Trains a classifier with the given command line options
+     *
+     * @param options The command line options
+     * @return The trained classifier
+     * @throws Exception If the options are invalid, or training fails
+     */
+    public static Vfdr train(String[] options) throws Exception {
+        String trainingFile = Utils.getOption('t', options);
+        String generatorSpec = Utils.getOption('g', options);
+        if (trainingFile.length() == 0 && generatorSpec.length() == 0) {
+            throw new Exception("No training file (-t) nor generator (-g) given");
+        }
+
+        String classIndex = Utils.getOption('c', options);
+        String modelFile = Utils.getOption('d', options);
+
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(options);
+
+        if (generatorSpec.length() != 0) {
+            String[] spec = Utils.splitOptions(generatorSpec);
+            StreamGenerator generator = Class.forName(spec[0]).asSubclass(StreamGenerator.class)
+                                             .getDeclaredConstructor().newInstance();
+            generator.setOptions(Arrays.copyOfRange(spec, 1, spec.length));
+            // the class is the last attribute of the generated instances
+            vfdr.buildClassifier(generator, -1);
+        } else if (MappedInstances.isBinaryFile(new File(trainingFile))) {
+            // the class index is stored in the file
+            try (MappedInstances data = new MappedInstances(new File(trainingFile))) {
+                vfdr.buildClassifier(data);
+            }
+        } else {
+            ArffLoader loader = new ArffLoader();
+            loader.setFile(new File(trainingFile));
+
+            int index = -1;
+            if (classIndex.equals("first")) {
+                index = 0;
+            } else if (classIndex.length() != 0 && !classIndex.equals("last")) {
+                index = Integer.parseInt(classIndex) - 1;
+            }
+
+            vfdr.buildClassifier(loader, index);
+        }
+
+        if (modelFile.length() != 0) {
+            ModelFormat.write(vfdr, new File(modelFile));
+        }
+
+        return vfdr;
+    }
+
+
+    public static void main(String[] args) {
+        try {
+            if (args.length == 0 || Utils.getFlag('h', args)) {
+                System.out.println("Usage: java " + StreamingTrainer.class.getName()
+                                   + " (-t <training file> | -g <generator>) [-c <class index>]"
+                                   + " [-d <output model file>]"
+                                   + " [classifier options]");
+                Enumeration<Option> options = new Vfdr().listOptions();
+                while (options.hasMoreElements()) {
+                    Option option = options.nextElement();
+                    System.out.println(option.synopsis() + "\n" + option.description());
+                }
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            Vfdr vfdr = train(args);
+            System.out.println(vfdr);
+            System.out.println("Time taken to build model: " + (System.currentTimeMillis() - start) / 1000.0
+                               + " seconds");
+            if (vfdr.getMetrics() != null) {
+                System.out.println();
+                System.out.print(vfdr.getMetrics());
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package weka.classifiers.rules.vfdr;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
-import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.classifiers.rules.Vfdr;
 import weka.core.Attribute;
 import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
 import weka.core.Utils;
 
 
@@ -32,25 +34,53 @@ public abstract class SufficientStats implements Serializable {
     private static final long serialVersionUID = 8985499450710619405L;
 
     /**
-     * Total weight (or number of instances) covered by this rule
+     * Total weight of the instances covered by this rule
      */
-    protected int m_totalWeight = 0;
+    protected double m_totalWeight = 0;
 
     /**
-     * Stores the class distribution for the examples covered by this rule.
+     * Stores the class distribution for the examples covered by this rule,
+     * indexed on the class index.
      */
-    protected Map<String, Integer> m_classDistribution = new LinkedHashMap<>();
+    protected double[] m_classDistribution;
 
     /**
-     * Map indexed on attributes, storing stats for individual attributes
+     * Stats for individual attributes, indexed on the attribute index. The
+     * slot of the class attribute is null.
      */
-    protected Map<String, AttributeStats> m_attributeLookup = new LinkedHashMap<>();
+    protected AttributeStats[] m_attributeLookup;
 
     /**
      * Indices of the attributes which should not be candidate for expansion.
-     * Stats are not updated for those attributes.
+     * Stats are not updated for those attributes, unless
+     * {@link #updatesForbiddenAttributes()} returns true.
      */
-    protected List<Integer> m_usedAttributes = new ArrayList<>();
+    protected BitSet m_usedAttributes = new BitSet();
+
+    /**
+     * Whether the statistics only used to expand the rule have been dropped
+     * to save memory (see {@link #deactivate()})
+     */
+    protected boolean m_deactivated;
+
+    /**
+     * Class distribution of the sparse instances whose implicit zeros have
+     * not been added to the attribute stats yet, or null if no sparse
+     * instance has been seen. See {@link #addImplicitZeros()}.
+     */
+    protected double[] m_implicitWeights;
+
+    /**
+     * Part of that class distribution already accounted for in the stats of
+     * each attribute, indexed on the attribute index times the number of
+     * classes plus the class index
+     */
+    protected double[] m_accountedWeights;
+
+    /**
+     * Whether implicit zeros are waiting to be added to the attribute stats
+     */
+    protected boolean m_hasImplicitZeros;
 
     /**
      * Callback to the classifier
@@ -60,6 +90,258 @@ public abstract class SufficientStats implements Serializable {
 
     public SufficientStats(Vfdr vfdr) {
         m_classifierCallback = vfdr;
+
+        Instances header = vfdr.getHeader();
+        m_classDistribution = new double[header.numClasses()];
+        m_attributeLookup = new AttributeStats[header.numAttributes()];
+
+        for (int i = 0; i < header.numAttributes(); i++) {
+            if (i != header.classIndex()) {
+                m_attributeLookup[i] = header.attribute(i).isNumeric()
+                                       ? numericAttributeStats(i, vfdr)
+                                       : new NominalAttributeStats(i, vfdr);
+            }
+        }
+    }
+
+
+    /**
+     * Builds the stats of a numeric attribute, using the observer chosen on
+     * the classifier
+     *
+     * @param attIndex The index of the attribute
+     * @param vfdr     The classifier
+     * @return New stats for the attribute
+     */
+    private static AttributeStats numericAttributeStats(int attIndex, Vfdr vfdr) {
+        switch (vfdr.getNumericObserver()) {
+        case Vfdr.EBST_OBSERVER:
+            return new EbstAttributeStats(attIndex, vfdr);
+        case Vfdr.HISTOGRAM_OBSERVER:
+            return new HistogramAttributeStats(attIndex, vfdr);
+        default:
+            return new GaussianAttributeStats(attIndex, vfdr);
+        }
+    }
+
+
+    /**
+     * Builds a deep copy of the statistics used to expand a rule (total weight,
+     * class distribution, attribute stats and forbidden attributes).
+     *
+     * @param toCopy The stats to copy
+     */
+    protected SufficientStats(SufficientStats toCopy) {
+        toCopy.addImplicitZeros();
+        m_classifierCallback = toCopy.m_classifierCallback;
+        m_totalWeight = toCopy.m_totalWeight;
+        m_classDistribution = toCopy.m_classDistribution.clone();
+        m_usedAttributes = (BitSet) toCopy.m_usedAttributes.clone();
+        m_attributeLookup = new AttributeStats[toCopy.m_attributeLookup.length];
+        for (int i = 0; i < m_attributeLookup.length; i++) {
+            if (toCopy.m_attributeLookup[i] != null) {
+                m_attributeLookup[i] = toCopy.m_attributeLookup[i].copy();
+            }
+        }
+    }
+
+
+    /**
+     * Builds a copy of the statistics used to make predictions (total weight,
+     * class distribution, and optionally the prediction copies of the
+     * attribute stats).
+     *
+     * @param toCopy             The stats to copy
+     * @param withAttributeStats Whether the attribute stats are needed
+     */
+    protected SufficientStats(SufficientStats toCopy, boolean withAttributeStats) {
+        if (withAttributeStats) {
+            toCopy.addImplicitZeros();
+        }
+        m_classifierCallback = toCopy.m_classifierCallback;
+        m_totalWeight = toCopy.m_totalWeight;
+        m_classDistribution = toCopy.m_classDistribution.clone();
+        m_attributeLookup = new AttributeStats[toCopy.m_attributeLookup.length];
+        if (withAttributeStats) {
+            for (int i = 0; i < m_attributeLookup.length; i++) {
+                if (toCopy.m_attributeLookup[i] != null) {
+                    m_attributeLookup[i] = toCopy.m_attributeLookup[i].predictionCopy();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns a copy of the statistics used to make predictions, which is not
+     * affected by later updates of these stats. It must not be updated.
+     *
+     * @return A frozen copy of these stats, of the same type
+     */
+    public abstract SufficientStats predictionSnapshot();
+
+
+    /**
+     * Returns a copy of the statistics used to expand a rule, which is not
+     * affected by later updates of these stats. The copy uses the majority
+     * class strategy.
+     *
+     * @return A snapshot of these stats
+     */
+    public SufficientStats expansionSnapshot() {
+        return new MajorityClass(this);
+    }
+
+
+    /**
+     * Returns empty stats of the same type, which forbid the same attributes.
+     * Used to accumulate updates separately, before merging them into these
+     * stats.
+     *
+     * @return Empty stats similar to these ones
+     */
+    public SufficientStats emptyCopy() {
+        SufficientStats copy = activeCopy();
+        if (m_deactivated) {
+            copy.deactivate();
+        }
+        return copy;
+    }
+
+
+    /**
+     * Returns empty stats of the same type, which forbid the same attributes
+     * and hold all the statistics used to expand a rule. Used to reactivate
+     * deactivated stats.
+     *
+     * @return Empty active stats similar to these ones
+     */
+    public SufficientStats activeCopy() {
+        SufficientStats copy = newEmptyStats();
+        copy.m_usedAttributes = (BitSet) m_usedAttributes.clone();
+        return copy;
+    }
+
+
+    /**
+     * Drops the statistics which are only used to expand the rule, keeping the
+     * ones used to make predictions, which are still updated. Deactivated
+     * stats yield no expansion candidates.
+     */
+    public void deactivate() {
+        if (!m_deactivated) {
+            addImplicitZeros();
+            m_deactivated = true;
+            for (int i = 0; i < m_attributeLookup.length; i++) {
+                if (m_attributeLookup[i] != null) {
+                    m_attributeLookup[i] = deactivatedStats(m_attributeLookup[i]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Gets the part of the stats of an attribute which is kept when these
+     * stats are deactivated
+     *
+     * @param stats The stats of an attribute
+     * @return The stats to keep, or null if they are not needed
+     */
+    protected AttributeStats deactivatedStats(AttributeStats stats) {
+        return null;
+    }
+
+
+    /**
+     * Whether these stats can be used to expand the rule
+     *
+     * @return False if the stats have been deactivated
+     */
+    public boolean isActive() {
+        return !m_deactivated;
+    }
+
+
+    /**
+     * Builds empty stats of the same type as these ones
+     *
+     * @return New empty stats
+     */
+    protected abstract SufficientStats newEmptyStats();
+
+
+    /**
+     * Adds the observations of other stats to these stats
+     *
+     * @param other Stats of the same type, which forbid the same attributes
+     */
+    public void merge(SufficientStats other) {
+        other.addImplicitZeros();
+        m_totalWeight += other.m_totalWeight;
+        for (int c = 0; c < m_classDistribution.length; c++) {
+            m_classDistribution[c] += other.m_classDistribution[c];
+        }
+        for (int i = 0; i < m_attributeLookup.length; i++) {
+            if (m_attributeLookup[i] != null && other.m_attributeLookup[i] != null) {
+                m_attributeLookup[i].merge(other.m_attributeLookup[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Writes these stats in the compact model format: total weight, class
+     * distribution, forbidden attributes, whether the stats are deactivated
+     * and the stats of each attribute. The type of the stats depends on the
+     * options of the classifier, so it is not written.
+     *
+     * @param out The output
+     * @throws IOException If the stats could not be written
+     * @see ModelFormat
+     */
+    public void write(DataOutput out) throws IOException {
+        addImplicitZeros();
+        ModelFormat.writeCount(out, m_totalWeight);
+        ModelFormat.writeCounts(out, m_classDistribution, m_classDistribution.length);
+
+        ModelFormat.writeVarInt(out, m_usedAttributes.cardinality());
+        for (int i = m_usedAttributes.nextSetBit(0); i >= 0; i = m_usedAttributes.nextSetBit(i + 1)) {
+            ModelFormat.writeVarInt(out, i);
+        }
+        out.writeBoolean(m_deactivated);
+
+        for (AttributeStats stats : m_attributeLookup) {
+            if (stats != null) {
+                stats.write(out);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the stats written by {@link #write(DataOutput)} into these stats,
+     * which must be empty
+     *
+     * @param in The input
+     * @throws IOException If the stats could not be read
+     */
+    public void read(DataInput in) throws IOException {
+        m_totalWeight = ModelFormat.readCount(in);
+        ModelFormat.readCounts(in, m_classDistribution, m_classDistribution.length);
+
+        for (int n = ModelFormat.readVarInt(in); n > 0; n--) {
+            m_usedAttributes.set(ModelFormat.readVarInt(in));
+        }
+        if (in.readBoolean()) {
+            deactivate();
+        }
+
+        for (AttributeStats stats : m_attributeLookup) {
+            if (stats != null) {
+                stats.read(in);
+            }
+        }
     }
 
 
@@ -76,40 +358,147 @@ public abstract class SufficientStats implements Serializable {
 
 
     /**
-     * Updates the sufficient statistics to take one more example in account.
+     * Updates the sufficient statistics to take one more example in account,
+     * with its weight. Examples of zero weight are ignored. Only the values
+     * stored by a {@link SparseInstance} are visited, its implicit zeros are
+     * added later (see {@link #addImplicitZeros()}).
      *
      * @param inst The example with which to update.
      */
     public void update(Instance inst) {
 
         // update the class distribution for the rule
-        if (inst.classIsMissing()) {
+        double weight = inst.weight();
+        if (inst.classIsMissing() || !(weight > 0)) {
             return;
         }
-        String classVal = inst.stringValue(inst.classAttribute());
+        int classIndex = (int) inst.classValue();
 
         // increment weight in class distribution
-        m_classDistribution.put(classVal,
-                (m_classDistribution.containsKey(classVal) ? m_classDistribution.get(classVal) : 0) + 1);
+        m_classDistribution[classIndex] += weight;
 
         // update stats for each attribute
-        for (int i = 0; i < inst.numAttributes(); i++) {
-            if (i != inst.classIndex() && !m_usedAttributes.contains(i)) {
-                Attribute a = inst.attribute(i);
-                AttributeStats stats = m_attributeLookup.get(a.name());
-                if (stats == null) {
-                    if (a.isNumeric()) {
-                        stats = new GaussianAttributeStats(a.name(), m_classifierCallback);
-                    } else {
-                        stats = new NominalAttributeStats(a.name(), m_classifierCallback);
-                    }
-                    m_attributeLookup.put(a.name(), stats);
+        boolean updateForbidden = updatesForbiddenAttributes();
+        if (inst instanceof SparseInstance) {
+            updateSparse(inst, classIndex, weight, updateForbidden);
+        } else {
+            for (int i = 0; i < m_attributeLookup.length; i++) {
+                AttributeStats stats = m_attributeLookup[i];
+                if (stats != null && (updateForbidden || !m_usedAttributes.get(i))) {
+                    stats.update(inst.value(i), classIndex, weight);
                 }
+            }
+        }
+        m_totalWeight += weight;
+    }
+
+
+    /**
+     * Updates the stats of the attributes whose values are stored by a sparse
+     * instance, and records the weight of its implicit zeros
+     *
+     * @param inst            The sparse instance
+     * @param classIndex      The index of its class
+     * @param weight          Its weight
+     * @param updateForbidden Whether the forbidden attributes are updated
+     */
+    private void updateSparse(Instance inst, int classIndex, double weight, boolean updateForbidden) {
+        int numClasses = m_classDistribution.length;
+        if (m_implicitWeights == null) {
+            m_implicitWeights = new double[numClasses];
+            m_accountedWeights = new double[m_attributeLookup.length * numClasses];
+        }
+
+        for (int p = 0; p < inst.numValues(); p++) {
+            int i = inst.index(p);
+            AttributeStats stats = m_attributeLookup[i];
+            if (stats != null && (updateForbidden || !m_usedAttributes.get(i))) {
+                // zeros first, so the values reach the stats in the same order as dense ones
+                addImplicitZeros(stats, i * numClasses);
+                stats.update(inst.valueSparse(p), classIndex, weight);
+                m_accountedWeights[i * numClasses + classIndex] += weight;
+            }
+        }
+        m_implicitWeights[classIndex] += weight;
+        m_hasImplicitZeros = true;
+    }
+
+
+    /**
+     * Adds the implicit zeros of the sparse instances seen since the last call
+     * to the stats of the attributes. The weight of the zeros of an attribute
+     * is derived from the class distribution of those instances, minus the
+     * part already accounted for in its stats, so a sparse update only visits
+     * the stored values. Called before the attribute stats are copied,
+     * merged, written or searched for expansions, the cost of one call is
+     * proportional to the number of attributes. It modifies the stats, so it
+     * must be called where updates are, under the lock of the rule.
+     * Predictions do not call it, they read the pending zeros with
+     * {@link #pendingZeros(int, int)}.
+     */
+    protected void addImplicitZeros() {
+        if (!m_hasImplicitZeros) {
+            return;
+        }
+        boolean updateForbidden = updatesForbiddenAttributes();
+        int numClasses = m_classDistribution.length;
+        for (int i = 0; i < m_attributeLookup.length; i++) {
+            AttributeStats stats = m_attributeLookup[i];
+            if (stats != null && (updateForbidden || !m_usedAttributes.get(i))) {
+                addImplicitZeros(stats, i * numClasses);
+            }
+        }
+        // every attribute is up to date, start counting again from zero
+        Arrays.fill(m_implicitWeights, 0);
+        Arrays.fill(m_accountedWeights, 0);
+        m_hasImplicitZeros = false;
+    }
+
+
+    /**
+     * Gets the weight of the implicit zeros not yet added to the stats of an
+     * attribute. It only reads these stats.
+     *
+     * @param attIndex   The index of the attribute
+     * @param classIndex The index of the class
+     * @return The weight of the zeros observed with the class and missing
+     *     from the stats of the attribute
+     */
+    protected double pendingZeros(int attIndex, int classIndex) {
+        if (!m_hasImplicitZeros) {
+            return 0;
+        }
+        int numClasses = m_classDistribution.length;
+        return m_implicitWeights[classIndex] - m_accountedWeights[attIndex * numClasses + classIndex];
+    }
 
-                m_attributeLookup.get(a.name()).update(inst.value(a), classVal);
+
+    /**
+     * Adds the implicit zeros not yet accounted for to the stats of one
+     * attribute
+     *
+     * @param stats  The stats of the attribute
+     * @param offset The offset of the attribute in {@link #m_accountedWeights}
+     */
+    private void addImplicitZeros(AttributeStats stats, int offset) {
+        for (int c = 0; c < m_implicitWeights.length; c++) {
+            double zeros = m_implicitWeights[c] - m_accountedWeights[offset + c];
+            if (zeros > 0) {
+                stats.update(0, c, zeros);
+                m_accountedWeights[offset + c] = m_implicitWeights[c];
             }
         }
-        m_totalWeight++;
+    }
+
+
+    /**
+     * Whether the stats of the forbidden attributes are kept up to date. They
+     * are useless to expand the rule, but may be needed to make predictions.
+     *
+     * @return False by default
+     */
+    protected boolean updatesForbiddenAttributes() {
+        return false;
     }
 
 
@@ -122,13 +511,19 @@ public abstract class SufficientStats implements Serializable {
     public List<CandidateAntd> getExpansionCandidates(ExpansionMetric expMetric) {
 
         List<CandidateAntd> candids = new ArrayList<>();
+        if (m_deactivated) {
+            return candids;
+        }
+        addImplicitZeros();
 
-        for (Map.Entry<String, AttributeStats> en : m_attributeLookup.entrySet()) {
-            AttributeStats astat = en.getValue();
-            candids.add(astat.bestCandidate(expMetric, m_classDistribution));
+        for (int i = 0; i < m_attributeLookup.length; i++) {
+            if (m_attributeLookup[i] != null && !m_usedAttributes.get(i)) {
+                CandidateAntd candidate = m_attributeLookup[i].bestCandidate(expMetric, m_classDistribution);
+                if (candidate != null) {
+                    candids.add(candidate);
+                }
+            }
         }
-        
-        candids.removeAll(Collections.<CandidateAntd>singleton(null));
 
         return candids;
     }
@@ -139,7 +534,7 @@ public abstract class SufficientStats implements Serializable {
      *
      * @return The weight of examples covered by the rule.
      */
-    public int totalWeight() {
+    public double totalWeight() {
         return m_totalWeight;
     }
 
@@ -151,31 +546,89 @@ public abstract class SufficientStats implements Serializable {
      * @param i Index of the attribute to forbid
      */
     public void forbidAttribute(int i) {
-        m_usedAttributes.add(i);
+        m_usedAttributes.set(i);
     }
 
 
     /**
-     * Gets the class distribution for this rule
+     * Gets the class distribution for this rule, indexed on the class index
      *
      * @return the class distribution
      */
-    public Map<String, Integer> classDistribution() {
+    public double[] classDistribution() {
         return m_classDistribution;
     }
 
 
-    public void classDistribution(Map<String, Integer> m_classDistribution) {
+    public void classDistribution(double[] m_classDistribution) {
         this.m_classDistribution = m_classDistribution;
     }
 
 
-    public Map<String, AttributeStats> attributeLookup() {
+    /**
+     * Returns the number of classes with a non-zero weight in the given
+     * distribution
+     *
+     * @param classDistribution A class distribution, indexed on the class index
+     * @return The number of classes observed in the distribution
+     */
+    public static int numObservedClasses(double[] classDistribution) {
+        int count = 0;
+        for (double w : classDistribution) {
+            if (w > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns an estimation of the memory used by the stats of the attributes,
+     * in bytes
+     *
+     * @return The estimated size of the attribute stats
+     */
+    public long attributeStatsFootprint() {
+        long size = 0;
+        for (AttributeStats stats : m_attributeLookup) {
+            if (stats != null) {
+                size += stats.memoryFootprint();
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns an estimation of the memory used by these stats, in bytes
+     *
+     * @return The estimated size of these stats
+     */
+    public long memoryFootprint() {
+        return AttributeStats.OBJECT_SIZE + AttributeStats.arraySize(m_classDistribution.length, 8)
+               + AttributeStats.arraySize(m_attributeLookup.length, AttributeStats.REFERENCE_SIZE)
+               + AttributeStats.OBJECT_SIZE + AttributeStats.arraySize((m_usedAttributes.size() + 63) / 64, 8)
+               + (m_implicitWeights == null ? 0 : AttributeStats.arraySize(m_implicitWeights.length, 8)
+                                                  + AttributeStats.arraySize(m_accountedWeights.length, 8))
+               + attributeStatsFootprint();
+    }
+
+
+    /**
+     * Gets the stats of the attributes, indexed on the attribute index. The
+     * implicit zeros of sparse instances are added first, so it must be
+     * called under the lock of the rule.
+     *
+     * @return the attribute stats
+     */
+    public AttributeStats[] attributeLookup() {
+        addImplicitZeros();
         return m_attributeLookup;
     }
 
 
-    public void attributeLookup(Map<String, AttributeStats> m_attributeLookup) {
+    public void attributeLookup(AttributeStats[] m_attributeLookup) {
         this.m_attributeLookup = m_attributeLookup;
     }
 
@@ -199,16 +652,43 @@ public abstract class SufficientStats implements Serializable {
         }
 
 
+        /**
+         * Builds a copy of the expansion statistics of other stats
+         *
+         * @param toCopy The stats to copy
+         */
+        protected MajorityClass(SufficientStats toCopy) {
+            super(toCopy);
+        }
+
+
+        /**
+         * Builds a copy of the prediction statistics of other stats
+         *
+         * @param toCopy             The stats to copy
+         * @param withAttributeStats Whether the attribute stats are needed
+         */
+        protected MajorityClass(SufficientStats toCopy, boolean withAttributeStats) {
+            super(toCopy, withAttributeStats);
+        }
+
+
         @Override
-        public double[] makePrediction(Instance inst, Attribute classAtt) throws Exception {
+        protected SufficientStats newEmptyStats() {
+            return new MajorityClass(m_classifierCallback);
+        }
 
-            double[] prediction = new double[classAtt.numValues()];
 
-            for (int i = 0; i < classAtt.numValues(); i++) {
-                Integer mass = m_classDistribution.get(classAtt.value(i));
-                prediction[i] = (mass != null) ? mass : 0;
+        @Override
+        public SufficientStats predictionSnapshot() {
+            return new MajorityClass(this, false);
+        }
 
-            }
+
+        @Override
+        public double[] makePrediction(Instance inst, Attribute classAtt) throws Exception {
+
+            double[] prediction = Arrays.copyOf(m_classDistribution, classAtt.numValues());
 
             try {
                 Utils.normalize(prediction);
@@ -226,7 +706,8 @@ public abstract class SufficientStats implements Serializable {
 
     /**
      * Sufficient stats for a rule that uses a naive Bayes strategy to classify
-     * instances.
+     * instances. The class posteriors are computed from the attribute stats of
+     * the rule, which are also maintained for the forbidden attributes.
      *
      * @author Cl�ment Fournier (clement.fournier@insa-rennes.fr)
      * @version VFDR-Base
@@ -239,30 +720,65 @@ public abstract class SufficientStats implements Serializable {
         private static final long serialVersionUID = 1150651994740861066L;
 
         /**
-         * The naive Bayes model for this rule
+         * The minimum weight a rule requires to make predictions using NB
          */
-        protected NaiveBayesUpdateable m_nbayes = new NaiveBayesUpdateable();
+        protected double m_nbWeightThreshold;
 
         /**
-         * The minimum weight a rule requires to make predictions using NB
+         * Sum over the attributes of the log probability of a zero value,
+         * including the pending zeros, indexed on the class index. Cached for
+         * the predictions on sparse instances until the stats are updated, or
+         * null. Adding the pending zeros to the stats does not change it.
          */
-        protected double m_nbWeightThreshold;
+        private transient volatile double[] m_zeroLogProbabilities;
 
 
         /**
-         * Builds these sufficient stats with a naive Bayes classifier
-         * initialised with the header of the data
+         * Builds these sufficient stats
          *
          * @param vfdr The classifier that owns this object
          */
         public NaiveBayes(Vfdr vfdr) {
             super(vfdr);
             m_nbWeightThreshold = vfdr.getNBWeightThreshold();
-            try {
-                m_nbayes.buildClassifier(m_classifierCallback.getHeader());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        }
+
+
+        /**
+         * Builds a copy of the prediction statistics of other stats
+         *
+         * @param toCopy The stats to copy
+         */
+        protected NaiveBayes(NaiveBayes toCopy) {
+            super(toCopy, true);
+            m_nbWeightThreshold = toCopy.m_nbWeightThreshold;
+        }
+
+
+        @Override
+        protected SufficientStats newEmptyStats() {
+            return new NaiveBayes(m_classifierCallback);
+        }
+
+
+        @Override
+        public void update(Instance inst) {
+            super.update(inst);
+            m_zeroLogProbabilities = null;
+        }
+
+
+        @Override
+        public void merge(SufficientStats other) {
+            super.merge(other);
+            m_zeroLogProbabilities = null;
+        }
+
+
+
+        @Override
+        public SufficientStats predictionSnapshot() {
+            return new NaiveBayes(this);
         }
 
 
@@ -272,7 +788,7 @@ public abstract class SufficientStats implements Serializable {
             boolean doNB = m_nbWeightThreshold == 0 || totalWeight() > m_nbWeightThreshold;
 
             if (doNB) {
-                return m_nbayes.distributionForInstance(inst);
+                return naiveBayesPrediction(inst);
             }
 
             return super.makePrediction(inst, classAtt);
@@ -280,19 +796,94 @@ public abstract class SufficientStats implements Serializable {
 
 
         /**
-         * Updates the naive Bayes model and other statistics.
+         * Computes the class posteriors of an instance in log space, with
+         * Laplace-corrected class priors. For a sparse instance, the log
+         * probabilities of the zeros of all attributes are summed once, and
+         * only the values it stores are visited. The implicit zeros not yet
+         * added to the attribute stats are accounted for without updating
+         * them, since live stats may be read by concurrent predictions.
          *
-         * @param inst The instance to update with
+         * @param inst The instance to classify
+         * @return The probability of each class
          */
-        @Override
-        public void update(Instance inst) {
-            super.update(inst);
+        private double[] naiveBayesPrediction(Instance inst) {
+            int numClasses = m_classDistribution.length;
+            double[] logProbs = new double[numClasses];
 
-            try {
-                m_nbayes.updateClassifier(inst);
-            } catch (Exception e) {
-                e.printStackTrace();
+            for (int c = 0; c < numClasses; c++) {
+                logProbs[c] = Math.log((m_classDistribution[c] + 1) / (m_totalWeight + numClasses));
+            }
+
+            if (inst instanceof SparseInstance) {
+                double[] zeros = zeroLogProbabilities();
+                for (int c = 0; c < numClasses; c++) {
+                    logProbs[c] += zeros[c];
+                }
+                for (int p = 0; p < inst.numValues(); p++) {
+                    int i = inst.index(p);
+                    AttributeStats stats = m_attributeLookup[i];
+                    if (stats != null) {
+                        double value = inst.valueSparse(p);
+                        for (int c = 0; c < numClasses; c++) {
+                            double pending = pendingZeros(i, c);
+                            logProbs[c] += stats.logConditionalProbability(value, c, pending)
+                                           - stats.logConditionalProbability(0, c, pending);
+                        }
+                    }
+                }
+                return Utils.logs2probs(logProbs);
+            }
+
+            for (int i = 0; i < m_attributeLookup.length; i++) {
+                AttributeStats stats = m_attributeLookup[i];
+                if (stats != null) {
+                    double value = inst.value(i);
+                    for (int c = 0; c < numClasses; c++) {
+                        logProbs[c] += stats.logConditionalProbability(value, c, pendingZeros(i, c));
+                    }
+                }
+            }
+
+            return Utils.logs2probs(logProbs);
+        }
+
+
+        /**
+         * Gets the sum over the attributes of the log probability of a zero
+         * value, computing it if the stats were updated since the last call
+         *
+         * @return The sum for each class
+         */
+        private double[] zeroLogProbabilities() {
+            double[] zeros = m_zeroLogProbabilities;
+            if (zeros == null) {
+                zeros = new double[m_classDistribution.length];
+                for (int i = 0; i < m_attributeLookup.length; i++) {
+                    AttributeStats stats = m_attributeLookup[i];
+                    if (stats != null) {
+                        for (int c = 0; c < zeros.length; c++) {
+                            zeros[c] += stats.logConditionalProbability(0, c, pendingZeros(i, c));
+                        }
+                    }
+                }
+                m_zeroLogProbabilities = zeros;
             }
+            return zeros;
+        }
+
+
+        @Override
+        protected boolean updatesForbiddenAttributes() {
+            return true;
+        }
+
+
+        /**
+         * Keeps the estimators used to compute the class posteriors
+         */
+        @Override
+        protected AttributeStats deactivatedStats(AttributeStats stats) {
+            return stats.predictionCopy();
         }
     }
 }
@@ -0,0 +1,61 @@
+package weka.classifiers.rules.vfdr;
+
+import weka.classifiers.rules.Vfdr;
+import weka.core.Instance;
+
+
+/**
+ * Listener notified of the changes made to a {@link Vfdr} classifier by
+ * training. Listeners are called on the training threads, while the
+ * classifier holds its structural lock: an instance is notified while no
+ * expansion can be applied, and an expansion while no instance is learnt.
+ * Replaying the notifications in order therefore rebuilds the classifier.
+ * <p>
+ * Listeners must be quick, and must not call back into the classifier.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public interface TrainingListener {
+
+    /**
+     * Called when an instance is about to be learnt. The instance may be
+     * reused by the caller once the method returns.
+     *
+     * @param x The instance
+     */
+    void instanceLearnt(Instance x);
+
+
+    /**
+     * Called when a rule is expanded with a literal
+     *
+     * @param ruleIndex The position of the rule in the rule set, or -1 for the
+     *                  default rule, whose expansion is appended to the set
+     * @param antd      The literal added to the rule
+     */
+    void ruleExpanded(int ruleIndex, Antd antd);
+
+
+    /**
+     * Called when rules are removed from the rule set, by eviction or
+     * compaction. The positions of the following rules shift accordingly.
+     *
+     * @param ruleIndices The positions of the removed rules before the
+     *                    removal, in increasing order
+     */
+    void rulesRemoved(int[] ruleIndices);
+
+
+    /**
+     * Called when the memory budget has been checked, after the promise of
+     * every rule has been updated and the statistics of some rules have been
+     * deactivated or reactivated
+     *
+     * @param deactivated The positions of the rules whose statistics have been
+     *                    deactivated, in increasing order
+     * @param reactivated The positions of the rules whose statistics have been
+     *                    reactivated, in increasing order
+     */
+    void memoryChecked(int[] deactivated, int[] reactivated);
+}
@@ -0,0 +1,321 @@
+package weka.classifiers.rules.vfdr;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import weka.classifiers.rules.Vfdr;
+
+
+/**
+ * Live metrics of a {@link Vfdr} classifier: counters of the instances
+ * learnt and of the expansions, the shape of the rule set, and histograms of
+ * the time spent in the main steps of training and prediction. Metrics are
+ * recorded by the classifier when they are enabled with
+ * {@link Vfdr#setCollectMetrics(boolean)}, and can be read concurrently.
+ * <p>
+ * The metrics can be exposed through JMX, under the name
+ * {@code weka.classifiers.rules:type=Vfdr,name=<name>}. The registered bean
+ * keeps a reference to the classifier until it is unregistered.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class VfdrMetrics implements VfdrMetricsMXBean {
+
+    /**
+     * Domain and type of the names of the beans
+     */
+    private static final String OBJECT_NAME_PREFIX = "weka.classifiers.rules:type=Vfdr,name=";
+
+    /**
+     * The classifier
+     */
+    private final Vfdr m_vfdr;
+
+    private final AtomicLong m_instancesSeen = new AtomicLong();
+
+    private final AtomicLong m_defaultRuleInstances = new AtomicLong();
+
+    private final AtomicLong m_expansionAttempts = new AtomicLong();
+
+    private final AtomicLong m_expansions = new AtomicLong();
+
+    private final AtomicLong m_rulesRemoved = new AtomicLong();
+
+    private final AtomicLong m_driftsDetected = new AtomicLong();
+
+    private final LatencyHistogram m_coversLatency = new LatencyHistogram();
+
+    private final LatencyHistogram m_statsUpdateLatency = new LatencyHistogram();
+
+    private final LatencyHistogram m_expandLatency = new LatencyHistogram();
+
+    private final LatencyHistogram m_predictLatency = new LatencyHistogram();
+
+    /**
+     * Name under which the metrics are registered, or null
+     */
+    private ObjectName m_objectName;
+
+
+    /**
+     * Builds empty metrics
+     *
+     * @param vfdr The classifier, whose rule set is inspected
+     */
+    public VfdrMetrics(Vfdr vfdr) {
+        m_vfdr = vfdr;
+    }
+
+
+    /**
+     * Records an instance learnt
+     *
+     * @param coversNanos The time spent finding the rules covering it
+     * @param updateNanos The time spent updating their statistics
+     * @param defaultRule Whether it fell to the default rule
+     */
+    public void instanceLearnt(long coversNanos, long updateNanos, boolean defaultRule) {
+        m_instancesSeen.incrementAndGet();
+        if (defaultRule) {
+            m_defaultRuleInstances.incrementAndGet();
+        }
+        m_coversLatency.record(coversNanos);
+        m_statsUpdateLatency.record(updateNanos);
+    }
+
+
+    /**
+     * Records the search for the expansion of a rule
+     *
+     * @param nanos The time spent evaluating the expansion, and applying it
+     *              if it was synchronous
+     */
+    public void expansionAttempted(long nanos) {
+        m_expansionAttempts.incrementAndGet();
+        m_expandLatency.record(nanos);
+    }
+
+
+    /**
+     * Records a literal added to a rule
+     */
+    public void ruleExpanded() {
+        m_expansions.incrementAndGet();
+    }
+
+
+    /**
+     * Records rules removed from the rule set
+     *
+     * @param n The number of rules removed
+     */
+    public void rulesRemoved(int n) {
+        m_rulesRemoved.addAndGet(n);
+    }
+
+
+    /**
+     * Records a drift detected on a rule
+     */
+    public void driftDetected() {
+        m_driftsDetected.incrementAndGet();
+    }
+
+
+    /**
+     * Records a prediction
+     *
+     * @param nanos The time spent predicting
+     */
+    public void predicted(long nanos) {
+        m_predictLatency.record(nanos);
+    }
+
+
+    @Override
+    public long getInstancesSeen() {
+        return m_instancesSeen.get();
+    }
+
+
+    @Override
+    public long getDefaultRuleInstances() {
+        return m_defaultRuleInstances.get();
+    }
+
+
+    @Override
+    public int getRuleCount() {
+        return m_vfdr.ruleLengths().length;
+    }
+
+
+    @Override
+    public double getMeanLiteralsPerRule() {
+        int[] lengths = m_vfdr.ruleLengths();
+        long total = 0;
+        for (int length : lengths) {
+            total += length;
+        }
+        return lengths.length == 0 ? 0 : (double) total / lengths.length;
+    }
+
+
+    @Override
+    public int getMaxLiteralsPerRule() {
+        int max = 0;
+        for (int length : m_vfdr.ruleLengths()) {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+
+    @Override
+    public long getMemoryFootprint() {
+        return m_vfdr.memoryFootprint();
+    }
+
+
+    @Override
+    public int getDeactivatedRules() {
+        return m_vfdr.numDeactivatedRules();
+    }
+
+
+    @Override
+    public long getExpansionAttempts() {
+        return m_expansionAttempts.get();
+    }
+
+
+    @Override
+    public long getExpansions() {
+        return m_expansions.get();
+    }
+
+
+    @Override
+    public long getRulesRemoved() {
+        return m_rulesRemoved.get();
+    }
+
+
+    @Override
+    public long getDriftsDetected() {
+        return m_driftsDetected.get();
+    }
+
+
+    @Override
+    public LatencyHistogram.Snapshot getCoversLatency() {
+        return m_coversLatency.snapshot();
+    }
+
+
+    @Override
+    public LatencyHistogram.Snapshot getStatsUpdateLatency() {
+        return m_statsUpdateLatency.snapshot();
+    }
+
+
+    @Override
+    public LatencyHistogram.Snapshot getExpandLatency() {
+        return m_expandLatency.snapshot();
+    }
+
+
+    @Override
+    public LatencyHistogram.Snapshot getPredictLatency() {
+        return m_predictLatency.snapshot();
+    }
+
+
+    @Override
+    public void reset() {
+        m_instancesSeen.set(0);
+        m_defaultRuleInstances.set(0);
+        m_expansionAttempts.set(0);
+        m_expansions.set(0);
+        m_rulesRemoved.set(0);
+        m_driftsDetected.set(0);
+        m_coversLatency.reset();
+        m_statsUpdateLatency.reset();
+        m_expandLatency.reset();
+        m_predictLatency.reset();
+    }
+
+
+    /**
+     * Registers the metrics on the platform MBean server, replacing the ones
+     * of another classifier registered under the same name
+     *
+     * @param name The name of the classifier in the object name of the bean
+     * @return The object name of the bean
+     * @throws JMException If the name is invalid, or registration fails
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+
+        ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(this, objectName);
+        m_objectName = objectName;
+        return objectName;
+    }
+
+
+    /**
+     * Unregisters the metrics from the platform MBean server, if they were
+     * registered
+     *
+     * @throws JMException If unregistration fails
+     */
+    public synchronized void unregister() throws JMException {
+        if (m_objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(m_objectName)) {
+                server.unregisterMBean(m_objectName);
+            }
+            m_objectName = null;
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        int[] lengths = m_vfdr.ruleLengths();
+        int maxLiterals = 0;
+        long totalLiterals = 0;
+        for (int length : lengths) {
+            maxLiterals = Math.max(maxLiterals, length);
+            totalLiterals += length;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Instances seen: ").append(getInstancesSeen()).append('\n');
+        sb.append("Default rule instances: ").append(getDefaultRuleInstances()).append('\n');
+        sb.append("Rules: ").append(lengths.length).append('\n');
+        sb.append(String.format("Literals per rule: mean=%.2f max=%d%n",
+            lengths.length == 0 ? 0 : (double) totalLiterals / lengths.length, maxLiterals));
+        sb.append("Memory footprint: ").append(getMemoryFootprint()).append(" bytes\n");
+        sb.append("Deactivated rules: ").append(getDeactivatedRules()).append('\n');
+        sb.append("Expansion attempts: ").append(getExpansionAttempts()).append('\n');
+        sb.append("Expansions: ").append(getExpansions()).append('\n');
+        sb.append("Rules removed: ").append(getRulesRemoved()).append('\n');
+        sb.append("Drifts detected: ").append(getDriftsDetected()).append('\n');
+        sb.append("Covers: ").append(getCoversLatency()).append('\n');
+        sb.append("Stats update: ").append(getStatsUpdateLatency()).append('\n');
+        sb.append("Expand: ").append(getExpandLatency()).append('\n');
+        sb.append("Predict: ").append(getPredictLatency()).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package weka.classifiers.rules.vfdr;
+
+/**
+ * Management interface of the metrics of a {@link weka.classifiers.rules.Vfdr}
+ * classifier, exposed through JMX by {@link VfdrMetrics#register(String)}.
+ * Latencies are in nanoseconds.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public interface VfdrMetricsMXBean {
+
+    /**
+     * Number of instances learnt
+     */
+    long getInstancesSeen();
+
+
+    /**
+     * Number of instances learnt which were not covered by any rule, and fell
+     * to the default rule
+     */
+    long getDefaultRuleInstances();
+
+
+    /**
+     * Number of rules in the rule set, the default rule excepted
+     */
+    int getRuleCount();
+
+
+    /**
+     * Mean number of literals of the rules
+     */
+    double getMeanLiteralsPerRule();
+
+
+    /**
+     * Largest number of literals of a rule
+     */
+    int getMaxLiteralsPerRule();
+
+
+    /**
+     * Estimated memory used by the rules and their statistics, in bytes
+     */
+    long getMemoryFootprint();
+
+
+    /**
+     * Number of rules whose statistics are deactivated to fit in the memory
+     * budget
+     */
+    int getDeactivatedRules();
+
+
+    /**
+     * Number of times the best expansion of a rule has been searched for
+     */
+    long getExpansionAttempts();
+
+
+    /**
+     * Number of literals added to the rules, including the expansions of the
+     * default rule which created new rules
+     */
+    long getExpansions();
+
+
+    /**
+     * Number of rules removed from the rule set by eviction, compaction or
+     * drift detection
+     */
+    long getRulesRemoved();
+
+
+    /**
+     * Number of drifts detected on the rules, each of which removed a rule or
+     * reset the default rule
+     */
+    long getDriftsDetected();
+
+
+    /**
+     * Time spent finding the rules covering an instance during training
+     */
+    LatencyHistogram.Snapshot getCoversLatency();
+
+
+    /**
+     * Time spent updating the statistics of the covering rules with an
+     * instance
+     */
+    LatencyHistogram.Snapshot getStatsUpdateLatency();
+
+
+    /**
+     * Time spent evaluating and applying the expansion of a rule
+     */
+    LatencyHistogram.Snapshot getExpandLatency();
+
+
+    /**
+     * Time spent predicting the class distribution of an instance
+     */
+    LatencyHistogram.Snapshot getPredictLatency();
+
+
+    /**
+     * Clears the counters and the histograms
+     */
+    void reset();
+}
@@ -1,14 +1,17 @@
 package weka.classifiers.rules.vfdr;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import weka.classifiers.rules.Vfdr;
+import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Utils;
 
@@ -45,6 +48,45 @@ public class VfdrRule implements Serializable {
      */
     private Vfdr m_classifierCallback;
 
+    /**
+     * Moving average of the weight learnt by the rule between two memory
+     * checks
+     */
+    private double m_recentCoverage;
+
+    /**
+     * Weight of the statistics at the last memory check
+     */
+    private double m_checkedWeight;
+
+    /**
+     * Total weight of the instances covered since the rule was created
+     */
+    private double m_coveredWeight;
+
+    /**
+     * Number of instances learnt by the classifier when the rule was created
+     */
+    private long m_createdAt;
+
+    /**
+     * Number of instances learnt by the classifier when the rule last covered
+     * an instance
+     */
+    private long m_lastCovered;
+
+    /**
+     * Detector of an increase of the error rate of the rule, or null if drift
+     * has not been detected on it
+     */
+    private PageHinkley m_driftDetector;
+
+    /**
+     * Whether the error rate of the rule has increased since its statistics
+     * were reset
+     */
+    private boolean m_drifted;
+
 
     /**
      * Builds a VfdrRule
@@ -53,6 +95,8 @@ public class VfdrRule implements Serializable {
      */
     public VfdrRule(Vfdr vfdr) {
         m_classifierCallback = vfdr;
+        m_createdAt = vfdr.numInstancesLearnt();
+        m_lastCovered = m_createdAt;
         m_literals = new ArrayList<>();
         m_lr = m_classifierCallback.getUseNaiveBayes() ? new SufficientStats.NaiveBayes(m_classifierCallback)
                                                        : new SufficientStats.MajorityClass(m_classifierCallback);
@@ -60,6 +104,86 @@ public class VfdrRule implements Serializable {
     }
 
 
+    /**
+     * Builds a frozen copy of a rule, to make predictions
+     *
+     * @param toCopy The rule to copy
+     */
+    private VfdrRule(VfdrRule toCopy) {
+        m_classifierCallback = toCopy.m_classifierCallback;
+        m_literals = Collections.unmodifiableList(new ArrayList<>(toCopy.m_literals));
+        m_lr = toCopy.m_lr.predictionSnapshot();
+    }
+
+
+    /**
+     * Writes this rule in the compact model format. Literals are written with
+     * the index of their attribute.
+     *
+     * @param out The output
+     * @throws IOException If the rule could not be written
+     * @see ModelFormat
+     */
+    public void write(DataOutput out) throws IOException {
+        ModelFormat.writeVarInt(out, m_literals.size());
+        for (Antd antd : m_literals) {
+            ModelFormat.writeAntd(out, antd);
+        }
+        m_lr.write(out);
+        out.writeBoolean(m_driftDetector != null);
+        if (m_driftDetector != null) {
+            m_driftDetector.write(out);
+        }
+        out.writeBoolean(m_drifted);
+        ModelFormat.writeCount(out, m_recentCoverage);
+        ModelFormat.writeCount(out, m_checkedWeight);
+        ModelFormat.writeCount(out, m_coveredWeight);
+        ModelFormat.writeVarLong(out, m_createdAt);
+        ModelFormat.writeVarLong(out, m_lastCovered);
+    }
+
+
+    /**
+     * Reads a rule written by {@link #write(DataOutput)}
+     *
+     * @param in   The input
+     * @param vfdr The classifier that owns the rule, whose options and header
+     *             must be those of the saved classifier
+     * @return The rule
+     * @throws IOException If the rule could not be read
+     */
+    public static VfdrRule read(DataInput in, Vfdr vfdr) throws IOException {
+        VfdrRule rule = new VfdrRule(vfdr);
+        for (int n = ModelFormat.readVarInt(in); n > 0; n--) {
+            rule.m_literals.add(ModelFormat.readAntd(in, vfdr));
+        }
+        rule.m_lr.read(in);
+        if (in.readBoolean()) {
+            rule.m_driftDetector = new PageHinkley();
+            rule.m_driftDetector.read(in);
+        }
+        rule.m_drifted = in.readBoolean();
+        rule.m_recentCoverage = ModelFormat.readCount(in);
+        rule.m_checkedWeight = ModelFormat.readCount(in);
+        rule.m_coveredWeight = ModelFormat.readCount(in);
+        rule.m_createdAt = ModelFormat.readVarLong(in);
+        rule.m_lastCovered = ModelFormat.readVarLong(in);
+        return rule;
+    }
+
+
+    /**
+     * Returns a copy of this rule which can only be used to make predictions:
+     * its literals and statistics are not affected by later updates or
+     * expansions of this rule.
+     *
+     * @return A frozen copy of this rule
+     */
+    public VfdrRule predictionSnapshot() {
+        return new VfdrRule(this);
+    }
+
+
     /**
      * Gets the sufficient statistics of the rule
      *
@@ -79,51 +203,246 @@ public class VfdrRule implements Serializable {
      *     otherwise
      */
     public VfdrRule expand(ExpansionMetric expMetric) {
+        Antd best = findExpansion(m_lr, expMetric);
+        return best == null ? this : applyExpansion(best);
+    }
+
+
+    /**
+     * Finds the antecedent with which this rule should be expanded, if any.
+     * Only reads the given statistics, which may be a snapshot of the
+     * statistics of this rule.
+     *
+     * @param stats     The sufficient statistics to evaluate
+     * @param expMetric The metric used to get the best expansion possible
+     *
+     * @return The antecedent to add, or null if the rule should not be expanded
+     *     yet
+     */
+    public Antd findExpansion(SufficientStats stats, ExpansionMetric expMetric) {
 
         // i.e. distribution is impure
-        if (m_lr.classDistribution().size() > 1) {
+        if (SufficientStats.numObservedClasses(stats.classDistribution()) > 1) {
 
-            List<CandidateAntd> bestCandidates = m_lr.getExpansionCandidates(expMetric);
+            List<CandidateAntd> bestCandidates = stats.getExpansionCandidates(expMetric);
 
             Collections.sort(bestCandidates);
 
-            boolean doExpand = false;
-
             if (bestCandidates.size() > 1) {
-                double hoeffding = computeHoeffding(expMetric.getMetricRange(m_lr.m_classDistribution),
-                    m_classifierCallback.getHoeffdingConfidence(), m_lr.totalWeight());
+                double hoeffding = computeHoeffding(expMetric.getMetricRange(stats.classDistribution()),
+                    m_classifierCallback.getHoeffdingConfidence(), stats.totalWeight());
 
                 CandidateAntd best = bestCandidates.get(bestCandidates.size() - 1);
                 CandidateAntd secondBest = bestCandidates.get(bestCandidates.size() - 2);
                 double diff = best.expMerit() - secondBest.expMerit();
                 if (diff > hoeffding || hoeffding > m_classifierCallback.getTieThreshold()) {
-                    doExpand = true;
+                    return best.antd();
                 }
             }
+        }
+        return null;
+    }
 
-            if (doExpand) {
-                CandidateAntd best = bestCandidates.get(bestCandidates.size() - 1);
 
-                // It's an expansion of the default rule
-                if (m_literals.size() == 0) {
-                    VfdrRule newRule = new VfdrRule(m_classifierCallback);
-                    newRule.m_literals.add(best.antd());
-                    newRule.m_lr.forbidAttribute(best.antd().getAttr().index());
-                    m_lr = m_classifierCallback.getUseNaiveBayes()
-                           ? new SufficientStats.NaiveBayes(m_classifierCallback)
-                           : new SufficientStats.MajorityClass(m_classifierCallback);
-                    return newRule;
-
-                } else {
-                    m_literals.add(best.antd());
-                    m_lr = m_classifierCallback.getUseNaiveBayes()
-                           ? new SufficientStats.NaiveBayes(m_classifierCallback)
-                           : new SufficientStats.MajorityClass(m_classifierCallback);
-                    return this;
-                }
-            }
+    /**
+     * Adds an antecedent to this rule and resets its statistics. If this rule
+     * is the default rule, a new rule is created with the antecedent instead.
+     *
+     * @param antd The antecedent to add
+     *
+     * @return A new VfdrRule if the default rule was expanded, or {@code this}
+     *     otherwise
+     */
+    public VfdrRule applyExpansion(Antd antd) {
+
+        // It's an expansion of the default rule
+        if (m_literals.size() == 0) {
+            VfdrRule newRule = new VfdrRule(m_classifierCallback);
+            newRule.m_literals.add(antd);
+            newRule.m_lr.forbidAttribute(antd.getAttr().index());
+            m_lr = newStats();
+            m_checkedWeight = 0;
+            return newRule;
+
+        } else {
+            m_literals.add(antd);
+            m_lr = newStats();
+            m_checkedWeight = 0;
+            return this;
+        }
+    }
+
+
+    /**
+     * Builds empty statistics for this rule
+     *
+     * @return New statistics, of the type used by the classifier
+     */
+    private SufficientStats newStats() {
+        return m_classifierCallback.getUseNaiveBayes() ? new SufficientStats.NaiveBayes(m_classifierCallback)
+                                                       : new SufficientStats.MajorityClass(m_classifierCallback);
+    }
+
+
+    /**
+     * Restarts the statistics of this rule from scratch, and forgets its past
+     * error rate. Expansions keep the error rate, which the new literal is
+     * expected to lower.
+     */
+    public void resetStats() {
+        m_lr = newStats();
+        m_checkedWeight = 0;
+        if (m_driftDetector != null) {
+            m_driftDetector.reset();
         }
-        return this;
+        m_drifted = false;
+    }
+
+
+    /**
+     * Feeds the prequential error rate of this rule to its drift detector,
+     * before the instances are learnt. The error is that of the majority
+     * class of the rule. Must be called under the lock of the rule.
+     *
+     * @param errorRate The fraction of the weight of the instances
+     *                  misclassified
+     * @param weight    The weight of the instances
+     * @param threshold The threshold of the Page-Hinkley test
+     * @return Whether the error rate of the rule has increased, in which case
+     *     it no longer fits the concept
+     * @see PageHinkley
+     */
+    public boolean detectDrift(double errorRate, double weight, double threshold) {
+        if (m_driftDetector == null) {
+            m_driftDetector = new PageHinkley();
+        }
+        m_driftDetector.update(errorRate, weight);
+        m_drifted |= m_driftDetector.changeDetected(threshold);
+        return m_drifted;
+    }
+
+
+    /**
+     * Whether the majority class of this rule differs from the class of an
+     * instance. Always false if the rule has not learnt any instance.
+     *
+     * @param x The instance
+     * @return Whether the rule misclassifies the instance
+     */
+    public boolean misclassifies(Instance x) {
+        if (m_lr.totalWeight() == 0) {
+            return false;
+        }
+        return Utils.maxIndex(m_lr.classDistribution()) != (int) x.classValue();
+    }
+
+
+    /**
+     * Whether a drift has been detected on this rule since its statistics
+     * were reset
+     *
+     * @return Whether the rule no longer fits the concept
+     */
+    public boolean hasDrifted() {
+        return m_drifted;
+    }
+
+
+    /**
+     * Drops the statistics only used to expand this rule, to save memory. The
+     * rule still makes predictions, and is not expanded until it is
+     * reactivated.
+     *
+     * @see SufficientStats#deactivate()
+     */
+    public void deactivateStats() {
+        m_lr.deactivate();
+    }
+
+
+    /**
+     * Restarts the statistics of this rule from scratch if they were
+     * deactivated, as after an expansion, so that it can be expanded again
+     */
+    public void reactivateStats() {
+        if (!m_lr.isActive()) {
+            m_lr = m_lr.activeCopy();
+            m_checkedWeight = 0;
+        }
+    }
+
+
+    /**
+     * Updates the recent coverage of this rule, and returns how promising its
+     * expansion is, as its recent coverage times its estimated error rate. A
+     * rule which covers few instances, or which is almost pure, gains little
+     * from being expanded. Called at every memory check.
+     *
+     * @return The promise of the rule
+     */
+    public double updatePromise() {
+        double weight = m_lr.totalWeight();
+        m_recentCoverage = m_recentCoverage / 2 + Math.max(0, weight - m_checkedWeight);
+        m_checkedWeight = weight;
+
+        double[] dist = m_lr.classDistribution();
+        double error = (weight - dist[Utils.maxIndex(dist)] + 1) / (weight + 2.);
+        return m_recentCoverage * error;
+    }
+
+
+    /**
+     * Records instances covered by this rule. Must be called under the lock
+     * of the rule.
+     *
+     * @param weight The weight of the instances
+     * @param now    The number of instances learnt by the classifier
+     */
+    public void covered(double weight, long now) {
+        m_coveredWeight += weight;
+        m_lastCovered = now;
+    }
+
+
+    /**
+     * Estimates the value of keeping this rule, from the weight it covers and
+     * how recently it covered an instance. This is its rate of coverage since
+     * it was created, smoothed with a prior rate for new rules, and halved when
+     * it has been idle for as long as it has been active.
+     *
+     * @param now       The number of instances learnt by the classifier
+     * @param priorRate The coverage rate assumed for a new rule
+     * @return The value of the rule
+     */
+    public double value(long now, double priorRate) {
+        long age = Math.max(0, now - m_createdAt);
+        long idle = Math.max(0, now - m_lastCovered);
+        double rate = (m_coveredWeight + 1) / (age + 1 / priorRate);
+        return rate * (age + 1.) / (age + 1. + idle);
+    }
+
+
+    /**
+     * Takes over the coverage of a rule which is removed in favour of this one
+     *
+     * @param other The removed rule
+     */
+    public void absorbCoverage(VfdrRule other) {
+        m_createdAt = Math.min(m_createdAt, other.m_createdAt);
+        m_lastCovered = Math.max(m_lastCovered, other.m_lastCovered);
+        m_coveredWeight = Math.max(m_coveredWeight, other.m_coveredWeight);
+    }
+
+
+    /**
+     * Returns an estimation of the memory used by this rule, in bytes
+     *
+     * @return The estimated size of the literals and of the statistics
+     */
+    public long memoryFootprint() {
+        return AttributeStats.OBJECT_SIZE + AttributeStats.arraySize(m_literals.size(), AttributeStats.REFERENCE_SIZE)
+               + m_literals.size() * 2L * AttributeStats.OBJECT_SIZE + m_lr.memoryFootprint()
+               + (m_driftDetector == null ? 0 : AttributeStats.OBJECT_SIZE + 32);
     }
 
 
@@ -144,6 +463,17 @@ public class VfdrRule implements Serializable {
     }
 
 
+    /**
+     * Gets the literals (antecedents) of this rule, in the order they were
+     * added
+     *
+     * @return The literals of this rule
+     */
+    public List<Antd> literals() {
+        return Collections.unmodifiableList(m_literals);
+    }
+
+
     /**
      * Whether this rule has antecedents, i.e. whether it is a default rule or
      * not
@@ -179,6 +509,34 @@ public class VfdrRule implements Serializable {
     }
 
 
+    /**
+     * Whether this rule covers every instance covered by another rule, i.e.
+     * each literal of this rule is implied by a literal of the other rule
+     *
+     * @param other The other rule
+     * @return True if this rule is at least as general as the other one
+     */
+    public boolean generalises(VfdrRule other) {
+        for (Antd antd : m_literals) {
+            boolean implied = false;
+            for (Antd otherAntd : other.m_literals) {
+                if (antd.isImpliedBy(otherAntd)) {
+                    implied = true;
+                    break;
+                }
+            }
+            if (!implied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Two rules are equal if they have the same set of literals, in any order
+     * and however many times a literal is repeated
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -190,13 +548,13 @@ public class VfdrRule implements Serializable {
 
         VfdrRule vfdrRule = (VfdrRule) o;
 
-        return m_literals.equals(vfdrRule.m_literals);
+        return new HashSet<>(m_literals).equals(new HashSet<>(vfdrRule.m_literals));
     }
 
 
     @Override
     public int hashCode() {
-        return m_literals.hashCode();
+        return new HashSet<>(m_literals).hashCode();
     }
 
 
@@ -215,24 +573,28 @@ public class VfdrRule implements Serializable {
 
         s += " -> ";
 
-        List<Map.Entry<String, Integer>> sortedDist = new ArrayList<>();
+        final double[] classDist = m_lr.m_classDistribution;
+        List<Integer> sortedDist = new ArrayList<>();
 
-        for (Map.Entry<String, Integer> e : m_lr.m_classDistribution.entrySet()) {
-            sortedDist.add(e);
+        for (int i = 0; i < classDist.length; i++) {
+            if (classDist[i] > 0) {
+                sortedDist.add(i);
+            }
         }
 
-        Collections.sort(sortedDist, new Comparator<Entry<String, Integer>>() {
+        Collections.sort(sortedDist, new Comparator<Integer>() {
                 @Override
-                public int compare(Entry<String, Integer> o1, Entry<String, Integer> o2) {
-                    return Double.compare(o2.getValue(), o1.getValue());
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(classDist[o2], classDist[o1]);
                 }
             }
         );
 
-        for (Map.Entry<String, Integer> e : sortedDist) {
-            s += e.getKey() + " (" + Math.floor(1000 * e.getValue().doubleValue() / m_lr.m_totalWeight) / 1000 + "), ";
+        Attribute classAtt = m_classifierCallback.getHeader().classAttribute();
+        for (Integer i : sortedDist) {
+            s += classAtt.value(i) + " (" + Math.floor(1000 * classDist[i] / m_lr.m_totalWeight) / 1000 + "), ";
         }
 
-        return s + "\t (total weight: " + m_lr.m_totalWeight + ")";
+        return s + "\t (total weight: " + Utils.doubleToString(m_lr.m_totalWeight, 3) + ")";
     }
 }
@@ -0,0 +1,144 @@
+package weka.classifiers.rules.vfdr.generators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Option;
+import weka.core.Statistics;
+import weka.core.Utils;
+
+
+/**
+ * Generates instances on both sides of a random hyperplane. The attributes are
+ * numeric and uniformly distributed in [0, 1], and the weights of the
+ * hyperplane are drawn uniformly in [0, 1]. With more than two classes, the
+ * classes are delimited by parallel hyperplanes placed so that they are
+ * equally frequent.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class HyperplaneGenerator extends StreamGenerator {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = -4616012437935738716L;
+
+    private int m_numAttributes = 10;
+
+    private int m_numClasses = 2;
+
+    /**
+     * Weights of the hyperplane, normalised to sum to 1
+     */
+    private double[] m_weights;
+
+    /**
+     * Standard deviation of the weighted sum of the attributes
+     */
+    private double m_stdDev;
+
+
+    @Override
+    protected List<Attribute> attributes() {
+        List<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < m_numAttributes; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        return attributes;
+    }
+
+
+    @Override
+    protected int numClasses() {
+        return m_numClasses;
+    }
+
+
+    @Override
+    protected void initialiseConcept(Random random) {
+        m_weights = new double[m_numAttributes];
+        for (int i = 0; i < m_numAttributes; i++) {
+            m_weights[i] = random.nextDouble();
+        }
+        Utils.normalize(m_weights);
+
+        // the variance of a uniform variable on [0, 1] is 1/12
+        double variance = 0;
+        for (double w : m_weights) {
+            variance += w * w / 12;
+        }
+        m_stdDev = Math.sqrt(variance);
+    }
+
+
+    @Override
+    protected void generate(Random random, double[] values) {
+        double sum = 0;
+        for (int i = 0; i < m_numAttributes; i++) {
+            values[i] = random.nextDouble();
+            sum += m_weights[i] * values[i];
+        }
+
+        // the sum is roughly normal around 0.5, its quantile gives the class
+        double quantile = Statistics.normalProbability((sum - .5) / m_stdDev);
+        values[m_numAttributes] = Math.min(m_numClasses - 1, (int) (quantile * m_numClasses));
+    }
+
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        return concat(Arrays.asList(
+            new Option("\tThe number of attributes (default 10).", "a", 1, "-a <number of attributes>"),
+            new Option("\tThe number of classes (default 2).", "c", 1, "-c <number of classes>")),
+            super.listOptions());
+    }
+
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String numAttributes = Utils.getOption('a', options);
+        setNumAttributes(numAttributes.length() == 0 ? 10 : Integer.parseInt(numAttributes));
+        String numClasses = Utils.getOption('c', options);
+        setNumClasses(numClasses.length() == 0 ? 2 : Integer.parseInt(numClasses));
+        super.setOptions(options);
+    }
+
+
+    @Override
+    public String[] getOptions() {
+        return concat(new String[] {"-a", "" + m_numAttributes, "-c", "" + m_numClasses}, super.getOptions());
+    }
+
+
+    public void setNumAttributes(int n) {
+        m_numAttributes = n;
+        restart();
+    }
+
+
+    public int getNumAttributes() {
+        return m_numAttributes;
+    }
+
+
+    public void setNumClasses(int n) {
+        m_numClasses = n;
+        restart();
+    }
+
+
+    public int getNumClasses() {
+        return m_numClasses;
+    }
+
+
+    public static void main(String[] args) {
+        runGenerator(new HyperplaneGenerator(), args);
+    }
+}
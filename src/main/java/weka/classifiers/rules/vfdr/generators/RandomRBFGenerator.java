@@ -0,0 +1,180 @@
+package weka.classifiers.rules.vfdr.generators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Option;
+import weka.core.Utils;
+
+
+/**
+ * Generates instances around random centroids (radial basis functions). Every
+ * centroid has a random position in [0, 1]<sup>d</sup>, class, standard
+ * deviation and weight. An instance is placed around a centroid picked with a
+ * probability proportional to its weight, in a random direction, at a normally
+ * distributed distance, and takes its class.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class RandomRBFGenerator extends StreamGenerator {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 2594217946826401284L;
+
+    private int m_numAttributes = 10;
+
+    private int m_numClasses = 2;
+
+    private int m_numCentroids = 50;
+
+    /**
+     * Position of every centroid
+     */
+    private double[][] m_centres;
+
+    /**
+     * Class of every centroid
+     */
+    private int[] m_classes;
+
+    /**
+     * Standard deviation of every centroid
+     */
+    private double[] m_stdDevs;
+
+    /**
+     * Cumulative weights of the centroids, normalised to end with 1
+     */
+    private double[] m_cumulativeWeights;
+
+
+    @Override
+    protected List<Attribute> attributes() {
+        List<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < m_numAttributes; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        return attributes;
+    }
+
+
+    @Override
+    protected int numClasses() {
+        return m_numClasses;
+    }
+
+
+    @Override
+    protected void initialiseConcept(Random random) {
+        m_centres = new double[m_numCentroids][m_numAttributes];
+        m_classes = new int[m_numCentroids];
+        m_stdDevs = new double[m_numCentroids];
+        m_cumulativeWeights = new double[m_numCentroids];
+
+        double total = 0;
+        for (int k = 0; k < m_numCentroids; k++) {
+            for (int i = 0; i < m_numAttributes; i++) {
+                m_centres[k][i] = random.nextDouble();
+            }
+            m_classes[k] = random.nextInt(m_numClasses);
+            m_stdDevs[k] = random.nextDouble();
+            total += random.nextDouble();
+            m_cumulativeWeights[k] = total;
+        }
+        for (int k = 0; k < m_numCentroids; k++) {
+            m_cumulativeWeights[k] /= total;
+        }
+    }
+
+
+    @Override
+    protected void generate(Random random, double[] values) {
+        int k = Arrays.binarySearch(m_cumulativeWeights, random.nextDouble());
+        k = Math.min(m_numCentroids - 1, k < 0 ? -k - 1 : k);
+
+        double norm = 0;
+        for (int i = 0; i < m_numAttributes; i++) {
+            values[i] = random.nextDouble() * 2 - 1;
+            norm += values[i] * values[i];
+        }
+        double scale = random.nextGaussian() * m_stdDevs[k] / Math.sqrt(norm);
+        for (int i = 0; i < m_numAttributes; i++) {
+            values[i] = m_centres[k][i] + values[i] * scale;
+        }
+        values[m_numAttributes] = m_classes[k];
+    }
+
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        return concat(Arrays.asList(
+            new Option("\tThe number of attributes (default 10).", "a", 1, "-a <number of attributes>"),
+            new Option("\tThe number of classes (default 2).", "c", 1, "-c <number of classes>"),
+            new Option("\tThe number of centroids (default 50).", "k", 1, "-k <number of centroids>")),
+            super.listOptions());
+    }
+
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String numAttributes = Utils.getOption('a', options);
+        setNumAttributes(numAttributes.length() == 0 ? 10 : Integer.parseInt(numAttributes));
+        String numClasses = Utils.getOption('c', options);
+        setNumClasses(numClasses.length() == 0 ? 2 : Integer.parseInt(numClasses));
+        String numCentroids = Utils.getOption('k', options);
+        setNumCentroids(numCentroids.length() == 0 ? 50 : Integer.parseInt(numCentroids));
+        super.setOptions(options);
+    }
+
+
+    @Override
+    public String[] getOptions() {
+        return concat(new String[] {"-a", "" + m_numAttributes, "-c", "" + m_numClasses, "-k", "" + m_numCentroids},
+            super.getOptions());
+    }
+
+
+    public void setNumAttributes(int n) {
+        m_numAttributes = n;
+        restart();
+    }
+
+
+    public int getNumAttributes() {
+        return m_numAttributes;
+    }
+
+
+    public void setNumClasses(int n) {
+        m_numClasses = n;
+        restart();
+    }
+
+
+    public int getNumClasses() {
+        return m_numClasses;
+    }
+
+
+    public void setNumCentroids(int n) {
+        m_numCentroids = n;
+        restart();
+    }
+
+
+    public int getNumCentroids() {
+        return m_numCentroids;
+    }
+
+
+    public static void main(String[] args) {
+        runGenerator(new RandomRBFGenerator(), args);
+    }
+}
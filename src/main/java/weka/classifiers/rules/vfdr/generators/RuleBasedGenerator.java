@@ -0,0 +1,273 @@
+package weka.classifiers.rules.vfdr.generators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Option;
+import weka.core.Utils;
+
+
+/**
+ * Generates instances labelled by an ordered set of random rules, the kind of
+ * concept VFDR learns. The attributes are numeric, uniformly distributed in
+ * [0, 1], and nominal, with uniformly distributed values. Every rule has a
+ * random class and 1 to a maximum number of literals on distinct attributes:
+ * a threshold on a numeric attribute, or a value of a nominal attribute. An
+ * instance takes the class of the first rule covering it, or the class of the
+ * default rule.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class RuleBasedGenerator extends StreamGenerator {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = -3386574398916430563L;
+
+    private int m_numNumeric = 5;
+
+    private int m_numNominal = 5;
+
+    /**
+     * Number of values of the nominal attributes
+     */
+    private int m_numValues = 4;
+
+    private int m_numClasses = 2;
+
+    private int m_numRules = 10;
+
+    private int m_maxLiterals = 3;
+
+    /**
+     * Attribute of every literal of every rule
+     */
+    private int[][] m_attributes;
+
+    /**
+     * Threshold or value of every literal of every rule
+     */
+    private double[][] m_values;
+
+    /**
+     * Whether every literal of every rule requires values higher than its
+     * threshold, for numeric attributes
+     */
+    private boolean[][] m_higher;
+
+    /**
+     * Class of every rule
+     */
+    private int[] m_classes;
+
+    private int m_defaultClass;
+
+
+    @Override
+    protected List<Attribute> attributes() {
+        List<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < m_numNumeric; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        List<String> values = new ArrayList<>();
+        for (int v = 0; v < m_numValues; v++) {
+            values.add("v" + v);
+        }
+        for (int i = 0; i < m_numNominal; i++) {
+            attributes.add(new Attribute("n" + i, values));
+        }
+        return attributes;
+    }
+
+
+    @Override
+    protected int numClasses() {
+        return m_numClasses;
+    }
+
+
+    @Override
+    protected void initialiseConcept(Random random) {
+        int numAttributes = m_numNumeric + m_numNominal;
+        List<Integer> shuffled = new ArrayList<>();
+        for (int i = 0; i < numAttributes; i++) {
+            shuffled.add(i);
+        }
+
+        m_attributes = new int[m_numRules][];
+        m_values = new double[m_numRules][];
+        m_higher = new boolean[m_numRules][];
+        m_classes = new int[m_numRules];
+
+        for (int r = 0; r < m_numRules; r++) {
+            int numLiterals = 1 + random.nextInt(Math.min(m_maxLiterals, numAttributes));
+            Collections.shuffle(shuffled, random);
+            m_attributes[r] = new int[numLiterals];
+            m_values[r] = new double[numLiterals];
+            m_higher[r] = new boolean[numLiterals];
+            for (int l = 0; l < numLiterals; l++) {
+                int att = shuffled.get(l);
+                m_attributes[r][l] = att;
+                if (att < m_numNumeric) {
+                    m_values[r][l] = random.nextDouble();
+                    m_higher[r][l] = random.nextBoolean();
+                } else {
+                    m_values[r][l] = random.nextInt(m_numValues);
+                }
+            }
+            m_classes[r] = random.nextInt(m_numClasses);
+        }
+        m_defaultClass = random.nextInt(m_numClasses);
+    }
+
+
+    @Override
+    protected void generate(Random random, double[] values) {
+        for (int i = 0; i < m_numNumeric; i++) {
+            values[i] = random.nextDouble();
+        }
+        for (int i = m_numNumeric; i < m_numNumeric + m_numNominal; i++) {
+            values[i] = random.nextInt(m_numValues);
+        }
+
+        values[values.length - 1] = m_defaultClass;
+        for (int r = 0; r < m_numRules; r++) {
+            if (covers(r, values)) {
+                values[values.length - 1] = m_classes[r];
+                break;
+            }
+        }
+    }
+
+
+    private boolean covers(int rule, double[] values) {
+        for (int l = 0; l < m_attributes[rule].length; l++) {
+            int att = m_attributes[rule][l];
+            double value = m_values[rule][l];
+            if (att >= m_numNumeric ? values[att] != value
+                                    : m_higher[rule][l] ? values[att] <= value : values[att] > value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        return concat(Arrays.asList(
+            new Option("\tThe number of numeric attributes (default 5).", "a", 1, "-a <number of attributes>"),
+            new Option("\tThe number of nominal attributes (default 5).", "o", 1, "-o <number of attributes>"),
+            new Option("\tThe number of values of the nominal attributes (default 4).", "v", 1,
+                "-v <number of values>"),
+            new Option("\tThe number of classes (default 2).", "c", 1, "-c <number of classes>"),
+            new Option("\tThe number of rules (default 10).", "r", 1, "-r <number of rules>"),
+            new Option("\tThe maximum number of literals of a rule (default 3).", "l", 1,
+                "-l <number of literals>")),
+            super.listOptions());
+    }
+
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String numNumeric = Utils.getOption('a', options);
+        setNumNumeric(numNumeric.length() == 0 ? 5 : Integer.parseInt(numNumeric));
+        String numNominal = Utils.getOption('o', options);
+        setNumNominal(numNominal.length() == 0 ? 5 : Integer.parseInt(numNominal));
+        String numValues = Utils.getOption('v', options);
+        setNumValues(numValues.length() == 0 ? 4 : Integer.parseInt(numValues));
+        String numClasses = Utils.getOption('c', options);
+        setNumClasses(numClasses.length() == 0 ? 2 : Integer.parseInt(numClasses));
+        String numRules = Utils.getOption('r', options);
+        setNumRules(numRules.length() == 0 ? 10 : Integer.parseInt(numRules));
+        String maxLiterals = Utils.getOption('l', options);
+        setMaxLiterals(maxLiterals.length() == 0 ? 3 : Integer.parseInt(maxLiterals));
+        super.setOptions(options);
+    }
+
+
+    @Override
+    public String[] getOptions() {
+        return concat(new String[] {"-a", "" + m_numNumeric, "-o", "" + m_numNominal, "-v", "" + m_numValues,
+                                    "-c", "" + m_numClasses, "-r", "" + m_numRules, "-l", "" + m_maxLiterals},
+            super.getOptions());
+    }
+
+
+    public void setNumNumeric(int n) {
+        m_numNumeric = n;
+        restart();
+    }
+
+
+    public int getNumNumeric() {
+        return m_numNumeric;
+    }
+
+
+    public void setNumNominal(int n) {
+        m_numNominal = n;
+        restart();
+    }
+
+
+    public int getNumNominal() {
+        return m_numNominal;
+    }
+
+
+    public void setNumValues(int n) {
+        m_numValues = n;
+        restart();
+    }
+
+
+    public int getNumValues() {
+        return m_numValues;
+    }
+
+
+    public void setNumClasses(int n) {
+        m_numClasses = n;
+        restart();
+    }
+
+
+    public int getNumClasses() {
+        return m_numClasses;
+    }
+
+
+    public void setNumRules(int n) {
+        m_numRules = n;
+        restart();
+    }
+
+
+    public int getNumRules() {
+        return m_numRules;
+    }
+
+
+    public void setMaxLiterals(int n) {
+        m_maxLiterals = n;
+        restart();
+    }
+
+
+    public int getMaxLiterals() {
+        return m_maxLiterals;
+    }
+
+
+    public static void main(String[] args) {
+        runGenerator(new RuleBasedGenerator(), args);
+    }
+}
@@ -0,0 +1,116 @@
+package weka.classifiers.rules.vfdr.generators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Option;
+import weka.core.Utils;
+
+
+/**
+ * Generates the SEA concepts: three numeric attributes uniformly distributed
+ * in [0, 10], the third one being irrelevant. The class is 0 if the sum of the
+ * first two attributes is lower than or equal to a threshold, and 1 otherwise.
+ * The four functions of the original paper use thresholds 8, 9, 7 and 9.5.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public class SEAGenerator extends StreamGenerator {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 6932451780135917318L;
+
+    /**
+     * Threshold of every function
+     */
+    private static final double[] THRESHOLDS = {8, 9, 7, 9.5};
+
+    /**
+     * Function generating the class, from 1 to 4
+     */
+    private int m_function = 1;
+
+
+    @Override
+    protected List<Attribute> attributes() {
+        List<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        return attributes;
+    }
+
+
+    @Override
+    protected int numClasses() {
+        return 2;
+    }
+
+
+    @Override
+    protected void initialiseConcept(Random random) {
+        // the concept is fixed by the function
+    }
+
+
+    @Override
+    protected void generate(Random random, double[] values) {
+        for (int i = 0; i < 3; i++) {
+            values[i] = 10 * random.nextDouble();
+        }
+        values[3] = values[0] + values[1] <= THRESHOLDS[m_function - 1] ? 0 : 1;
+    }
+
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        return concat(Collections.singletonList(
+            new Option("\tThe function generating the class, from 1 to 4 (default 1).", "f", 1, "-f <function>")),
+            super.listOptions());
+    }
+
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String function = Utils.getOption('f', options);
+        setFunction(function.length() == 0 ? 1 : Integer.parseInt(function));
+        super.setOptions(options);
+    }
+
+
+    @Override
+    public String[] getOptions() {
+        return concat(new String[] {"-f", "" + m_function}, super.getOptions());
+    }
+
+
+    /**
+     * Sets the function generating the class. Default is 1.
+     *
+     * @param f The function, from 1 to 4
+     */
+    public void setFunction(int f) {
+        if (f < 1 || f > THRESHOLDS.length) {
+            throw new IllegalArgumentException("The function must be between 1 and " + THRESHOLDS.length);
+        }
+        m_function = f;
+        restart();
+    }
+
+
+    public int getFunction() {
+        return m_function;
+    }
+
+
+    public static void main(String[] args) {
+        runGenerator(new SEAGenerator(), args);
+    }
+}
@@ -0,0 +1,365 @@
+package weka.classifiers.rules.vfdr.generators;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import weka.classifiers.rules.vfdr.MappedInstances;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.Randomizable;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+import weka.core.converters.AbstractLoader;
+
+
+/**
+ * Generator of a synthetic stream of instances, with a nominal class as last
+ * attribute. The concept, e.g. the hyperplane or the rules separating the
+ * classes, is drawn at random from the seed, then instances are generated one
+ * at a time: the stream is deterministic for a given seed and options. A
+ * fraction of the instances (the noise) is given a wrong class.
+ * <p>
+ * Generators are incremental loaders, so they can be used in place of a file,
+ * e.g. with {@link weka.classifiers.rules.Vfdr#buildClassifier(weka.core.converters.Loader, int)}.
+ * Subclasses can also be run from the command line to write their stream to
+ * a file:
+ * <pre>
+ * java weka.classifiers.rules.vfdr.generators.&lt;generator&gt; [-o &lt;output file&gt;] [generator options]
+ * </pre>
+ * The stream is written as ARFF to the standard output, or to the output file,
+ * as ARFF or in the binary format of {@link MappedInstances} if its name ends
+ * with {@code .vbin}.
+ *
+ * @author Clément Fournier (clement.fournier@insa-rennes.fr)
+ * @version VFDR-Base
+ */
+public abstract class StreamGenerator extends AbstractLoader implements OptionHandler, Randomizable {
+
+    /**
+     * For serialisation
+     */
+    private static final long serialVersionUID = 2360470947357153864L;
+
+    /**
+     * Seed of the concept and of the instances
+     */
+    private int m_seed = 1;
+
+    /**
+     * Number of instances of the stream
+     */
+    private long m_numInstances = 1000000;
+
+    /**
+     * Fraction of the instances whose class is changed
+     */
+    private double m_noise = .1;
+
+    /**
+     * Structure of the instances, or null if the options changed since it was
+     * built
+     */
+    private Instances m_header;
+
+    /**
+     * Generates the instances, or null if the stream must be restarted
+     */
+    private transient Random m_random;
+
+    /**
+     * Number of instances generated since the start of the stream
+     */
+    private long m_generated;
+
+
+    /**
+     * Builds the attributes of the instances, the class excepted
+     *
+     * @return The attributes
+     */
+    protected abstract List<Attribute> attributes();
+
+
+    /**
+     * Gets the number of classes
+     *
+     * @return The number of classes
+     */
+    protected abstract int numClasses();
+
+
+    /**
+     * Draws the concept at random. Called whenever the stream starts.
+     *
+     * @param random The random number generator
+     */
+    protected abstract void initialiseConcept(Random random);
+
+
+    /**
+     * Generates the values of an instance. Nominal values are stored as their
+     * index.
+     *
+     * @param random The random number generator
+     * @param values Receives the values of the attributes, and of the class at
+     *               the last position
+     */
+    protected abstract void generate(Random random, double[] values);
+
+
+    @Override
+    public Instances getStructure() {
+        if (m_header == null) {
+            ArrayList<Attribute> attributes = new ArrayList<>(attributes());
+            List<String> classes = new ArrayList<>();
+            for (int c = 0; c < numClasses(); c++) {
+                classes.add("c" + c);
+            }
+            attributes.add(new Attribute("class", classes));
+
+            m_header = new Instances(getClass().getName() + " " + Utils.joinOptions(getOptions()), attributes, 0);
+            m_header.setClassIndex(attributes.size() - 1);
+        }
+        return new Instances(m_header, 0);
+    }
+
+
+    @Override
+    public Instances getDataSet() throws IOException {
+        if (m_numInstances - m_generated > Integer.MAX_VALUE) {
+            throw new IOException("Too many instances for a data set, generate them incrementally");
+        }
+        Instances data = getStructure();
+        Instance x;
+        while ((x = getNextInstance(data)) != null) {
+            data.add(x);
+        }
+        return data;
+    }
+
+
+    @Override
+    public Instance getNextInstance(Instances structure) {
+        if (m_random == null) {
+            m_random = new Random(m_seed);
+            initialiseConcept(m_random);
+        }
+        if (m_generated >= m_numInstances) {
+            return null;
+        }
+        m_generated++;
+
+        double[] values = new double[structure.numAttributes()];
+        generate(m_random, values);
+
+        int numClasses = numClasses();
+        if (m_noise > 0 && numClasses > 1 && m_random.nextDouble() < m_noise) {
+            int c = m_random.nextInt(numClasses - 1);
+            values[values.length - 1] = c >= values[values.length - 1] ? c + 1 : c;
+        }
+
+        Instance x = new DenseInstance(1, values);
+        x.setDataset(structure);
+        return x;
+    }
+
+
+    /**
+     * Restarts the stream from its first instance
+     *
+     * @throws Exception Never
+     */
+    @Override
+    public void reset() throws Exception {
+        super.reset();
+        restart();
+    }
+
+
+    /**
+     * Restarts the stream, after a change of the options
+     */
+    protected void restart() {
+        m_header = null;
+        m_random = null;
+        m_generated = 0;
+    }
+
+
+    @Override
+    public Enumeration<Option> listOptions() {
+        Vector<Option> options = new Vector<>();
+        options.add(new Option("\tThe seed of the concept and of the instances (default 1).", "S", 1, "-S <seed>"));
+        options.add(new Option("\tThe number of instances to generate (default 1000000).", "N", 1,
+            "-N <number of instances>"));
+        options.add(new Option("\tThe fraction of instances whose class is changed (default 0.1).", "n", 1,
+            "-n <noise>"));
+        return options.elements();
+    }
+
+
+    @Override
+    public void setOptions(String[] options) throws Exception {
+        String seed = Utils.getOption('S', options);
+        setSeed(seed.length() == 0 ? 1 : Integer.parseInt(seed));
+        String numInstances = Utils.getOption('N', options);
+        setNumInstances(numInstances.length() == 0 ? 1000000 : Long.parseLong(numInstances));
+        String noise = Utils.getOption('n', options);
+        setNoise(noise.length() == 0 ? .1 : Double.parseDouble(noise));
+        restart();
+    }
+
+
+    @Override
+    public String[] getOptions() {
+        return new String[] {"-S", "" + m_seed, "-N", "" + m_numInstances, "-n", "" + m_noise};
+    }
+
+
+    /**
+     * Lists the options of a generator, followed by the ones of its superclass
+     *
+     * @param options      The options of the generator
+     * @param superOptions The options of the superclass
+     * @return All the options
+     */
+    protected static Enumeration<Option> concat(List<Option> options, Enumeration<Option> superOptions) {
+        Vector<Option> all = new Vector<>(options);
+        all.addAll(Collections.list(superOptions));
+        return all.elements();
+    }
+
+
+    /**
+     * Concatenates the options of a generator with the ones of its superclass
+     *
+     * @param options      The options of the generator
+     * @param superOptions The options of the superclass
+     * @return All the options
+     */
+    protected static String[] concat(String[] options, String[] superOptions) {
+        String[] all = Arrays.copyOf(options, options.length + superOptions.length);
+        System.arraycopy(superOptions, 0, all, options.length, superOptions.length);
+        return all;
+    }
+
+
+    @Override
+    public void setSeed(int seed) {
+        m_seed = seed;
+        restart();
+    }
+
+
+    @Override
+    public int getSeed() {
+        return m_seed;
+    }
+
+
+    /**
+     * Sets the number of instances of the stream. Default is one million.
+     *
+     * @param n The number of instances
+     */
+    public void setNumInstances(long n) {
+        m_numInstances = n;
+    }
+
+
+    public long getNumInstances() {
+        return m_numInstances;
+    }
+
+
+    /**
+     * Sets the fraction of the instances whose class is changed to another
+     * class, drawn at random. Default is 0.1.
+     *
+     * @param noise The fraction of noisy instances, between 0 and 1
+     */
+    public void setNoise(double noise) {
+        m_noise = noise;
+    }
+
+
+    public double getNoise() {
+        return m_noise;
+    }
+
+
+    @Override
+    public String getRevision() {
+        return RevisionUtils.extract("$Revision: 1.0 $");
+    }
+
+
+    /**
+     * Runs a generator from the command line, writing its stream to a file or
+     * to the standard output
+     *
+     * @param generator The generator
+     * @param args      The command line options
+     */
+    protected static void runGenerator(StreamGenerator generator, String[] args) {
+        try {
+            if (Utils.getFlag('h', args)) {
+                System.out.println("Usage: java " + generator.getClass().getName()
+                                   + " [-o <output file>] [generator options]");
+                Enumeration<Option> options = generator.listOptions();
+                while (options.hasMoreElements()) {
+                    Option option = options.nextElement();
+                    System.out.println(option.synopsis() + "\n" + option.description());
+                }
+                return;
+            }
+
+            String output = Utils.getOption('o', args);
+            generator.setOptions(args);
+
+            if (output.endsWith(".vbin")) {
+                long numRows = MappedInstances.write(generator, -1, new File(output), false);
+                System.out.println(numRows + " instances written to " + output);
+                return;
+            }
+
+            Writer writer = new BufferedWriter(output.length() == 0 ? new OutputStreamWriter(System.out, "UTF-8")
+                                                                    : new OutputStreamWriter(
+                                                                        new FileOutputStream(output), "UTF-8"),
+                1 << 16);
+            try {
+                Instances structure = generator.getStructure();
+                writer.write(structure.toString());
+                writer.write('\n');
+                Instance x;
+                while ((x = generator.getNextInstance(structure)) != null) {
+                    writer.write(x.toString());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.flush();
+                if (output.length() != 0) {
+                    writer.close();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
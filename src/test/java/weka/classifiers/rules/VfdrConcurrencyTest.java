@@ -0,0 +1,211 @@
+package weka.classifiers.rules;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Tests training a classifier from several threads while predictions are
+ * made from its snapshots
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class VfdrConcurrencyTest extends TestCase {
+
+    private static final int NUM_TRAINERS = 3;
+
+    private static final int NUM_READERS = 2;
+
+
+    public VfdrConcurrencyTest(String name) {
+        super(name);
+    }
+
+
+    private void checkConcurrentTraining(String options) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(8000);
+        final Instances data = generator.getDataSet();
+
+        final Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        vfdr.buildClassifier(new Instances(data, 0));
+
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_TRAINERS + NUM_READERS);
+        try {
+            List<Future<?>> trainers = new ArrayList<>();
+            for (int t = 0; t < NUM_TRAINERS; t++) {
+                final int seed = t;
+                trainers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Instances copy = new Instances(data);
+                        copy.randomize(new Random(seed));
+                        for (Instance x : copy) {
+                            vfdr.updateClassifier(x);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < NUM_READERS; t++) {
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        while (!done.get()) {
+                            for (int i = 0; i < data.numInstances(); i += 13) {
+                                checkDistribution(vfdr.distributionForInstance(data.instance(i)));
+                            }
+                            for (double[] dist : vfdr.distributionsForInstances(data)) {
+                                checkDistribution(dist);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> trainer : trainers) {
+                trainer.get();
+            }
+            done.set(true);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(options, (long) NUM_TRAINERS * data.numInstances(), vfdr.numInstancesLearnt());
+        assertTrue(options, vfdr.ruleSet().size() > 0);
+        for (Instance x : data) {
+            checkDistribution(vfdr.distributionForInstance(x));
+        }
+    }
+
+
+    private static void checkDistribution(double[] dist) {
+        assertEquals(1, Utils.sum(dist), 1e-6);
+    }
+
+
+    public void testConcurrentTrainingWithSnapshots() throws Exception {
+        checkConcurrentTraining("-I 200");
+        checkConcurrentTraining("-I 200 -O");
+        checkConcurrentTraining("-I 50 -R 1");
+        checkConcurrentTraining("-I 200 -K");
+    }
+
+
+    public void testConcurrentTrainingWithRemovals() throws Exception {
+        checkConcurrentTraining("-I 200 -U 10");
+        checkConcurrentTraining("-I 200 -Y 1000");
+        checkConcurrentTraining("-I 200 -L 0.1");
+    }
+
+
+    public void testConcurrentExpansionThreads() throws Exception {
+        checkConcurrentTraining("-I 200 -E 2");
+    }
+
+
+    /**
+     * The snapshot and the compiled rule set are not serialised, but rebuilt
+     * for the predictions of the deserialised classifier
+     */
+    public void testSerialisedSnapshots() throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(10000);
+        Instances data = generator.getDataSet();
+
+        for (String options : new String[] {"-I 200", "-I 200 -K", "-K"}) {
+            Vfdr vfdr = new Vfdr();
+            vfdr.setOptions(Utils.splitOptions(options));
+            vfdr.buildClassifier(new Instances(data, 0, 8000));
+            double[][] expected = vfdr.distributionsForInstances(data);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(vfdr);
+            }
+            Vfdr copy;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                copy = (Vfdr) in.readObject();
+            }
+
+            for (int i = 0; i < data.numInstances(); i++) {
+                assertTrue(options, Arrays.equals(expected[i], copy.distributionForInstance(data.instance(i))));
+            }
+            assertTrue(options, Arrays.deepEquals(expected, copy.distributionsForInstances(data)));
+
+            for (int i = 8000; i < data.numInstances(); i++) {
+                vfdr.updateClassifier(data.instance(i));
+                copy.updateClassifier(data.instance(i));
+            }
+            assertTrue(options, Arrays.deepEquals(vfdr.distributionsForInstances(data),
+                copy.distributionsForInstances(data)));
+        }
+    }
+
+
+    /**
+     * Sharded training learns every instance, and makes a classifier at least
+     * about as accurate as single-threaded training
+     */
+    public void testShardedTraining() throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(30000);
+        Instances data = generator.getDataSet();
+        Instances train = new Instances(data, 0, 25000);
+        Instances test = new Instances(data, 25000, 5000);
+
+        Vfdr single = new Vfdr();
+        single.buildClassifier(train);
+        Vfdr sharded = new Vfdr();
+        sharded.setOptions(Utils.splitOptions("-W 4"));
+        sharded.buildClassifier(train);
+
+        assertEquals(single.numInstancesLearnt(), sharded.numInstancesLearnt());
+        assertTrue(sharded.ruleSet().size() > 1);
+        assertTrue(accuracy(sharded, test) > accuracy(single, test) - 0.05);
+    }
+
+
+    private static double accuracy(Vfdr vfdr, Instances test) throws Exception {
+        int correct = 0;
+        for (Instance x : test) {
+            double[] dist = vfdr.distributionForInstance(x);
+            checkDistribution(dist);
+            if (Utils.maxIndex(dist) == (int) x.classValue()) {
+                correct++;
+            }
+        }
+        return correct / (double) test.numInstances();
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(VfdrConcurrencyTest.class));
+    }
+}
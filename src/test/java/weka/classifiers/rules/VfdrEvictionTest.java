@@ -0,0 +1,148 @@
+package weka.classifiers.rules;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.vfdr.NumericAntd;
+import weka.classifiers.rules.vfdr.VfdrRule;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Tests the eviction and the compaction of the rules
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class VfdrEvictionTest extends TestCase {
+
+    public VfdrEvictionTest(String name) {
+        super(name);
+    }
+
+
+    private static Instances generate() throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(20000);
+        return generator.getDataSet();
+    }
+
+
+    private static Vfdr train(String options, Instances data) throws Exception {
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        vfdr.buildClassifier(new Instances(data, 0));
+        for (Instance x : data) {
+            vfdr.updateClassifier(x);
+        }
+        return vfdr;
+    }
+
+
+    public void testMaxRules() throws Exception {
+        Instances data = generate();
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions("-U 8 -I 500"));
+        vfdr.buildClassifier(new Instances(data, 0));
+        for (Instance x : data) {
+            vfdr.updateClassifier(x);
+            assertTrue(vfdr.ruleSet().size() <= 8);
+        }
+        assertEquals(8, vfdr.ruleSet().size());
+        for (Instance x : data) {
+            assertEquals(1, Utils.sum(vfdr.distributionForInstance(x)), 1e-6);
+        }
+    }
+
+
+    public void testCompactionRemovesDuplicates() throws Exception {
+        Instances data = generate();
+        for (String options : new String[] {"", "-O", "-I 500"}) {
+            Vfdr vfdr = train(options, data);
+            int before = vfdr.ruleSet().size();
+            int removed = vfdr.compactRules();
+
+            List<VfdrRule> rules = vfdr.ruleSet();
+            assertEquals(options, before - removed, rules.size());
+            Set<VfdrRule> distinct = new HashSet<>(rules);
+            assertEquals(options, rules.size(), distinct.size());
+            assertEquals(options, 0, vfdr.compactRules());
+
+            for (Instance x : data) {
+                assertEquals(options, 1, Utils.sum(vfdr.distributionForInstance(x)), 1e-6);
+            }
+        }
+    }
+
+
+    private static NumericAntd literal(Instances data, int att, double splitPoint) {
+        NumericAntd antd = new NumericAntd(data.attribute(att));
+        antd.setSplitPoint(splitPoint);
+        return antd;
+    }
+
+
+    /**
+     * Rules with the same literals are equal and have the same hash code,
+     * whatever the order and the repetitions of the literals
+     */
+    public void testRuleEquality() throws Exception {
+        Instances data = generate();
+        Vfdr vfdr = train("", new Instances(data, 0, 100));
+        NumericAntd a = literal(data, 0, 0.5);
+        NumericAntd b = literal(data, 1, 0.5);
+
+        VfdrRule aab = new VfdrRule(vfdr).applyExpansion(a);
+        aab.applyExpansion(a);
+        aab.applyExpansion(b);
+        VfdrRule abb = new VfdrRule(vfdr).applyExpansion(a);
+        abb.applyExpansion(b);
+        abb.applyExpansion(b);
+        VfdrRule ba = new VfdrRule(vfdr).applyExpansion(b);
+        ba.applyExpansion(a);
+        VfdrRule aa = new VfdrRule(vfdr).applyExpansion(a);
+        aa.applyExpansion(a);
+
+        assertEquals(aab, abb);
+        assertEquals(aab.hashCode(), abb.hashCode());
+        assertEquals(aab, ba);
+        assertEquals(aab.hashCode(), ba.hashCode());
+        assertFalse(aab.equals(aa));
+        assertEquals(1, new HashSet<>(Arrays.asList(aab, abb, ba)).size());
+    }
+
+
+    public void testCompactionOfOrderedSet() throws Exception {
+        Vfdr vfdr = train("-O", generate());
+        vfdr.compactRules();
+
+        // a rule following a more general rule is never used
+        List<VfdrRule> rules = vfdr.ruleSet();
+        for (int s = 0; s < rules.size(); s++) {
+            for (int g = 0; g < s; g++) {
+                assertFalse(rules.get(g).generalises(rules.get(s)));
+            }
+        }
+    }
+
+
+    public void testPeriodicCompaction() throws Exception {
+        Instances data = generate();
+        // the last instance learnt triggers a compaction
+        Vfdr compacted = train("-Y 1000", data);
+        assertTrue(compacted.ruleSet().size() > 0);
+        Set<VfdrRule> distinct = new HashSet<>(compacted.ruleSet());
+        assertEquals(compacted.ruleSet().size(), distinct.size());
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(VfdrEvictionTest.class));
+    }
+}
@@ -0,0 +1,182 @@
+package weka.classifiers.rules.vfdr;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+
+
+/**
+ * Tests the numeric observers and their merging
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class AttributeStatsTest extends TestCase {
+
+    private static final int GAUSSIAN = 0;
+    private static final int EBST = 1;
+    private static final int HISTOGRAM = 2;
+
+
+    public AttributeStatsTest(String name) {
+        super(name);
+    }
+
+
+    /**
+     * Generates instances, whose values are rounded to a multiple of 0.05 if
+     * asked, so that there are few distinct values
+     */
+    private static Instances generate(int numInstances, int seed, boolean discrete) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        Instances data = generator.getDataSet();
+        if (discrete) {
+            for (Instance x : data) {
+                for (int a = 0; a < data.classIndex(); a++) {
+                    x.setValue(a, Math.round(x.value(a) * 20) / 20.0);
+                }
+            }
+        }
+        return data;
+    }
+
+
+    /**
+     * Builds a classifier with no rule, from which the observers get the
+     * header and their options
+     */
+    private static Vfdr classifier(Instances data, int observer, int maxObserverSize) throws Exception {
+        Vfdr vfdr = new Vfdr();
+        vfdr.setNumericObserver(observer);
+        vfdr.setMaxObserverSize(maxObserverSize);
+        vfdr.buildClassifier(new Instances(data, 0));
+        return vfdr;
+    }
+
+
+    private static AttributeStats observer(Vfdr vfdr, int attIndex) {
+        switch (vfdr.getNumericObserver()) {
+        case EBST:
+            return new EbstAttributeStats(attIndex, vfdr);
+        case HISTOGRAM:
+            return new HistogramAttributeStats(attIndex, vfdr);
+        default:
+            return new GaussianAttributeStats(attIndex, vfdr);
+        }
+    }
+
+
+    private static void update(AttributeStats stats, Instances data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Instance x = data.instance(i);
+            stats.update(x.value(stats.m_attributeIndex), (int) x.classValue(), x.weight());
+        }
+    }
+
+
+    private static double[] classDistribution(Instances data) {
+        double[] dist = new double[data.numClasses()];
+        for (Instance x : data) {
+            dist[(int) x.classValue()] += x.weight();
+        }
+        return dist;
+    }
+
+
+    /**
+     * With fewer distinct values than the size of the observers, both the
+     * E-BST and the histogram evaluate every possible split
+     */
+    public void testExactObserversAgree() throws Exception {
+        Instances data = generate(5000, 1, true);
+        Vfdr ebst = classifier(data, EBST, 64);
+        Vfdr histogram = classifier(data, HISTOGRAM, 64);
+        ExpansionMetric metric = new ExpansionMetric.Entropy();
+        double[] dist = classDistribution(data);
+
+        for (int a = 0; a < data.classIndex(); a++) {
+            AttributeStats fromEbst = observer(ebst, a);
+            AttributeStats fromHistogram = observer(histogram, a);
+            update(fromEbst, data, 0, data.numInstances());
+            update(fromHistogram, data, 0, data.numInstances());
+
+            CandidateAntd ebstBest = fromEbst.bestCandidate(metric, dist);
+            CandidateAntd histogramBest = fromHistogram.bestCandidate(metric, dist);
+            assertEquals("Attribute " + a, ebstBest.expMerit(), histogramBest.expMerit(), 1e-9);
+        }
+    }
+
+
+    public void testObserversAreBounded() throws Exception {
+        Instances data = generate(5000, 1, false);
+        for (int observer : new int[] {EBST, HISTOGRAM}) {
+            Vfdr vfdr = classifier(data, observer, 16);
+            for (int a = 0; a < data.classIndex(); a++) {
+                AttributeStats stats = observer(vfdr, a);
+                update(stats, data, 0, data.numInstances());
+                int size = observer == EBST ? ((EbstAttributeStats) stats).numNodes()
+                                            : ((HistogramAttributeStats) stats).numBins();
+                assertTrue("Observer " + observer + ", attribute " + a, size <= 16);
+                assertNotNull(stats.bestCandidate(new ExpansionMetric.Entropy(), classDistribution(data)));
+            }
+        }
+    }
+
+
+    /**
+     * Updates observers with two halves of the data, merges them, and checks
+     * they find the same splits and densities as an observer updated with the
+     * whole data
+     */
+    private void checkMerge(int observer, double tolerance) throws Exception {
+        Instances data = generate(5000, 1, true);
+        Vfdr vfdr = classifier(data, observer, 64);
+        ExpansionMetric metric = new ExpansionMetric.Entropy();
+        double[] dist = classDistribution(data);
+        int half = data.numInstances() / 2;
+
+        for (int a = 0; a < data.classIndex(); a++) {
+            AttributeStats whole = observer(vfdr, a);
+            AttributeStats merged = observer(vfdr, a);
+            AttributeStats other = observer(vfdr, a);
+            update(whole, data, 0, data.numInstances());
+            update(merged, data, 0, half);
+            update(other, data, half, data.numInstances());
+            merged.merge(other);
+
+            String message = "Observer " + observer + ", attribute " + a;
+            assertEquals(message, whole.bestCandidate(metric, dist).expMerit(),
+                merged.bestCandidate(metric, dist).expMerit(), tolerance);
+            for (int c = 0; c < data.numClasses(); c++) {
+                for (double v = 0; v <= 1; v += 0.125) {
+                    assertEquals(message, whole.logConditionalProbability(v, c),
+                        merged.logConditionalProbability(v, c), tolerance);
+                }
+            }
+        }
+    }
+
+
+    public void testMergeGaussian() throws Exception {
+        checkMerge(GAUSSIAN, 1e-6);
+    }
+
+
+    public void testMergeEbst() throws Exception {
+        checkMerge(EBST, 1e-9);
+    }
+
+
+    public void testMergeHistogram() throws Exception {
+        checkMerge(HISTOGRAM, 1e-9);
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(AttributeStatsTest.class));
+    }
+}
@@ -0,0 +1,253 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+
+/**
+ * Tests the recovery of classifiers from their checkpoints and training log
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class CheckpointerTest extends TestCase {
+
+    private File m_directory;
+
+
+    public CheckpointerTest(String name) {
+        super(name);
+    }
+
+
+    @Override
+    protected void setUp() throws Exception {
+        m_directory = Files.createTempDirectory("vfdr-checkpoints").toFile();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = m_directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+
+    private static Instances generate(int numInstances, int seed) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        return generator.getDataSet();
+    }
+
+
+    /**
+     * Trains a classifier with a checkpoint in the middle, recovers it without
+     * closing the checkpointer as after a crash, then trains both further
+     */
+    private void checkRecovery(String options) throws Exception {
+        Instances data = generate(30000, 2);
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        vfdr.buildClassifier(new Instances(data, 0, 5000));
+
+        Checkpointer checkpointer = new Checkpointer(vfdr, m_directory, true);
+        try {
+            for (int i = 5000; i < 12000; i++) {
+                vfdr.updateClassifier(data.instance(i));
+            }
+            checkpointer.checkpoint().get();
+            for (int i = 12000; i < 20000; i++) {
+                vfdr.updateClassifier(data.instance(i));
+            }
+            checkpointer.sync();
+
+            Vfdr recovered = Checkpointer.recover(m_directory);
+            assertEquals(options, vfdr.toString(), recovered.toString());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(options, Arrays.equals(vfdr.distributionForInstance(data.instance(i)),
+                    recovered.distributionForInstance(data.instance(i))));
+            }
+
+            for (int i = 20000; i < data.numInstances(); i++) {
+                vfdr.updateClassifier(data.instance(i));
+                recovered.updateClassifier(data.instance(i));
+            }
+            assertEquals(options, vfdr.toString(), recovered.toString());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(options, Arrays.equals(vfdr.distributionForInstance(data.instance(i)),
+                    recovered.distributionForInstance(data.instance(i))));
+            }
+        } finally {
+            checkpointer.close();
+        }
+    }
+
+
+    public void testRecovery() throws Exception {
+        checkRecovery("");
+        checkRecovery("-O");
+    }
+
+
+    public void testRecoveryWithRemovals() throws Exception {
+        checkRecovery("-U 10");
+        checkRecovery("-Y 2000");
+    }
+
+
+    public void testRecoveryWithMemoryBudget() throws Exception {
+        checkRecovery("-L 0.3");
+    }
+
+
+    public void testRecoveryWithoutLog() throws Exception {
+        Instances data = generate(5000, 3);
+        Vfdr vfdr = new Vfdr();
+        vfdr.buildClassifier(data);
+
+        Checkpointer checkpointer = new Checkpointer(vfdr, m_directory, true);
+        checkpointer.close();
+        for (File file : m_directory.listFiles()) {
+            if (file.getName().endsWith(".log")) {
+                assertTrue(file.delete());
+            }
+        }
+
+        assertEquals(vfdr.toString(), Checkpointer.recover(m_directory).toString());
+    }
+
+
+    /**
+     * Takes checkpoints in the background while the classifier is trained, so
+     * that the rules are copied while they are updated
+     */
+    public void testPeriodicCheckpoints() throws Exception {
+        Instances data = generate(40000, 4);
+        Vfdr vfdr = new Vfdr();
+        vfdr.buildClassifier(new Instances(data, 0, 5000));
+
+        Checkpointer checkpointer = new Checkpointer(vfdr, m_directory, true);
+        try {
+            checkpointer.setCheckpointInterval(3000);
+            checkpointer.setFlushInterval(100);
+            for (int i = 5000; i < data.numInstances(); i++) {
+                vfdr.updateClassifier(data.instance(i));
+            }
+            checkpointer.sync();
+            assertFalse(new File(m_directory, "checkpoint-0.vfdm").exists());
+
+            Vfdr recovered = Checkpointer.recover(m_directory);
+            assertEquals(vfdr.toString(), recovered.toString());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(Arrays.equals(vfdr.distributionForInstance(data.instance(i)),
+                    recovered.distributionForInstance(data.instance(i))));
+            }
+        } finally {
+            checkpointer.close();
+        }
+    }
+
+
+    public void testSparseInstances() throws Exception {
+        Instances data = generate(20000, 5);
+        Instances sparse = new Instances(data, data.numInstances());
+        for (Instance x : data) {
+            double[] values = x.toDoubleArray();
+            for (int i = 0; i < values.length; i++) {
+                if (i != data.classIndex() && values[i] < 0.5) {
+                    values[i] = 0;
+                }
+            }
+            sparse.add(new SparseInstance(x.weight(), values));
+        }
+
+        Vfdr vfdr = new Vfdr();
+        vfdr.buildClassifier(new Instances(sparse, 0, 5000));
+
+        Checkpointer checkpointer = new Checkpointer(vfdr, m_directory, true);
+        try {
+            for (int i = 5000; i < sparse.numInstances(); i++) {
+                vfdr.updateClassifier(sparse.instance(i));
+            }
+            checkpointer.sync();
+
+            Vfdr recovered = Checkpointer.recover(m_directory);
+            assertEquals(vfdr.toString(), recovered.toString());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(Arrays.equals(vfdr.distributionForInstance(sparse.instance(i)),
+                    recovered.distributionForInstance(sparse.instance(i))));
+            }
+        } finally {
+            checkpointer.close();
+        }
+    }
+
+
+    /**
+     * Trains a classifier from several threads while it is checkpointed, and
+     * recovers its rules
+     */
+    public void testConcurrentTraining() throws Exception {
+        final Instances data = generate(40000, 6);
+        final Vfdr vfdr = new Vfdr();
+        vfdr.buildClassifier(new Instances(data, 0, 5000));
+
+        Checkpointer checkpointer = new Checkpointer(vfdr, m_directory, true);
+        try {
+            checkpointer.setCheckpointInterval(2000);
+            final int numThreads = 4;
+            final Exception[] failures = new Exception[numThreads];
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++) {
+                final int thread = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 5000 + thread; i < data.numInstances(); i += numThreads) {
+                                vfdr.updateClassifier(data.instance(i));
+                            }
+                        } catch (Exception e) {
+                            failures[thread] = e;
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (Exception failure : failures) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            checkpointer.sync();
+
+            Vfdr recovered = Checkpointer.recover(m_directory);
+            assertEquals(vfdr.ruleSet(), recovered.ruleSet());
+        } finally {
+            checkpointer.close();
+        }
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(CheckpointerTest.class));
+    }
+}
@@ -0,0 +1,172 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.classifiers.rules.vfdr.generators.RuleBasedGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Tests that the ways of finding the covering rules of an instance classify
+ * it the same as testing every rule of the set in turn
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class ClassificationStrategyTest extends TestCase {
+
+    public ClassificationStrategyTest(String name) {
+        super(name);
+    }
+
+
+    private static Instances generate(int numInstances, int seed) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        return generator.getDataSet();
+    }
+
+
+    private static Vfdr train(String options) throws Exception {
+        return train(options, generate(20000, 1));
+    }
+
+
+    private static Vfdr train(String options, Instances data) throws Exception {
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        vfdr.buildClassifier(data);
+        assertTrue(options, vfdr.ruleSet().size() > 5);
+        return vfdr;
+    }
+
+
+    /**
+     * Classifies an instance by testing every rule of the set in turn: the
+     * first covering rule wins in an ordered set, the heaviest covering rule
+     * in an unordered one.
+     */
+    private static double[] reference(Vfdr vfdr, Instance inst) throws Exception {
+        List<VfdrRule> ruleSet = vfdr.ruleSet();
+        VfdrRule winner = null;
+        if (vfdr.isOrderedSet()) {
+            for (VfdrRule r : ruleSet) {
+                if (r.covers(inst)) {
+                    winner = r;
+                    break;
+                }
+            }
+            if (winner == null) {
+                winner = vfdr.defaultRule();
+            }
+        } else {
+            double maxWeight = Double.NEGATIVE_INFINITY;
+            for (VfdrRule r : ruleSet) {
+                if (r.covers(inst) && r.getStats().totalWeight() > maxWeight) {
+                    maxWeight = r.getStats().totalWeight();
+                    winner = r;
+                }
+            }
+            if (vfdr.defaultRule().getStats().totalWeight() > maxWeight) {
+                winner = vfdr.defaultRule();
+            }
+        }
+        return winner.getStats().makePrediction(inst, inst.classAttribute());
+    }
+
+
+    private static void checkInstances(Vfdr vfdr, Instances test) throws Exception {
+        for (int i = 0; i < test.numInstances(); i++) {
+            Instance inst = test.instance(i);
+            assertTrue("Instance " + i, Arrays.equals(reference(vfdr, inst), vfdr.distributionForInstance(inst)));
+        }
+    }
+
+
+    private static void checkBatch(Vfdr vfdr, Instances test) throws Exception {
+        double[][] dists = vfdr.distributionsForInstances(test);
+        assertEquals(test.numInstances(), dists.length);
+        for (int i = 0; i < test.numInstances(); i++) {
+            assertTrue("Instance " + i, Arrays.equals(reference(vfdr, test.instance(i)), dists[i]));
+        }
+    }
+
+
+    public void testIndexFirstHit() throws Exception {
+        checkInstances(train("-O"), generate(2000, 2));
+    }
+
+
+    public void testIndexWeightedMax() throws Exception {
+        checkInstances(train(""), generate(2000, 2));
+    }
+
+
+    public void testCompiledFirstHit() throws Exception {
+        checkInstances(train("-O -K"), generate(2000, 2));
+    }
+
+
+    public void testCompiledWeightedMax() throws Exception {
+        checkInstances(train("-K"), generate(2000, 2));
+    }
+
+
+    public void testParallelBatchFirstHit() throws Exception {
+        checkBatch(train("-O -P 4"), generate(5000, 2));
+    }
+
+
+    public void testParallelBatchWeightedMax() throws Exception {
+        checkBatch(train("-P 4"), generate(5000, 2));
+    }
+
+
+    public void testBatchFirstHit() throws Exception {
+        checkBatch(train("-O -P 1"), generate(5000, 2));
+    }
+
+
+    public void testBatchWeightedMax() throws Exception {
+        checkBatch(train("-P 1"), generate(5000, 2));
+    }
+
+
+    public void testBatchMissingValues() throws Exception {
+        Instances test = generate(5000, 2);
+        for (int i = 0; i < test.numInstances(); i += 3) {
+            test.instance(i).setMissing(i % test.classIndex());
+        }
+        checkBatch(train("-O -P 1"), test);
+        checkBatch(train("-P 1"), test);
+    }
+
+
+    public void testBatchNominalAttributes() throws Exception {
+        RuleBasedGenerator generator = new RuleBasedGenerator();
+        generator.setNumInstances(25000);
+        generator.setSeed(1);
+        generator.setNumNumeric(1); // otherwise the rules hardly test nominal attributes
+        Instances data = generator.getDataSet();
+        for (int i = 0; i < data.numInstances(); i += 7) {
+            data.instance(i).setMissing(i % data.classIndex());
+        }
+        Instances train = new Instances(data, 0, 20000);
+        Instances test = new Instances(data, 20000, 5000);
+
+        checkBatch(train("-O -P 1", train), test);
+        checkBatch(train("-P 1", train), test);
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(ClassificationStrategyTest.class));
+    }
+}
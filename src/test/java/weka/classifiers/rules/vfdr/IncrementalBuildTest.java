@@ -0,0 +1,210 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+
+/**
+ * Tests building classifiers from instances which are not all in memory
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class IncrementalBuildTest extends TestCase {
+
+    private File m_directory;
+
+
+    public IncrementalBuildTest(String name) {
+        super(name);
+    }
+
+
+    @Override
+    protected void setUp() throws Exception {
+        m_directory = Files.createTempDirectory("vfdr-builds").toFile();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = m_directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+
+    /**
+     * Generates instances, some of which have a missing class
+     */
+    private static Instances generate(int numInstances, int seed) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        Instances data = generator.getDataSet();
+        for (int i = 0; i < data.numInstances(); i += 97) {
+            data.instance(i).setClassMissing();
+        }
+        return data;
+    }
+
+
+    private File writeArff(Instances data) throws Exception {
+        File file = new File(m_directory, "data.arff");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            out.write(data.toString());
+        }
+        return file;
+    }
+
+
+    private static ArffLoader loader(File file) throws Exception {
+        ArffLoader loader = new ArffLoader();
+        loader.setFile(file);
+        return loader;
+    }
+
+
+    private static Vfdr newVfdr(String options) throws Exception {
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        return vfdr;
+    }
+
+
+    private static int numWithClass(Instances data) {
+        int n = 0;
+        for (Instance x : data) {
+            if (!x.classIsMissing()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+
+    /**
+     * Without a shuffle buffer, the instances of a loader are learnt in the
+     * order of the file
+     */
+    public void testLoaderWithoutBuffer() throws Exception {
+        File file = writeArff(generate(20000, 1));
+        Vfdr fromLoader = newVfdr("-Z 0");
+        fromLoader.buildClassifier(loader(file), -1);
+
+        // the values as written in the file
+        Instances data = loader(file).getDataSet();
+        data.setClassIndex(data.numAttributes() - 1);
+
+        Vfdr inOrder = newVfdr("-Z 0");
+        inOrder.buildClassifier(new Instances(data, 0));
+        for (Instance x : data) {
+            inOrder.updateClassifier(x);
+        }
+
+        assertEquals(inOrder.toString(), fromLoader.toString());
+        assertEquals(numWithClass(data), fromLoader.numInstancesLearnt());
+    }
+
+
+    public void testLoaderWithBuffer() throws Exception {
+        Instances data = generate(20000, 1);
+        File file = writeArff(data);
+
+        Vfdr first = newVfdr("-Z 1000");
+        first.buildClassifier(loader(file), -1);
+        Vfdr second = newVfdr("-Z 1000");
+        second.buildClassifier(loader(file), -1);
+
+        assertEquals(numWithClass(data), first.numInstancesLearnt());
+        assertEquals(first.toString(), second.toString());
+    }
+
+
+    private File writeBinary(File arff, boolean singlePrecision) throws Exception {
+        File file = new File(m_directory, singlePrecision ? "data.float.bin" : "data.bin");
+        MappedInstances.write(loader(arff), -1, file, singlePrecision);
+        return file;
+    }
+
+
+    /**
+     * The shuffle buffer of row positions behaves as the one of loaders
+     */
+    public void testMappedFileAsLoader() throws Exception {
+        Instances data = generate(20000, 1);
+        File arff = writeArff(data);
+
+        Vfdr fromLoader = newVfdr("-Z 1000");
+        fromLoader.buildClassifier(loader(arff), -1);
+
+        Vfdr fromMapped = newVfdr("-Z 1000");
+        try (MappedInstances mapped = new MappedInstances(writeBinary(arff, false))) {
+            assertEquals(data.numInstances(), mapped.numRows());
+            fromMapped.buildClassifier(mapped);
+        }
+
+        assertEquals(fromLoader.toString(), fromMapped.toString());
+        assertEquals(numWithClass(data), fromMapped.numInstancesLearnt());
+    }
+
+
+    public void testSinglePrecisionMappedFile() throws Exception {
+        Instances data = generate(20000, 1);
+        File file = writeBinary(writeArff(data), true);
+        assertTrue(MappedInstances.isBinaryFile(file));
+
+        Vfdr vfdr = newVfdr("-Z 1000");
+        try (MappedInstances mapped = new MappedInstances(file)) {
+            for (int i = 0; i < data.numInstances(); i += 101) {
+                for (int a = 0; a < data.numAttributes(); a++) {
+                    assertEquals(data.instance(i).value(a), mapped.value(i, a), 1e-6);
+                }
+            }
+            vfdr.buildClassifier(mapped);
+        }
+        assertEquals(numWithClass(data), vfdr.numInstancesLearnt());
+    }
+
+
+    /**
+     * The weights of the instances are kept in binary files
+     */
+    public void testWeightedMappedFile() throws Exception {
+        Instances data = generate(20000, 1);
+        for (int i = 0; i < data.numInstances(); i += 3) {
+            data.instance(i).setWeight(0.5 + i % 4);
+        }
+        File arff = writeArff(data);
+
+        Vfdr fromLoader = newVfdr("-Z 1000");
+        fromLoader.buildClassifier(loader(arff), -1);
+
+        Vfdr fromMapped = newVfdr("-Z 1000");
+        try (MappedInstances mapped = new MappedInstances(writeBinary(arff, false))) {
+            fromMapped.buildClassifier(mapped);
+        }
+
+        assertEquals(fromLoader.toString(), fromMapped.toString());
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(IncrementalBuildTest.class));
+    }
+}
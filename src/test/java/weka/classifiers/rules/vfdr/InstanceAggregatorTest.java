@@ -0,0 +1,149 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+
+/**
+ * Tests the aggregation of identical instances
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class InstanceAggregatorTest extends TestCase {
+
+    public InstanceAggregatorTest(String name) {
+        super(name);
+    }
+
+
+    /**
+     * Generates instances with few distinct values, some of them missing, so
+     * that many instances are identical
+     */
+    private static Instances generate(int numInstances, int seed) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        generator.setNumAttributes(3);
+        Instances data = generator.getDataSet();
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance x = data.instance(i);
+            for (int a = 0; a < data.classIndex(); a++) {
+                x.setValue(a, Math.round(x.value(a) * 2) / 2.0);
+            }
+            if (i % 31 == 0) {
+                x.setMissing(0);
+            }
+            if (i % 7 == 0) {
+                x.setWeight(2.5);
+            }
+        }
+        return data;
+    }
+
+
+    private static double totalWeight(Instances data) {
+        double weight = 0;
+        for (Instance x : data) {
+            weight += x.weight();
+        }
+        return weight;
+    }
+
+
+    public void testAggregate() throws Exception {
+        Instances data = generate(10000, 1);
+        Instances aggregated = InstanceAggregator.aggregate(data);
+
+        assertTrue(aggregated.numInstances() < data.numInstances() / 10);
+        assertEquals(totalWeight(data), totalWeight(aggregated), 1e-9);
+        assertTrue(Arrays.equals(data.instance(0).toDoubleArray(), aggregated.instance(0).toDoubleArray()));
+
+        for (Instance a : aggregated) {
+            double weight = 0;
+            for (Instance x : data) {
+                if (Arrays.equals(x.toDoubleArray(), a.toDoubleArray())) {
+                    weight += x.weight();
+                }
+            }
+            assertEquals(a.toString(), weight, a.weight(), 1e-9);
+        }
+    }
+
+
+    public void testAggregateLoader() throws Exception {
+        Instances data = generate(10000, 1);
+        File directory = Files.createTempDirectory("vfdr-aggregation").toFile();
+        File file = new File(directory, "data.arff");
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                out.write(data.toString());
+            }
+            ArffLoader loader = new ArffLoader();
+            loader.setFile(file);
+
+            Instances fromLoader = InstanceAggregator.aggregate(loader, -1);
+            Instances fromData = InstanceAggregator.aggregate(data);
+            assertEquals(fromData.numInstances(), fromLoader.numInstances());
+            for (int i = 0; i < fromData.numInstances(); i++) {
+                assertTrue(Arrays.equals(fromData.instance(i).toDoubleArray(),
+                    fromLoader.instance(i).toDoubleArray()));
+                assertEquals(fromData.instance(i).weight(), fromLoader.instance(i).weight(), 1e-9);
+            }
+        } finally {
+            file.delete();
+            directory.delete();
+        }
+    }
+
+
+    /**
+     * Without expansions, the statistics learnt from the aggregated instances
+     * are those learnt from the original ones
+     */
+    public void testSameStatistics() throws Exception {
+        Instances data = generate(10000, 1);
+        Instances aggregated = InstanceAggregator.aggregate(data);
+
+        Vfdr fromData = new Vfdr();
+        fromData.setOptions(Utils.splitOptions("-G 1000000 -R 1"));
+        fromData.buildClassifier(data);
+        Vfdr fromAggregated = new Vfdr();
+        fromAggregated.setOptions(Utils.splitOptions("-G 1000000 -R 1"));
+        fromAggregated.buildClassifier(aggregated);
+
+        SufficientStats stats = fromData.defaultRule().getStats();
+        SufficientStats aggregatedStats = fromAggregated.defaultRule().getStats();
+        assertEquals(stats.totalWeight(), aggregatedStats.totalWeight(), 1e-9);
+        for (int c = 0; c < data.numClasses(); c++) {
+            assertEquals(stats.classDistribution()[c], aggregatedStats.classDistribution()[c], 1e-9);
+        }
+
+        Instances test = generate(500, 2);
+        for (Instance x : test) {
+            double[] expected = fromData.distributionForInstance(x);
+            double[] actual = fromAggregated.distributionForInstance(x);
+            for (int c = 0; c < expected.length; c++) {
+                assertEquals(expected[c], actual[c], 1e-6);
+            }
+        }
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(InstanceAggregatorTest.class));
+    }
+}
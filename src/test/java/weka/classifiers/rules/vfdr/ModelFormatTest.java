@@ -0,0 +1,102 @@
+package weka.classifiers.rules.vfdr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Tests saving and loading classifiers in the compact model format
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class ModelFormatTest extends TestCase {
+
+    public ModelFormatTest(String name) {
+        super(name);
+    }
+
+
+    private static Instances generate(int numInstances, int seed) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        return generator.getDataSet();
+    }
+
+
+    /**
+     * Trains a classifier on the first half of the data, saves and loads it,
+     * then trains both on the second half
+     */
+    private void checkRoundTrip(String options) throws Exception {
+        Instances data = generate(20000, 1);
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        vfdr.buildClassifier(new Instances(data, 0, 10000));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        vfdr.saveModel(out);
+        Vfdr loaded = Vfdr.loadModel(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(options, vfdr.toString(), loaded.toString());
+        assertEquals(options, vfdr.numInstancesLearnt(), loaded.numInstancesLearnt());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(options, Arrays.equals(vfdr.distributionForInstance(data.instance(i)),
+                loaded.distributionForInstance(data.instance(i))));
+        }
+
+        for (int i = 10000; i < data.numInstances(); i++) {
+            vfdr.updateClassifier(data.instance(i));
+            loaded.updateClassifier(data.instance(i));
+        }
+        assertEquals(options, vfdr.toString(), loaded.toString());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(options, Arrays.equals(vfdr.distributionForInstance(data.instance(i)),
+                loaded.distributionForInstance(data.instance(i))));
+        }
+    }
+
+
+    public void testRoundTrip() throws Exception {
+        checkRoundTrip("");
+        checkRoundTrip("-O");
+        checkRoundTrip("-R 1");
+    }
+
+
+    public void testRoundTripNumericObservers() throws Exception {
+        checkRoundTrip("-A 1");
+        checkRoundTrip("-A 2");
+    }
+
+
+    public void testRoundTripEvictionAndMemoryBudget() throws Exception {
+        checkRoundTrip("-U 8");
+        checkRoundTrip("-U 8 -Y 1000");
+        checkRoundTrip("-L 0.1");
+        checkRoundTrip("-H 3");
+    }
+
+
+    public void testWrongMagic() throws Exception {
+        try {
+            Vfdr.loadModel(new ByteArrayInputStream(new byte[] {0, 1, 2, 3, 4, 5, 6, 7}));
+            fail("Expected an exception");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(ModelFormatTest.class));
+    }
+}
@@ -0,0 +1,123 @@
+package weka.classifiers.rules.vfdr;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Tests the detection of drift by the Page-Hinkley test and by the rules
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class PageHinkleyTest extends TestCase {
+
+    public PageHinkleyTest(String name) {
+        super(name);
+    }
+
+
+    /**
+     * Feeds errors with a given rate, evenly spread
+     *
+     * @return The number of values fed before a change was detected, or -1
+     */
+    private static int feed(PageHinkley test, int numValues, int errorsPerTen, double threshold) {
+        for (int i = 0; i < numValues; i++) {
+            test.update(i % 10 < errorsPerTen ? 1 : 0, 1);
+            if (test.changeDetected(threshold)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    public void testStableRate() {
+        assertEquals(-1, feed(new PageHinkley(), 100000, 2, 10));
+    }
+
+
+    public void testIncreasingRate() {
+        PageHinkley test = new PageHinkley();
+        assertEquals(-1, feed(test, 1000, 2, 10));
+        int detected = feed(test, 1000, 8, 10);
+        assertTrue(detected >= 0 && detected < 100);
+    }
+
+
+    public void testDecreasingRate() {
+        PageHinkley test = new PageHinkley();
+        assertEquals(-1, feed(test, 1000, 8, 10));
+        assertEquals(-1, feed(test, 10000, 2, 10));
+    }
+
+
+    public void testMinWeight() {
+        PageHinkley test = new PageHinkley();
+        test.update(0, 1);
+        test.update(1, PageHinkley.MIN_WEIGHT - 2);
+        assertFalse(test.changeDetected(0));
+        test.update(1, 1);
+        assertTrue(test.changeDetected(0));
+
+        test.reset();
+        assertFalse(test.changeDetected(0));
+    }
+
+
+    private static Instances generate(int numInstances, int seed) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        generator.setSeed(seed);
+        return generator.getDataSet();
+    }
+
+
+    private static double accuracy(Vfdr vfdr, Instances test) throws Exception {
+        int correct = 0;
+        for (Instance x : test) {
+            if (Utils.maxIndex(vfdr.distributionForInstance(x)) == (int) x.classValue()) {
+                correct++;
+            }
+        }
+        return correct / (double) test.numInstances();
+    }
+
+
+    /**
+     * After the classes are swapped, the rules which drifted are removed, and
+     * the rule set adapts faster than without drift detection
+     */
+    public void testDriftingRules() throws Exception {
+        Instances before = generate(20000, 1);
+        Instances after = generate(25000, 1);
+        for (Instance x : after) {
+            x.setClassValue(1 - x.classValue());
+        }
+        Instances test = new Instances(after, 20000, 5000);
+
+        Vfdr detecting = new Vfdr();
+        detecting.setOptions(Utils.splitOptions("-H 10 -X"));
+        Vfdr plain = new Vfdr();
+        detecting.buildClassifier(before);
+        plain.buildClassifier(before);
+        for (int i = 0; i < 20000; i++) {
+            detecting.updateClassifier(after.instance(i));
+            plain.updateClassifier(after.instance(i));
+        }
+
+        assertTrue(detecting.getMetrics().getDriftsDetected() > 0);
+        assertTrue(detecting.getMetrics().getRulesRemoved() > 0);
+        assertTrue(accuracy(detecting, test) > accuracy(plain, test));
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(PageHinkleyTest.class));
+    }
+}
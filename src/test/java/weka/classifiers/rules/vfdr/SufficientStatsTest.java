@@ -0,0 +1,116 @@
+package weka.classifiers.rules.vfdr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+
+/**
+ * Tests that the statistics learnt from sparse instances are the same as
+ * from the equivalent dense instances
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class SufficientStatsTest extends TestCase {
+
+    private static final int NUM_ATTRIBUTES = 300;
+
+
+    public SufficientStatsTest(String name) {
+        super(name);
+    }
+
+
+    /**
+     * Generates bag-of-words like instances, with a few nominal attributes,
+     * missing values and weights
+     */
+    private static Instances generate(int numInstances, boolean sparse, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < NUM_ATTRIBUTES; i++) {
+            attributes.add(i % 50 == 7 ? new Attribute("n" + i, Arrays.asList("z", "a", "b"))
+                                       : new Attribute("w" + i));
+        }
+        attributes.add(new Attribute("class", Arrays.asList("ham", "spam")));
+        Instances data = new Instances("words", attributes, numInstances);
+        data.setClassIndex(NUM_ATTRIBUTES);
+
+        Random random = new Random(seed);
+        for (int n = 0; n < numInstances; n++) {
+            double[] values = new double[NUM_ATTRIBUTES + 1];
+            boolean spam = random.nextBoolean();
+            values[NUM_ATTRIBUTES] = spam ? 1 : 0;
+            for (int k = 0; k < 20; k++) {
+                int a = spam && random.nextInt(3) == 0 ? random.nextInt(20) : random.nextInt(NUM_ATTRIBUTES);
+                values[a] = attributes.get(a).isNominal() ? 1 + random.nextInt(2) : 1 + random.nextInt(4);
+            }
+            if (random.nextInt(50) == 0) {
+                values[3] = Utils.missingValue();
+            }
+            Instance x = sparse ? new SparseInstance(1, values) : new DenseInstance(1, values);
+            if (n % 7 == 0) {
+                x.setWeight(2.5);
+            }
+            data.add(x);
+        }
+        return data;
+    }
+
+
+    private void checkSparseAsDense(String options) throws Exception {
+        Instances dense = generate(3000, false, 1);
+        Instances sparse = generate(3000, true, 1);
+        Instances test = generate(300, false, 2);
+        Instances sparseTest = generate(300, true, 2);
+
+        Vfdr fromDense = new Vfdr();
+        fromDense.setOptions(Utils.splitOptions(options));
+        fromDense.buildClassifier(dense);
+        Vfdr fromSparse = new Vfdr();
+        fromSparse.setOptions(Utils.splitOptions(options));
+        fromSparse.buildClassifier(sparse);
+
+        assertEquals(options, fromDense.toString(), fromSparse.toString());
+        for (int i = 0; i < test.numInstances(); i++) {
+            double[] expected = fromDense.distributionForInstance(test.instance(i));
+            double[] actual = fromSparse.distributionForInstance(sparseTest.instance(i));
+            for (int c = 0; c < expected.length; c++) {
+                // naive Bayes sums the log probabilities in another order
+                assertEquals(options, expected[c], actual[c], 1e-6);
+            }
+        }
+    }
+
+
+    public void testSparseMajorityClass() throws Exception {
+        checkSparseAsDense("-R 0");
+        checkSparseAsDense("-R 0 -O");
+    }
+
+
+    public void testSparseNaiveBayes() throws Exception {
+        checkSparseAsDense("-R 1");
+        checkSparseAsDense("-R 1 -I 500");
+    }
+
+
+    public void testSparseNumericObservers() throws Exception {
+        checkSparseAsDense("-A 1");
+        checkSparseAsDense("-A 2");
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(SufficientStatsTest.class));
+    }
+}
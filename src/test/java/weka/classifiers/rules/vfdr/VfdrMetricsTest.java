@@ -0,0 +1,121 @@
+package weka.classifiers.rules.vfdr;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.classifiers.rules.Vfdr;
+import weka.classifiers.rules.vfdr.generators.RandomRBFGenerator;
+import weka.core.Instances;
+import weka.core.Utils;
+
+
+/**
+ * Tests the metrics of the training and of the predictions
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class VfdrMetricsTest extends TestCase {
+
+    public VfdrMetricsTest(String name) {
+        super(name);
+    }
+
+
+    private static Vfdr train(String options, int numInstances) throws Exception {
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(numInstances);
+        Vfdr vfdr = new Vfdr();
+        vfdr.setOptions(Utils.splitOptions(options));
+        vfdr.buildClassifier(generator.getDataSet());
+        return vfdr;
+    }
+
+
+    /**
+     * Percentiles are estimated within the width of a bucket, an eighth of a
+     * power of two
+     */
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10000; nanos++) {
+            histogram.record(nanos);
+        }
+        histogram.record(-5); // counted as 0
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10001, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(10000 * 10001 / 2 / 10001.0, snapshot.getMean(), 1e-9);
+        assertEquals(5000, snapshot.getMedian(), 5000 / 8.0);
+        assertEquals(9000, snapshot.getP90(), 9000 / 8.0);
+        assertEquals(9900, snapshot.getP99(), 9900 / 8.0);
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getMedian());
+    }
+
+
+    public void testTrainingMetrics() throws Exception {
+        Vfdr vfdr = train("-X", 10000);
+        VfdrMetrics metrics = vfdr.getMetrics();
+
+        assertEquals(vfdr.numInstancesLearnt(), metrics.getInstancesSeen());
+        assertEquals(metrics.getInstancesSeen(), metrics.getCoversLatency().getCount());
+        assertEquals(metrics.getInstancesSeen(), metrics.getStatsUpdateLatency().getCount());
+        assertTrue(metrics.getDefaultRuleInstances() > 0);
+        assertEquals(vfdr.ruleSet().size(), metrics.getRuleCount());
+        assertTrue(metrics.getExpansions() >= metrics.getRuleCount());
+        assertTrue(metrics.getExpansionAttempts() >= metrics.getExpansions());
+        assertTrue(metrics.getMaxLiteralsPerRule() >= metrics.getMeanLiteralsPerRule());
+        assertEquals(vfdr.memoryFootprint(), metrics.getMemoryFootprint());
+
+        RandomRBFGenerator generator = new RandomRBFGenerator();
+        generator.setNumInstances(100);
+        generator.setSeed(2);
+        Instances test = generator.getDataSet();
+        for (int i = 0; i < test.numInstances(); i++) {
+            vfdr.distributionForInstance(test.instance(i));
+        }
+        assertEquals(100, metrics.getPredictLatency().getCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.getInstancesSeen());
+        assertEquals(0, metrics.getExpansions());
+        assertEquals(0, metrics.getPredictLatency().getCount());
+    }
+
+
+    public void testDisabledMetrics() throws Exception {
+        Vfdr vfdr = train("", 2000);
+        assertNull(vfdr.getMetrics());
+        vfdr.setCollectMetrics(true);
+        assertNotNull(vfdr.getMetrics());
+        vfdr.setCollectMetrics(false);
+        assertNull(vfdr.getMetrics());
+    }
+
+
+    public void testRegistration() throws Exception {
+        Vfdr vfdr = train("-X", 2000);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        ObjectName name = vfdr.getMetrics().register("test");
+        try {
+            assertEquals(vfdr.numInstancesLearnt(), server.getAttribute(name, "InstancesSeen"));
+            assertEquals(vfdr.ruleSet().size(), server.getAttribute(name, "RuleCount"));
+        } finally {
+            vfdr.getMetrics().unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(VfdrMetricsTest.class));
+    }
+}
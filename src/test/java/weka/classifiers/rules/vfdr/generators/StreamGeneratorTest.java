@@ -0,0 +1,74 @@
+package weka.classifiers.rules.vfdr.generators;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import weka.core.Instance;
+import weka.core.Instances;
+
+
+/**
+ * Tests that the streams of the generators are determined by their seed
+ *
+ * @author Clment Fournier (clement.fournier@insa-rennes.fr)
+ */
+public class StreamGeneratorTest extends TestCase {
+
+    public StreamGeneratorTest(String name) {
+        super(name);
+    }
+
+
+    private static StreamGenerator[] generators(int seed) {
+        StreamGenerator[] generators = {new RandomRBFGenerator(), new HyperplaneGenerator(),
+                                        new RuleBasedGenerator(), new SEAGenerator()};
+        for (StreamGenerator generator : generators) {
+            generator.setSeed(seed);
+            generator.setNumInstances(2000);
+        }
+        return generators;
+    }
+
+
+    public void testSameSeedSameStream() throws Exception {
+        StreamGenerator[] first = generators(3);
+        StreamGenerator[] second = generators(3);
+        for (int g = 0; g < first.length; g++) {
+            assertEquals(first[g].getClass().getName(), first[g].getDataSet().toString(),
+                second[g].getDataSet().toString());
+        }
+    }
+
+
+    public void testOtherSeedOtherStream() throws Exception {
+        StreamGenerator[] first = generators(3);
+        StreamGenerator[] second = generators(4);
+        for (int g = 0; g < first.length; g++) {
+            assertFalse(first[g].getClass().getName(), first[g].getDataSet().toString().equals(
+                second[g].getDataSet().toString()));
+        }
+    }
+
+
+    /**
+     * Instances generated one by one after a reset are the same as those of
+     * the data set
+     */
+    public void testResetRestartsStream() throws Exception {
+        for (StreamGenerator generator : generators(3)) {
+            Instances data = generator.getDataSet();
+            generator.reset();
+
+            Instances structure = generator.getStructure();
+            for (int i = 0; i < data.numInstances(); i++) {
+                Instance x = generator.getNextInstance(structure);
+                assertEquals(generator.getClass().getName(), data.instance(i).toString(), x.toString());
+            }
+            assertNull(generator.getNextInstance(structure));
+        }
+    }
+
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(new TestSuite(StreamGeneratorTest.class));
+    }
+}